@@ -0,0 +1,38 @@
+package com.avaje.ebeanservice.elastic;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the property used as the ElasticSearch routing value of the document.
+ * <p>
+ * The value is written into the Bulk API action headers such that documents with the same value
+ * are stored on the same shard (for example a tenant id). Queries that filter on the property with
+ * equal to or in (not within an OR or NOT) are sent with the routing and only search the shards
+ * for those values. Find by id on a routed type is executed as a search across all shards.
+ * </p>
+ * <p>
+ * The property is lazy loaded when not loaded on a bean that is indexed or updated. An update that
+ * changes the value moves the document, deleting the copy with the old routing and indexing it again. Nested updates
+ * query the routing value when it is not known. Deletes from the index queue (which only know the id)
+ * are sent as a delete by query on the ids searching all the shards.
+ * </p>
+ * <pre>{@code
+ *
+ *   @DocStore
+ *   @Entity
+ *   public class Customer {
+ *
+ *     @DocRouting
+ *     Long tenantId;
+ *     ...
+ *
+ * }</pre>
+ */
+@Target(ElementType.FIELD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface DocRouting {
+
+}
@@ -0,0 +1,1502 @@
+package com.avaje.ebeanservice.elastic;
+
+import com.avaje.ebeanservice.elastic.support.HttpClientFactory;
+
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * ElasticSearch specific configuration that is not covered by DocStoreConfig.
+ * <p>
+ * These settings can be loaded from properties with the <code>ebean.docstore.elastic.</code> prefix.
+ * </p>
+ */
+public class ElasticConfig {
+
+  /**
+   * The prefix used for properties.
+   */
+  public static final String PREFIX = "ebean.docstore.elastic.";
+
+  /**
+   * Set to true to send Bulk API requests in the background.
+   */
+  private boolean bulkAsync;
+
+  /**
+   * The number of concurrent Bulk API requests when using async bulk processing.
+   */
+  private int bulkWorkers = 2;
+
+  /**
+   * The maximum number of Bulk API requests queued waiting for a worker.
+   */
+  private int bulkQueueCapacity = 10;
+
+  /**
+   * The maximum bytes of Bulk API requests queued or in-flight before callers block.
+   */
+  private long bulkMaxInFlightBytes = 50L * 1024 * 1024;
+
+  /**
+   * The maximum size of a Bulk API request before it is sent (0 for no limit).
+   */
+  private long bulkMaxBytes = 10L * 1024 * 1024;
+
+  /**
+   * The maximum age in millis of a Bulk API buffer before it is sent (0 for no limit).
+   */
+  private long bulkMaxAgeMillis;
+
+  /**
+   * The maximum number of times failed Bulk API items (e.g. 429 rejected) are retried.
+   */
+  private int bulkMaxRetries = 3;
+
+  /**
+   * The initial backoff in millis before retrying failed Bulk API items (doubles on each retry).
+   */
+  private long bulkRetryBackoffMillis = 100;
+
+  /**
+   * Set to true to buffer Bulk API requests as UTF-8 bytes rather than characters.
+   */
+  private boolean bulkBytesBuffer;
+
+  /**
+   * The maximum total capacity in bytes of bulk buffers retained for reuse.
+   */
+  private long bulkPoolMaxBytes = 32L * 1024 * 1024;
+
+  /**
+   * Set to true to adapt the Bulk API batch size and concurrency to the observed load.
+   */
+  private boolean bulkAdaptive;
+
+  /**
+   * The minimum adaptive Bulk API batch size.
+   */
+  private int bulkAdaptiveMinBatchSize = 100;
+
+  /**
+   * The maximum adaptive Bulk API batch size.
+   */
+  private int bulkAdaptiveMaxBatchSize = 5000;
+
+  /**
+   * The increase of the adaptive batch size after a healthy Bulk API response.
+   */
+  private int bulkAdaptiveBatchIncrement = 100;
+
+  /**
+   * The maximum adaptive Bulk API concurrency (0 to use bulkWorkers).
+   */
+  private int bulkAdaptiveMaxConcurrency;
+
+  /**
+   * The Bulk API response time in millis above which the adaptive batch size is reduced (0 to ignore latency).
+   */
+  private long bulkAdaptiveTargetMillis = 2_000;
+
+  /**
+   * The initial time in millis a failed ElasticSearch node is not used for.
+   */
+  private long nodeDeadMillis = 60_000;
+
+  /**
+   * The maximum time in millis a failed ElasticSearch node is not used for.
+   */
+  private long nodeMaxDeadMillis = 30 * 60_000;
+
+  /**
+   * Set true to discover the ElasticSearch nodes via the nodes info API.
+   */
+  private boolean sniff;
+
+  /**
+   * The interval in millis between sniffing the ElasticSearch nodes.
+   */
+  private long sniffIntervalMillis = 5 * 60_000;
+
+  /**
+   * The minimum time in millis between sniffing the nodes triggered by a node failure.
+   */
+  private long sniffAfterFailureMillis = 60_000;
+
+  /**
+   * The maximum number of idle HTTP connections kept in the pool.
+   */
+  private int httpMaxIdleConnections = 20;
+
+  /**
+   * The time in millis an idle HTTP connection is kept in the pool.
+   */
+  private long httpKeepAliveMillis = 5 * 60_000;
+
+  /**
+   * The HTTP connect timeout in millis.
+   */
+  private long httpConnectTimeoutMillis = 10_000;
+
+  /**
+   * The maximum number of concurrent asynchronous HTTP requests.
+   */
+  private int httpMaxRequests = 64;
+
+  /**
+   * The maximum number of concurrent asynchronous HTTP requests per node.
+   */
+  private int httpMaxRequestsPerHost = 20;
+
+  /**
+   * The HTTP read timeout in millis for bulk and update by query requests.
+   */
+  private long httpBulkReadTimeoutMillis = 60_000;
+
+  /**
+   * The HTTP write timeout in millis for bulk and update by query requests.
+   */
+  private long httpBulkWriteTimeoutMillis = 60_000;
+
+  /**
+   * The HTTP read timeout in millis for search, scroll and get requests.
+   */
+  private long httpSearchReadTimeoutMillis = 30_000;
+
+  /**
+   * The HTTP write timeout in millis for search, scroll and get requests.
+   */
+  private long httpSearchWriteTimeoutMillis = 10_000;
+
+  /**
+   * The HTTP read timeout in millis for index admin requests.
+   */
+  private long httpAdminReadTimeoutMillis = 30_000;
+
+  /**
+   * The HTTP write timeout in millis for index admin requests.
+   */
+  private long httpAdminWriteTimeoutMillis = 10_000;
+
+  /**
+   * Set true to gzip compress bulk and update by query request bodies.
+   */
+  private boolean httpGzipRequests;
+
+  /**
+   * The gzip compression level (1 to 9) for compressed request bodies.
+   */
+  private int httpGzipLevel = 3;
+
+  /**
+   * Set false to not accept gzip compressed search and scroll responses.
+   */
+  private boolean httpGzipResponses = true;
+
+  /**
+   * The maximum number of times a failed idempotent request is retried (0 for no retry).
+   */
+  private int httpMaxRetries = 3;
+
+  /**
+   * The initial backoff in millis before retrying a failed request.
+   */
+  private long httpRetryBackoffMillis = 100;
+
+  /**
+   * The maximum backoff in millis before retrying a failed request.
+   */
+  private long httpRetryMaxBackoffMillis = 10_000;
+
+  /**
+   * The maximum total time in millis spent on a request including retries.
+   */
+  private long httpRetryMaxTotalMillis = 60_000;
+
+  /**
+   * Set true to use a circuit breaker that fails fast when ElasticSearch is degraded.
+   */
+  private boolean circuitBreaker;
+
+  /**
+   * The percentage of failed or slow recent requests that opens the circuit breaker.
+   */
+  private int circuitBreakerFailureRate = 50;
+
+  /**
+   * Requests taking at least this many millis count as bad calls for the circuit breaker.
+   */
+  private long circuitBreakerSlowCallMillis = 10_000;
+
+  /**
+   * The number of recent requests the circuit breaker failure rate is calculated over.
+   */
+  private int circuitBreakerWindowSize = 20;
+
+  /**
+   * The minimum number of recent requests before the circuit breaker can open.
+   */
+  private int circuitBreakerMinimumCalls = 10;
+
+  /**
+   * The time in millis the circuit breaker stays open before a trial request.
+   */
+  private long circuitBreakerOpenMillis = 30_000;
+
+  /**
+   * Set true to add post-commit updates to the queue while the circuit breaker is open.
+   */
+  private boolean circuitBreakerDivertToQueue;
+
+  /**
+   * Set true to periodically drain the queue table into ElasticSearch.
+   */
+  private boolean queueReader;
+
+  /**
+   * The maximum number of queue entries claimed and processed per batch.
+   */
+  private int queueReaderBatchSize = 500;
+
+  /**
+   * The delay in millis between draining the queue when it is empty.
+   */
+  private long queueReaderIntervalMillis = 10_000;
+
+  /**
+   * The directory of the local queue journal (null to queue in the database).
+   */
+  private String queueJournalDir;
+
+  /**
+   * The size in bytes of each queue journal segment file.
+   */
+  private int queueJournalSegmentBytes = 64 * 1024 * 1024;
+
+  /**
+   * Set false to not force queue journal entries to disk before returning.
+   */
+  private boolean queueJournalFsync = true;
+
+  /**
+   * The maximum number of ids in each query fetching the beans to index (0 for a single query).
+   */
+  private int indexFetchBatchSize = 1000;
+
+  /**
+   * The number of queries fetching the beans to index run in parallel (1 to fetch serially).
+   */
+  private int indexFetchConcurrency = 1;
+
+  /**
+   * The maximum concurrent search requests (0 for no limit).
+   */
+  private int searchMaxConcurrent;
+
+  /**
+   * The maximum concurrent bulk and update by query requests (0 for no limit).
+   */
+  private int bulkMaxConcurrent;
+
+  /**
+   * The maximum time in millis to wait for a search or bulk request permit.
+   */
+  private long bulkheadMaxWaitMillis = 5_000;
+
+  /**
+   * The factory of the HTTP clients (null for the default factory).
+   */
+  private HttpClientFactory httpClientFactory;
+
+  /**
+   * Executor for the blocking doc store I/O (null to use internal thread pools).
+   */
+  private ExecutorService executor;
+
+  /**
+   * The way findEach/findEachWhile iterate over the hits (scroll contexts or search_after).
+   */
+  private ScrollMode scrollMode = ScrollMode.SCROLL;
+
+  /**
+   * The sort tiebreaker field used with search_after.
+   */
+  private String searchAfterTiebreaker = "_uid";
+
+  /**
+   * The default scroll keep alive.
+   */
+  private String scrollKeepAlive = "1m";
+
+  /**
+   * The default number of hits per scroll or search_after page (0 to use the query maxRows).
+   */
+  private int scrollPageSize;
+
+  /**
+   * The number of slices used for findEach/findEachWhile scroll queries (0 or 1 for no slicing).
+   */
+  private int scrollSlices;
+
+  /**
+   * Set to true for the sliced scroll workers to hand beans to the consumer concurrently.
+   */
+  private boolean scrollSliceConcurrent;
+
+  /**
+   * The number of scroll pages requested ahead of the consumer (0 for no prefetch).
+   */
+  private int scrollPrefetch;
+
+  /**
+   * Return true if Bulk API requests are sent in the background.
+   */
+  public boolean isBulkAsync() {
+    return bulkAsync;
+  }
+
+  /**
+   * Set to true to send Bulk API requests in the background.
+   */
+  public void setBulkAsync(boolean bulkAsync) {
+    this.bulkAsync = bulkAsync;
+  }
+
+  /**
+   * Return the number of concurrent Bulk API requests when using async bulk processing.
+   */
+  public int getBulkWorkers() {
+    return bulkWorkers;
+  }
+
+  /**
+   * Set the number of concurrent Bulk API requests when using async bulk processing.
+   */
+  public void setBulkWorkers(int bulkWorkers) {
+    this.bulkWorkers = bulkWorkers;
+  }
+
+  /**
+   * Return the maximum number of Bulk API requests queued waiting for a worker.
+   */
+  public int getBulkQueueCapacity() {
+    return bulkQueueCapacity;
+  }
+
+  /**
+   * Set the maximum number of Bulk API requests queued waiting for a worker.
+   */
+  public void setBulkQueueCapacity(int bulkQueueCapacity) {
+    this.bulkQueueCapacity = bulkQueueCapacity;
+  }
+
+  /**
+   * Return the maximum bytes of Bulk API requests queued or in-flight before callers block.
+   */
+  public long getBulkMaxInFlightBytes() {
+    return bulkMaxInFlightBytes;
+  }
+
+  /**
+   * Set the maximum bytes of Bulk API requests queued or in-flight before callers block.
+   */
+  public void setBulkMaxInFlightBytes(long bulkMaxInFlightBytes) {
+    this.bulkMaxInFlightBytes = bulkMaxInFlightBytes;
+  }
+
+  /**
+   * Return the maximum size of a Bulk API request before it is sent (0 for no limit).
+   */
+  public long getBulkMaxBytes() {
+    return bulkMaxBytes;
+  }
+
+  /**
+   * Set the maximum size of a Bulk API request before it is sent (0 for no limit).
+   * <p>
+   * This is measured as the length of the buffered content (characters) which is close to
+   * bytes for mostly ASCII content. ElasticSearch typically performs best with requests in
+   * the 5-15MB range.
+   * </p>
+   */
+  public void setBulkMaxBytes(long bulkMaxBytes) {
+    this.bulkMaxBytes = bulkMaxBytes;
+  }
+
+  /**
+   * Return the maximum age in millis of a Bulk API buffer before it is sent (0 for no limit).
+   */
+  public long getBulkMaxAgeMillis() {
+    return bulkMaxAgeMillis;
+  }
+
+  /**
+   * Set the maximum age in millis of a Bulk API buffer before it is sent (0 for no limit).
+   * <p>
+   * The age is checked when the next entry is added to the buffer.
+   * </p>
+   */
+  public void setBulkMaxAgeMillis(long bulkMaxAgeMillis) {
+    this.bulkMaxAgeMillis = bulkMaxAgeMillis;
+  }
+
+  /**
+   * Return the maximum number of times failed Bulk API items are retried.
+   */
+  public int getBulkMaxRetries() {
+    return bulkMaxRetries;
+  }
+
+  /**
+   * Set the maximum number of times failed Bulk API items are retried.
+   * <p>
+   * With {@link #setBulkAdaptive(boolean)} this is also the number of times a whole bulk request
+   * rejected with 429 (or failing with 502, 503, 504) is retried.
+   * </p>
+   */
+  public void setBulkMaxRetries(int bulkMaxRetries) {
+    this.bulkMaxRetries = bulkMaxRetries;
+  }
+
+  /**
+   * Return the initial backoff in millis before retrying failed Bulk API items.
+   */
+  public long getBulkRetryBackoffMillis() {
+    return bulkRetryBackoffMillis;
+  }
+
+  /**
+   * Set the initial backoff in millis before retrying failed Bulk API items (doubles on each retry).
+   */
+  public void setBulkRetryBackoffMillis(long bulkRetryBackoffMillis) {
+    this.bulkRetryBackoffMillis = bulkRetryBackoffMillis;
+  }
+
+  /**
+   * Return true if Bulk API requests are buffered as UTF-8 bytes.
+   */
+  public boolean isBulkBytesBuffer() {
+    return bulkBytesBuffer;
+  }
+
+  /**
+   * Set to true to buffer Bulk API requests as UTF-8 bytes rather than characters.
+   * <p>
+   * This avoids building a String of the request content and encoding it to UTF-8 again
+   * when it is sent.
+   * </p>
+   */
+  public void setBulkBytesBuffer(boolean bulkBytesBuffer) {
+    this.bulkBytesBuffer = bulkBytesBuffer;
+  }
+
+  /**
+   * Return the maximum total capacity in bytes of bulk buffers retained for reuse.
+   */
+  public long getBulkPoolMaxBytes() {
+    return bulkPoolMaxBytes;
+  }
+
+  /**
+   * Set the maximum total capacity in bytes of bulk buffers retained for reuse (0 to disable pooling).
+   */
+  public void setBulkPoolMaxBytes(long bulkPoolMaxBytes) {
+    this.bulkPoolMaxBytes = bulkPoolMaxBytes;
+  }
+
+  /**
+   * Return true if the Bulk API batch size and concurrency adapt to the observed load.
+   */
+  public boolean isBulkAdaptive() {
+    return bulkAdaptive;
+  }
+
+  /**
+   * Set to true to adapt the Bulk API batch size and concurrency to the observed load.
+   * <p>
+   * Rejected (429) items halve the batch size and concurrency, slow responses halve the batch
+   * size and healthy responses increase them again between the configured bounds. This applies
+   * when the batch size is not explicitly set on the transaction or query update.
+   * </p>
+   */
+  public void setBulkAdaptive(boolean bulkAdaptive) {
+    this.bulkAdaptive = bulkAdaptive;
+  }
+
+  /**
+   * Return the minimum adaptive Bulk API batch size.
+   */
+  public int getBulkAdaptiveMinBatchSize() {
+    return bulkAdaptiveMinBatchSize;
+  }
+
+  /**
+   * Set the minimum adaptive Bulk API batch size.
+   */
+  public void setBulkAdaptiveMinBatchSize(int bulkAdaptiveMinBatchSize) {
+    this.bulkAdaptiveMinBatchSize = bulkAdaptiveMinBatchSize;
+  }
+
+  /**
+   * Return the maximum adaptive Bulk API batch size.
+   */
+  public int getBulkAdaptiveMaxBatchSize() {
+    return bulkAdaptiveMaxBatchSize;
+  }
+
+  /**
+   * Set the maximum adaptive Bulk API batch size.
+   */
+  public void setBulkAdaptiveMaxBatchSize(int bulkAdaptiveMaxBatchSize) {
+    this.bulkAdaptiveMaxBatchSize = bulkAdaptiveMaxBatchSize;
+  }
+
+  /**
+   * Return the increase of the adaptive batch size after a healthy Bulk API response.
+   */
+  public int getBulkAdaptiveBatchIncrement() {
+    return bulkAdaptiveBatchIncrement;
+  }
+
+  /**
+   * Set the increase of the adaptive batch size after a healthy Bulk API response.
+   */
+  public void setBulkAdaptiveBatchIncrement(int bulkAdaptiveBatchIncrement) {
+    this.bulkAdaptiveBatchIncrement = bulkAdaptiveBatchIncrement;
+  }
+
+  /**
+   * Return the maximum adaptive Bulk API concurrency (0 to use bulkWorkers).
+   */
+  public int getBulkAdaptiveMaxConcurrency() {
+    return bulkAdaptiveMaxConcurrency;
+  }
+
+  /**
+   * Set the maximum adaptive Bulk API concurrency (0 to use bulkWorkers).
+   */
+  public void setBulkAdaptiveMaxConcurrency(int bulkAdaptiveMaxConcurrency) {
+    this.bulkAdaptiveMaxConcurrency = bulkAdaptiveMaxConcurrency;
+  }
+
+  /**
+   * Return the Bulk API response time in millis above which the adaptive batch size is reduced.
+   */
+  public long getBulkAdaptiveTargetMillis() {
+    return bulkAdaptiveTargetMillis;
+  }
+
+  /**
+   * Set the Bulk API response time in millis above which the adaptive batch size is reduced (0 to ignore latency).
+   */
+  public void setBulkAdaptiveTargetMillis(long bulkAdaptiveTargetMillis) {
+    this.bulkAdaptiveTargetMillis = bulkAdaptiveTargetMillis;
+  }
+
+  /**
+   * Return the initial time in millis a failed ElasticSearch node is not used for.
+   */
+  public long getNodeDeadMillis() {
+    return nodeDeadMillis;
+  }
+
+  /**
+   * Set the initial time in millis a failed ElasticSearch node is not used for.
+   * <p>
+   * With multiple nodes (the DocStoreConfig url being a comma delimited list of URLs) a node
+   * that fails is marked dead for this time which doubles on each consecutive failure.
+   * </p>
+   */
+  public void setNodeDeadMillis(long nodeDeadMillis) {
+    this.nodeDeadMillis = nodeDeadMillis;
+  }
+
+  /**
+   * Return the maximum time in millis a failed ElasticSearch node is not used for.
+   */
+  public long getNodeMaxDeadMillis() {
+    return nodeMaxDeadMillis;
+  }
+
+  /**
+   * Set the maximum time in millis a failed ElasticSearch node is not used for.
+   */
+  public void setNodeMaxDeadMillis(long nodeMaxDeadMillis) {
+    this.nodeMaxDeadMillis = nodeMaxDeadMillis;
+  }
+
+  /**
+   * Return true if the ElasticSearch nodes are discovered via the nodes info API.
+   */
+  public boolean isSniff() {
+    return sniff;
+  }
+
+  /**
+   * Set true to discover the ElasticSearch nodes via the nodes info API (<code>_nodes/http</code>).
+   * <p>
+   * The DocStoreConfig url is then the seed node(s) and the set of nodes requests are sent to
+   * is refreshed periodically and after a node fails.
+   * </p>
+   */
+  public void setSniff(boolean sniff) {
+    this.sniff = sniff;
+  }
+
+  /**
+   * Return the interval in millis between sniffing the ElasticSearch nodes.
+   */
+  public long getSniffIntervalMillis() {
+    return sniffIntervalMillis;
+  }
+
+  /**
+   * Set the interval in millis between sniffing the ElasticSearch nodes.
+   */
+  public void setSniffIntervalMillis(long sniffIntervalMillis) {
+    this.sniffIntervalMillis = sniffIntervalMillis;
+  }
+
+  /**
+   * Return the minimum time in millis between sniffing the nodes triggered by a node failure.
+   */
+  public long getSniffAfterFailureMillis() {
+    return sniffAfterFailureMillis;
+  }
+
+  /**
+   * Set the minimum time in millis between sniffing the nodes triggered by a node failure.
+   */
+  public void setSniffAfterFailureMillis(long sniffAfterFailureMillis) {
+    this.sniffAfterFailureMillis = sniffAfterFailureMillis;
+  }
+
+  /**
+   * Return the maximum number of idle HTTP connections kept in the pool.
+   */
+  public int getHttpMaxIdleConnections() {
+    return httpMaxIdleConnections;
+  }
+
+  /**
+   * Set the maximum number of idle HTTP connections kept in the pool.
+   */
+  public void setHttpMaxIdleConnections(int httpMaxIdleConnections) {
+    this.httpMaxIdleConnections = httpMaxIdleConnections;
+  }
+
+  /**
+   * Return the time in millis an idle HTTP connection is kept in the pool.
+   */
+  public long getHttpKeepAliveMillis() {
+    return httpKeepAliveMillis;
+  }
+
+  /**
+   * Set the time in millis an idle HTTP connection is kept in the pool.
+   */
+  public void setHttpKeepAliveMillis(long httpKeepAliveMillis) {
+    this.httpKeepAliveMillis = httpKeepAliveMillis;
+  }
+
+  /**
+   * Return the HTTP connect timeout in millis.
+   */
+  public long getHttpConnectTimeoutMillis() {
+    return httpConnectTimeoutMillis;
+  }
+
+  /**
+   * Set the HTTP connect timeout in millis.
+   */
+  public void setHttpConnectTimeoutMillis(long httpConnectTimeoutMillis) {
+    this.httpConnectTimeoutMillis = httpConnectTimeoutMillis;
+  }
+
+  /**
+   * Return the maximum number of concurrent asynchronous HTTP requests.
+   */
+  public int getHttpMaxRequests() {
+    return httpMaxRequests;
+  }
+
+  /**
+   * Set the maximum number of concurrent asynchronous HTTP requests.
+   */
+  public void setHttpMaxRequests(int httpMaxRequests) {
+    this.httpMaxRequests = httpMaxRequests;
+  }
+
+  /**
+   * Return the maximum number of concurrent asynchronous HTTP requests per node.
+   */
+  public int getHttpMaxRequestsPerHost() {
+    return httpMaxRequestsPerHost;
+  }
+
+  /**
+   * Set the maximum number of concurrent asynchronous HTTP requests per node.
+   */
+  public void setHttpMaxRequestsPerHost(int httpMaxRequestsPerHost) {
+    this.httpMaxRequestsPerHost = httpMaxRequestsPerHost;
+  }
+
+  /**
+   * Return the HTTP read timeout in millis for bulk and update by query requests.
+   */
+  public long getHttpBulkReadTimeoutMillis() {
+    return httpBulkReadTimeoutMillis;
+  }
+
+  /**
+   * Set the HTTP read timeout in millis for bulk and update by query requests.
+   */
+  public void setHttpBulkReadTimeoutMillis(long httpBulkReadTimeoutMillis) {
+    this.httpBulkReadTimeoutMillis = httpBulkReadTimeoutMillis;
+  }
+
+  /**
+   * Return the HTTP write timeout in millis for bulk and update by query requests.
+   */
+  public long getHttpBulkWriteTimeoutMillis() {
+    return httpBulkWriteTimeoutMillis;
+  }
+
+  /**
+   * Set the HTTP write timeout in millis for bulk and update by query requests.
+   */
+  public void setHttpBulkWriteTimeoutMillis(long httpBulkWriteTimeoutMillis) {
+    this.httpBulkWriteTimeoutMillis = httpBulkWriteTimeoutMillis;
+  }
+
+  /**
+   * Return the HTTP read timeout in millis for search, scroll and get requests.
+   */
+  public long getHttpSearchReadTimeoutMillis() {
+    return httpSearchReadTimeoutMillis;
+  }
+
+  /**
+   * Set the HTTP read timeout in millis for search, scroll and get requests.
+   */
+  public void setHttpSearchReadTimeoutMillis(long httpSearchReadTimeoutMillis) {
+    this.httpSearchReadTimeoutMillis = httpSearchReadTimeoutMillis;
+  }
+
+  /**
+   * Return the HTTP write timeout in millis for search, scroll and get requests.
+   */
+  public long getHttpSearchWriteTimeoutMillis() {
+    return httpSearchWriteTimeoutMillis;
+  }
+
+  /**
+   * Set the HTTP write timeout in millis for search, scroll and get requests.
+   */
+  public void setHttpSearchWriteTimeoutMillis(long httpSearchWriteTimeoutMillis) {
+    this.httpSearchWriteTimeoutMillis = httpSearchWriteTimeoutMillis;
+  }
+
+  /**
+   * Return the HTTP read timeout in millis for index admin requests.
+   */
+  public long getHttpAdminReadTimeoutMillis() {
+    return httpAdminReadTimeoutMillis;
+  }
+
+  /**
+   * Set the HTTP read timeout in millis for index admin requests.
+   */
+  public void setHttpAdminReadTimeoutMillis(long httpAdminReadTimeoutMillis) {
+    this.httpAdminReadTimeoutMillis = httpAdminReadTimeoutMillis;
+  }
+
+  /**
+   * Return the HTTP write timeout in millis for index admin requests.
+   */
+  public long getHttpAdminWriteTimeoutMillis() {
+    return httpAdminWriteTimeoutMillis;
+  }
+
+  /**
+   * Set the HTTP write timeout in millis for index admin requests.
+   */
+  public void setHttpAdminWriteTimeoutMillis(long httpAdminWriteTimeoutMillis) {
+    this.httpAdminWriteTimeoutMillis = httpAdminWriteTimeoutMillis;
+  }
+
+  /**
+   * Return true if bulk and update by query request bodies are gzip compressed.
+   */
+  public boolean isHttpGzipRequests() {
+    return httpGzipRequests;
+  }
+
+  /**
+   * Set true to gzip compress bulk and update by query request bodies.
+   * <p>
+   * The bodies are compressed as they are streamed to the connection and sent with
+   * <code>Content-Encoding: gzip</code>. Use when the bandwidth to ElasticSearch rather than
+   * CPU is the bottleneck.
+   * </p>
+   */
+  public void setHttpGzipRequests(boolean httpGzipRequests) {
+    this.httpGzipRequests = httpGzipRequests;
+  }
+
+  /**
+   * Return the gzip compression level (1 to 9) for compressed request bodies.
+   */
+  public int getHttpGzipLevel() {
+    return httpGzipLevel;
+  }
+
+  /**
+   * Set the gzip compression level (1 fastest to 9 smallest) for compressed request bodies.
+   */
+  public void setHttpGzipLevel(int httpGzipLevel) {
+    this.httpGzipLevel = httpGzipLevel;
+  }
+
+  /**
+   * Return true if gzip compressed search and scroll responses are accepted.
+   */
+  public boolean isHttpGzipResponses() {
+    return httpGzipResponses;
+  }
+
+  /**
+   * Set false to not accept gzip compressed search and scroll responses.
+   * <p>
+   * By default <code>Accept-Encoding: gzip</code> is sent and compressed responses (ElasticSearch
+   * <code>http.compression</code>) are decompressed as they are parsed.
+   * </p>
+   */
+  public void setHttpGzipResponses(boolean httpGzipResponses) {
+    this.httpGzipResponses = httpGzipResponses;
+  }
+
+  /**
+   * Return the maximum number of times a failed idempotent request is retried.
+   */
+  public int getHttpMaxRetries() {
+    return httpMaxRetries;
+  }
+
+  /**
+   * Set the maximum number of times a failed idempotent request is retried (0 for no retry).
+   * <p>
+   * Bulk, search and get requests that fail with an IOException or a 429, 502, 503 or
+   * 504 response are retried with exponential backoff and jitter (or per the Retry-After header).
+   * Update by query requests and scroll continuations are not retried. When {@link #setBulkAdaptive(boolean)}
+   * is used bulk requests are instead retried by the throttle (up to {@link #setBulkMaxRetries(int)} times).
+   * </p>
+   */
+  public void setHttpMaxRetries(int httpMaxRetries) {
+    this.httpMaxRetries = httpMaxRetries;
+  }
+
+  /**
+   * Return the initial backoff in millis before retrying a failed request.
+   */
+  public long getHttpRetryBackoffMillis() {
+    return httpRetryBackoffMillis;
+  }
+
+  /**
+   * Set the initial backoff in millis before retrying a failed request (doubling per retry).
+   */
+  public void setHttpRetryBackoffMillis(long httpRetryBackoffMillis) {
+    this.httpRetryBackoffMillis = httpRetryBackoffMillis;
+  }
+
+  /**
+   * Return the maximum backoff in millis before retrying a failed request.
+   */
+  public long getHttpRetryMaxBackoffMillis() {
+    return httpRetryMaxBackoffMillis;
+  }
+
+  /**
+   * Set the maximum backoff in millis before retrying a failed request.
+   */
+  public void setHttpRetryMaxBackoffMillis(long httpRetryMaxBackoffMillis) {
+    this.httpRetryMaxBackoffMillis = httpRetryMaxBackoffMillis;
+  }
+
+  /**
+   * Return the maximum total time in millis spent on a request including retries.
+   */
+  public long getHttpRetryMaxTotalMillis() {
+    return httpRetryMaxTotalMillis;
+  }
+
+  /**
+   * Set the maximum total time in millis spent on a request including retries (0 for no limit).
+   */
+  public void setHttpRetryMaxTotalMillis(long httpRetryMaxTotalMillis) {
+    this.httpRetryMaxTotalMillis = httpRetryMaxTotalMillis;
+  }
+
+  /**
+   * Return true if a circuit breaker fails requests fast when ElasticSearch is degraded.
+   */
+  public boolean isCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Set true to use a circuit breaker that fails requests fast when ElasticSearch is degraded.
+   * <p>
+   * The breaker opens when the percentage of failed (5xx, 429, IOException) or slow requests
+   * reaches the failure rate. While open, requests fail with RequestRejectedException without
+   * being sent.
+   * </p>
+   */
+  public void setCircuitBreaker(boolean circuitBreaker) {
+    this.circuitBreaker = circuitBreaker;
+  }
+
+  /**
+   * Return the percentage of failed or slow recent requests that opens the circuit breaker.
+   */
+  public int getCircuitBreakerFailureRate() {
+    return circuitBreakerFailureRate;
+  }
+
+  /**
+   * Set the percentage of failed or slow recent requests that opens the circuit breaker.
+   */
+  public void setCircuitBreakerFailureRate(int circuitBreakerFailureRate) {
+    this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+  }
+
+  /**
+   * Return the millis at which a request counts as slow for the circuit breaker.
+   */
+  public long getCircuitBreakerSlowCallMillis() {
+    return circuitBreakerSlowCallMillis;
+  }
+
+  /**
+   * Set the millis at which a request counts as slow for the circuit breaker (0 to ignore latency).
+   */
+  public void setCircuitBreakerSlowCallMillis(long circuitBreakerSlowCallMillis) {
+    this.circuitBreakerSlowCallMillis = circuitBreakerSlowCallMillis;
+  }
+
+  /**
+   * Return the number of recent requests the circuit breaker failure rate is calculated over.
+   */
+  public int getCircuitBreakerWindowSize() {
+    return circuitBreakerWindowSize;
+  }
+
+  /**
+   * Set the number of recent requests the circuit breaker failure rate is calculated over.
+   */
+  public void setCircuitBreakerWindowSize(int circuitBreakerWindowSize) {
+    this.circuitBreakerWindowSize = circuitBreakerWindowSize;
+  }
+
+  /**
+   * Return the minimum number of recent requests before the circuit breaker can open.
+   */
+  public int getCircuitBreakerMinimumCalls() {
+    return circuitBreakerMinimumCalls;
+  }
+
+  /**
+   * Set the minimum number of recent requests before the circuit breaker can open.
+   */
+  public void setCircuitBreakerMinimumCalls(int circuitBreakerMinimumCalls) {
+    this.circuitBreakerMinimumCalls = circuitBreakerMinimumCalls;
+  }
+
+  /**
+   * Return the time in millis the circuit breaker stays open before a trial request.
+   */
+  public long getCircuitBreakerOpenMillis() {
+    return circuitBreakerOpenMillis;
+  }
+
+  /**
+   * Set the time in millis the circuit breaker stays open before a trial request.
+   */
+  public void setCircuitBreakerOpenMillis(long circuitBreakerOpenMillis) {
+    this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+  }
+
+  /**
+   * Return true if post-commit updates are added to the queue while the circuit breaker is open.
+   */
+  public boolean isCircuitBreakerDivertToQueue() {
+    return circuitBreakerDivertToQueue;
+  }
+
+  /**
+   * Set true to add post-commit updates to the queue (IndexQueueWriter) while the circuit
+   * breaker is open rather than failing them.
+   */
+  public void setCircuitBreakerDivertToQueue(boolean circuitBreakerDivertToQueue) {
+    this.circuitBreakerDivertToQueue = circuitBreakerDivertToQueue;
+  }
+
+  /**
+   * Return true if the queue table is periodically drained into ElasticSearch.
+   */
+  public boolean isQueueReader() {
+    return queueReader;
+  }
+
+  /**
+   * Set true to periodically drain the queue table into ElasticSearch.
+   * <p>
+   * Each application node can run a queue reader as the nodes claim disjoint batches of entries.
+   * </p>
+   */
+  public void setQueueReader(boolean queueReader) {
+    this.queueReader = queueReader;
+  }
+
+  /**
+   * Return the maximum number of queue entries claimed and processed per batch.
+   */
+  public int getQueueReaderBatchSize() {
+    return queueReaderBatchSize;
+  }
+
+  /**
+   * Set the maximum number of queue entries claimed and processed per batch.
+   */
+  public void setQueueReaderBatchSize(int queueReaderBatchSize) {
+    this.queueReaderBatchSize = queueReaderBatchSize;
+  }
+
+  /**
+   * Return the delay in millis between draining the queue when it is empty.
+   */
+  public long getQueueReaderIntervalMillis() {
+    return queueReaderIntervalMillis;
+  }
+
+  /**
+   * Set the delay in millis between draining the queue when it is empty.
+   */
+  public void setQueueReaderIntervalMillis(long queueReaderIntervalMillis) {
+    this.queueReaderIntervalMillis = queueReaderIntervalMillis;
+  }
+
+  /**
+   * Return the directory of the local queue journal (null to queue in the database).
+   */
+  public String getQueueJournalDir() {
+    return queueJournalDir;
+  }
+
+  /**
+   * Set the directory of a local memory-mapped journal used as the queue rather than the database table.
+   * <p>
+   * The journal is local to the application node so each node must run the queue reader.
+   * </p>
+   */
+  public void setQueueJournalDir(String queueJournalDir) {
+    this.queueJournalDir = queueJournalDir;
+  }
+
+  /**
+   * Return the size in bytes of each queue journal segment file.
+   */
+  public int getQueueJournalSegmentBytes() {
+    return queueJournalSegmentBytes;
+  }
+
+  /**
+   * Set the size in bytes of each queue journal segment file.
+   */
+  public void setQueueJournalSegmentBytes(int queueJournalSegmentBytes) {
+    this.queueJournalSegmentBytes = queueJournalSegmentBytes;
+  }
+
+  /**
+   * Return true if queue journal entries are forced to disk before returning.
+   */
+  public boolean isQueueJournalFsync() {
+    return queueJournalFsync;
+  }
+
+  /**
+   * Set false to not force queue journal entries to disk before returning.
+   * <p>
+   * The entries then survive the application crashing but not the host.
+   * </p>
+   */
+  public void setQueueJournalFsync(boolean queueJournalFsync) {
+    this.queueJournalFsync = queueJournalFsync;
+  }
+
+  /**
+   * Return the maximum number of ids in each query fetching the beans to index.
+   */
+  public int getIndexFetchBatchSize() {
+    return indexFetchBatchSize;
+  }
+
+  /**
+   * Set the maximum number of ids in each query fetching the beans to index (0 for a single query).
+   * <p>
+   * This bounds the size of the IN clause when processing a large number of queued index entries.
+   * </p>
+   */
+  public void setIndexFetchBatchSize(int indexFetchBatchSize) {
+    this.indexFetchBatchSize = indexFetchBatchSize;
+  }
+
+  /**
+   * Return the number of queries fetching the beans to index run in parallel.
+   */
+  public int getIndexFetchConcurrency() {
+    return indexFetchConcurrency;
+  }
+
+  /**
+   * Set the number of queries fetching the beans to index run in parallel (1 to fetch serially).
+   * <p>
+   * Each query uses a connection from the pool and holds its beans in memory until they are sent.
+   * </p>
+   */
+  public void setIndexFetchConcurrency(int indexFetchConcurrency) {
+    this.indexFetchConcurrency = indexFetchConcurrency;
+  }
+
+  /**
+   * Return the maximum concurrent search requests (0 for no limit).
+   */
+  public int getSearchMaxConcurrent() {
+    return searchMaxConcurrent;
+  }
+
+  /**
+   * Set the maximum concurrent search, scroll and get requests (0 for no limit).
+   */
+  public void setSearchMaxConcurrent(int searchMaxConcurrent) {
+    this.searchMaxConcurrent = searchMaxConcurrent;
+  }
+
+  /**
+   * Return the maximum concurrent bulk and update by query requests (0 for no limit).
+   */
+  public int getBulkMaxConcurrent() {
+    return bulkMaxConcurrent;
+  }
+
+  /**
+   * Set the maximum concurrent bulk and update by query requests (0 for no limit).
+   * <p>
+   * Together with searchMaxConcurrent this keeps bulk traffic (for example a reindex) from
+   * starving interactive queries.
+   * </p>
+   */
+  public void setBulkMaxConcurrent(int bulkMaxConcurrent) {
+    this.bulkMaxConcurrent = bulkMaxConcurrent;
+  }
+
+  /**
+   * Return the maximum time in millis to wait for a search or bulk request permit.
+   */
+  public long getBulkheadMaxWaitMillis() {
+    return bulkheadMaxWaitMillis;
+  }
+
+  /**
+   * Set the maximum time in millis to wait for a search or bulk request permit before the
+   * request is rejected with RequestRejectedException.
+   */
+  public void setBulkheadMaxWaitMillis(long bulkheadMaxWaitMillis) {
+    this.bulkheadMaxWaitMillis = bulkheadMaxWaitMillis;
+  }
+
+  /**
+   * Return the factory of the HTTP clients (null for the default factory).
+   */
+  public HttpClientFactory getHttpClientFactory() {
+    return httpClientFactory;
+  }
+
+  /**
+   * Set the factory of the HTTP clients used to send requests to ElasticSearch.
+   * <p>
+   * When not set the clients are created using the http settings of this config.
+   * </p>
+   */
+  public void setHttpClientFactory(HttpClientFactory httpClientFactory) {
+    this.httpClientFactory = httpClientFactory;
+  }
+
+  /**
+   * Return the executor for the blocking doc store I/O (null to use internal thread pools).
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * Set the executor that runs the blocking doc store I/O.
+   * <p>
+   * This runs the background bulk workers (bounded to bulkWorkers), the sliced and prefetching
+   * scroll workers and the asynchronous HTTP requests of the default HTTP client factory. On
+   * JDK 21+ this can be a virtual thread per task executor such that many concurrent doc store
+   * operations do not each hold a platform thread.
+   * </p>
+   * <p>
+   * A bounded executor must allow for the scroll workers. A sliced scroll query needs
+   * <code>slices</code> threads concurrently running its slices (and a prefetching scroll one
+   * worker thread) for the duration of the query. A slice that the executor rejects or has not
+   * started shortly after it is needed runs on a dedicated thread instead, but the query then
+   * holds threads outside the executor.
+   * </p>
+   * <p>
+   * The executor is not shutdown by the doc store.
+   * </p>
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * Return the way findEach/findEachWhile iterate over the hits.
+   */
+  public ScrollMode getScrollMode() {
+    return scrollMode;
+  }
+
+  /**
+   * Set the way findEach/findEachWhile iterate over the hits (scroll contexts or search_after).
+   * <p>
+   * Slices and prefetch apply to {@link ScrollMode#SCROLL} only.
+   * </p>
+   */
+  public void setScrollMode(ScrollMode scrollMode) {
+    this.scrollMode = scrollMode;
+  }
+
+  /**
+   * Return the sort tiebreaker field used with search_after.
+   */
+  public String getSearchAfterTiebreaker() {
+    return searchAfterTiebreaker;
+  }
+
+  /**
+   * Set the sort tiebreaker field used with search_after (defaults to <code>_uid</code>).
+   * <p>
+   * This is added to the sort of the query so must be unique per document. It is either a
+   * raw field name (starting with underscore) or a property name of the bean type.
+   * </p>
+   */
+  public void setSearchAfterTiebreaker(String searchAfterTiebreaker) {
+    this.searchAfterTiebreaker = searchAfterTiebreaker;
+  }
+
+  /**
+   * Return the default scroll keep alive.
+   */
+  public String getScrollKeepAlive() {
+    return scrollKeepAlive;
+  }
+
+  /**
+   * Set the default scroll keep alive (defaults to <code>1m</code>).
+   * <p>
+   * This needs to cover the time taken to consume a page of hits.
+   * </p>
+   */
+  public void setScrollKeepAlive(String scrollKeepAlive) {
+    this.scrollKeepAlive = scrollKeepAlive;
+  }
+
+  /**
+   * Return the default number of hits per scroll or search_after page.
+   */
+  public int getScrollPageSize() {
+    return scrollPageSize;
+  }
+
+  /**
+   * Set the default number of hits per scroll or search_after page (0 to use the query maxRows).
+   */
+  public void setScrollPageSize(int scrollPageSize) {
+    this.scrollPageSize = scrollPageSize;
+  }
+
+  /**
+   * Return the number of slices used for findEach/findEachWhile scroll queries.
+   */
+  public int getScrollSlices() {
+    return scrollSlices;
+  }
+
+  /**
+   * Set the number of slices used for findEach/findEachWhile scroll queries (0 or 1 for no slicing).
+   * <p>
+   * With slices each slice is scrolled and parsed by its own worker in parallel. ElasticSearch
+   * performs best with the number of slices no greater than the number of shards of the index.
+   * </p>
+   */
+  public void setScrollSlices(int scrollSlices) {
+    this.scrollSlices = scrollSlices;
+  }
+
+  /**
+   * Return true if the sliced scroll workers hand beans to the consumer concurrently.
+   */
+  public boolean isScrollSliceConcurrent() {
+    return scrollSliceConcurrent;
+  }
+
+  /**
+   * Set to true for the sliced scroll workers to hand beans to the consumer concurrently.
+   * <p>
+   * The consumer must then be thread safe. Otherwise (the default) the pages of the slices
+   * are merged and the consumer is called by the thread executing the query.
+   * </p>
+   */
+  public void setScrollSliceConcurrent(boolean scrollSliceConcurrent) {
+    this.scrollSliceConcurrent = scrollSliceConcurrent;
+  }
+
+  /**
+   * Return the number of scroll pages requested ahead of the consumer.
+   */
+  public int getScrollPrefetch() {
+    return scrollPrefetch;
+  }
+
+  /**
+   * Set the number of scroll pages requested ahead of the consumer (0 for no prefetch).
+   * <p>
+   * With prefetch the next scroll page is requested in the background as soon as the scroll id
+   * of the current page is known such that findEach throughput approaches the slower of
+   * ElasticSearch and the consumer rather than their sum.
+   * </p>
+   */
+  public void setScrollPrefetch(int scrollPrefetch) {
+    this.scrollPrefetch = scrollPrefetch;
+  }
+
+  /**
+   * Return the default options for findEach/findEachWhile queries.
+   */
+  public ScrollOptions getScrollOptions() {
+    return new ScrollOptions()
+        .mode(scrollMode)
+        .keepAlive(scrollKeepAlive)
+        .pageSize(scrollPageSize)
+        .slices(scrollSlices)
+        .sliceConcurrent(scrollSliceConcurrent)
+        .prefetch(scrollPrefetch);
+  }
+
+  /**
+   * Load the settings from properties (typically the ServerConfig properties).
+   */
+  public void loadSettings(Properties properties) {
+    if (properties == null) {
+      return;
+    }
+    bulkAsync = getBoolean(properties, "bulkAsync", bulkAsync);
+    bulkWorkers = getInt(properties, "bulkWorkers", bulkWorkers);
+    bulkQueueCapacity = getInt(properties, "bulkQueueCapacity", bulkQueueCapacity);
+    bulkMaxInFlightBytes = getLong(properties, "bulkMaxInFlightBytes", bulkMaxInFlightBytes);
+    bulkMaxBytes = getLong(properties, "bulkMaxBytes", bulkMaxBytes);
+    bulkMaxAgeMillis = getLong(properties, "bulkMaxAgeMillis", bulkMaxAgeMillis);
+    bulkMaxRetries = getInt(properties, "bulkMaxRetries", bulkMaxRetries);
+    bulkRetryBackoffMillis = getLong(properties, "bulkRetryBackoffMillis", bulkRetryBackoffMillis);
+    bulkBytesBuffer = getBoolean(properties, "bulkBytesBuffer", bulkBytesBuffer);
+    bulkPoolMaxBytes = getLong(properties, "bulkPoolMaxBytes", bulkPoolMaxBytes);
+    bulkAdaptive = getBoolean(properties, "bulkAdaptive", bulkAdaptive);
+    bulkAdaptiveMinBatchSize = getInt(properties, "bulkAdaptiveMinBatchSize", bulkAdaptiveMinBatchSize);
+    bulkAdaptiveMaxBatchSize = getInt(properties, "bulkAdaptiveMaxBatchSize", bulkAdaptiveMaxBatchSize);
+    bulkAdaptiveBatchIncrement = getInt(properties, "bulkAdaptiveBatchIncrement", bulkAdaptiveBatchIncrement);
+    bulkAdaptiveMaxConcurrency = getInt(properties, "bulkAdaptiveMaxConcurrency", bulkAdaptiveMaxConcurrency);
+    bulkAdaptiveTargetMillis = getLong(properties, "bulkAdaptiveTargetMillis", bulkAdaptiveTargetMillis);
+    nodeDeadMillis = getLong(properties, "nodeDeadMillis", nodeDeadMillis);
+    nodeMaxDeadMillis = getLong(properties, "nodeMaxDeadMillis", nodeMaxDeadMillis);
+    sniff = getBoolean(properties, "sniff", sniff);
+    sniffIntervalMillis = getLong(properties, "sniffIntervalMillis", sniffIntervalMillis);
+    sniffAfterFailureMillis = getLong(properties, "sniffAfterFailureMillis", sniffAfterFailureMillis);
+    httpMaxIdleConnections = getInt(properties, "httpMaxIdleConnections", httpMaxIdleConnections);
+    httpKeepAliveMillis = getLong(properties, "httpKeepAliveMillis", httpKeepAliveMillis);
+    httpConnectTimeoutMillis = getLong(properties, "httpConnectTimeoutMillis", httpConnectTimeoutMillis);
+    httpMaxRequests = getInt(properties, "httpMaxRequests", httpMaxRequests);
+    httpMaxRequestsPerHost = getInt(properties, "httpMaxRequestsPerHost", httpMaxRequestsPerHost);
+    httpBulkReadTimeoutMillis = getLong(properties, "httpBulkReadTimeoutMillis", httpBulkReadTimeoutMillis);
+    httpBulkWriteTimeoutMillis = getLong(properties, "httpBulkWriteTimeoutMillis", httpBulkWriteTimeoutMillis);
+    httpSearchReadTimeoutMillis = getLong(properties, "httpSearchReadTimeoutMillis", httpSearchReadTimeoutMillis);
+    httpSearchWriteTimeoutMillis = getLong(properties, "httpSearchWriteTimeoutMillis", httpSearchWriteTimeoutMillis);
+    httpAdminReadTimeoutMillis = getLong(properties, "httpAdminReadTimeoutMillis", httpAdminReadTimeoutMillis);
+    httpAdminWriteTimeoutMillis = getLong(properties, "httpAdminWriteTimeoutMillis", httpAdminWriteTimeoutMillis);
+    httpGzipRequests = getBoolean(properties, "httpGzipRequests", httpGzipRequests);
+    httpGzipLevel = getInt(properties, "httpGzipLevel", httpGzipLevel);
+    httpGzipResponses = getBoolean(properties, "httpGzipResponses", httpGzipResponses);
+    httpMaxRetries = getInt(properties, "httpMaxRetries", httpMaxRetries);
+    httpRetryBackoffMillis = getLong(properties, "httpRetryBackoffMillis", httpRetryBackoffMillis);
+    httpRetryMaxBackoffMillis = getLong(properties, "httpRetryMaxBackoffMillis", httpRetryMaxBackoffMillis);
+    httpRetryMaxTotalMillis = getLong(properties, "httpRetryMaxTotalMillis", httpRetryMaxTotalMillis);
+    circuitBreaker = getBoolean(properties, "circuitBreaker", circuitBreaker);
+    circuitBreakerFailureRate = getInt(properties, "circuitBreakerFailureRate", circuitBreakerFailureRate);
+    circuitBreakerSlowCallMillis = getLong(properties, "circuitBreakerSlowCallMillis", circuitBreakerSlowCallMillis);
+    circuitBreakerWindowSize = getInt(properties, "circuitBreakerWindowSize", circuitBreakerWindowSize);
+    circuitBreakerMinimumCalls = getInt(properties, "circuitBreakerMinimumCalls", circuitBreakerMinimumCalls);
+    circuitBreakerOpenMillis = getLong(properties, "circuitBreakerOpenMillis", circuitBreakerOpenMillis);
+    circuitBreakerDivertToQueue = getBoolean(properties, "circuitBreakerDivertToQueue", circuitBreakerDivertToQueue);
+    queueReader = getBoolean(properties, "queueReader", queueReader);
+    queueReaderBatchSize = getInt(properties, "queueReaderBatchSize", queueReaderBatchSize);
+    queueReaderIntervalMillis = getLong(properties, "queueReaderIntervalMillis", queueReaderIntervalMillis);
+    queueJournalDir = get(properties, "queueJournalDir", queueJournalDir);
+    queueJournalSegmentBytes = getInt(properties, "queueJournalSegmentBytes", queueJournalSegmentBytes);
+    queueJournalFsync = getBoolean(properties, "queueJournalFsync", queueJournalFsync);
+    indexFetchBatchSize = getInt(properties, "indexFetchBatchSize", indexFetchBatchSize);
+    indexFetchConcurrency = getInt(properties, "indexFetchConcurrency", indexFetchConcurrency);
+    searchMaxConcurrent = getInt(properties, "searchMaxConcurrent", searchMaxConcurrent);
+    bulkMaxConcurrent = getInt(properties, "bulkMaxConcurrent", bulkMaxConcurrent);
+    bulkheadMaxWaitMillis = getLong(properties, "bulkheadMaxWaitMillis", bulkheadMaxWaitMillis);
+    scrollMode = getScrollMode(properties, "scrollMode", scrollMode);
+    searchAfterTiebreaker = get(properties, "searchAfterTiebreaker", searchAfterTiebreaker);
+    scrollKeepAlive = get(properties, "scrollKeepAlive", scrollKeepAlive);
+    scrollPageSize = getInt(properties, "scrollPageSize", scrollPageSize);
+    scrollSlices = getInt(properties, "scrollSlices", scrollSlices);
+    scrollSliceConcurrent = getBoolean(properties, "scrollSliceConcurrent", scrollSliceConcurrent);
+    scrollPrefetch = getInt(properties, "scrollPrefetch", scrollPrefetch);
+  }
+
+  private String get(Properties properties, String key) {
+    String value = properties.getProperty(PREFIX + key);
+    return (value == null) ? null : value.trim();
+  }
+
+  private String get(Properties properties, String key, String defaultValue) {
+    String value = get(properties, key);
+    return (value == null) ? defaultValue : value;
+  }
+
+  private ScrollMode getScrollMode(Properties properties, String key, ScrollMode defaultValue) {
+    String value = get(properties, key);
+    return (value == null) ? defaultValue : ScrollMode.valueOf(value.toUpperCase());
+  }
+
+  private boolean getBoolean(Properties properties, String key, boolean defaultValue) {
+    String value = get(properties, key);
+    return (value == null) ? defaultValue : Boolean.parseBoolean(value);
+  }
+
+  private int getInt(Properties properties, String key, int defaultValue) {
+    String value = get(properties, key);
+    return (value == null) ? defaultValue : Integer.parseInt(value);
+  }
+
+  private long getLong(Properties properties, String key, long defaultValue) {
+    String value = get(properties, key);
+    return (value == null) ? defaultValue : Long.parseLong(value);
+  }
+}
@@ -1,32 +1,174 @@
 package com.avaje.ebeanservice.elastic;
 
 import com.avaje.ebean.bean.EntityBean;
+import com.avaje.ebean.plugin.BeanType;
 import com.avaje.ebeaninternal.server.core.PersistRequestBean;
 import com.avaje.ebeaninternal.server.deploy.BeanDescriptor;
+import com.avaje.ebeaninternal.server.deploy.BeanProperty;
 import com.avaje.ebeaninternal.server.deploy.meta.DeployBeanDescriptor;
 import com.avaje.ebeaninternal.server.text.json.WriteJson;
 import com.avaje.ebeanservice.docstore.api.DocStoreUpdateContext;
 import com.avaje.ebeanservice.docstore.api.support.DocStoreBeanBaseAdapter;
 import com.avaje.ebeanservice.elastic.bulk.BulkBuffer;
+import com.avaje.ebeanservice.elastic.bulk.BulkUpdate;
 import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Helper for BeanDescriptor to handle the ElasticSearch features.
  */
 public class ElasticDocStoreBeanAdapter<T> extends DocStoreBeanBaseAdapter<T> {
 
+  private static final Logger logger = LoggerFactory.getLogger(ElasticDocStoreBeanAdapter.class);
+
+  /**
+   * The name of the property holding the routing value (null when not routed).
+   */
+  private final String routingProperty;
+
   public ElasticDocStoreBeanAdapter(BeanDescriptor<T> desc, DeployBeanDescriptor<T> deploy) {
     super(desc, deploy);
+    this.routingProperty = routingProperty(deploy.getBeanType());
+  }
+
+  /**
+   * Return the name of the field annotated with DocRouting (or null).
+   */
+  private static String routingProperty(Class<?> beanType) {
+    for (Class<?> type = beanType; type != null && type != Object.class; type = type.getSuperclass()) {
+      for (Field field : type.getDeclaredFields()) {
+        if (field.isAnnotationPresent(DocRouting.class)) {
+          return field.getName();
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Return the routing property of the bean type (or null when the type is not routed).
+   */
+  public static String routingProperty(BeanType<?> beanType) {
+    Object docType = beanType.docStore();
+    if (docType instanceof ElasticDocStoreBeanAdapter) {
+      return ((ElasticDocStoreBeanAdapter<?>) docType).getRoutingProperty();
+    }
+    return null;
+  }
+
+  /**
+   * Return the routing value for the given property value.
+   */
+  public static String routingValue(Object value) {
+    return (value == null) ? null : value.toString();
+  }
+
+  /**
+   * Return the name of the property holding the routing value (null when not routed).
+   */
+  public String getRoutingProperty() {
+    return routingProperty;
   }
 
+  /**
+   * Return the routing value of the bean (null when not routed or the property is not loaded).
+   */
+  public String routing(EntityBean bean) {
+    if (routingProperty == null || bean == null) {
+      return null;
+    }
+    BeanProperty property = desc.findProperty(routingProperty);
+    return (property == null) ? null : routingValue(property.getValue(bean));
+  }
+
+  /**
+   * Return the routing value of the bean lazy loading the routing property when it is not loaded
+   * (for example a partially loaded bean that is updated).
+   */
+  private String loadRouting(EntityBean bean) {
+    if (routingProperty == null || bean == null) {
+      return null;
+    }
+    BeanProperty property = desc.findProperty(routingProperty);
+    return (property == null) ? null : routingValue(property.getValueIntercept(bean));
+  }
+
+  /**
+   * Return the routing value of the bean with the given id by querying the routing property
+   * (null when not routed or the bean is not found).
+   */
+  private String routingById(Object idValue) {
+    if (routingProperty == null) {
+      return null;
+    }
+    T bean = server.find(desc.getBeanType())
+        .select(routingProperty)
+        .setId(idValue)
+        .findUnique();
+
+    return routing((EntityBean) bean);
+  }
+
+  /**
+   * Return the routing values of the beans with the given ids keyed by id (using a single query).
+   */
+  public Map<Object, String> routingByIds(List<Object> ids) {
+
+    Map<Object, String> routings = new HashMap<Object, String>();
+    if (routingProperty == null || ids.isEmpty()) {
+      return routings;
+    }
+    List<T> beans = server.find(desc.getBeanType())
+        .select(routingProperty)
+        .where().idIn(ids)
+        .findList();
+
+    for (T bean : beans) {
+      routings.put(desc.getId((EntityBean) bean), routing((EntityBean) bean));
+    }
+    return routings;
+  }
+
+  private void warnNoRouting(Object idValue, String event) {
+    logger.warn("Sending {} of {} document {} without routing as the routing value is not known, " +
+        "the action only applies when the document is on the shard the id routes to", event, indexName, idValue);
+  }
+
+  /**
+   * Delete the document by id.
+   * <p>
+   * When the type is routed the routing value is not known (the bean is typically already deleted
+   * from the database) and the delete is sent without routing with a warning. Deletes from the
+   * index queue do not use this for routed types but delete by query on the ids instead
+   * (see ProcessGroup).
+   * </p>
+   */
   @Override
   public void deleteById(Object idValue, DocStoreUpdateContext docTxn) throws IOException {
 
+    delete(idValue, null, docTxn);
+  }
+
+  /**
+   * Delete the document with the routing value of the given bean (which can be null).
+   */
+  public void delete(Object idValue, EntityBean bean, DocStoreUpdateContext docTxn) throws IOException {
+
+    String routing = routing(bean);
+    if (routing == null && routingProperty != null) {
+      warnNoRouting(idValue, "delete");
+    }
     BulkBuffer txn = asElasticBulkUpdate(docTxn);
     JsonGenerator gen = txn.gen();
-    writeBulkHeader(gen, idValue, "delete");
+    writeBulkHeader(gen, idValue, routing, "delete");
   }
 
   @Override
@@ -41,7 +183,7 @@ public class ElasticDocStoreBeanAdapter<T> extends DocStoreBeanBaseAdapter<T> {
     BulkBuffer txn = asElasticBulkUpdate(docTxn);
 
     JsonGenerator gen = txn.gen();
-    writeBulkHeader(gen, idValue, "index");
+    writeBulkHeader(gen, idValue, loadRouting((EntityBean) entityBean), "index");
 
     // use the pathProperties for 'index' requests
     WriteJson writeJson = txn.createWriteJson(server, gen, docStructure.doc());
@@ -54,7 +196,8 @@ public class ElasticDocStoreBeanAdapter<T> extends DocStoreBeanBaseAdapter<T> {
 
     BulkBuffer txn = asElasticBulkUpdate(docTxn);
     JsonGenerator gen = txn.gen();
-    writeBulkHeader(gen, idValue, "update");
+    // the routing property is loaded when it is not dirty
+    writeBulkHeader(gen, idValue, loadRouting(persistRequest.getEntityBean()), "update");
 
     gen.writeStartObject();
     gen.writeFieldName("doc");
@@ -65,17 +208,86 @@ public class ElasticDocStoreBeanAdapter<T> extends DocStoreBeanBaseAdapter<T> {
     gen.writeRaw("\n");
   }
 
+  /**
+   * Return true when the update changes the routing value (such that the document moves shard).
+   */
+  public boolean isRoutingDirty(PersistRequestBean<?> persistRequest) {
+    if (routingProperty == null) {
+      return false;
+    }
+    BeanProperty property = desc.findProperty(routingProperty);
+    boolean[] dirty = persistRequest.getDirtyProperties();
+    return property != null && dirty != null && dirty[property.getPropertyIndex()];
+  }
+
+  /**
+   * Move the document to the shard of its new routing value.
+   * <p>
+   * A partial update routed by the new value would not find the document. The original routing
+   * value is no longer held by the bean after the transaction so the copies of the document with
+   * any other routing value are deleted by query (waiting for the delete) and the document is then
+   * indexed in full with the new routing.
+   * </p>
+   */
+  public void reindexRoutingChange(Object idValue, PersistRequestBean<?> persistRequest, BulkUpdate txn) throws IOException {
+
+    String routing = loadRouting(persistRequest.getEntityBean());
+    txn.sendDeleteQuery(indexName, indexType, routingChangeQuery(idValue, routing));
+
+    T bean = server.find(desc.getBeanType())
+        .apply(docStructure.doc())
+        .setId(idValue)
+        .findUnique();
+
+    if (bean != null) {
+      index(idValue, bean, txn.obtain());
+    }
+  }
+
+  /**
+   * Return the query matching the document with a routing value other than the given one.
+   */
+  static String routingChangeQuery(Object idValue, String routing) {
+    JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+    StringBuilder sb = new StringBuilder(100);
+    sb.append("{\"query\":{\"bool\":{\"filter\":{\"ids\":{\"values\":[\"")
+        .append(encoder.quoteAsString(idValue.toString())).append("\"]}}");
+    if (routing != null) {
+      sb.append(",\"must_not\":{\"term\":{\"_routing\":\"").append(encoder.quoteAsString(routing)).append("\"}}");
+    }
+    return sb.append("}}}").toString();
+  }
+
   private BulkBuffer asElasticBulkUpdate(DocStoreUpdateContext docTxn) {
     return (BulkBuffer)docTxn;
   }
 
+  /**
+   * Update the embedded document querying the routing value of the bean when the type is routed.
+   * <p>
+   * Nested updates of many documents resolve the routing values in batches (see ProcessNested)
+   * rather than using this.
+   * </p>
+   */
   @Override
   public void updateEmbedded(Object idValue, String embeddedProperty, String embeddedRawContent, DocStoreUpdateContext docTxn) throws IOException {
 
+    updateEmbedded(idValue, embeddedProperty, embeddedRawContent, routingById(idValue), docTxn);
+  }
+
+  /**
+   * Update the embedded document with the given routing value (null when not routed).
+   */
+  public void updateEmbedded(Object idValue, String embeddedProperty, String embeddedRawContent, String routing, DocStoreUpdateContext docTxn) throws IOException {
+
+    if (routing == null && routingProperty != null) {
+      warnNoRouting(idValue, "update");
+    }
+
     BulkBuffer txn = asElasticBulkUpdate(docTxn);
 
     JsonGenerator gen = txn.gen();
-    writeBulkHeader(gen, idValue, "update");
+    writeBulkHeader(gen, idValue, routing, "update");
 
     gen.writeStartObject();
     gen.writeFieldName("doc");
@@ -88,7 +300,7 @@ public class ElasticDocStoreBeanAdapter<T> extends DocStoreBeanBaseAdapter<T> {
     gen.writeRaw("\n");
   }
 
-  private void writeBulkHeader(JsonGenerator gen, Object idValue, String event) throws IOException {
+  private void writeBulkHeader(JsonGenerator gen, Object idValue, String routing, String event) throws IOException {
 
     gen.writeStartObject();
     gen.writeFieldName(event);
@@ -96,6 +308,9 @@ public class ElasticDocStoreBeanAdapter<T> extends DocStoreBeanBaseAdapter<T> {
     gen.writeStringField("_id", idValue.toString());
     gen.writeStringField("_type", indexType);
     gen.writeStringField("_index", indexName);
+    if (routing != null) {
+      gen.writeStringField("_routing", routing);
+    }
     gen.writeEndObject();
     gen.writeEndObject();
     gen.writeRaw("\n");
@@ -1,6 +1,7 @@
 package com.avaje.ebeanservice.elastic;
 
 import com.avaje.ebean.DocumentStore;
+import com.avaje.ebean.PersistenceIOException;
 import com.avaje.ebean.config.DocStoreConfig;
 import com.avaje.ebean.config.ServerConfig;
 import com.avaje.ebean.plugin.SpiServer;
@@ -11,17 +12,52 @@ import com.avaje.ebeanservice.docstore.api.DocStoreBeanAdapter;
 import com.avaje.ebeanservice.docstore.api.DocStoreFactory;
 import com.avaje.ebeanservice.docstore.api.DocStoreIntegration;
 import com.avaje.ebeanservice.docstore.api.DocStoreUpdateProcessor;
+import com.avaje.ebeanservice.elastic.journal.Journal;
+import com.avaje.ebeanservice.elastic.journal.JournalIndexQueueReader;
+import com.avaje.ebeanservice.elastic.journal.JournalIndexQueueWriter;
 import com.avaje.ebeanservice.elastic.support.BaseHttpMessageSender;
+import com.avaje.ebeanservice.elastic.support.BaseIndexQueueReader;
 import com.avaje.ebeanservice.elastic.support.BaseIndexQueueWriter;
+import com.avaje.ebeanservice.elastic.support.Bulkhead;
+import com.avaje.ebeanservice.elastic.support.CircuitBreaker;
+import com.avaje.ebeanservice.elastic.support.DefaultHttpClientFactory;
+import com.avaje.ebeanservice.elastic.support.HttpClientFactory;
+import com.avaje.ebeanservice.elastic.support.HttpNodes;
 import com.avaje.ebeanservice.elastic.support.IndexMessageSender;
+import com.avaje.ebeanservice.elastic.support.IndexQueueReader;
 import com.avaje.ebeanservice.elastic.support.IndexQueueWriter;
+import com.avaje.ebeanservice.elastic.support.NodeSniffer;
+import com.avaje.ebeanservice.elastic.support.ProtectedIndexMessageSender;
+import com.avaje.ebeanservice.elastic.support.RetryPolicy;
+import com.avaje.ebeanservice.elastic.support.RetryingIndexMessageSender;
 import com.fasterxml.jackson.core.JsonFactory;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Factory that creates the document store integration components.
  */
 public class ElasticDocStoreFactory implements DocStoreFactory {
 
+  private static final String QUEUE_TABLE_NAME = "eb_elastic_queue";
+
+  private final ElasticConfig elasticConfig;
+
+  /**
+   * Construct with ElasticConfig loaded from the server properties.
+   */
+  public ElasticDocStoreFactory() {
+    this(null);
+  }
+
+  /**
+   * Construct with explicit ElasticConfig.
+   */
+  public ElasticDocStoreFactory(ElasticConfig elasticConfig) {
+    this.elasticConfig = elasticConfig;
+  }
+
   @Override
   public <T> DocStoreBeanAdapter<T> createAdapter(BeanDescriptor<T> desc, DeployBeanDescriptor<T> deploy) {
     return new ElasticDocStoreBeanAdapter<T>(desc, deploy);
@@ -35,16 +71,111 @@ public class ElasticDocStoreFactory implements DocStoreFactory {
     Object objectMapper = serverConfig.getObjectMapper();
 
     DocStoreConfig docStoreConfig = serverConfig.getDocStoreConfig();
+    ElasticConfig config = elasticConfig(serverConfig);
 
     JsonFactory jsonFactory = new JsonFactory();
-    IndexQueueWriter indexQueueWriter = new BaseIndexQueueWriter(server, "eb_elastic_queue");
-    IndexMessageSender messageSender = new BaseHttpMessageSender(docStoreConfig.getUrl());
+    Journal journal = journal(config);
+    IndexQueueWriter indexQueueWriter = (journal != null) ? new JournalIndexQueueWriter(journal, config.isQueueJournalFsync()) : new BaseIndexQueueWriter(server, QUEUE_TABLE_NAME);
+    HttpNodes nodes = new HttpNodes(HttpNodes.parseUrls(docStoreConfig.getUrl()), config.getNodeDeadMillis(), config.getNodeMaxDeadMillis());
+    BaseHttpMessageSender httpSender = new BaseHttpMessageSender(nodes, httpClientFactory(config), config);
+    CircuitBreaker circuitBreaker = circuitBreaker(config);
+    IndexMessageSender messageSender = protect(retrying(httpSender, config), circuitBreaker, config);
+
+    NodeSniffer sniffer = null;
+    if (config.isSniff()) {
+      sniffer = new NodeSniffer(httpSender, jsonFactory, config.getSniffIntervalMillis(), config.getSniffAfterFailureMillis());
+      sniffer.start();
+    }
+
+    ElasticUpdateProcessor updateProcessor = new ElasticUpdateProcessor(server, indexQueueWriter, jsonFactory, objectMapper, messageSender, docStoreConfig.getBulkBatchSize(), config, circuitBreaker);
 
-    ElasticUpdateProcessor updateProcessor = new ElasticUpdateProcessor(server, indexQueueWriter, jsonFactory, objectMapper, messageSender, docStoreConfig.getBulkBatchSize());
+    ElasticDocumentStore docStore = new ElasticDocumentStore(server, updateProcessor, messageSender, jsonFactory, config);
 
-    ElasticDocumentStore docStore = new ElasticDocumentStore(server, updateProcessor, messageSender, jsonFactory);
+    IndexQueueReader queueReader = null;
+    if (config.isQueueReader()) {
+      if (journal != null) {
+        queueReader = new JournalIndexQueueReader(journal, updateProcessor, config.getQueueReaderBatchSize(), config.getQueueReaderIntervalMillis());
+      } else {
+        queueReader = new BaseIndexQueueReader(server, QUEUE_TABLE_NAME, updateProcessor, config.getQueueReaderBatchSize(), config.getQueueReaderIntervalMillis());
+      }
+    }
 
-    return new Components(updateProcessor, docStore);
+    return new Components(updateProcessor, docStore, sniffer, queueReader, journal);
+  }
+
+  /**
+   * Return the local queue journal if configured.
+   */
+  private Journal journal(ElasticConfig config) {
+    String dir = config.getQueueJournalDir();
+    if (dir == null) {
+      return null;
+    }
+    try {
+      return new Journal(new File(dir), config.getQueueJournalSegmentBytes());
+    } catch (IOException e) {
+      throw new PersistenceIOException("Error opening the queue journal " + dir, e);
+    }
+  }
+
+  /**
+   * Return the circuit breaker if enabled.
+   */
+  private CircuitBreaker circuitBreaker(ElasticConfig config) {
+    if (!config.isCircuitBreaker()) {
+      return null;
+    }
+    return new CircuitBreaker(config.getCircuitBreakerFailureRate(), config.getCircuitBreakerSlowCallMillis(),
+        config.getCircuitBreakerWindowSize(), config.getCircuitBreakerMinimumCalls(), config.getCircuitBreakerOpenMillis());
+  }
+
+  /**
+   * Return the sender wrapped with the circuit breaker and bulkheads (if any are enabled).
+   */
+  private IndexMessageSender protect(IndexMessageSender sender, CircuitBreaker circuitBreaker, ElasticConfig config) {
+    Bulkhead search = bulkhead("search", config.getSearchMaxConcurrent(), config);
+    Bulkhead bulk = bulkhead("bulk", config.getBulkMaxConcurrent(), config);
+    if (circuitBreaker == null && search == null && bulk == null) {
+      return sender;
+    }
+    return new ProtectedIndexMessageSender(sender, circuitBreaker, search, bulk);
+  }
+
+  private Bulkhead bulkhead(String name, int maxConcurrent, ElasticConfig config) {
+    return (maxConcurrent <= 0) ? null : new Bulkhead(name, maxConcurrent, config.getBulkheadMaxWaitMillis());
+  }
+
+  /**
+   * Return the sender wrapped to retry failed requests (unless retry is disabled).
+   */
+  private IndexMessageSender retrying(IndexMessageSender sender, ElasticConfig config) {
+    if (config.getHttpMaxRetries() <= 0) {
+      return sender;
+    }
+    RetryPolicy policy = new RetryPolicy(config.getHttpMaxRetries(), config.getHttpRetryBackoffMillis(),
+        config.getHttpRetryMaxBackoffMillis(), config.getHttpRetryMaxTotalMillis());
+    // the bulk throttle retries bulk requests itself
+    return new RetryingIndexMessageSender(sender, policy, !config.isBulkAdaptive());
+  }
+
+  /**
+   * Return the configured HTTP client factory or otherwise the default one.
+   */
+  private HttpClientFactory httpClientFactory(ElasticConfig config) {
+    HttpClientFactory factory = config.getHttpClientFactory();
+    return (factory != null) ? factory : new DefaultHttpClientFactory(config);
+  }
+
+  /**
+   * Return the explicit ElasticConfig or otherwise one loaded from the server properties.
+   */
+  private ElasticConfig elasticConfig(ServerConfig serverConfig) {
+    if (elasticConfig != null) {
+      return elasticConfig;
+    }
+    ElasticConfig config = new ElasticConfig();
+    config.loadSettings(serverConfig.getProperties());
+    return config;
   }
 
 
@@ -52,10 +183,16 @@ public class ElasticDocStoreFactory implements DocStoreFactory {
 
     final ElasticUpdateProcessor updateProcessor;
     final ElasticDocumentStore documentStore;
+    final NodeSniffer sniffer;
+    final IndexQueueReader queueReader;
+    final Journal journal;
 
-    Components(ElasticUpdateProcessor updateProcessor, ElasticDocumentStore documentStore) {
+    Components(ElasticUpdateProcessor updateProcessor, ElasticDocumentStore documentStore, NodeSniffer sniffer, IndexQueueReader queueReader, Journal journal) {
       this.updateProcessor = updateProcessor;
       this.documentStore = documentStore;
+      this.sniffer = sniffer;
+      this.queueReader = queueReader;
+      this.journal = journal;
     }
 
     @Override
@@ -78,12 +215,25 @@ public class ElasticDocStoreFactory implements DocStoreFactory {
       if (online) {
         updateProcessor.onStartup();
         documentStore.onStartup();
+        if (queueReader != null) {
+          queueReader.start();
+        }
       }
     }
 
     @Override
     public void shutdown() {
-
+      if (queueReader != null) {
+        queueReader.shutdown();
+      }
+      updateProcessor.shutdown();
+      documentStore.shutdown();
+      if (sniffer != null) {
+        sniffer.shutdown();
+      }
+      if (journal != null) {
+        journal.close();
+      }
     }
   }
 }
@@ -43,9 +43,13 @@ public class ElasticDocumentStore implements DocumentStore {
   private final EIndexService indexService;
 
   public ElasticDocumentStore(SpiServer server, ElasticUpdateProcessor updateProcessor, IndexMessageSender sender, JsonFactory jsonFactory) {
+    this(server, updateProcessor, sender, jsonFactory, new ElasticConfig());
+  }
+
+  public ElasticDocumentStore(SpiServer server, ElasticUpdateProcessor updateProcessor, IndexMessageSender sender, JsonFactory jsonFactory, ElasticConfig config) {
     this.server = server;
     this.updateProcessor = updateProcessor;
-    this.queryService = new EQueryService(server, jsonFactory, sender);
+    this.queryService = new EQueryService(server, jsonFactory, sender, config);
     this.indexService = new EIndexService(server, jsonFactory, sender);
   }
 
@@ -178,6 +182,24 @@ public class ElasticDocumentStore implements DocumentStore {
     queryService.findEachWhile(request, consumer);
   }
 
+  /**
+   * Execute the findEach query against the document store using the given scroll options.
+   * <p>
+   * Options not set use the defaults from ElasticConfig. For example, a slow consumer can use
+   * a longer keep alive and a bulk copy a larger page size.
+   * </p>
+   */
+  public <T> void findEach(Query<T> query, ScrollOptions options, QueryEachConsumer<T> consumer) {
+    queryService.findEach(query, options, consumer);
+  }
+
+  /**
+   * Execute the findEachWhile query against the document store using the given scroll options.
+   */
+  public <T> void findEachWhile(Query<T> query, ScrollOptions options, QueryEachWhileConsumer<T> consumer) {
+    queryService.findEachWhile(query, options, consumer);
+  }
+
   @Override
   public <T> List<T> findList(DocQueryRequest<T> request) {
     return queryService.findList(request);
@@ -206,6 +228,13 @@ public class ElasticDocumentStore implements DocumentStore {
     }
   }
 
+  /**
+   * Shutdown the query workers.
+   */
+  public void shutdown() {
+    queryService.shutdown();
+  }
+
   private <T> BeanType<T> checkMapped(BeanType<T> type) {
     if (type == null) {
       throw new IllegalStateException("No bean type mapping found?");
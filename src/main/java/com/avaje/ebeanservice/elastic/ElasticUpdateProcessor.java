@@ -4,15 +4,24 @@ import com.avaje.ebean.DocStoreQueueEntry;
 import com.avaje.ebean.config.JsonConfig;
 import com.avaje.ebean.plugin.BeanType;
 import com.avaje.ebean.plugin.SpiServer;
+import com.avaje.ebeaninternal.server.core.PersistRequest;
+import com.avaje.ebeaninternal.server.core.PersistRequestBean;
 import com.avaje.ebeanservice.docstore.api.DocStoreQueryUpdate;
 import com.avaje.ebeanservice.docstore.api.DocStoreUpdate;
 import com.avaje.ebeanservice.docstore.api.DocStoreUpdateProcessor;
 import com.avaje.ebeanservice.docstore.api.DocStoreUpdates;
+import com.avaje.ebeanservice.elastic.bulk.BulkItemError;
+import com.avaje.ebeanservice.elastic.bulk.BulkProcessor;
 import com.avaje.ebeanservice.elastic.bulk.BulkSender;
+import com.avaje.ebeanservice.elastic.bulk.BulkThrottle;
 import com.avaje.ebeanservice.elastic.bulk.BulkUpdate;
+import com.avaje.ebeanservice.elastic.support.CircuitBreaker;
+import com.avaje.ebeanservice.elastic.support.DaemonThreadFactory;
 import com.avaje.ebeanservice.elastic.support.IndexMessageSender;
 import com.avaje.ebeanservice.elastic.support.IndexQueueWriter;
+import com.avaje.ebeanservice.elastic.support.RequestRejectedException;
 import com.avaje.ebeanservice.elastic.update.ConvertToGroups;
+import com.avaje.ebeanservice.elastic.update.ConvertToRetries;
 import com.avaje.ebeanservice.elastic.update.ProcessGroup;
 import com.avaje.ebeanservice.elastic.update.UpdateGroup;
 import com.fasterxml.jackson.core.JsonFactory;
@@ -20,8 +29,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * ElasticSearch implementation of the DocStoreUpdateProcessor.
@@ -38,13 +54,96 @@ public class ElasticUpdateProcessor implements DocStoreUpdateProcessor {
 
   private final BulkSender bulkSender;
 
+  private final BulkProcessor bulkProcessor;
+
+  private final long bulkMaxBytes;
+
+  private final long bulkMaxAgeMillis;
+
+  /**
+   * The circuit breaker of the message sender (null when not used).
+   */
+  private final CircuitBreaker circuitBreaker;
+
+  /**
+   * True to add post-commit updates to the queue while the circuit breaker is open.
+   */
+  private final boolean divertToQueue;
+
+  private final int fetchBatchSize;
+
+  private final int fetchConcurrency;
+
+  /**
+   * Executor fetching the beans to index in parallel (null when fetched serially).
+   */
+  private final ExecutorService fetchExecutor;
+
+  private final boolean ownFetchExecutor;
+
   public ElasticUpdateProcessor(SpiServer server, IndexQueueWriter queueWriter, JsonFactory jsonFactory,
                                 Object defaultObjectMapper, IndexMessageSender messageSender, int defaultBatchSize) {
+    this(server, queueWriter, jsonFactory, defaultObjectMapper, messageSender, defaultBatchSize, new ElasticConfig());
+  }
+
+  public ElasticUpdateProcessor(SpiServer server, IndexQueueWriter queueWriter, JsonFactory jsonFactory,
+                                Object defaultObjectMapper, IndexMessageSender messageSender, int defaultBatchSize,
+                                ElasticConfig config) {
+    this(server, queueWriter, jsonFactory, defaultObjectMapper, messageSender, defaultBatchSize, config, null);
+  }
+
+  public ElasticUpdateProcessor(SpiServer server, IndexQueueWriter queueWriter, JsonFactory jsonFactory,
+                                Object defaultObjectMapper, IndexMessageSender messageSender, int defaultBatchSize,
+                                ElasticConfig config, CircuitBreaker circuitBreaker) {
 
     this.server = server;
     this.queueWriter = queueWriter;
     this.defaultBatchSize = defaultBatchSize;
-    this.bulkSender = new BulkSender(jsonFactory, JsonConfig.Include.NON_EMPTY, defaultObjectMapper, messageSender);
+    this.bulkSender = new BulkSender(jsonFactory, JsonConfig.Include.NON_EMPTY, defaultObjectMapper, messageSender, config, createThrottle(config));
+    this.bulkProcessor = createBulkProcessor(config);
+    this.bulkMaxBytes = config.getBulkMaxBytes();
+    this.bulkMaxAgeMillis = config.getBulkMaxAgeMillis();
+    this.circuitBreaker = circuitBreaker;
+    this.divertToQueue = (circuitBreaker != null) && config.isCircuitBreakerDivertToQueue();
+    this.fetchBatchSize = config.getIndexFetchBatchSize();
+    this.fetchConcurrency = config.getIndexFetchConcurrency();
+    this.ownFetchExecutor = (fetchConcurrency > 1 && config.getExecutor() == null);
+    this.fetchExecutor = createFetchExecutor(config);
+  }
+
+  /**
+   * Create the executor fetching the beans to index in parallel (when enabled).
+   */
+  private ExecutorService createFetchExecutor(ElasticConfig config) {
+    if (fetchConcurrency <= 1) {
+      return null;
+    }
+    if (!ownFetchExecutor) {
+      return config.getExecutor();
+    }
+    return Executors.newFixedThreadPool(fetchConcurrency, new DaemonThreadFactory("elastic-fetch-"));
+  }
+
+  /**
+   * Create the throttle adapting the batch size and concurrency (when enabled).
+   */
+  private BulkThrottle createThrottle(ElasticConfig config) {
+    if (!config.isBulkAdaptive()) {
+      return null;
+    }
+    int maxConcurrency = config.getBulkAdaptiveMaxConcurrency();
+    if (maxConcurrency <= 0) {
+      maxConcurrency = config.getBulkWorkers();
+    }
+    return new BulkThrottle(defaultBatchSize, config.getBulkAdaptiveMinBatchSize(), config.getBulkAdaptiveMaxBatchSize(),
+        config.getBulkAdaptiveBatchIncrement(), 1, maxConcurrency, config.getBulkAdaptiveTargetMillis());
+  }
+
+  private BulkProcessor createBulkProcessor(ElasticConfig config) {
+    if (!config.isBulkAsync()) {
+      return null;
+    }
+    return new BulkProcessor(bulkSender, config.getBulkWorkers(), config.getBulkQueueCapacity(), config.getBulkMaxInFlightBytes(), config.getExecutor());
   }
 
   /**
@@ -54,6 +153,18 @@ public class ElasticUpdateProcessor implements DocStoreUpdateProcessor {
     queueWriter.onStartup();
   }
 
+  /**
+   * Shutdown waiting for any background bulk requests to be sent.
+   */
+  public void shutdown() {
+    if (bulkProcessor != null) {
+      bulkProcessor.shutdown();
+    }
+    if (ownFetchExecutor) {
+      fetchExecutor.shutdownNow();
+    }
+  }
+
   /**
    * Create an 'update by query' processor.
    */
@@ -66,11 +177,17 @@ public class ElasticUpdateProcessor implements DocStoreUpdateProcessor {
 
   /**
    * Create the BulkUpdate for batch sending bulk API messages.
+   * <p>
+   * An explicit batch size is used as is, otherwise the batch size is adapted when a throttle
+   * is used or is the default batch size.
+   * </p>
    */
   public BulkUpdate createBulkUpdate(int batchSize) throws IOException {
 
-    int batch = (batchSize > 0) ? batchSize : defaultBatchSize;
-    return new BulkUpdate(batch, bulkSender);
+    if (batchSize > 0) {
+      return new BulkUpdate(batchSize, bulkMaxBytes, bulkMaxAgeMillis, bulkSender, bulkProcessor);
+    }
+    return new BulkUpdate(defaultBatchSize, bulkMaxBytes, bulkMaxAgeMillis, bulkSender, bulkProcessor, bulkSender.getThrottle());
   }
 
   /**
@@ -79,27 +196,79 @@ public class ElasticUpdateProcessor implements DocStoreUpdateProcessor {
   @Override
   public void process(DocStoreUpdates updates, int batchSize) {
 
+    if (divertToQueue && circuitBreaker.isOpen()) {
+      divertToQueue(updates);
+      return;
+    }
     try {
       BulkUpdate txn = createBulkUpdate(batchSize);
 
       for (DocStoreUpdate persistEvent : updates.getPersistEvents()) {
-        persistEvent.docStoreUpdate(txn.obtain());
+        if (!routingChanged(txn, persistEvent)) {
+          persistEvent.docStoreUpdate(txn.obtain());
+        }
       }
       for (DocStoreUpdate deleteEvent : updates.getDeleteEvents()) {
-        deleteEvent.docStoreUpdate(txn.obtain());
+        delete(txn, deleteEvent);
       }
 
       processQueue(txn, updates.getNestedEvents());
-      txn.flush();
+      // post-commit so don't wait for background bulk requests
+      txn.flush(false);
+      if (divertToQueue) {
+        divertWhenRejected(txn, updates);
+      }
 
       sendQueueEvents(updates);
 
+    } catch (RequestRejectedException e) {
+      if (divertToQueue) {
+        logger.warn("ElasticSearch request rejected, adding updates to the queue: {}", e.getMessage());
+        divertToQueue(updates);
+      } else {
+        logger.error("Failed to send bulk updates", e);
+      }
     } catch (IOException e) {
       //TODO: updates to queue entries and insert into queue
       logger.error("Failed to send bulk updates", e);
     }
   }
 
+  /**
+   * Move the document when the update changes its routing value returning true if it was moved.
+   */
+  private boolean routingChanged(BulkUpdate txn, DocStoreUpdate persistEvent) throws IOException {
+
+    if (persistEvent instanceof PersistRequestBean) {
+      PersistRequestBean<?> request = (PersistRequestBean<?>) persistEvent;
+      Object docType = request.getBeanDescriptor().docStore();
+      if (request.getType() == PersistRequest.Type.UPDATE && docType instanceof ElasticDocStoreBeanAdapter) {
+        ElasticDocStoreBeanAdapter<?> adapter = (ElasticDocStoreBeanAdapter<?>) docType;
+        if (adapter.isRoutingDirty(request)) {
+          adapter.reindexRoutingChange(request.getBeanId(), request, txn);
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Send the delete event including the routing value of the deleted bean when the type is routed.
+   */
+  private void delete(BulkUpdate txn, DocStoreUpdate deleteEvent) throws IOException {
+
+    if (deleteEvent instanceof PersistRequestBean) {
+      PersistRequestBean<?> request = (PersistRequestBean<?>) deleteEvent;
+      Object docType = request.getBeanDescriptor().docStore();
+      if (docType instanceof ElasticDocStoreBeanAdapter && ((ElasticDocStoreBeanAdapter<?>) docType).getRoutingProperty() != null) {
+        ((ElasticDocStoreBeanAdapter<?>) docType).delete(request.getBeanId(), request.getEntityBean(), txn.obtain());
+        return;
+      }
+    }
+    deleteEvent.docStoreUpdate(txn.obtain());
+  }
+
   /**
    * Process queue entries.
    */
@@ -111,12 +280,90 @@ public class ElasticUpdateProcessor implements DocStoreUpdateProcessor {
 
     for (UpdateGroup group : groups) {
       BeanType<?> desc = server.getBeanTypeForQueueId(group.getQueueId());
-      count += ProcessGroup.process(server, desc, group, txn);
+      if (desc == null) {
+        logger.warn("Ignoring queue entries with unknown queueId {}", group.getQueueId());
+      } else {
+        count += ProcessGroup.process(server, desc, group, txn, fetchBatchSize, fetchExecutor, fetchConcurrency);
+      }
     }
 
     return count;
   }
 
+  /**
+   * Return the queue entries that process the documents of the retryable item errors again.
+   * <p>
+   * The item errors are those of sending the given (processed) queue entries.
+   * </p>
+   */
+  public List<DocStoreQueueEntry> retryEntries(List<DocStoreQueueEntry> entries, List<BulkItemError> itemErrors) {
+
+    if (itemErrors.isEmpty()) {
+      return Collections.emptyList();
+    }
+    Map<String, String> queueIds = new HashMap<String, String>();
+    for (DocStoreQueueEntry entry : entries) {
+      BeanType<?> desc = server.getBeanTypeForQueueId(entry.getQueueId());
+      if (desc != null) {
+        queueIds.put(desc.docStore().getIndexName(), entry.getQueueId());
+      }
+    }
+    return ConvertToRetries.retryEntries(itemErrors, queueIds);
+  }
+
+  /**
+   * Add all the updates to the queue for later processing (as ElasticSearch is degraded).
+   * <p>
+   * Some of the updates may already have been sent but index and delete are idempotent.
+   * </p>
+   */
+  private void divertToQueue(DocStoreUpdates updates) {
+
+    List<DocStoreQueueEntry> entries = bulkEntries(updates);
+    entries.addAll(updates.getQueueEntries());
+    queueWriter.queue(entries);
+  }
+
+  /**
+   * Add the updates sent via Bulk API to the queue if a background bulk request is rejected.
+   * <p>
+   * With background sending the rejection happens after process() has returned such that
+   * the updates are diverted by the failure handler (the queue entries have been queued already).
+   * </p>
+   */
+  private void divertWhenRejected(BulkUpdate txn, final DocStoreUpdates updates) {
+    txn.onFailure(new Consumer<Throwable>() {
+      @Override
+      public void accept(Throwable e) {
+        if (e instanceof RequestRejectedException) {
+          logger.warn("ElasticSearch request rejected, adding updates to the queue: {}", e.getMessage());
+          try {
+            queueWriter.queue(bulkEntries(updates));
+          } catch (RuntimeException queueError) {
+            logger.error("Failed to add rejected bulk updates to the queue", queueError);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Return the persist, delete and nested updates as queue entries.
+   */
+  private List<DocStoreQueueEntry> bulkEntries(DocStoreUpdates updates) {
+
+    DocStoreUpdates queued = new DocStoreUpdates();
+    for (DocStoreUpdate persistEvent : updates.getPersistEvents()) {
+      persistEvent.addToQueue(queued);
+    }
+    for (DocStoreUpdate deleteEvent : updates.getDeleteEvents()) {
+      deleteEvent.addToQueue(queued);
+    }
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>(queued.getQueueEntries());
+    entries.addAll(updates.getNestedEvents());
+    return entries;
+  }
+
   /**
    * Add the queue entries to the queue for later processing.
    */
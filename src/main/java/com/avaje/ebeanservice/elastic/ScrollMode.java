@@ -0,0 +1,21 @@
+package com.avaje.ebeanservice.elastic;
+
+/**
+ * The way findEach/findEachWhile iterate over all the hits of a query.
+ */
+public enum ScrollMode {
+
+  /**
+   * Use scroll contexts (held by ElasticSearch and cleared at the end).
+   */
+  SCROLL,
+
+  /**
+   * Page through the hits sorted by a unique tiebreaker using search_after.
+   * <p>
+   * No context is held by ElasticSearch so there is nothing to expire or clear but the hits
+   * are not a point in time snapshot.
+   * </p>
+   */
+  SEARCH_AFTER
+}
@@ -0,0 +1,142 @@
+package com.avaje.ebeanservice.elastic;
+
+/**
+ * Options for findEach/findEachWhile queries that iterate over all the hits.
+ * <p>
+ * Options that are not set use the server wide defaults from {@link ElasticConfig}.
+ * </p>
+ * <pre>{@code
+ *
+ *   ScrollOptions options = new ScrollOptions()
+ *     .keepAlive("5m")
+ *     .pageSize(5000);
+ *
+ *   documentStore.findEach(query, options, consumer);
+ *
+ * }</pre>
+ */
+public class ScrollOptions {
+
+  private ScrollMode mode;
+
+  private String keepAlive;
+
+  private Integer pageSize;
+
+  private Integer slices;
+
+  private Boolean sliceConcurrent;
+
+  private Integer prefetch;
+
+  /**
+   * Set the way the hits are iterated (scroll contexts or search_after).
+   */
+  public ScrollOptions mode(ScrollMode mode) {
+    this.mode = mode;
+    return this;
+  }
+
+  /**
+   * Set the scroll keep alive (e.g. <code>1m</code>) which needs to cover the time to consume a page.
+   */
+  public ScrollOptions keepAlive(String keepAlive) {
+    this.keepAlive = keepAlive;
+    return this;
+  }
+
+  /**
+   * Set the number of hits per page (0 to use the query maxRows).
+   */
+  public ScrollOptions pageSize(int pageSize) {
+    this.pageSize = pageSize;
+    return this;
+  }
+
+  /**
+   * Set the number of slices scrolled in parallel (0 or 1 for no slicing).
+   */
+  public ScrollOptions slices(int slices) {
+    this.slices = slices;
+    return this;
+  }
+
+  /**
+   * Set to true for the slice workers to hand beans to the consumer concurrently.
+   */
+  public ScrollOptions sliceConcurrent(boolean sliceConcurrent) {
+    this.sliceConcurrent = sliceConcurrent;
+    return this;
+  }
+
+  /**
+   * Set the number of pages requested ahead of the consumer (0 for no prefetch).
+   */
+  public ScrollOptions prefetch(int prefetch) {
+    this.prefetch = prefetch;
+    return this;
+  }
+
+  /**
+   * Return the way the hits are iterated.
+   */
+  public ScrollMode getMode() {
+    return mode;
+  }
+
+  /**
+   * Return the scroll keep alive.
+   */
+  public String getKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * Return the number of hits per page (0 to use the query maxRows).
+   */
+  public int getPageSize() {
+    return (pageSize == null) ? 0 : pageSize;
+  }
+
+  /**
+   * Return the number of slices scrolled in parallel.
+   */
+  public int getSlices() {
+    return (slices == null) ? 0 : slices;
+  }
+
+  /**
+   * Return true if the slice workers hand beans to the consumer concurrently.
+   */
+  public boolean isSliceConcurrent() {
+    return (sliceConcurrent != null) && sliceConcurrent;
+  }
+
+  /**
+   * Return the number of pages requested ahead of the consumer.
+   */
+  public int getPrefetch() {
+    return (prefetch == null) ? 0 : prefetch;
+  }
+
+  /**
+   * Return true if the scroll is sliced and/or prefetches pages in the background.
+   */
+  public boolean isPipelined() {
+    return getSlices() > 1 || getPrefetch() > 0;
+  }
+
+  /**
+   * Return new options with the values not set here taken from the defaults.
+   */
+  public ScrollOptions withDefaults(ScrollOptions defaults) {
+    ScrollOptions merged = new ScrollOptions();
+    merged.mode = (mode != null) ? mode : defaults.mode;
+    merged.keepAlive = (keepAlive != null) ? keepAlive : defaults.keepAlive;
+    merged.pageSize = (pageSize != null) ? pageSize : defaults.pageSize;
+    merged.slices = (slices != null) ? slices : defaults.slices;
+    merged.sliceConcurrent = (sliceConcurrent != null) ? sliceConcurrent : defaults.sliceConcurrent;
+    merged.prefetch = (prefetch != null) ? prefetch : defaults.prefetch;
+    return merged;
+  }
+}
@@ -5,30 +5,63 @@ import com.avaje.ebean.FetchPath;
 import com.avaje.ebeaninternal.api.SpiEbeanServer;
 import com.avaje.ebeaninternal.server.text.json.WriteJson;
 import com.avaje.ebeanservice.docstore.api.DocStoreUpdateContext;
+import com.avaje.ebeanservice.elastic.support.BytesOutputStream;
+import com.avaje.ebeanservice.elastic.support.StringBuilderWriter;
 import com.fasterxml.jackson.core.JsonGenerator;
 
 import java.io.IOException;
-import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * For ElasticSearch Bulk API processing this holds the JsonGenerator and associated data.
  * <p>
  *   This is used to build requests to be sent to the ElasticSearch Bulk API.
  * </p>
+ * <p>
+ *   The content is either buffered as characters (StringBuilderWriter) or as UTF-8 bytes
+ *   (BytesOutputStream) such that it can be sent without an intermediate String.
+ * </p>
  */
 public class BulkBuffer implements DocStoreUpdateContext {
 
   private final JsonGenerator generator;
 
-  private final Writer writer;
+  private final StringBuilderWriter writer;
+
+  private final BytesOutputStream bytes;
 
   private final Object defaultObjectMapper;
 
   private final JsonConfig.Include defaultInclude;
 
-  public BulkBuffer(JsonGenerator generator, Writer writer, Object defaultObjectMapper, JsonConfig.Include defaultInclude) {
+  private final long createdNanos = System.nanoTime();
+
+  /**
+   * The start position of each action in the content.
+   */
+  private final List<Integer> actionStarts = new ArrayList<Integer>();
+
+  private boolean released;
+
+  /**
+   * Construct buffering the content as characters.
+   */
+  public BulkBuffer(JsonGenerator generator, StringBuilderWriter writer, Object defaultObjectMapper, JsonConfig.Include defaultInclude) {
+    this(generator, writer, null, defaultObjectMapper, defaultInclude);
+  }
+
+  /**
+   * Construct buffering the content as UTF-8 bytes.
+   */
+  public BulkBuffer(JsonGenerator generator, BytesOutputStream bytes, Object defaultObjectMapper, JsonConfig.Include defaultInclude) {
+    this(generator, null, bytes, defaultObjectMapper, defaultInclude);
+  }
+
+  private BulkBuffer(JsonGenerator generator, StringBuilderWriter writer, BytesOutputStream bytes, Object defaultObjectMapper, JsonConfig.Include defaultInclude) {
     this.generator = generator;
     this.writer = writer;
+    this.bytes = bytes;
     this.defaultObjectMapper = defaultObjectMapper;
     this.defaultInclude = defaultInclude;
   }
@@ -37,11 +70,120 @@ public class BulkBuffer implements DocStoreUpdateContext {
     return new WriteJson(server, gen, fetchPath, null, defaultObjectMapper, defaultInclude);
   }
 
+  /**
+   * Return true if the content is buffered as UTF-8 bytes.
+   */
+  public boolean isBytes() {
+    return bytes != null;
+  }
+
   /**
    * Return the buffer content (Bulk API JSON with new lines etc).
    */
   public String getContent() {
-    return writer.toString();
+    return isBytes() ? bytes.toString() : writer.toString();
+  }
+
+  /**
+   * Return the underlying UTF-8 bytes (valid content from 0 to size()) when buffering as bytes.
+   */
+  public byte[] getBytes() {
+    return bytes.array();
+  }
+
+  /**
+   * Mark as released returning false if it was already released.
+   */
+  boolean markReleased() {
+    if (released) {
+      return false;
+    }
+    released = true;
+    return true;
+  }
+
+  /**
+   * Return the underlying writer (null when buffering as bytes).
+   */
+  StringBuilderWriter writer() {
+    return writer;
+  }
+
+  /**
+   * Return the underlying bytes output (null when buffering as characters).
+   */
+  BytesOutputStream bytesOutput() {
+    return bytes;
+  }
+
+  /**
+   * Return the current size of the buffer content (flushing the generator first).
+   */
+  public int size() throws IOException {
+    if (!generator.isClosed()) {
+      generator.flush();
+    }
+    return length();
+  }
+
+  private int length() {
+    return isBytes() ? bytes.size() : writer.length();
+  }
+
+  /**
+   * Mark the start of the next action (such that failed actions can be extracted and retried).
+   */
+  public void markAction() throws IOException {
+    int position = size();
+    int count = actionStarts.size();
+    if (count == 0 || actionStarts.get(count - 1) != position) {
+      actionStarts.add(position);
+    }
+  }
+
+  /**
+   * Return the number of actions in the buffer or -1 when the actions have not been marked.
+   */
+  public int actionCount() {
+    int count = actionStarts.size();
+    if (count == 0 || actionStarts.get(0) != 0) {
+      return -1;
+    }
+    // the last mark may not have had content written
+    return (actionStarts.get(count - 1) == length()) ? count - 1 : count;
+  }
+
+  /**
+   * Copy the content of the given action to the target buffer.
+   */
+  public void copyAction(int index, BulkBuffer target) throws IOException {
+    int start = actionStarts.get(index);
+    int end = (index + 1 < actionStarts.size()) ? actionStarts.get(index + 1) : length();
+    target.markAction();
+    if (isBytes()) {
+      target.writeBytes(bytes.array(), start, end - start);
+    } else {
+      target.gen().writeRaw(writer.getBuffer().substring(start, end));
+    }
+  }
+
+  /**
+   * Write raw UTF-8 bytes to the content.
+   */
+  private void writeBytes(byte[] source, int offset, int len) throws IOException {
+    if (isBytes()) {
+      generator.flush();
+      bytes.write(source, offset, len);
+    } else {
+      generator.writeRaw(new String(source, offset, len, "UTF-8"));
+    }
+  }
+
+  /**
+   * Return the time in millis since this buffer was created.
+   */
+  public long ageMillis() {
+    return (System.nanoTime() - createdNanos) / 1000000L;
   }
 
   /**
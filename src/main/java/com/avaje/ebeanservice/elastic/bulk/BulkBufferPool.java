@@ -0,0 +1,131 @@
+package com.avaje.ebeanservice.elastic.bulk;
+
+import com.avaje.ebeanservice.elastic.support.BytesOutputStream;
+import com.avaje.ebeanservice.elastic.support.StringBuilderWriter;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of the underlying buffers used by BulkBuffer such that they are reused rather than
+ * allocated (and grown) for each Bulk API request.
+ * <p>
+ * The total capacity retained by the pool is capped. New buffers are sized from a running
+ * average of recent batch sizes.
+ * </p>
+ */
+public class BulkBufferPool {
+
+  private static final int MIN_INITIAL_SIZE = 500;
+
+  private final Queue<StringBuilderWriter> writers = new ConcurrentLinkedQueue<StringBuilderWriter>();
+
+  private final Queue<BytesOutputStream> bytes = new ConcurrentLinkedQueue<BytesOutputStream>();
+
+  private final long maxRetainedBytes;
+
+  private final AtomicLong retainedBytes = new AtomicLong();
+
+  /**
+   * Running average of recent batch sizes.
+   */
+  private final AtomicLong averageSize = new AtomicLong(MIN_INITIAL_SIZE);
+
+  /**
+   * Construct with the maximum total capacity (in bytes) retained by the pool.
+   */
+  public BulkBufferPool(long maxRetainedBytes) {
+    this.maxRetainedBytes = maxRetainedBytes;
+  }
+
+  /**
+   * Return the initial size for a new buffer based on the recent batch sizes.
+   */
+  int initialSize() {
+    long size = averageSize.get();
+    // allow some headroom above the average
+    return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(MIN_INITIAL_SIZE, size + (size >> 3)));
+  }
+
+  /**
+   * Return the total capacity (in bytes) currently retained by the pool.
+   */
+  public long getRetainedBytes() {
+    return retainedBytes.get();
+  }
+
+  /**
+   * Obtain a character buffer from the pool or create a new one.
+   */
+  StringBuilderWriter obtainWriter() {
+    StringBuilderWriter writer = writers.poll();
+    if (writer == null) {
+      return new StringBuilderWriter(initialSize());
+    }
+    retainedBytes.addAndGet(-writerBytes(writer));
+    return writer;
+  }
+
+  /**
+   * Obtain a bytes buffer from the pool or create a new one.
+   */
+  BytesOutputStream obtainBytes() {
+    BytesOutputStream output = bytes.poll();
+    if (output == null) {
+      return new BytesOutputStream(initialSize());
+    }
+    retainedBytes.addAndGet(-output.capacity());
+    return output;
+  }
+
+  /**
+   * Return the underlying buffer to the pool (if there is capacity to retain it).
+   */
+  void release(BulkBuffer buffer) {
+    if (!buffer.markReleased()) {
+      return;
+    }
+    StringBuilderWriter writer = buffer.writer();
+    if (writer != null) {
+      recordSize(writer.length());
+      long capacity = writerBytes(writer);
+      if (retain(capacity)) {
+        writer.reset();
+        writers.offer(writer);
+      }
+    } else {
+      BytesOutputStream output = buffer.bytesOutput();
+      recordSize(output.size());
+      if (retain(output.capacity())) {
+        output.reset();
+        bytes.offer(output);
+      }
+    }
+  }
+
+  private long writerBytes(StringBuilderWriter writer) {
+    // 2 bytes per char
+    return 2L * writer.capacity();
+  }
+
+  private boolean retain(long capacity) {
+    while (true) {
+      long current = retainedBytes.get();
+      if (current + capacity > maxRetainedBytes) {
+        return false;
+      }
+      if (retainedBytes.compareAndSet(current, current + capacity)) {
+        return true;
+      }
+    }
+  }
+
+  private void recordSize(int size) {
+    if (size > 0) {
+      // exponential moving average weighting recent batches (not strictly atomic but good enough)
+      long average = averageSize.get();
+      averageSize.set(average + ((size - average) >> 2));
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.avaje.ebeanservice.elastic.bulk;
+
+/**
+ * A failed item (action) from a Bulk API response.
+ */
+public class BulkItemError {
+
+  private final int position;
+  private final String action;
+  private final String index;
+  private final String id;
+  private final int status;
+  private final String type;
+  private final String reason;
+
+  public BulkItemError(int position, String action, String index, String id, int status, String type, String reason) {
+    this.position = position;
+    this.action = action;
+    this.index = index;
+    this.id = id;
+    this.status = status;
+    this.type = type;
+    this.reason = reason;
+  }
+
+  /**
+   * Return the position of the action in the Bulk API request.
+   */
+  public int getPosition() {
+    return position;
+  }
+
+  /**
+   * Return the action (index, update, delete).
+   */
+  public String getAction() {
+    return action;
+  }
+
+  /**
+   * Return the index name.
+   */
+  public String getIndex() {
+    return index;
+  }
+
+  /**
+   * Return the document id.
+   */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Return the http status of the item.
+   */
+  public int getStatus() {
+    return status;
+  }
+
+  /**
+   * Return the error type (e.g. es_rejected_execution_exception, version_conflict_engine_exception).
+   */
+  public String getType() {
+    return type;
+  }
+
+  /**
+   * Return the error reason.
+   */
+  public String getReason() {
+    return reason;
+  }
+
+  /**
+   * Return true if the failure is transient such that the action should be retried.
+   */
+  public boolean isRetryable() {
+    return status == 429 || status == 503;
+  }
+
+  @Override
+  public String toString() {
+    return action + " id:" + id + " index:" + index + " status:" + status + " type:" + type + " reason:" + reason;
+  }
+}
@@ -0,0 +1,275 @@
+package com.avaje.ebeanservice.elastic.bulk;
+
+import com.avaje.ebeanservice.elastic.ElasticDocumentStore;
+import com.avaje.ebeanservice.elastic.support.BoundedExecutor;
+import com.avaje.ebeanservice.elastic.support.DaemonThreadFactory;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends Bulk API requests in the background using a fixed number of sender workers.
+ * <p>
+ * Full buffers are handed off via {@link #submit(BulkBuffer)} and queued for the workers. The
+ * caller only blocks (backpressure) when the queue is full or the limit on bytes queued/in-flight
+ * has been reached.
+ * </p>
+ * <p>
+ * The workers are either threads of an internal pool or tasks run on a caller supplied executor
+ * (for example a virtual thread per task executor) bounded to the number of workers.
+ * </p>
+ */
+public class BulkProcessor {
+
+  private static final Logger bulkLogger = ElasticDocumentStore.BULK;
+
+  private final BulkSender bulkSender;
+
+  private final Executor executor;
+
+  /**
+   * The internal worker pool (null when using a caller supplied executor).
+   */
+  private final ExecutorService ownExecutor;
+
+  private final ScheduledExecutorService retryScheduler;
+
+  /**
+   * Permits for the batches either queued or being sent.
+   */
+  private final Semaphore slots;
+
+  private final int permits;
+
+  private final long maxInFlightBytes;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition bytesReleased = lock.newCondition();
+
+  private long inFlightBytes;
+
+  private volatile boolean closed;
+
+  /**
+   * Construct with the number of workers, queue capacity and maximum bytes in-flight.
+   */
+  public BulkProcessor(BulkSender bulkSender, int workers, int queueCapacity, long maxInFlightBytes) {
+    this(bulkSender, workers, queueCapacity, maxInFlightBytes, null);
+  }
+
+  /**
+   * Construct with the executor the workers are run on (null to use an internal thread pool).
+   */
+  public BulkProcessor(BulkSender bulkSender, int workers, int queueCapacity, long maxInFlightBytes, Executor executor) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("workers must be at least 1 but was " + workers);
+    }
+    this.bulkSender = bulkSender;
+    this.maxInFlightBytes = maxInFlightBytes;
+    this.permits = workers + Math.max(queueCapacity, 0);
+    this.slots = new Semaphore(permits);
+    if (executor == null) {
+      this.ownExecutor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+          new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("elastic-bulk-"));
+      this.executor = ownExecutor;
+    } else {
+      this.ownExecutor = null;
+      this.executor = new BoundedExecutor(executor, workers);
+    }
+    this.retryScheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("elastic-bulk-retry-"));
+  }
+
+  /**
+   * Submit the buffer to be sent in the background.
+   * <p>
+   * This blocks if the queue is full or the maximum bytes in-flight has been reached. Failed items
+   * that are retryable are re-enqueued with backoff and the returned future completes when the
+   * buffer and any retries have been sent (or completes exceptionally when sending failed).
+   * </p>
+   */
+  public CompletableFuture<BulkResponse> submit(BulkBuffer buffer) throws IOException {
+
+    if (closed) {
+      throw new IOException("Bulk processor has been shutdown");
+    }
+    int size = buffer.size();
+    acquire(size);
+    SendTask task = new SendTask(size, new CompletableFuture<BulkResponse>());
+    try {
+      executor.execute(task.attempt(buffer));
+    } catch (RejectedExecutionException e) {
+      release(size);
+      throw new IOException("Bulk processor has been shutdown", e);
+    }
+    return task.result;
+  }
+
+  /**
+   * Return the bytes currently queued or in-flight.
+   */
+  public long getInFlightBytes() {
+    lock.lock();
+    try {
+      return inFlightBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Shutdown waiting for the queued requests to be sent.
+   */
+  public void shutdown() {
+    closed = true;
+    retryScheduler.shutdown();
+    try {
+      if (ownExecutor != null) {
+        ownExecutor.shutdown();
+        if (!ownExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+          bulkLogger.warn("Timeout waiting for bulk processor to send queued requests");
+        }
+      } else {
+        // the caller supplied executor is not shutdown so wait for all the slots to be released
+        if (slots.tryAcquire(permits, 30, TimeUnit.SECONDS)) {
+          slots.release(permits);
+        } else {
+          bulkLogger.warn("Timeout waiting for bulk processor to send queued requests");
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void acquire(int size) throws InterruptedIOException {
+    try {
+      slots.acquire();
+    } catch (InterruptedException e) {
+      throw interrupted();
+    }
+    try {
+      lock.lockInterruptibly();
+      try {
+        // a single large batch is allowed when nothing else is in-flight
+        while (inFlightBytes > 0 && inFlightBytes + size > maxInFlightBytes) {
+          bytesReleased.await();
+        }
+        inFlightBytes += size;
+      } finally {
+        lock.unlock();
+      }
+    } catch (InterruptedException e) {
+      slots.release();
+      throw interrupted();
+    }
+  }
+
+  private InterruptedIOException interrupted() {
+    Thread.currentThread().interrupt();
+    return new InterruptedIOException("Interrupted waiting to submit bulk request");
+  }
+
+  private void release(int size) {
+    lock.lock();
+    try {
+      inFlightBytes -= size;
+      bytesReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    slots.release();
+  }
+
+  /**
+   * Sends a buffer and any retries of its failed items.
+   */
+  private class SendTask {
+
+    private final int size;
+
+    private final CompletableFuture<BulkResponse> result;
+
+    private BulkResponse response;
+
+    private int attempt;
+
+    SendTask(int size, CompletableFuture<BulkResponse> result) {
+      this.size = size;
+      this.result = result;
+    }
+
+    Runnable attempt(final BulkBuffer buffer) {
+      return new Runnable() {
+        @Override
+        public void run() {
+          send(buffer);
+        }
+      };
+    }
+
+    private void send(BulkBuffer buffer) {
+      try {
+        BulkResponse attemptResponse = bulkSender.sendBulk(buffer);
+        List<BulkItemError> retryable = attemptResponse.takeRetryable();
+        if (response == null) {
+          response = attemptResponse;
+        } else {
+          response.addItemErrors(attemptResponse.getItemErrors());
+        }
+        BulkBuffer retryBuffer = null;
+        if (!retryable.isEmpty() && bulkSender.isRetry(attempt)) {
+          retryBuffer = bulkSender.retryBuffer(buffer, retryable);
+        }
+        bulkSender.release(buffer);
+        if (retryBuffer == null) {
+          response.addItemErrors(retryable);
+          complete();
+        } else {
+          scheduleRetry(retryBuffer);
+        }
+      } catch (Throwable e) {
+        bulkLogger.error("Failed to send bulk request", e);
+        bulkSender.release(buffer);
+        release(size);
+        result.completeExceptionally(e);
+      }
+    }
+
+    private void scheduleRetry(final BulkBuffer retryBuffer) {
+      long backoff = bulkSender.retryBackoffMillis(attempt++);
+      retryScheduler.schedule(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            executor.execute(attempt(retryBuffer));
+          } catch (RejectedExecutionException e) {
+            bulkSender.release(retryBuffer);
+            release(size);
+            result.completeExceptionally(new IOException("Bulk processor shutdown before retry", e));
+          }
+        }
+      }, backoff, TimeUnit.MILLISECONDS);
+    }
+
+    private void complete() {
+      bulkSender.logErrors(response);
+      release(size);
+      result.complete(response);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package com.avaje.ebeanservice.elastic.bulk;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The response of a Bulk API request with any failed items.
+ */
+public class BulkResponse {
+
+  private final long took;
+
+  private final boolean errors;
+
+  private final int itemCount;
+
+  private final List<BulkItemError> itemErrors;
+
+  /**
+   * Construct with the item errors (if any).
+   */
+  public BulkResponse(long took, boolean errors, int itemCount, List<BulkItemError> itemErrors) {
+    this.took = took;
+    this.errors = errors;
+    this.itemCount = itemCount;
+    this.itemErrors = itemErrors;
+  }
+
+  /**
+   * Return an empty response (for an empty request).
+   */
+  public static BulkResponse empty() {
+    return new BulkResponse(0, false, 0, new ArrayList<BulkItemError>());
+  }
+
+  /**
+   * Return the server execution time.
+   */
+  public long getTook() {
+    return took;
+  }
+
+  /**
+   * Return true if the response reported errors.
+   */
+  public boolean isErrors() {
+    return errors;
+  }
+
+  /**
+   * Return the number of items in the response (only read when there are errors).
+   */
+  public int getItemCount() {
+    return itemCount;
+  }
+
+  /**
+   * Return the failed items.
+   */
+  public List<BulkItemError> getItemErrors() {
+    return itemErrors;
+  }
+
+  /**
+   * Add failed items (typically from a subsequent retry).
+   */
+  public void addItemErrors(List<BulkItemError> errors) {
+    itemErrors.addAll(errors);
+  }
+
+  /**
+   * Remove and return the failed items that can be retried.
+   */
+  public List<BulkItemError> takeRetryable() {
+    List<BulkItemError> retryable = new ArrayList<BulkItemError>();
+    Iterator<BulkItemError> it = itemErrors.iterator();
+    while (it.hasNext()) {
+      BulkItemError error = it.next();
+      if (error.isRetryable()) {
+        retryable.add(error);
+        it.remove();
+      }
+    }
+    return retryable;
+  }
+}
@@ -0,0 +1,142 @@
+package com.avaje.ebeanservice.elastic.bulk;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser for Bulk API responses.
+ * <p>
+ * The top level <code>errors</code> flag is read first and the <code>items</code> are only
+ * read when it is true (so successful responses are not fully parsed).
+ * </p>
+ */
+public class BulkResponseParser {
+
+  private final JsonParser parser;
+
+  private final List<BulkItemError> itemErrors = new ArrayList<BulkItemError>();
+
+  private long took;
+
+  private Boolean errors;
+
+  private int itemCount;
+
+  /**
+   * Parse the Bulk API response.
+   */
+  public static BulkResponse parse(JsonParser parser) throws IOException {
+    try {
+      return new BulkResponseParser(parser).read();
+    } finally {
+      parser.close();
+    }
+  }
+
+  private BulkResponseParser(JsonParser parser) {
+    this.parser = parser;
+  }
+
+  private BulkResponse read() throws IOException {
+
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new IOException("Unexpected bulk response, expected json object");
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("took".equals(field)) {
+        took = parser.getLongValue();
+      } else if ("errors".equals(field)) {
+        errors = parser.getBooleanValue();
+        if (!errors) {
+          // no need to read the items
+          break;
+        }
+      } else if ("items".equals(field) && token == JsonToken.START_ARRAY) {
+        readItems();
+      } else if ("error".equals(field)) {
+        throw new IOException("Bulk request failed with error " + readError());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    boolean hasErrors = (errors == null) ? !itemErrors.isEmpty() : errors;
+    return new BulkResponse(took, hasErrors, itemCount, itemErrors);
+  }
+
+  private String readError() throws IOException {
+    if (parser.getCurrentToken() == JsonToken.START_OBJECT) {
+      String[] typeReason = readErrorObject();
+      return typeReason[0] + " " + typeReason[1];
+    }
+    return parser.getValueAsString();
+  }
+
+  private void readItems() throws IOException {
+    while (parser.nextToken() == JsonToken.START_OBJECT) {
+      // the item is an object with a single field which is the action
+      parser.nextToken();
+      String action = parser.getCurrentName();
+      parser.nextToken();
+      readItem(itemCount++, action);
+      // end of item object
+      parser.nextToken();
+    }
+  }
+
+  private void readItem(int position, String action) throws IOException {
+
+    String index = null;
+    String id = null;
+    int status = 0;
+    String[] error = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("_index".equals(field)) {
+        index = parser.getValueAsString();
+      } else if ("_id".equals(field)) {
+        id = parser.getValueAsString();
+      } else if ("status".equals(field)) {
+        status = parser.getIntValue();
+      } else if ("error".equals(field)) {
+        if (token == JsonToken.START_OBJECT) {
+          error = readErrorObject();
+        } else {
+          error = new String[]{null, parser.getValueAsString()};
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (error != null) {
+      itemErrors.add(new BulkItemError(position, action, index, id, status, error[0], error[1]));
+    }
+  }
+
+  /**
+   * Read the error object returning the type and reason.
+   */
+  private String[] readErrorObject() throws IOException {
+    String type = null;
+    String reason = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      parser.nextToken();
+      if ("type".equals(field)) {
+        type = parser.getValueAsString();
+      } else if ("reason".equals(field)) {
+        reason = parser.getValueAsString();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return new String[]{type, reason};
+  }
+}
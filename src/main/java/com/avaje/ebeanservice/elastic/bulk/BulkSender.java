@@ -1,17 +1,22 @@
 package com.avaje.ebeanservice.elastic.bulk;
 
 import com.avaje.ebean.config.JsonConfig;
-import com.avaje.ebean.text.json.EJson;
+import com.avaje.ebeanservice.elastic.ElasticConfig;
 import com.avaje.ebeanservice.elastic.ElasticDocumentStore;
+import com.avaje.ebeanservice.elastic.support.BytesOutputStream;
+import com.avaje.ebeanservice.elastic.support.HttpStatusException;
+import com.avaje.ebeanservice.elastic.support.IndexMessageResponse;
 import com.avaje.ebeanservice.elastic.support.IndexMessageSender;
+import com.avaje.ebeanservice.elastic.support.RetryPolicy;
 import com.avaje.ebeanservice.elastic.support.StringBuilderWriter;
+import com.fasterxml.jackson.core.JsonEncoding;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import org.slf4j.Logger;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Map;
+import java.io.InterruptedIOException;
+import java.util.List;
 
 /**
  * Sends Bulk API messages to ElasticSearch.
@@ -28,61 +33,295 @@ public class BulkSender {
 
   private final IndexMessageSender messageSender;
 
+  private final int maxRetries;
+
+  private final long retryBackoffMillis;
+
+  private final boolean bytesBuffer;
+
+  private final BulkBufferPool bufferPool;
+
+  /**
+   * Adapts the batch size and concurrency (null when not used).
+   */
+  private final BulkThrottle throttle;
+
   /**
    * Construct with appropriate JSON configuration.
    */
   public BulkSender(JsonFactory jsonFactory, JsonConfig.Include defaultInclude, Object defaultObjectMapper, IndexMessageSender messageSender) {
+    this(jsonFactory, defaultInclude, defaultObjectMapper, messageSender, new ElasticConfig());
+  }
+
+  /**
+   * Construct with JSON configuration and the bulk settings (retry of failed items, buffer mode).
+   */
+  public BulkSender(JsonFactory jsonFactory, JsonConfig.Include defaultInclude, Object defaultObjectMapper, IndexMessageSender messageSender,
+                    ElasticConfig config) {
+    this(jsonFactory, defaultInclude, defaultObjectMapper, messageSender, config, null);
+  }
+
+  /**
+   * Construct with the throttle that adapts the batch size and concurrency (null for fixed batch size).
+   */
+  public BulkSender(JsonFactory jsonFactory, JsonConfig.Include defaultInclude, Object defaultObjectMapper, IndexMessageSender messageSender,
+                    ElasticConfig config, BulkThrottle throttle) {
     this.jsonFactory = jsonFactory;
     this.defaultInclude = defaultInclude;
     this.defaultObjectMapper = defaultObjectMapper;
     this.messageSender = messageSender;
+    this.maxRetries = config.getBulkMaxRetries();
+    this.retryBackoffMillis = config.getBulkRetryBackoffMillis();
+    this.bytesBuffer = config.isBulkBytesBuffer();
+    this.bufferPool = new BulkBufferPool(config.getBulkPoolMaxBytes());
+    this.throttle = throttle;
+  }
+
+  /**
+   * Return the throttle adapting the batch size and concurrency (null when not used).
+   */
+  public BulkThrottle getThrottle() {
+    return throttle;
   }
 
   /**
    * Create a new buffer with appropriate JSON setup.
+   * <p>
+   * The underlying buffer is obtained from the pool and should be returned via {@link #release(BulkBuffer)}.
+   * </p>
    */
   public BulkBuffer newBuffer() throws IOException {
 
-    StringBuilderWriter writer = new StringBuilderWriter(500);
+    if (bytesBuffer) {
+      BytesOutputStream bytes = bufferPool.obtainBytes();
+      JsonGenerator gen = jsonFactory.createGenerator(bytes, JsonEncoding.UTF8);
+      return new BulkBuffer(gen, bytes, defaultObjectMapper, defaultInclude);
+    }
+    StringBuilderWriter writer = bufferPool.obtainWriter();
     JsonGenerator gen = jsonFactory.createGenerator(writer);
     return new BulkBuffer(gen, writer, defaultObjectMapper, defaultInclude);
   }
 
+  /**
+   * Release the buffer after it has been sent returning its underlying buffer to the pool.
+   */
+  public void release(BulkBuffer buffer) {
+    bufferPool.release(buffer);
+  }
+
+  /**
+   * Return the pool of underlying buffers.
+   */
+  public BulkBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * Send the bulk buffer retrying failed items that are retryable (e.g. 429 rejected execution).
+   * <p>
+   * Only the failed items are resent with exponential backoff between attempts.
+   * </p>
+   */
+  public BulkResponse sendBulkWithRetry(BulkBuffer buffer) throws IOException {
+
+    try {
+      BulkResponse response = sendBulk(buffer);
+      List<BulkItemError> retryable = response.takeRetryable();
+      int attempt = 0;
+      while (!retryable.isEmpty()) {
+        BulkBuffer retryBuffer = (attempt < maxRetries) ? retryBuffer(buffer, retryable) : null;
+        if (retryBuffer == null) {
+          response.addItemErrors(retryable);
+          break;
+        }
+        release(buffer);
+        buffer = retryBuffer;
+        sleep(retryBackoffMillis(attempt++));
+        BulkResponse retryResponse = sendBulk(retryBuffer);
+        retryable = retryResponse.takeRetryable();
+        response.addItemErrors(retryResponse.getItemErrors());
+      }
+      logErrors(response);
+      return response;
+
+    } finally {
+      release(buffer);
+    }
+  }
+
+  /**
+   * Return true if there are retries remaining given the attempt.
+   */
+  boolean isRetry(int attempt) {
+    return attempt < maxRetries;
+  }
+
+  /**
+   * Return the backoff in millis for the given retry attempt (starting at 0).
+   */
+  long retryBackoffMillis(int attempt) {
+    return retryBackoffMillis << Math.min(attempt, 16);
+  }
+
+  /**
+   * Log the failed items.
+   */
+  void logErrors(BulkResponse response) {
+    List<BulkItemError> itemErrors = response.getItemErrors();
+    if (!itemErrors.isEmpty()) {
+      bulkLogger.warn("Bulk request has {} failed items, first failure {}", itemErrors.size(), itemErrors.get(0));
+    }
+  }
+
+  private void sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting to retry bulk request");
+    }
+  }
+
+  /**
+   * Return a new buffer containing only the failed actions (or null if they can not be determined).
+   */
+  public BulkBuffer retryBuffer(BulkBuffer buffer, List<BulkItemError> failed) throws IOException {
+
+    int actionCount = buffer.actionCount();
+    if (actionCount < 0) {
+      return null;
+    }
+    for (BulkItemError error : failed) {
+      if (error.getPosition() >= actionCount) {
+        // response items do not match the actions
+        return null;
+      }
+    }
+    BulkBuffer retryBuffer = newBuffer();
+    for (BulkItemError error : failed) {
+      buffer.copyAction(error.getPosition(), retryBuffer);
+    }
+    return retryBuffer;
+  }
+
   /**
    * Send the bulk buffer returning the response.
    */
-  public Map<String, Object> sendBulk(BulkBuffer buffer) throws IOException {
+  public BulkResponse sendBulk(BulkBuffer buffer) throws IOException {
 
     buffer.flush();
 
-    String content = buffer.getContent();
-    if (content.isEmpty()) {
+    if (buffer.size() == 0) {
       if (bulkLogger.isDebugEnabled()) {
         bulkLogger.debug("ElasticBulkMessage is empty?");
       }
-      return Collections.emptyMap();
+      return BulkResponse.empty();
     }
 
     if (bulkLogger.isTraceEnabled()) {
-      bulkLogger.trace("ElasticBulkMessage Request:\n{}", content);
+      bulkLogger.trace("ElasticBulkMessage Request:\n{}", buffer.getContent());
     }
-    String response = messageSender.postBulk(content);
-    if (bulkLogger.isTraceEnabled()) {
-      bulkLogger.trace("ElasticBulkMessage Response:\n{}", response);
+    if (throttle != null) {
+      return sendThrottled(buffer);
+    }
+    return parseBulkResponse(post(buffer));
+  }
+
+  /**
+   * Send with a throttle permit recording the response time and rejections.
+   * <p>
+   * A throttled bulk request is not retried by the generic HTTP retry layer but here such that
+   * each whole request 429 is reported to the throttle as a rejection and the permit is released
+   * while backing off (rather than the backoff being recorded as a slow response).
+   * </p>
+   */
+  private BulkResponse sendThrottled(BulkBuffer buffer) throws IOException {
+
+    for (int attempt = 0; ; attempt++) {
+      long retryAfterMillis;
+      long start = throttle.acquire();
+      try {
+        BulkResponse response = parseBulkResponse(post(buffer));
+        throttle.onResponse(start, buffer.actionCount(), response.getTook(), isRejected(response));
+        return response;
+
+      } catch (HttpStatusException e) {
+        if (e.getCode() == 429) {
+          throttle.onRejected(start);
+        }
+        if (!isRetryableStatus(e.getCode()) || !isRetry(attempt)) {
+          throw e;
+        }
+        retryAfterMillis = RetryPolicy.retryAfterMillis(e.getRetryAfter(), System.currentTimeMillis());
+      } finally {
+        throttle.release();
+      }
+      long backoff = Math.max(retryBackoffMillis(attempt), retryAfterMillis);
+      bulkLogger.warn("Retrying bulk request in {} millis after it was rejected or ElasticSearch was unavailable", backoff);
+      sleep(backoff);
     }
+  }
 
-    return parseBulkResponse(response);
+  /**
+   * Return true if the whole bulk request failed with a transient status.
+   */
+  private static boolean isRetryableStatus(int code) {
+    return code == 429 || code == 502 || code == 503 || code == 504;
   }
 
   /**
-   * Parse the returned JSON response into a Map.
+   * Return true if items were rejected due to load (429).
    */
-  private Map<String, Object> parseBulkResponse(String response) throws IOException {
+  private boolean isRejected(BulkResponse response) {
+    for (BulkItemError error : response.getItemErrors()) {
+      if (error.getStatus() == 429) {
+        return true;
+      }
+    }
+    return false;
+  }
 
-    return EJson.parseObject(response);
+  /**
+   * Post the content as bytes or as a String depending on how the buffer content is held.
+   */
+  private IndexMessageResponse post(BulkBuffer buffer) throws IOException {
+    if (buffer.isBytes()) {
+      return trace(messageSender.postBulkStream(buffer.getBytes(), 0, buffer.size()));
+    }
+    return trace(messageSender.postBulkStream(buffer.getContent()));
+  }
+
+  private IndexMessageResponse trace(IndexMessageResponse response) throws IOException {
+    if (bulkLogger.isTraceEnabled()) {
+      // reads the whole body
+      bulkLogger.trace("ElasticBulkMessage Response:\n{}", response.getBody());
+    }
+    return response;
+  }
+
+  /**
+   * Parse the returned JSON response reading the items only when there are errors.
+   * <p>
+   * The response is parsed as it is read from the stream which is closed after the
+   * <code>errors</code> flag when it is false (without reading the items).
+   * </p>
+   */
+  private BulkResponse parseBulkResponse(IndexMessageResponse response) throws IOException {
+
+    return BulkResponseParser.parse(response.createParser(jsonFactory));
   }
 
   public void setUpdateQuery(String indexName, String indexType, String script) throws IOException {
     messageSender.postUpdateQuery(indexName, indexType, script);
   }
+
+  /**
+   * Send a delete by query request throwing an IOException when it is not successful.
+   */
+  public void deleteQuery(String indexName, String indexType, String jsonQuery) throws IOException {
+    IndexMessageResponse response = messageSender.postDeleteQuery(indexType, indexName, jsonQuery);
+    if (response.getCode() != 200) {
+      throw new IOException("Delete by query on " + indexName + " failed with code " + response.getCode() + " body:" + response.getBody());
+    }
+  }
 }
@@ -0,0 +1,238 @@
+package com.avaje.ebeanservice.elastic.bulk;
+
+import com.avaje.ebeanservice.elastic.ElasticDocumentStore;
+import org.slf4j.Logger;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adapts the Bulk API batch size and the number of concurrent Bulk API requests to the load
+ * ElasticSearch can sustain (additive increase, multiplicative decrease).
+ * <p>
+ * Each response is recorded with its <code>took</code> and round trip time. A response with
+ * rejected (429) items or a request rejected as a whole halves both the batch size and the
+ * concurrency. A response slower than the target latency halves the batch size. Otherwise a
+ * response of a (mostly) full batch increases the batch size by the increment and after a
+ * number of such responses the concurrency is increased by one.
+ * </p>
+ * <p>
+ * Only one decrease is made for the responses of requests that were in-flight at the time of
+ * the decrease (they are all likely to report the same overload).
+ * </p>
+ */
+public class BulkThrottle {
+
+  private static final Logger bulkLogger = ElasticDocumentStore.BULK;
+
+  /**
+   * The number of successive healthy responses before the concurrency is increased.
+   */
+  private static final int INCREASE_CONCURRENCY_AFTER = 10;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final Condition permitReleased = lock.newCondition();
+
+  private final int minBatchSize;
+
+  private final int maxBatchSize;
+
+  private final int batchIncrement;
+
+  private final int minConcurrency;
+
+  private final int maxConcurrency;
+
+  private final long targetMillis;
+
+  private volatile int batchSize;
+
+  private int concurrency;
+
+  private int active;
+
+  private int healthy;
+
+  private long decreasedAtNanos;
+
+  private long averageTookMillis;
+
+  private long averageRoundTripMillis;
+
+  /**
+   * Construct with the bounds of the batch size and concurrency.
+   *
+   * @param initialBatchSize the initial batch size
+   * @param minBatchSize     the minimum batch size
+   * @param maxBatchSize     the maximum batch size
+   * @param batchIncrement   the batch size increase after a healthy response
+   * @param minConcurrency   the minimum number of concurrent Bulk API requests
+   * @param maxConcurrency   the maximum (and initial) number of concurrent Bulk API requests
+   * @param targetMillis     responses slower than this reduce the batch size (0 to ignore latency)
+   */
+  public BulkThrottle(int initialBatchSize, int minBatchSize, int maxBatchSize, int batchIncrement,
+                      int minConcurrency, int maxConcurrency, long targetMillis) {
+    this.minBatchSize = Math.max(minBatchSize, 1);
+    this.maxBatchSize = Math.max(maxBatchSize, this.minBatchSize);
+    this.batchIncrement = Math.max(batchIncrement, 1);
+    this.minConcurrency = Math.max(minConcurrency, 1);
+    this.maxConcurrency = Math.max(maxConcurrency, this.minConcurrency);
+    this.targetMillis = targetMillis;
+    this.batchSize = Math.min(Math.max(initialBatchSize, this.minBatchSize), this.maxBatchSize);
+    this.concurrency = this.maxConcurrency;
+    this.decreasedAtNanos = System.nanoTime();
+  }
+
+  /**
+   * Return the current batch size.
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Return the current number of concurrent Bulk API requests.
+   */
+  public int getConcurrency() {
+    lock.lock();
+    try {
+      return concurrency;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Return the moving average of the server execution time (took) of the Bulk API requests.
+   */
+  public long getAverageTookMillis() {
+    lock.lock();
+    try {
+      return averageTookMillis;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Return the moving average of the round trip time of the Bulk API requests.
+   */
+  public long getAverageRoundTripMillis() {
+    lock.lock();
+    try {
+      return averageRoundTripMillis;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Wait for a permit to send a Bulk API request returning the start time in nanos.
+   * <p>
+   * The permit must be released via {@link #release()} and the outcome recorded.
+   * </p>
+   */
+  public long acquire() throws InterruptedIOException {
+    try {
+      lock.lockInterruptibly();
+      try {
+        while (active >= concurrency) {
+          permitReleased.await();
+        }
+        active++;
+      } finally {
+        lock.unlock();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting to send bulk request");
+    }
+    return System.nanoTime();
+  }
+
+  /**
+   * Release the permit.
+   */
+  public void release() {
+    lock.lock();
+    try {
+      active--;
+      permitReleased.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Record the response of a Bulk API request.
+   *
+   * @param startNanos the time the request was sent (from {@link #acquire()})
+   * @param actions    the number of actions in the request
+   * @param tookMillis the server execution time reported in the response
+   * @param rejected   true if items of the request were rejected (429)
+   */
+  public void onResponse(long startNanos, int actions, long tookMillis, boolean rejected) {
+
+    long roundTripMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    lock.lock();
+    try {
+      averageTookMillis = average(averageTookMillis, tookMillis);
+      averageRoundTripMillis = average(averageRoundTripMillis, roundTripMillis);
+      if (rejected) {
+        decrease(startNanos, true, "rejected");
+      } else if (targetMillis > 0 && Math.max(tookMillis, roundTripMillis) > targetMillis) {
+        decrease(startNanos, false, "slow " + roundTripMillis + " millis");
+      } else if (actions * 2 >= batchSize) {
+        increase();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Record a Bulk API request that was rejected as a whole (429).
+   */
+  public void onRejected(long startNanos) {
+    lock.lock();
+    try {
+      decrease(startNanos, true, "rejected");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private long average(long average, long sample) {
+    return (average == 0) ? sample : (average * 7 + sample) / 8;
+  }
+
+  private void increase() {
+    batchSize = Math.min(batchSize + batchIncrement, maxBatchSize);
+    if (++healthy >= INCREASE_CONCURRENCY_AFTER) {
+      healthy = 0;
+      if (concurrency < maxConcurrency) {
+        concurrency++;
+        permitReleased.signalAll();
+      }
+    }
+  }
+
+  private void decrease(long startNanos, boolean rejected, String reason) {
+    healthy = 0;
+    if (startNanos - decreasedAtNanos < 0) {
+      // sent before the last decrease so already accounted for
+      return;
+    }
+    decreasedAtNanos = System.nanoTime();
+    batchSize = Math.max(batchSize / 2, minBatchSize);
+    if (rejected) {
+      concurrency = Math.max(concurrency / 2, minConcurrency);
+    }
+    if (bulkLogger.isDebugEnabled()) {
+      bulkLogger.debug("Bulk requests {}, reduced batch size to {} and concurrency to {}", reason, batchSize, concurrency);
+    }
+  }
+}
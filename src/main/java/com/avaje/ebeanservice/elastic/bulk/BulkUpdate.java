@@ -3,24 +3,86 @@ package com.avaje.ebeanservice.elastic.bulk;
 import com.avaje.ebeanservice.docstore.api.DocStoreUpdate;
 
 import java.io.IOException;
-import java.util.Map;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
- * Batches calls to the BULK API based on batch size.
+ * Batches calls to the BULK API based on batch size, buffer size and buffer age.
+ * <p>
+ * When a BulkProcessor is supplied the full buffers are sent in the background and
+ * the caller only waits for them on {@link #flush()}.
+ * </p>
+ * <p>
+ * When a BulkThrottle is supplied the batch size is adapted to the observed load rather than fixed.
+ * </p>
  */
 public class BulkUpdate {
 
   private final BulkSender bulkSender;
 
+  private final BulkProcessor bulkProcessor;
+
   private final int batchSize;
 
+  private final long maxBytes;
+
+  private final long maxAgeMillis;
+
+  private final BulkThrottle throttle;
+
+  /**
+   * Buffers sent via the BulkProcessor that have not yet been checked for completion.
+   */
+  private final LinkedList<CompletableFuture<BulkResponse>> pending = new LinkedList<CompletableFuture<BulkResponse>>();
+
+  /**
+   * The failed items collected from the responses.
+   */
+  private final List<BulkItemError> itemErrors = new ArrayList<BulkItemError>();
+
   private int count;
 
   private BulkBuffer currentBuffer;
 
   public BulkUpdate(int batchSize, BulkSender bulkSender) throws IOException {
+    this(batchSize, bulkSender, null);
+  }
+
+  public BulkUpdate(int batchSize, BulkSender bulkSender, BulkProcessor bulkProcessor) throws IOException {
+    this(batchSize, 0, 0, bulkSender, bulkProcessor);
+  }
+
+  /**
+   * Construct with limits on the number of entries, size and age of each Bulk API request.
+   *
+   * @param batchSize    The maximum number of entries in a Bulk API request
+   * @param maxBytes     The maximum size of the Bulk API request content (0 for no limit)
+   * @param maxAgeMillis The maximum age of the buffer before it is sent (0 for no limit)
+   */
+  public BulkUpdate(int batchSize, long maxBytes, long maxAgeMillis, BulkSender bulkSender, BulkProcessor bulkProcessor) throws IOException {
+    this(batchSize, maxBytes, maxAgeMillis, bulkSender, bulkProcessor, null);
+  }
+
+  /**
+   * Construct with a throttle that determines the batch size (null to use the fixed batch size).
+   */
+  public BulkUpdate(int batchSize, long maxBytes, long maxAgeMillis, BulkSender bulkSender, BulkProcessor bulkProcessor,
+                    BulkThrottle throttle) throws IOException {
+    this.throttle = throttle;
     this.bulkSender = bulkSender;
+    this.bulkProcessor = bulkProcessor;
     this.batchSize = batchSize;
+    this.maxBytes = maxBytes;
+    this.maxAgeMillis = maxAgeMillis;
   }
 
   /**
@@ -38,39 +100,152 @@ public class BulkUpdate {
    */
   public BulkBuffer obtain() throws IOException {
     if (currentBuffer == null) {
-      return newBuffer();
-    }
-    if (++count > batchSize) {
-      flush();
-      return newBuffer();
+      newBuffer();
+    } else if (++count > batchSize() || isFull()) {
+      sendCurrent();
+      newBuffer();
     }
+    currentBuffer.markAction();
     return currentBuffer;
   }
 
+  private int batchSize() {
+    return (throttle == null) ? batchSize : throttle.getBatchSize();
+  }
+
+  /**
+   * Return true if the current buffer has reached the maximum size or age.
+   */
+  private boolean isFull() throws IOException {
+    if (maxBytes > 0 && currentBuffer.size() >= maxBytes) {
+      return true;
+    }
+    return maxAgeMillis > 0 && currentBuffer.ageMillis() >= maxAgeMillis;
+  }
+
   /**
    * Flush the current buffer sending the Bulk API request to ElasticSearch.
+   * <p>
+   * When sending in the background this waits for all the buffers sent by this BulkUpdate to complete.
+   * </p>
    */
   public void flush() throws IOException {
+    flush(true);
+  }
+
+  /**
+   * Flush the current buffer with the option to not wait for background sending to complete.
+   */
+  public void flush(boolean waitForCompletion) throws IOException {
+    sendCurrent();
+    if (waitForCompletion) {
+      awaitPending();
+    }
+  }
 
+  /**
+   * Register a handler that is notified (at most once) when a background request fails.
+   * <p>
+   * This covers the requests not waited for by {@link #flush(boolean)} and is expected to be
+   * registered after that flush. Failures of requests that have already been waited for are
+   * thrown by the flush instead.
+   * </p>
+   */
+  public void onFailure(final Consumer<Throwable> handler) {
+    final AtomicBoolean notified = new AtomicBoolean();
+    for (CompletableFuture<BulkResponse> future : pending) {
+      future.whenComplete(new BiConsumer<BulkResponse, Throwable>() {
+        @Override
+        public void accept(BulkResponse response, Throwable e) {
+          if (e != null && notified.compareAndSet(false, true)) {
+            handler.accept(e);
+          }
+        }
+      });
+    }
+  }
+
+  private void sendCurrent() throws IOException {
     if (currentBuffer != null) {
-      collectErrors(bulkSender.sendBulk(currentBuffer));
+      BulkBuffer buffer = currentBuffer;
+      currentBuffer = null;
+      if (bulkProcessor == null) {
+        collectErrors(bulkSender.sendBulkWithRetry(buffer));
+      } else {
+        pending.add(bulkProcessor.submit(buffer));
+        collectCompleted();
+      }
+    }
+  }
+
+  /**
+   * Collect the responses of the background requests that have already completed.
+   */
+  private void collectCompleted() throws IOException {
+    Iterator<CompletableFuture<BulkResponse>> it = pending.iterator();
+    while (it.hasNext()) {
+      CompletableFuture<BulkResponse> future = it.next();
+      if (future.isDone()) {
+        it.remove();
+        collectErrors(response(future));
+      }
     }
   }
 
-  private BulkBuffer newBuffer() throws IOException {
+  /**
+   * Wait for all the background requests to complete.
+   */
+  private void awaitPending() throws IOException {
+    while (!pending.isEmpty()) {
+      collectErrors(response(pending.removeFirst()));
+    }
+  }
+
+  private BulkResponse response(Future<BulkResponse> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for bulk response");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Error sending bulk request", cause);
+    }
+  }
+
+  private void newBuffer() throws IOException {
     count = 1;
     currentBuffer = bulkSender.newBuffer();
-    return currentBuffer;
   }
 
   /**
    * Collect all the error responses for reporting back on completion.
    */
-  protected void collectErrors(Map<String, Object> response) {
+  protected void collectErrors(BulkResponse response) {
+    itemErrors.addAll(response.getItemErrors());
+  }
 
+  /**
+   * Return the failed items (that were not successfully retried) from the responses collected so far.
+   * <p>
+   * When sending in the background this is complete after {@link #flush()}.
+   * </p>
+   */
+  public List<BulkItemError> getItemErrors() {
+    return itemErrors;
   }
 
   public void sendUpdateQuery(String indexName, String indexType, String script) throws IOException {
     bulkSender.setUpdateQuery(indexName, indexType, script);
   }
+
+  /**
+   * Send a delete by query request (outside of the Bulk API) waiting for it to complete.
+   */
+  public void sendDeleteQuery(String indexName, String indexType, String jsonQuery) throws IOException {
+    bulkSender.deleteQuery(indexName, indexType, jsonQuery);
+  }
 }
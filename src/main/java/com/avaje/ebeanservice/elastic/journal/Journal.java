@@ -0,0 +1,588 @@
+package com.avaje.ebeanservice.elastic.journal;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only journal of queue entries held in memory-mapped segment files.
+ * <p>
+ * Each entry is appended as a record of the payload length, the CRC32 of the payload and the
+ * payload (see {@link JournalCodec}). When a record does not fit in the active segment the
+ * segment is forced to disk and a new segment created. On open the segments are scanned and
+ * the journal ends at the first record that is incomplete or fails the CRC check (a torn write).
+ * </p>
+ * <p>
+ * {@link #sync(long)} is a group commit. Writers that append concurrently wait on the same
+ * force of the segment rather than each forcing it.
+ * </p>
+ * <p>
+ * The single reader has a cursor that is advanced by {@link #read(int)}. {@link #checkpoint()}
+ * persists the cursor and deletes the segments before it. {@link #rewind()} moves the cursor back
+ * to the checkpoint such that the entries are read again. Entries are therefore read at least once.
+ * </p>
+ * <p>
+ * Deleted segments and, on {@link #close()}, all the segments are unmapped rather than waiting
+ * for the garbage collector to release the mapped memory and the (deleted) files.
+ * </p>
+ */
+public class Journal {
+
+  private static final Logger logger = LoggerFactory.getLogger(Journal.class);
+
+  private static final String SEGMENT_PREFIX = "segment-";
+
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  private static final String CHECKPOINT_FILE = "checkpoint";
+
+  /**
+   * Record header of the payload length and CRC.
+   */
+  private static final int HEADER_BYTES = 8;
+
+  /**
+   * The minimum segment size.
+   */
+  public static final int MIN_SEGMENT_BYTES = 64 * 1024;
+
+  private final File directory;
+
+  private final int segmentBytes;
+
+  private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<Long, Segment>();
+
+  private final ReentrantLock writeLock = new ReentrantLock();
+
+  private final ReentrantLock syncLock = new ReentrantLock();
+
+  private final ReentrantLock readLock = new ReentrantLock();
+
+  private final File checkpointFile;
+
+  private Segment active;
+
+  /**
+   * Total bytes appended (guarded by the write lock, volatile for sync).
+   */
+  private volatile long appended;
+
+  /**
+   * Total bytes appended that have been forced to disk.
+   */
+  private volatile long synced;
+
+  private long readSegment;
+
+  private int readPosition;
+
+  private long checkpointSegment;
+
+  private int checkpointPosition;
+
+  /**
+   * Set when closed and the segments are unmapped.
+   */
+  private volatile boolean closed;
+
+  /**
+   * Open (or create) the journal in the given directory.
+   *
+   * @param directory    the directory holding the segment files
+   * @param segmentBytes the size of each segment file
+   */
+  public Journal(File directory, int segmentBytes) throws IOException {
+    this.directory = directory;
+    this.segmentBytes = Math.max(segmentBytes, MIN_SEGMENT_BYTES);
+    this.checkpointFile = new File(directory, CHECKPOINT_FILE);
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create journal directory " + directory);
+    }
+    open();
+  }
+
+  private void open() throws IOException {
+
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        String name = file.getName();
+        if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+          long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+          segments.put(id, new Segment(id, file, Math.max((int) file.length(), segmentBytes)));
+        }
+      }
+    }
+    if (segments.isEmpty()) {
+      active = createSegment(1);
+    } else {
+      for (Segment segment : segments.values()) {
+        segment.recover();
+        segment.sealed = true;
+      }
+      active = segments.lastEntry().getValue();
+      active.sealed = false;
+      active.clearTail();
+    }
+    synced = appended;
+
+    readCheckpoint();
+    deleteSegmentsBefore(checkpointSegment);
+    readSegment = checkpointSegment;
+    readPosition = checkpointPosition;
+  }
+
+  private Segment createSegment(long id) throws IOException {
+    File file = new File(directory, SEGMENT_PREFIX + String.format("%020d", id) + SEGMENT_SUFFIX);
+    Segment segment = new Segment(id, file, segmentBytes);
+    segments.put(id, segment);
+    return segment;
+  }
+
+  /**
+   * Return the directory holding the segment files.
+   */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Return the number of segment files.
+   */
+  public int getSegmentCount() {
+    return segments.size();
+  }
+
+  /**
+   * Append the entries returning the position to {@link #sync(long)} to.
+   */
+  public long append(List<DocStoreQueueEntry> entries) throws IOException {
+
+    List<byte[]> payloads = new ArrayList<byte[]>(entries.size());
+    for (DocStoreQueueEntry entry : entries) {
+      byte[] payload = JournalCodec.encode(entry);
+      if (payload.length + HEADER_BYTES > segmentBytes) {
+        throw new IOException("Queue entry of " + payload.length + " bytes does not fit in a journal segment");
+      }
+      payloads.add(payload);
+    }
+
+    writeLock.lock();
+    try {
+      if (closed) {
+        throw new IOException("Journal " + directory + " is closed");
+      }
+      for (byte[] payload : payloads) {
+        if (!active.hasSpace(payload.length)) {
+          roll();
+        }
+        active.append(payload);
+        appended += payload.length + HEADER_BYTES;
+      }
+      return appended;
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Force the active segment to disk and continue in a new segment.
+   */
+  private void roll() throws IOException {
+    Segment current = active;
+    current.force();
+    active = createSegment(current.id + 1);
+    current.sealed = true;
+  }
+
+  /**
+   * Wait until the journal is forced to disk up to the given position.
+   */
+  public void sync(long position) {
+
+    if (synced >= position) {
+      return;
+    }
+    syncLock.lock();
+    try {
+      if (synced >= position) {
+        // forced by another writer
+        return;
+      }
+      long upTo = appended;
+      // earlier segments are forced when rolled
+      active.force();
+      synced = upTo;
+    } finally {
+      syncLock.unlock();
+    }
+  }
+
+  /**
+   * Read up to max entries from the reader cursor advancing the cursor.
+   */
+  public List<DocStoreQueueEntry> read(int max) {
+
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+    readLock.lock();
+    try {
+      // segments before the read segment are unmapped when deleted
+      while (!closed && entries.size() < max) {
+        Segment segment = segments.get(readSegment);
+        if (segment == null) {
+          break;
+        }
+        // read sealed before limit such that the limit is final when sealed
+        boolean sealed = segment.sealed;
+        int limit = segment.limit;
+        if (readPosition < limit) {
+          DocStoreQueueEntry entry = segment.read(readPosition);
+          if (entry == null) {
+            logger.warn("Corrupt record in journal segment {} at {}, skipping the rest of the segment", segment.file, readPosition);
+            readPosition = limit;
+          } else {
+            entries.add(entry);
+            readPosition += segment.recordBytes(readPosition);
+          }
+        } else if (sealed) {
+          Long next = segments.higherKey(readSegment);
+          if (next == null) {
+            break;
+          }
+          readSegment = next;
+          readPosition = 0;
+        } else {
+          // caught up with the writer
+          break;
+        }
+      }
+      return entries;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Persist the reader cursor and delete the fully read segments.
+   */
+  public void checkpoint() throws IOException {
+
+    readLock.lock();
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(20);
+      buffer.putLong(readSegment);
+      buffer.putInt(readPosition);
+      CRC32 crc = new CRC32();
+      crc.update(buffer.array(), 0, 12);
+      buffer.putLong(crc.getValue());
+      buffer.flip();
+
+      RandomAccessFile file = new RandomAccessFile(checkpointFile, "rw");
+      try {
+        FileChannel channel = file.getChannel();
+        channel.write(buffer, 0);
+        channel.force(true);
+      } finally {
+        file.close();
+      }
+      checkpointSegment = readSegment;
+      checkpointPosition = readPosition;
+      deleteSegmentsBefore(checkpointSegment);
+
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Move the reader cursor back to the last checkpoint.
+   */
+  public void rewind() {
+    readLock.lock();
+    try {
+      readSegment = checkpointSegment;
+      readPosition = checkpointPosition;
+    } finally {
+      readLock.unlock();
+    }
+  }
+
+  /**
+   * Read the checkpoint defaulting to the start of the first segment.
+   */
+  private void readCheckpoint() throws IOException {
+
+    checkpointSegment = segments.firstKey();
+    checkpointPosition = 0;
+    if (!checkpointFile.exists()) {
+      return;
+    }
+    RandomAccessFile file = new RandomAccessFile(checkpointFile, "r");
+    try {
+      if (file.length() < 20) {
+        logger.warn("Ignoring incomplete journal checkpoint {}", checkpointFile);
+        return;
+      }
+      byte[] bytes = new byte[20];
+      file.readFully(bytes);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      long segment = buffer.getLong();
+      int position = buffer.getInt();
+      CRC32 crc = new CRC32();
+      crc.update(bytes, 0, 12);
+      if (crc.getValue() != buffer.getLong()) {
+        logger.warn("Ignoring corrupt journal checkpoint {}", checkpointFile);
+      } else if (segment >= checkpointSegment && segments.containsKey(segment)) {
+        checkpointSegment = segment;
+        checkpointPosition = position;
+      }
+    } finally {
+      file.close();
+    }
+  }
+
+  private void deleteSegmentsBefore(long segmentId) {
+    Map<Long, Segment> before = segments.headMap(segmentId);
+    for (Segment segment : new ArrayList<Segment>(before.values())) {
+      segments.remove(segment.id);
+      segment.unmap();
+      if (!segment.file.delete()) {
+        logger.debug("Unable to delete journal segment {}", segment.file);
+      }
+    }
+  }
+
+  /**
+   * Force the active segment to disk and unmap the segments.
+   * <p>
+   * Entries can not be appended or read after the journal is closed.
+   * </p>
+   */
+  public void close() {
+    writeLock.lock();
+    readLock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      active.force();
+      synced = appended;
+      closed = true;
+      for (Segment segment : segments.values()) {
+        segment.unmap();
+      }
+    } finally {
+      readLock.unlock();
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Release the mapped memory of the buffer (rather than when it is garbage collected).
+   * <p>
+   * This uses the JDK internal cleaner via reflection, <code>DirectBuffer.cleaner().clean()</code>
+   * on Java 8 and <code>Unsafe.invokeCleaner()</code> on Java 9+. When neither is accessible the
+   * memory is released when the buffer is garbage collected.
+   * </p>
+   */
+  private static void unmap(MappedByteBuffer buffer) {
+    try {
+      Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+      cleanerMethod.setAccessible(true);
+      Object cleaner = cleanerMethod.invoke(buffer);
+      if (cleaner != null) {
+        cleaner.getClass().getMethod("clean").invoke(cleaner);
+      }
+      return;
+    } catch (Throwable e) {
+      // not Java 8, try Java 9+
+    }
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(theUnsafe.get(null), buffer);
+    } catch (Throwable e) {
+      logger.debug("Unable to unmap journal segment, it is released when garbage collected", e);
+    }
+  }
+
+  /**
+   * A memory-mapped segment file.
+   */
+  private static class Segment {
+
+    final long id;
+
+    final File file;
+
+    final MappedByteBuffer mapped;
+
+    /**
+     * Buffer used by the writer (guarded by the write lock).
+     */
+    final ByteBuffer writeBuffer;
+
+    /**
+     * Buffer used by the reader (guarded by the read lock).
+     */
+    final ByteBuffer readBuffer;
+
+    /**
+     * The end of the records written to this segment.
+     */
+    volatile int limit;
+
+    /**
+     * Set when no more records are written to this segment.
+     */
+    volatile boolean sealed;
+
+    /**
+     * Guards forcing the mapped buffer against it being unmapped.
+     */
+    private final ReentrantLock mapLock = new ReentrantLock();
+
+    /**
+     * Set when unmapped (guarded by the map lock).
+     */
+    private boolean unmapped;
+
+    Segment(long id, File file, int size) throws IOException {
+      this.id = id;
+      this.file = file;
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+        // the mapping remains valid after the file is closed
+        this.mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+      } finally {
+        raf.close();
+      }
+      this.writeBuffer = mapped.duplicate();
+      this.readBuffer = mapped.duplicate();
+    }
+
+    boolean hasSpace(int payloadLength) {
+      return limit + HEADER_BYTES + payloadLength <= writeBuffer.capacity();
+    }
+
+    void append(byte[] payload) {
+      CRC32 crc = new CRC32();
+      crc.update(payload, 0, payload.length);
+      writeBuffer.position(limit);
+      writeBuffer.putInt(payload.length);
+      writeBuffer.putInt((int) crc.getValue());
+      writeBuffer.put(payload);
+      limit = writeBuffer.position();
+    }
+
+    /**
+     * Force the segment to disk (unless already unmapped, for example a sync racing a delete).
+     */
+    void force() {
+      mapLock.lock();
+      try {
+        if (!unmapped) {
+          mapped.force();
+        }
+      } finally {
+        mapLock.unlock();
+      }
+    }
+
+    /**
+     * Unmap the segment. It must not be read or appended to after this.
+     */
+    void unmap() {
+      mapLock.lock();
+      try {
+        if (!unmapped) {
+          unmapped = true;
+          Journal.unmap(mapped);
+        }
+      } finally {
+        mapLock.unlock();
+      }
+    }
+
+    int recordBytes(int position) {
+      return HEADER_BYTES + readBuffer.getInt(position);
+    }
+
+    /**
+     * Read the record at the position returning null if it is incomplete or fails the CRC check.
+     */
+    DocStoreQueueEntry read(int position) {
+      if (!isValid(readBuffer, position)) {
+        return null;
+      }
+      readBuffer.limit(position + recordBytes(position));
+      readBuffer.position(position + HEADER_BYTES);
+      try {
+        return JournalCodec.decode(readBuffer);
+      } catch (RuntimeException e) {
+        return null;
+      } finally {
+        readBuffer.clear();
+      }
+    }
+
+    /**
+     * Find the end of the valid records.
+     */
+    void recover() {
+      int position = 0;
+      while (isValid(writeBuffer, position)) {
+        position += HEADER_BYTES + writeBuffer.getInt(position);
+      }
+      limit = position;
+    }
+
+    /**
+     * Zero the bytes after the last valid record if a torn write left any.
+     */
+    void clearTail() {
+      int capacity = writeBuffer.capacity();
+      if (limit + 4 <= capacity && writeBuffer.getInt(limit) != 0) {
+        logger.info("Truncating incomplete record in journal segment {} at {}", file, limit);
+        for (int i = limit; i < capacity; i++) {
+          writeBuffer.put(i, (byte) 0);
+        }
+        mapped.force();
+      }
+    }
+
+    private static boolean isValid(ByteBuffer buffer, int position) {
+      int capacity = buffer.capacity();
+      if (position + HEADER_BYTES > capacity) {
+        return false;
+      }
+      int length = buffer.getInt(position);
+      if (length <= 0 || length > capacity - position - HEADER_BYTES) {
+        return false;
+      }
+      byte[] payload = new byte[length];
+      ByteBuffer source = buffer.duplicate();
+      source.position(position + HEADER_BYTES);
+      source.get(payload);
+      CRC32 crc = new CRC32();
+      crc.update(payload, 0, length);
+      return (int) crc.getValue() == buffer.getInt(position + 4);
+    }
+  }
+}
@@ -0,0 +1,157 @@
+package com.avaje.ebeanservice.elastic.journal;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * Compact binary encoding of queue entries.
+ * <p>
+ * An entry is encoded as the action byte, the queueId, the (nullable) path and the bean id.
+ * Strings are a varint length followed by the UTF-8 bytes (the path length is offset by one such
+ * that 0 is null). The bean id is a type byte followed by a zigzag varint for Long and Integer
+ * ids, 16 bytes for UUID ids and a string otherwise.
+ * </p>
+ */
+final class JournalCodec {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int ID_LONG = 1;
+
+  private static final int ID_INTEGER = 2;
+
+  private static final int ID_STRING = 3;
+
+  private static final int ID_UUID = 4;
+
+  private JournalCodec() {
+  }
+
+  /**
+   * Encode the entry.
+   */
+  static byte[] encode(DocStoreQueueEntry entry) {
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(32);
+    out.write(entry.getType().getValue());
+    writeString(out, entry.getQueueId());
+    String path = entry.getPath();
+    if (path == null) {
+      out.write(0);
+    } else {
+      byte[] bytes = path.getBytes(UTF8);
+      writeVarLong(out, bytes.length + 1);
+      out.write(bytes, 0, bytes.length);
+    }
+    writeId(out, entry.getBeanId());
+    return out.toByteArray();
+  }
+
+  /**
+   * Decode the entry from the buffer (positioned at the start of the encoded entry).
+   */
+  static DocStoreQueueEntry decode(ByteBuffer buffer) {
+
+    DocStoreQueueEntry.Action action = action(buffer.get());
+    String queueId = readString(buffer, (int) readVarLong(buffer));
+    int pathLength = (int) readVarLong(buffer);
+    String path = (pathLength == 0) ? null : readString(buffer, pathLength - 1);
+    Object beanId = readId(buffer);
+    return new DocStoreQueueEntry(action, queueId, path, beanId);
+  }
+
+  private static DocStoreQueueEntry.Action action(int value) {
+    for (DocStoreQueueEntry.Action action : DocStoreQueueEntry.Action.values()) {
+      if (action.getValue() == value) {
+        return action;
+      }
+    }
+    throw new IllegalStateException("Unknown queue entry action " + value);
+  }
+
+  private static void writeId(ByteArrayOutputStream out, Object id) {
+
+    if (id instanceof Long) {
+      out.write(ID_LONG);
+      writeVarLong(out, zigzag((Long) id));
+    } else if (id instanceof Integer) {
+      out.write(ID_INTEGER);
+      writeVarLong(out, zigzag((Integer) id));
+    } else if (id instanceof UUID) {
+      UUID uuid = (UUID) id;
+      out.write(ID_UUID);
+      writeLong(out, uuid.getMostSignificantBits());
+      writeLong(out, uuid.getLeastSignificantBits());
+    } else {
+      out.write(ID_STRING);
+      writeString(out, id.toString());
+    }
+  }
+
+  private static Object readId(ByteBuffer buffer) {
+
+    int type = buffer.get();
+    switch (type) {
+      case ID_LONG:
+        return unzigzag(readVarLong(buffer));
+      case ID_INTEGER:
+        return (int) unzigzag(readVarLong(buffer));
+      case ID_UUID:
+        return new UUID(buffer.getLong(), buffer.getLong());
+      case ID_STRING:
+        return readString(buffer, (int) readVarLong(buffer));
+      default:
+        throw new IllegalStateException("Unknown bean id type " + type);
+    }
+  }
+
+  private static void writeString(ByteArrayOutputStream out, String value) {
+    byte[] bytes = value.getBytes(UTF8);
+    writeVarLong(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static String readString(ByteBuffer buffer, int length) {
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private static void writeLong(ByteArrayOutputStream out, long value) {
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      out.write((int) (value >>> shift));
+    }
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static void writeVarLong(ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.write((int) value);
+  }
+
+  private static long readVarLong(ByteBuffer buffer) {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IllegalStateException("Malformed varint");
+  }
+}
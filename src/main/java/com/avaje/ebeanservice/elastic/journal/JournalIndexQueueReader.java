@@ -0,0 +1,162 @@
+package com.avaje.ebeanservice.elastic.journal;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import com.avaje.ebeanservice.elastic.ElasticUpdateProcessor;
+import com.avaje.ebeanservice.elastic.bulk.BulkItemError;
+import com.avaje.ebeanservice.elastic.bulk.BulkUpdate;
+import com.avaje.ebeanservice.elastic.support.DaemonThreadFactory;
+import com.avaje.ebeanservice.elastic.support.IndexQueueReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically reads the {@link Journal} and processes the entries.
+ * <p>
+ * The journal is checkpointed after each successfully processed batch. When processing fails
+ * the journal is rewound to the checkpoint such that the batch is read again.
+ * </p>
+ * <p>
+ * Documents whose Bulk API items failed with a retryable error (429 rejected, 503) are appended
+ * to the journal again before the checkpoint. Items that failed permanently (for example
+ * mapping errors) are logged and dropped.
+ * </p>
+ */
+public class JournalIndexQueueReader implements IndexQueueReader {
+
+  private static final Logger logger = LoggerFactory.getLogger(JournalIndexQueueReader.class);
+
+  private final Journal journal;
+
+  private final ElasticUpdateProcessor updateProcessor;
+
+  private final int batchSize;
+
+  private final long intervalMillis;
+
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Construct with the journal and the update processor the entries are processed by.
+   *
+   * @param journal         the journal the entries are read from
+   * @param updateProcessor the processor that sends the entries to ElasticSearch
+   * @param batchSize       the maximum number of entries processed per batch
+   * @param intervalMillis  the delay between draining the journal when it is empty
+   */
+  public JournalIndexQueueReader(Journal journal, ElasticUpdateProcessor updateProcessor, int batchSize, long intervalMillis) {
+    this.journal = journal;
+    this.updateProcessor = updateProcessor;
+    this.batchSize = Math.max(batchSize, 1);
+    this.intervalMillis = intervalMillis;
+  }
+
+  @Override
+  public void start() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("elastic-journal-"));
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        drainQuietly();
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  private void drainQuietly() {
+    try {
+      drain();
+    } catch (Throwable e) {
+      journal.rewind();
+      logger.warn("Error processing the doc store queue journal", e);
+    }
+  }
+
+  /**
+   * Process batches until the journal is read or a batch fails returning the number of entries processed.
+   */
+  @Override
+  public long drain() {
+
+    long total = 0;
+    while (!Thread.currentThread().isInterrupted()) {
+      int count = process();
+      if (count <= 0) {
+        break;
+      }
+      total += count;
+    }
+    if (total > 0) {
+      logger.debug("processed {} doc store queue journal entries", total);
+    }
+    return total;
+  }
+
+  /**
+   * Process a batch of entries.
+   *
+   * @return the number of entries processed, 0 when there are none and -1 when processing failed
+   * or some entries were appended to retry (such that draining waits for the next interval)
+   */
+  public int process() {
+
+    List<DocStoreQueueEntry> entries = journal.read(batchSize);
+    if (entries.isEmpty()) {
+      return 0;
+    }
+    List<DocStoreQueueEntry> retryEntries;
+    try {
+      retryEntries = processEntries(entries);
+      if (!retryEntries.isEmpty()) {
+        // appended before the checkpoint such that they are not lost
+        journal.sync(journal.append(retryEntries));
+      }
+    } catch (IOException e) {
+      journal.rewind();
+      logger.warn("Failed to process {} doc store queue journal entries, they remain queued: {}", entries.size(), e.getMessage());
+      return -1;
+    }
+    try {
+      journal.checkpoint();
+    } catch (IOException e) {
+      // the entries are processed again after a restart (index and delete are idempotent)
+      logger.warn("Failed to checkpoint the doc store queue journal", e);
+    }
+    if (!retryEntries.isEmpty()) {
+      logger.info("{} doc store queue journal entries failed in ElasticSearch with a retryable error and are queued again", retryEntries.size());
+      return -1;
+    }
+    return entries.size();
+  }
+
+  /**
+   * Send the entries to ElasticSearch waiting for the Bulk API responses.
+   *
+   * @return the entries to queue again as they failed with a retryable error
+   */
+  protected List<DocStoreQueueEntry> processEntries(List<DocStoreQueueEntry> entries) throws IOException {
+
+    BulkUpdate txn = updateProcessor.createBulkUpdate(0);
+    updateProcessor.processQueue(txn, entries);
+    txn.flush();
+
+    List<BulkItemError> itemErrors = txn.getItemErrors();
+    List<DocStoreQueueEntry> retryEntries = updateProcessor.retryEntries(entries, itemErrors);
+    int dropped = itemErrors.size() - retryEntries.size();
+    if (dropped > 0) {
+      logger.warn("{} doc store queue journal entries failed in ElasticSearch and are not retried", dropped);
+    }
+    return retryEntries;
+  }
+}
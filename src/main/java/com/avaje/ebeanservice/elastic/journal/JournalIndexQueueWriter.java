@@ -0,0 +1,51 @@
+package com.avaje.ebeanservice.elastic.journal;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import com.avaje.ebean.PersistenceIOException;
+import com.avaje.ebeanservice.elastic.support.IndexQueueWriter;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * IndexQueueWriter that appends the entries to a local {@link Journal} rather than the database.
+ * <p>
+ * With fsync the entries are forced to disk (group committed with concurrent writers) before
+ * returning. Without fsync the entries survive the application crashing but not the host.
+ * </p>
+ */
+public class JournalIndexQueueWriter implements IndexQueueWriter {
+
+  private final Journal journal;
+
+  private final boolean fsync;
+
+  /**
+   * Construct with the journal and whether to force the entries to disk before returning.
+   */
+  public JournalIndexQueueWriter(Journal journal, boolean fsync) {
+    this.journal = journal;
+    this.fsync = fsync;
+  }
+
+  @Override
+  public void onStartup() {
+    // journal opened on construction
+  }
+
+  @Override
+  public void queue(List<DocStoreQueueEntry> queueEntries) {
+
+    if (queueEntries.isEmpty()) {
+      return;
+    }
+    try {
+      long position = journal.append(queueEntries);
+      if (fsync) {
+        journal.sync(position);
+      }
+    } catch (IOException e) {
+      throw new PersistenceIOException("Error writing queue entries to the journal " + journal.getDirectory(), e);
+    }
+  }
+}
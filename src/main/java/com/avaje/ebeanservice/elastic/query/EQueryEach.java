@@ -4,6 +4,7 @@ import com.avaje.ebean.QueryEachConsumer;
 import com.avaje.ebean.QueryEachWhileConsumer;
 import com.avaje.ebean.text.json.JsonContext;
 import com.avaje.ebeanservice.docstore.api.DocQueryRequest;
+import com.avaje.ebeanservice.elastic.ScrollOptions;
 import com.avaje.ebeanservice.elastic.search.bean.BeanSearchParser;
 import com.fasterxml.jackson.core.JsonParser;
 
@@ -21,16 +22,19 @@ public class EQueryEach<T> extends EQuery<T> {
 
   private final EQuerySend send;
 
+  private final ScrollOptions options;
+
   private final Set<String> allScrollIds = new LinkedHashSet<String>();
 
   private BeanSearchParser<T> beanParser;
 
   private String currentScrollId;
 
-  public EQueryEach(DocQueryRequest<T> request, EQuerySend send, JsonContext jsonContext) {
+  public EQueryEach(DocQueryRequest<T> request, EQuerySend send, JsonContext jsonContext, ScrollOptions options) {
     super(request.getQuery(), jsonContext, request.createJsonReadOptions());
     this.send = send;
     this.request = request;
+    this.options = options;
   }
 
   /**
@@ -51,7 +55,7 @@ public class EQueryEach<T> extends EQuery<T> {
    * Perform the initial scroll query.
    */
   private List<T> fetchInitial() throws IOException {
-    JsonParser initialJson = send.findScroll(beanType.docStore(), query);
+    JsonParser initialJson = send.findScroll(beanType.docStore(), query, options);
     beanParser = createParser(initialJson);
     return read();
   }
@@ -60,7 +64,7 @@ public class EQueryEach<T> extends EQuery<T> {
    * Perform a subsequent scroll query.
    */
   private List<T> fetchNextScroll() throws IOException {
-    JsonParser moreJson = send.findNextScroll(currentScrollId);
+    JsonParser moreJson = send.findNextScroll(currentScrollId, options);
     beanParser = beanParser.moreJson(moreJson, true);
     return read();
   }
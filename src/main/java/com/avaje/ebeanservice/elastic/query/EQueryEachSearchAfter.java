@@ -0,0 +1,70 @@
+package com.avaje.ebeanservice.elastic.query;
+
+import com.avaje.ebean.QueryEachWhileConsumer;
+import com.avaje.ebean.plugin.BeanDocType;
+import com.avaje.ebean.text.json.JsonContext;
+import com.avaje.ebeanservice.docstore.api.DocQueryRequest;
+import com.avaje.ebeanservice.elastic.querywriter.ElasticQueryJson;
+import com.avaje.ebeanservice.elastic.search.bean.BeanSearchParser;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Processes findEach/findEachWhile requests paging with search_after.
+ * <p>
+ * The hits are sorted with a unique tiebreaker and each page is requested with the sort
+ * values of the last hit of the prior page. No scroll context is held by ElasticSearch.
+ * </p>
+ */
+public class EQueryEachSearchAfter<T> extends EQuery<T> {
+
+  private final DocQueryRequest<T> request;
+
+  private final EQuerySend send;
+
+  private final String tiebreaker;
+
+  private final int pageSize;
+
+  public EQueryEachSearchAfter(DocQueryRequest<T> request, EQuerySend send, JsonContext jsonContext, String tiebreaker, int pageSize) {
+    super(request.getQuery(), jsonContext, request.createJsonReadOptions());
+    this.request = request;
+    this.send = send;
+    this.tiebreaker = tiebreaker;
+    this.pageSize = pageSize;
+  }
+
+  /**
+   * Consume all the pages while the consumer returns true.
+   */
+  public void consumeWhile(QueryEachWhileConsumer<T> consumer) throws IOException {
+
+    BeanDocType docType = beanType.docStore();
+    ElasticQueryJson jsonQuery = send.asSearchAfterJson(query, tiebreaker, pageSize);
+
+    BeanSearchParser<T> parser = null;
+    Object searchAfter = null;
+    while (true) {
+      ElasticQueryJson pageQuery = (searchAfter == null) ? jsonQuery : EQuerySend.searchAfterJson(jsonQuery, searchAfter);
+      JsonParser json = send.findHits(docType, pageQuery);
+      parser = (parser == null) ? createParser(json) : parser.moreJson(json, true);
+
+      List<T> hits = parser.read();
+      request.executeSecondaryQueries(true);
+      for (T bean : hits) {
+        if (!consumer.accept(bean)) {
+          return;
+        }
+      }
+      if (hits.size() < pageSize) {
+        return;
+      }
+      searchAfter = parser.getSort();
+      if (searchAfter == null) {
+        throw new IllegalStateException("No sort values in search_after response for " + jsonQuery);
+      }
+    }
+  }
+}
@@ -0,0 +1,443 @@
+package com.avaje.ebeanservice.elastic.query;
+
+import com.avaje.ebean.PersistenceIOException;
+import com.avaje.ebean.QueryEachWhileConsumer;
+import com.avaje.ebean.plugin.BeanDocType;
+import com.avaje.ebean.text.json.JsonContext;
+import com.avaje.ebeanservice.docstore.api.DocQueryRequest;
+import com.avaje.ebeanservice.elastic.ScrollOptions;
+import com.avaje.ebeanservice.elastic.querywriter.ElasticQueryJson;
+import com.avaje.ebeanservice.elastic.search.bean.BeanSearchParser;
+import com.avaje.ebeanservice.elastic.support.DaemonThreadFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Processes findEach/findEachWhile requests using a sliced and/or prefetching scroll.
+ * <p>
+ * The query is split into slices (ElasticSearch <code>slice: {id, max}</code>) and each slice
+ * is scrolled and parsed by its own worker. The beans are either handed to the consumer
+ * concurrently by the workers (the consumer must be thread safe) or merged on the calling
+ * thread taking one page from each slice in turn.
+ * </p>
+ * <p>
+ * When merging, each worker requests the next page as soon as the scroll id of the current
+ * page is known and reads up to <code>prefetch</code> pages ahead of the consumer. With a
+ * single slice this is a pipelined scroll where the time waiting for ElasticSearch overlaps
+ * the time spent in the consumer.
+ * </p>
+ * <p>
+ * The slices are submitted to the executor but a slice that has not started by the time it is
+ * waited on (for example as all the executor threads are busy, possibly with the other slices
+ * of this query) is run on its own dedicated thread. The scroll therefore progresses with an
+ * executor of any size.
+ * </p>
+ */
+public class EQueryEachSliced<T> extends EQuery<T> {
+
+  /**
+   * The time in millis waiting for a page (or worker) before checking for stop or a slice not started.
+   */
+  private static final long POLL_MILLIS = 100;
+
+  private static final ThreadFactory sliceThreads = new DaemonThreadFactory("elastic-slice-");
+
+  private final DocQueryRequest<T> request;
+
+  private final EQuerySend send;
+
+  private final ExecutorService executor;
+
+  private final ScrollOptions options;
+
+  private final int sliceMax;
+
+  private final boolean concurrent;
+
+  private final int prefetch;
+
+  private final Set<String> allScrollIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final AtomicBoolean stopped = new AtomicBoolean();
+
+  private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+  /**
+   * Guards the request persistence and load context used when reading pages and executing
+   * the secondary queries.
+   */
+  private final ReentrantLock contextLock = new ReentrantLock();
+
+  private final List<Slice> slices = new ArrayList<Slice>();
+
+  /**
+   * Construct with the options that define the number of slices (1 for no slicing) and pages to
+   * read ahead when merging.
+   */
+  public EQueryEachSliced(DocQueryRequest<T> request, EQuerySend send, JsonContext jsonContext,
+                          ExecutorService executor, ScrollOptions options) {
+    super(request.getQuery(), jsonContext, request.createJsonReadOptions());
+    this.request = request;
+    this.send = send;
+    this.executor = executor;
+    this.options = options;
+    this.sliceMax = Math.max(options.getSlices(), 1);
+    // a single slice is always merged onto the calling thread
+    this.concurrent = options.isSliceConcurrent() && this.sliceMax > 1;
+    this.prefetch = Math.max(options.getPrefetch(), 1);
+  }
+
+  /**
+   * Consume all the slices while the consumer returns true.
+   */
+  public void consumeWhile(QueryEachWhileConsumer<T> consumer) throws IOException {
+
+    ElasticQueryJson jsonQuery = send.asScrollJson(query, options);
+    BeanDocType docType = beanType.docStore();
+
+    for (int i = 0; i < sliceMax; i++) {
+      slices.add(new Slice(docType, jsonQuery, i, (concurrent) ? consumer : null));
+    }
+    try {
+      for (Slice slice : slices) {
+        submit(slice);
+      }
+      if (concurrent) {
+        awaitWorkers();
+      } else {
+        merge(slices, consumer);
+      }
+    } finally {
+      stop();
+      awaitWorkers();
+    }
+    checkError();
+  }
+
+  /**
+   * Submit the slice to the executor or run it on a dedicated thread when rejected.
+   */
+  private void submit(Slice slice) {
+    try {
+      executor.submit(slice);
+    } catch (RejectedExecutionException e) {
+      slice.startIfWaiting();
+    }
+  }
+
+  /**
+   * Clear all the scroll ids (of all the slices) from ElasticSearch.
+   */
+  public void clearScrollIds() {
+    send.clearScrollIds(new LinkedHashSet<String>(allScrollIds));
+  }
+
+  /**
+   * Take a page from each slice in turn handing the beans to the consumer.
+   */
+  private void merge(List<Slice> slices, QueryEachWhileConsumer<T> consumer) throws IOException {
+
+    List<Slice> active = new ArrayList<Slice>(slices);
+    while (!active.isEmpty()) {
+      Iterator<Slice> it = active.iterator();
+      while (it.hasNext()) {
+        List<T> page = it.next().take();
+        if (page == null) {
+          checkError();
+          it.remove();
+        } else {
+          executeSecondaryQueries();
+          if (!consumeWhile(page, consumer)) {
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  private boolean consumeWhile(List<T> page, QueryEachWhileConsumer<T> consumer) {
+    for (T bean : page) {
+      if (stopped.get() || !consumer.accept(bean)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void executeSecondaryQueries() {
+    contextLock.lock();
+    try {
+      request.executeSecondaryQueries(true);
+    } finally {
+      contextLock.unlock();
+    }
+  }
+
+  /**
+   * Stop the workers (which check this flag rather than being interrupted).
+   */
+  private void stop() {
+    stopped.set(true);
+  }
+
+  private void fail(Throwable e) {
+    error.compareAndSet(null, e);
+    stop();
+  }
+
+  /**
+   * Wait for all the slice workers to finish (such that all the scroll ids are known).
+   * <p>
+   * A slice that has not started is run on a dedicated thread or, when stopped, not run at all.
+   * </p>
+   */
+  private void awaitWorkers() throws InterruptedIOException {
+    boolean interrupted = false;
+    for (Slice slice : slices) {
+      while (true) {
+        try {
+          if (slice.done.await(POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            break;
+          }
+          if (stopped.get()) {
+            slice.cancelIfWaiting();
+          } else {
+            slice.startIfWaiting();
+          }
+        } catch (InterruptedException e) {
+          interrupted = true;
+          stop();
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for sliced scroll");
+    }
+  }
+
+  private void checkError() throws IOException {
+    Throwable e = error.get();
+    if (e == null) {
+      return;
+    }
+    if (e instanceof IOException) {
+      throw (IOException) e;
+    }
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    throw new PersistenceIOException(new ExecutionException(e));
+  }
+
+  /**
+   * Scrolls and parses one slice.
+   */
+  private class Slice implements Runnable {
+
+    private final BeanDocType docType;
+
+    private final ElasticQueryJson jsonQuery;
+
+    private final int sliceId;
+
+    /**
+     * The consumer when beans are handed over concurrently, otherwise null.
+     */
+    private final QueryEachWhileConsumer<T> consumer;
+
+    /**
+     * The parsed pages waiting to be merged (with an empty list marking the end).
+     */
+    private final BlockingQueue<List<T>> pages = new ArrayBlockingQueue<List<T>>(prefetch + 1);
+
+    /**
+     * Limits the pages read ahead of the merge (leaving room in the queue for the end marker).
+     */
+    private final Semaphore readAhead = new Semaphore(prefetch);
+
+    /**
+     * Set when a thread has taken this slice (such that it is run once).
+     */
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    /**
+     * Released when the slice has finished (or was cancelled before it started).
+     */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private BeanSearchParser<T> parser;
+
+    private String scrollId;
+
+    Slice(BeanDocType docType, ElasticQueryJson jsonQuery, int sliceId, QueryEachWhileConsumer<T> consumer) {
+      this.docType = docType;
+      this.jsonQuery = jsonQuery;
+      this.sliceId = sliceId;
+      this.consumer = consumer;
+    }
+
+    @Override
+    public void run() {
+      if (claimed.compareAndSet(false, true)) {
+        scroll();
+      }
+    }
+
+    /**
+     * Run this slice on a dedicated thread if no executor thread has started it.
+     */
+    void startIfWaiting() {
+      if (claimed.compareAndSet(false, true)) {
+        sliceThreads.newThread(new Runnable() {
+          @Override
+          public void run() {
+            scroll();
+          }
+        }).start();
+      }
+    }
+
+    /**
+     * Mark this slice as ended if no thread has started it.
+     */
+    void cancelIfWaiting() {
+      if (claimed.compareAndSet(false, true)) {
+        end();
+      }
+    }
+
+    private void scroll() {
+      try {
+        if (stopped.get()) {
+          return;
+        }
+        JsonParser json = (sliceMax > 1) ? send.findScrollSlice(docType, jsonQuery, sliceId, sliceMax, options) : send.findScroll(docType, jsonQuery, options);
+        List<T> hits = readInitial(json);
+        boolean more = hand(hits) && !parser.allHitsRead();
+        while (more && !stopped.get()) {
+          hits = readMore(send.findNextScroll(scrollId, options));
+          more = hand(hits) && !parser.zeroHits();
+        }
+      } catch (InterruptedException e) {
+        // stopped
+      } catch (Throwable e) {
+        fail(e);
+      } finally {
+        end();
+      }
+    }
+
+    private List<T> readInitial(JsonParser json) throws IOException {
+      contextLock.lock();
+      try {
+        parser = createParser(json);
+        return read();
+      } finally {
+        contextLock.unlock();
+      }
+    }
+
+    private List<T> readMore(JsonParser json) throws IOException {
+      contextLock.lock();
+      try {
+        parser = parser.moreJson(json, true);
+        return read();
+      } finally {
+        contextLock.unlock();
+      }
+    }
+
+    /**
+     * Read a page of hits collecting the scroll id.
+     */
+    private List<T> read() throws IOException {
+      // copy as the parser list is cleared when reading more
+      List<T> hits = new ArrayList<T>(parser.read());
+      scrollId = parser.getScrollId();
+      if (scrollId != null) {
+        allScrollIds.add(scrollId);
+      }
+      return hits;
+    }
+
+    /**
+     * Hand the page to the consumer (concurrent) or queue it for merging.
+     */
+    private boolean hand(List<T> hits) throws InterruptedException {
+      if (hits.isEmpty()) {
+        return true;
+      }
+      if (consumer == null) {
+        while (!readAhead.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+          if (stopped.get()) {
+            return false;
+          }
+        }
+        pages.add(hits);
+        return true;
+      }
+      executeSecondaryQueries();
+      if (!consumeWhile(hits, consumer)) {
+        stop();
+        return false;
+      }
+      return true;
+    }
+
+    private void end() {
+      if (consumer == null) {
+        pages.add(Collections.<T>emptyList());
+      }
+      done.countDown();
+    }
+
+    /**
+     * Return the next page or null when this slice has no more (or the scroll has stopped).
+     */
+    List<T> take() throws InterruptedIOException {
+      try {
+        List<T> page;
+        while ((page = pages.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+          if (stopped.get()) {
+            // a slice cancelled before it started never adds the end marker
+            break;
+          }
+          startIfWaiting();
+        }
+        if (page == null || page.isEmpty()) {
+          return null;
+        }
+        readAhead.release();
+        return page;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for sliced scroll");
+      }
+    }
+  }
+}
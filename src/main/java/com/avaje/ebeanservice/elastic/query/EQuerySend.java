@@ -1,11 +1,15 @@
 package com.avaje.ebeanservice.elastic.query;
 
 import com.avaje.ebean.plugin.BeanDocType;
+import com.avaje.ebean.text.json.EJson;
 import com.avaje.ebean.text.json.JsonContext;
 import com.avaje.ebeaninternal.api.SpiQuery;
+import com.avaje.ebeanservice.elastic.ScrollOptions;
 import com.avaje.ebeanservice.docstore.api.DocumentNotFoundException;
 import com.avaje.ebeanservice.elastic.querywriter.ElasticJsonContext;
 import com.avaje.ebeanservice.elastic.querywriter.ElasticDocQueryContext;
+import com.avaje.ebeanservice.elastic.querywriter.ElasticQueryJson;
+import com.avaje.ebeanservice.elastic.support.BaseHttpMessageSender;
 import com.avaje.ebeanservice.elastic.support.IndexMessageResponse;
 import com.avaje.ebeanservice.elastic.support.IndexMessageSender;
 import com.fasterxml.jackson.core.JsonFactory;
@@ -39,34 +43,134 @@ public class EQuerySend {
    * Execute as find hits returning the resulting JSON response.
    */
   public JsonParser findHits(BeanDocType type, SpiQuery<?> query) throws IOException, DocumentNotFoundException {
-    return findInternal(false, type, query);
+    return findInternal(null, type, asJson(query));
+  }
+
+  /**
+   * Execute as find hits given the query already in ElasticSearch JSON form.
+   */
+  public JsonParser findHits(BeanDocType type, String jsonQuery) throws IOException, DocumentNotFoundException {
+    return findInternal(null, type, new ElasticQueryJson(jsonQuery, null));
+  }
+
+  /**
+   * Execute as find hits given the query already in ElasticSearch JSON form with routing.
+   */
+  public JsonParser findHits(BeanDocType type, ElasticQueryJson jsonQuery) throws IOException, DocumentNotFoundException {
+    return findInternal(null, type, jsonQuery);
   }
 
   /**
    * Execute as find scroll returning the resulting JSON response.
    */
-  public JsonParser findScroll(BeanDocType type, SpiQuery<?> query) throws IOException, DocumentNotFoundException {
-    return findInternal(true, type, query);
+  public JsonParser findScroll(BeanDocType type, SpiQuery<?> query, ScrollOptions options) throws IOException, DocumentNotFoundException {
+    return findInternal(keepAlive(options), type, asScrollJson(query, options));
   }
 
-  private JsonParser findInternal(boolean scroll, BeanDocType type, SpiQuery<?> query) throws IOException, DocumentNotFoundException {
+  /**
+   * Execute as find scroll given the query already in ElasticSearch JSON form.
+   */
+  public JsonParser findScroll(BeanDocType type, ElasticQueryJson jsonQuery, ScrollOptions options) throws IOException, DocumentNotFoundException {
+    return findInternal(keepAlive(options), type, jsonQuery);
+  }
 
-    IndexMessageResponse response = messageSender.postQuery(scroll, type.getIndexType(), type.getIndexName(), asJson(query));
+  /**
+   * Execute a find scroll for one slice of a sliced scroll returning the resulting JSON response.
+   * <p>
+   * The jsonQuery is the query already in ElasticSearch JSON form (see {@link #asScrollJson(SpiQuery, ScrollOptions)})
+   * such that the query is only generated once for all the slices.
+   * </p>
+   */
+  public JsonParser findScrollSlice(BeanDocType type, ElasticQueryJson jsonQuery, int sliceId, int sliceMax, ScrollOptions options) throws IOException, DocumentNotFoundException {
+    return findInternal(keepAlive(options), type, jsonQuery.withJson(sliceJson(jsonQuery.getJson(), sliceId, sliceMax)));
+  }
+
+  /**
+   * Return the scroll keep alive from the options.
+   */
+  private String keepAlive(ScrollOptions options) {
+    String keepAlive = options.getKeepAlive();
+    return (keepAlive != null) ? keepAlive : BaseHttpMessageSender.DEFAULT_KEEP_ALIVE;
+  }
+
+  /**
+   * Execute the query as a scroll query when the keepAlive is not null.
+   */
+  private JsonParser findInternal(String keepAlive, BeanDocType type, ElasticQueryJson jsonQuery) throws IOException, DocumentNotFoundException {
+
+    IndexMessageResponse response;
+    if (keepAlive == null) {
+      response = messageSender.postQuery(false, type.getIndexType(), type.getIndexName(), jsonQuery.getRouting(), jsonQuery.getJson());
+    } else {
+      response = messageSender.postScrollQuery(keepAlive, type.getIndexType(), type.getIndexName(), jsonQuery.getRouting(), jsonQuery.getJson());
+    }
     switch (response.getCode()) {
       case 404:
+        response.close();
         throw new DocumentNotFoundException("404 for query?");
       case 200:
-        return jsonFactory.createParser(response.getBody());
+        return response.createParser(jsonFactory);
       default:
         throw new IOException("Unhandled response code " + response.getCode() + " body:" + response.getBody());
     }
   }
 
   /**
-   * Return the query as ElasticSearch JSON format.
+   * Return the query as ElasticSearch JSON format with routing.
    */
-  private String asJson(SpiQuery<?> query) {
-    return ElasticDocQueryContext.asJson(elasticJsonContext, query);
+  public ElasticQueryJson asJson(SpiQuery<?> query) {
+    return ElasticDocQueryContext.queryJson(elasticJsonContext, query);
+  }
+
+  /**
+   * Return the query as ElasticSearch JSON format for a scroll query (with the page size of the options).
+   */
+  public ElasticQueryJson asScrollJson(SpiQuery<?> query, ScrollOptions options) {
+    return ElasticDocQueryContext.scrollQueryJson(elasticJsonContext, query, options.getPageSize());
+  }
+
+  /**
+   * Return the query as ElasticSearch JSON format for paging with search_after.
+   */
+  public ElasticQueryJson asSearchAfterJson(SpiQuery<?> query, String tiebreaker, int pageSize) {
+    return ElasticDocQueryContext.searchAfterQueryJson(elasticJsonContext, query, tiebreaker, pageSize);
+  }
+
+  /**
+   * Return the JSON query with the search_after sort values (of the last hit of the prior page) added.
+   */
+  static String searchAfterJson(String jsonQuery, Object sortValues) throws IOException {
+    return addField(jsonQuery, "\"search_after\":" + EJson.write(sortValues));
+  }
+
+  /**
+   * Return the query with the search_after sort values added keeping the routing.
+   */
+  static ElasticQueryJson searchAfterJson(ElasticQueryJson jsonQuery, Object sortValues) throws IOException {
+    return jsonQuery.withJson(searchAfterJson(jsonQuery.getJson(), sortValues));
+  }
+
+  /**
+   * Return the JSON query with the slice added (for a sliced scroll).
+   */
+  static String sliceJson(String jsonQuery, int sliceId, int sliceMax) {
+    return addField(jsonQuery, "\"slice\":{\"id\":" + sliceId + ",\"max\":" + sliceMax + "}");
+  }
+
+  /**
+   * Return the JSON query with the field (name and value) added as the first field.
+   */
+  private static String addField(String jsonQuery, String field) {
+    if (!jsonQuery.startsWith("{")) {
+      throw new IllegalArgumentException("Expected a JSON object query but got " + jsonQuery);
+    }
+    StringBuilder sb = new StringBuilder(jsonQuery.length() + field.length() + 2);
+    sb.append("{").append(field);
+    String rest = jsonQuery.substring(1);
+    if (!rest.trim().startsWith("}")) {
+      sb.append(",");
+    }
+    return sb.append(rest).toString();
   }
 
   /**
@@ -77,9 +181,10 @@ public class EQuerySend {
     IndexMessageResponse response = messageSender.getDocSource(indexType, indexName, docId.toString());
     switch (response.getCode()) {
       case 404:
+        response.close();
         throw new DocumentNotFoundException("404 for docId:" + docId);
       case 200:
-        return jsonFactory.createParser(response.getBody());
+        return response.createParser(jsonFactory);
       default:
         throw new IOException("Unhandled response code " + response.getCode() + " body:" + response.getBody());
     }
@@ -88,14 +193,15 @@ public class EQuerySend {
   /**
    * Execute find next scroll returning the JSON response.
    */
-  public JsonParser findNextScroll(String scrollId) throws IOException, DocumentNotFoundException {
+  public JsonParser findNextScroll(String scrollId, ScrollOptions options) throws IOException, DocumentNotFoundException {
 
-    IndexMessageResponse response = messageSender.getScroll(scrollId);
+    IndexMessageResponse response = messageSender.getScroll(scrollId, keepAlive(options));
     switch (response.getCode()) {
       case 404:
+        response.close();
         throw new DocumentNotFoundException("404 for scrollId:" + scrollId);
       case 200:
-        return jsonFactory.createParser(response.getBody());
+        return response.createParser(jsonFactory);
       default:
         throw new IOException("Unhandled response code " + response.getCode() + " body:" + response.getBody());
     }
@@ -15,12 +15,19 @@ import com.avaje.ebean.text.json.JsonReadOptions;
 import com.avaje.ebeaninternal.api.SpiQuery;
 import com.avaje.ebeanservice.docstore.api.DocQueryRequest;
 import com.avaje.ebeanservice.docstore.api.DocumentNotFoundException;
+import com.avaje.ebeanservice.elastic.ElasticConfig;
+import com.avaje.ebeanservice.elastic.ElasticDocStoreBeanAdapter;
+import com.avaje.ebeanservice.elastic.ScrollMode;
+import com.avaje.ebeanservice.elastic.ScrollOptions;
 import com.avaje.ebeanservice.elastic.bulk.BulkUpdate;
+import com.avaje.ebeanservice.elastic.querywriter.ElasticQueryJson;
 import com.avaje.ebeanservice.elastic.search.HitsPagedList;
 import com.avaje.ebeanservice.elastic.search.bean.BeanSearchParser;
 import com.avaje.ebeanservice.elastic.search.rawsource.RawSource;
 import com.avaje.ebeanservice.elastic.search.rawsource.RawSourceCopier;
 import com.avaje.ebeanservice.elastic.search.rawsource.RawSourceEach;
+import com.avaje.ebeanservice.elastic.search.rawsource.RawSourceReader;
+import com.avaje.ebeanservice.elastic.support.DaemonThreadFactory;
 import com.avaje.ebeanservice.elastic.support.IndexMessageSender;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
@@ -29,6 +36,8 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Internal query service.
@@ -37,16 +46,60 @@ public class EQueryService {
 
   private static final Logger logger = LoggerFactory.getLogger(EQueryService.class);
 
+  /**
+   * The page size for search_after when the query has no maxRows.
+   */
+  private static final int SEARCH_AFTER_PAGE_SIZE = 1000;
+
   private final SpiServer server;
 
   private final EQuerySend send;
 
   private final JsonContext jsonContext;
 
+  private final String searchAfterTiebreaker;
+
+  /**
+   * The server wide default scroll options.
+   */
+  private final ScrollOptions defaultScrollOptions;
+
+  /**
+   * Scroll options for the findEach query being executed by the current thread.
+   */
+  private final ThreadLocal<ScrollOptions> queryScrollOptions = new ThreadLocal<ScrollOptions>();
+
+  /**
+   * Executor for the sliced and prefetching scroll workers (threads created on demand).
+   */
+  private final ExecutorService scrollExecutor;
+
+  /**
+   * True when the scroll executor is internal (rather than supplied by ElasticConfig).
+   */
+  private final boolean ownScrollExecutor;
+
   public EQueryService(SpiServer server, JsonFactory jsonFactory, IndexMessageSender messageSender) {
+    this(server, jsonFactory, messageSender, new ElasticConfig());
+  }
+
+  public EQueryService(SpiServer server, JsonFactory jsonFactory, IndexMessageSender messageSender, ElasticConfig config) {
     this.server = server;
     this.jsonContext = server.json();
     this.send = new EQuerySend(jsonContext, jsonFactory, messageSender);
+    this.searchAfterTiebreaker = config.getSearchAfterTiebreaker();
+    this.defaultScrollOptions = config.getScrollOptions();
+    this.ownScrollExecutor = (config.getExecutor() == null);
+    this.scrollExecutor = ownScrollExecutor ? Executors.newCachedThreadPool(new DaemonThreadFactory("elastic-scroll-")) : config.getExecutor();
+  }
+
+  /**
+   * Shutdown the sliced and prefetching scroll workers (unless the executor was supplied).
+   */
+  public void shutdown() {
+    if (ownScrollExecutor) {
+      scrollExecutor.shutdownNow();
+    }
   }
 
   /**
@@ -98,12 +151,62 @@ public class EQueryService {
     }
   }
 
+  /**
+   * Execute the findEach query using the given scroll options.
+   * <p>
+   * The options apply to the query executed by the current thread (Ebean calls back to the
+   * document store with the query request on this thread).
+   * </p>
+   */
+  public <T> void findEach(Query<T> query, ScrollOptions options, QueryEachConsumer<T> consumer) {
+    queryScrollOptions.set(options);
+    try {
+      query.setUseDocStore(true).findEach(consumer);
+    } finally {
+      queryScrollOptions.remove();
+    }
+  }
+
+  /**
+   * Execute the findEachWhile query using the given scroll options.
+   */
+  public <T> void findEachWhile(Query<T> query, ScrollOptions options, QueryEachWhileConsumer<T> consumer) {
+    queryScrollOptions.set(options);
+    try {
+      query.setUseDocStore(true).findEachWhile(consumer);
+    } finally {
+      queryScrollOptions.remove();
+    }
+  }
+
+  /**
+   * Return the scroll options for the current query (with the defaults applied).
+   * <p>
+   * The options are removed from the thread as they are read such that queries executed by the
+   * consumer (for example a nested findEach) use the defaults rather than inheriting them.
+   * </p>
+   */
+  private ScrollOptions scrollOptions() {
+    ScrollOptions options = queryScrollOptions.get();
+    queryScrollOptions.remove();
+    return (options == null) ? defaultScrollOptions : options.withDefaults(defaultScrollOptions);
+  }
+
   /**
    * Execute the findEachWhile query request.
    */
   public <T> void findEachWhile(DocQueryRequest<T> request, QueryEachWhileConsumer<T> consumer) {
 
-    EQueryEach<T> each = new EQueryEach<T>(request, send, jsonContext);
+    ScrollOptions options = scrollOptions();
+    if (options.getMode() == ScrollMode.SEARCH_AFTER) {
+      findEachSearchAfter(request, options, consumer);
+      return;
+    }
+    if (options.isPipelined()) {
+      findEachPipelined(request, options, consumer);
+      return;
+    }
+    EQueryEach<T> each = new EQueryEach<T>(request, send, jsonContext, options);
     try {
       if (!each.consumeInitialWhile(consumer)) {
         return;
@@ -126,7 +229,16 @@ public class EQueryService {
    */
   public <T> void findEach(DocQueryRequest<T> request, QueryEachConsumer<T> consumer) {
 
-    EQueryEach<T> each = new EQueryEach<T>(request, send, jsonContext);
+    ScrollOptions options = scrollOptions();
+    if (options.getMode() == ScrollMode.SEARCH_AFTER) {
+      findEachSearchAfter(request, options, eachWhile(consumer));
+      return;
+    }
+    if (options.isPipelined()) {
+      findEachPipelined(request, options, eachWhile(consumer));
+      return;
+    }
+    EQueryEach<T> each = new EQueryEach<T>(request, send, jsonContext, options);
     try {
       if (each.consumeInitial(consumer)) {
         while (true) {
@@ -143,12 +255,72 @@ public class EQueryService {
     }
   }
 
+  /**
+   * Adapt the consumer to a QueryEachWhileConsumer that always continues.
+   */
+  private <T> QueryEachWhileConsumer<T> eachWhile(final QueryEachConsumer<T> consumer) {
+    return new QueryEachWhileConsumer<T>() {
+      @Override
+      public boolean accept(T bean) {
+        consumer.accept(bean);
+        return true;
+      }
+    };
+  }
+
+  /**
+   * Return the page size used with search_after.
+   */
+  private int searchAfterPageSize(SpiQuery<?> query, ScrollOptions options) {
+    if (options.getPageSize() > 0) {
+      return options.getPageSize();
+    }
+    int maxRows = query.getMaxRows();
+    return (maxRows > 0) ? maxRows : SEARCH_AFTER_PAGE_SIZE;
+  }
+
+  /**
+   * Execute findEach/findEachWhile paging with search_after (no scroll context).
+   */
+  private <T> void findEachSearchAfter(DocQueryRequest<T> request, ScrollOptions options, QueryEachWhileConsumer<T> consumer) {
+
+    int pageSize = searchAfterPageSize(request.getQuery(), options);
+    EQueryEachSearchAfter<T> each = new EQueryEachSearchAfter<T>(request, send, jsonContext, searchAfterTiebreaker, pageSize);
+    try {
+      each.consumeWhile(consumer);
+    } catch (IOException e) {
+      throw new PersistenceIOException(e);
+    }
+  }
+
+  /**
+   * Execute findEach/findEachWhile with the slices and/or next pages read in the background.
+   */
+  private <T> void findEachPipelined(DocQueryRequest<T> request, ScrollOptions options, QueryEachWhileConsumer<T> consumer) {
+
+    EQueryEachSliced<T> each = new EQueryEachSliced<T>(request, send, jsonContext, scrollExecutor, options);
+    try {
+      each.consumeWhile(consumer);
+
+    } catch (IOException e) {
+      throw new PersistenceIOException(e);
+
+    } finally {
+      each.clearScrollIds();
+    }
+  }
+
   /**
    * Execute the find by id query request.
    */
   public <T> T findById(DocQueryRequest<T> request) {
 
     SpiQuery<T> query = request.getQuery();
+    if (ElasticDocStoreBeanAdapter.routingProperty(query.getBeanDescriptor()) != null) {
+      // the routing is not known so search all the shards by id
+      List<T> list = findList(request);
+      return list.isEmpty() ? null : list.get(0);
+    }
 
     T bean = findById(query.getBeanDescriptor(), query.getId(), request.createJsonReadOptions());
     request.executeSecondaryQueries(false);
@@ -165,7 +337,12 @@ public class EQueryService {
       JsonParser parser = send.findById(beanDocType.getIndexType(), beanDocType.getIndexName(), id);
 
       JsonBeanReader<T> reader = new EQuery<T>(desc, jsonContext, options).createReader(parser);
-      T bean = reader.read();
+      T bean;
+      try {
+        bean = reader.read();
+      } finally {
+        parser.close();
+      }
       desc.setBeanId(bean, id);
       // register with persistence context and load context
       reader.persistenceContextPut(desc.getBeanId(bean), bean);
@@ -202,7 +379,7 @@ public class EQueryService {
   public long copyIndexSince(SpiQuery<?> query, String newIndex, BulkUpdate txn) throws IOException {
 
     BeanType<?> desc = query.getBeanDescriptor();
-    long count = findEachRawSource(query, new RawSourceCopier(txn, desc.docStore().getIndexType(), newIndex));
+    long count = findEachRawSource(query, new RawSourceCopier(txn, desc.docStore().getIndexType(), newIndex, ElasticDocStoreBeanAdapter.routingProperty(desc)));
     logger.debug("total [{}] entries copied to index:{}", count, newIndex);
 
     return count;
@@ -217,11 +394,20 @@ public class EQueryService {
     BeanType<T> desc = spiQuery.getBeanDescriptor();
     BeanDocType beanDocType = desc.docStore();
 
-    RawSourceEach each = new RawSourceEach(send);
+    ScrollOptions options = scrollOptions();
+    if (options.getMode() == ScrollMode.SEARCH_AFTER) {
+      try {
+        return findEachRawSourceSearchAfter(spiQuery, beanDocType, options, consumer);
+      } catch (IOException e) {
+        throw new PersistenceIOException(e);
+      }
+    }
+
+    RawSourceEach each = new RawSourceEach(send, scrollExecutor, options);
     try {
 
       if (each.consumeInitial(consumer, beanDocType, spiQuery)) {
-        while (!each.consumeNext(consumer)) {
+        while (each.consumeNext(consumer)) {
           // continue
         }
       }
@@ -234,6 +420,31 @@ public class EQueryService {
     }
   }
 
+  /**
+   * Execute a RawSource query paging with search_after.
+   */
+  private long findEachRawSourceSearchAfter(SpiQuery<?> query, BeanDocType beanDocType, ScrollOptions options, QueryEachConsumer<RawSource> consumer) throws IOException {
+
+    int pageSize = searchAfterPageSize(query, options);
+    ElasticQueryJson jsonQuery = send.asSearchAfterJson(query, searchAfterTiebreaker, pageSize);
+
+    long count = 0;
+    Object searchAfter = null;
+    while (true) {
+      ElasticQueryJson pageQuery = (searchAfter == null) ? jsonQuery : EQuerySend.searchAfterJson(jsonQuery, searchAfter);
+      RawSourceReader reader = new RawSourceReader(send.findHits(beanDocType, pageQuery));
+      List<RawSource> hits = reader.read();
+      for (RawSource hit : hits) {
+        count++;
+        consumer.accept(hit);
+      }
+      searchAfter = reader.getSort();
+      if (hits.size() < pageSize || searchAfter == null) {
+        return count;
+      }
+    }
+  }
+
   /**
    * Return the bean type specific parser used to read the search results.
    */
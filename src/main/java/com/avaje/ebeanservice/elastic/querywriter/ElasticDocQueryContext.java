@@ -19,11 +19,14 @@ import com.avaje.ebeaninternal.server.expression.DocQueryContext;
 import com.avaje.ebeaninternal.server.expression.Op;
 import com.avaje.ebeaninternal.server.querydefn.OrmQueryDetail;
 import com.avaje.ebeaninternal.server.querydefn.OrmQueryProperties;
+import com.avaje.ebeanservice.elastic.ElasticDocStoreBeanAdapter;
 import com.fasterxml.jackson.core.JsonGenerator;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +40,7 @@ public class ElasticDocQueryContext implements DocQueryContext {
   private static final Junction.Type MUST = Junction.Type.MUST;
   private static final Junction.Type SHOULD = Junction.Type.SHOULD;
   private static final Junction.Type MUST_NOT = Junction.Type.MUST_NOT;
+  private static final Junction.Type FILTER = Junction.Type.FILTER;
 
   private static final String BOOL = "bool";
   private static final String TERM = "term";
@@ -59,20 +63,95 @@ public class ElasticDocQueryContext implements DocQueryContext {
 
   private final BeanType<?> desc;
 
+  /**
+   * The sort tiebreaker when paging with search_after (otherwise null).
+   */
+  private final String tiebreaker;
+
+  /**
+   * The page size for scroll or search_after queries (0 to use the query maxRows).
+   */
+  private final int pageSize;
+
+  /**
+   * The routing property of the bean type (null when not routed).
+   */
+  private final String routingProperty;
+
+  /**
+   * The routing values the query is restricted to by equal to and in expressions.
+   */
+  private final Set<String> routingValues = new LinkedHashSet<String>();
+
+  /**
+   * For each bool list written, true when it is a conjunction (must, filter).
+   */
+  private final Deque<Boolean> conjunctions = new ArrayDeque<Boolean>();
+
+  /**
+   * The number of enclosing bool lists that are not conjunctions (should, must_not, not).
+   */
+  private int disjunctionDepth;
+
   /**
    * Return the query in ElasticSearch JSON form.
    */
   public static String asJson(ElasticJsonContext context, SpiQuery<?> query) {
-    return new ElasticDocQueryContext(context, query).asElasticQuery();
+    return queryJson(context, query).getJson();
+  }
+
+  /**
+   * Return the query in ElasticSearch JSON form with routing.
+   */
+  public static ElasticQueryJson queryJson(ElasticJsonContext context, SpiQuery<?> query) {
+    return new ElasticDocQueryContext(context, query, null, 0).asElasticQuery();
+  }
+
+  /**
+   * Return the query in ElasticSearch JSON form for a scroll query.
+   * <p>
+   * When the pageSize is greater than 0 it is used as the size (rather than the query maxRows).
+   * </p>
+   */
+  public static String asScrollJson(ElasticJsonContext context, SpiQuery<?> query, int pageSize) {
+    return scrollQueryJson(context, query, pageSize).getJson();
+  }
+
+  /**
+   * Return the query in ElasticSearch JSON form with routing for a scroll query.
+   */
+  public static ElasticQueryJson scrollQueryJson(ElasticJsonContext context, SpiQuery<?> query, int pageSize) {
+    return new ElasticDocQueryContext(context, query, null, pageSize).asElasticQuery();
+  }
+
+  /**
+   * Return the query in ElasticSearch JSON form for paging with search_after.
+   * <p>
+   * The hits are sorted by the query order by with the tiebreaker added (such that the sort is
+   * unique) and the size is the page size. The search_after values are added per page.
+   * </p>
+   */
+  public static String asSearchAfterJson(ElasticJsonContext context, SpiQuery<?> query, String tiebreaker, int pageSize) {
+    return searchAfterQueryJson(context, query, tiebreaker, pageSize).getJson();
+  }
+
+  /**
+   * Return the query in ElasticSearch JSON form with routing for paging with search_after.
+   */
+  public static ElasticQueryJson searchAfterQueryJson(ElasticJsonContext context, SpiQuery<?> query, String tiebreaker, int pageSize) {
+    return new ElasticDocQueryContext(context, query, tiebreaker, pageSize).asElasticQuery();
   }
 
   /**
    * Construct given the JSON generator and root bean type.
    */
-  private ElasticDocQueryContext(ElasticJsonContext context, SpiQuery<?> query) {
+  private ElasticDocQueryContext(ElasticJsonContext context, SpiQuery<?> query, String tiebreaker, int pageSize) {
     this.context = context;
     this.query = query;
+    this.tiebreaker = tiebreaker;
+    this.pageSize = pageSize;
     this.desc = query.getBeanDescriptor();
+    this.routingProperty = ElasticDocStoreBeanAdapter.routingProperty(desc);
     this.writer = new StringWriter(200);
     this.json = context.createGenerator(writer);
 
@@ -86,13 +165,13 @@ public class ElasticDocQueryContext implements DocQueryContext {
     return desc.getExpressionPath(propName);
   }
 
-  private String asElasticQuery() {
+  private ElasticQueryJson asElasticQuery() {
     try {
       writeElastic(query);
       String jsonQuery = flush();
 
       query.setGeneratedSql(jsonQuery);
-      return jsonQuery;
+      return new ElasticQueryJson(jsonQuery, routing());
 
     } catch (IOException e) {
       throw new PersistenceIOException(e);
@@ -168,6 +247,11 @@ public class ElasticDocQueryContext implements DocQueryContext {
   }
 
   private void writePaging(SpiQuery<?> query) throws IOException {
+    if (pageSize > 0) {
+      // scroll or search_after page size
+      json.writeNumberField("size", pageSize);
+      return;
+    }
     if (query.getFirstRow() > 0) {
       json.writeNumberField("from", query.getFirstRow());
     }
@@ -223,6 +307,49 @@ public class ElasticDocQueryContext implements DocQueryContext {
     }
   }
 
+  /**
+   * Return the comma delimited routing values or null to search all shards.
+   */
+  private String routing() {
+    if (routingValues.isEmpty()) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (String value : routingValues) {
+      if (sb.length() > 0) {
+        sb.append(",");
+      }
+      sb.append(value);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Collect the routing value when the expression restricts the routing property of the query.
+   * <p>
+   * Values within a should (OR) or must_not (NOT) do not restrict the query. Multiple restricting
+   * expressions are combined as the union of their values which covers all the matching documents.
+   * </p>
+   */
+  private void addRouting(String propertyName, Object value) {
+    if (routingProperty != null && disjunctionDepth == 0 && value != null && routingProperty.equals(propertyName)) {
+      routingValues.add(ElasticDocStoreBeanAdapter.routingValue(value));
+    }
+  }
+
+  private void pushBool(boolean conjunction) {
+    conjunctions.push(conjunction);
+    if (!conjunction) {
+      disjunctionDepth++;
+    }
+  }
+
+  private void popBool() {
+    if (!conjunctions.pop()) {
+      disjunctionDepth--;
+    }
+  }
+
   /**
    * Flush the JsonGenerator buffer.
    */
@@ -298,6 +425,7 @@ public class ElasticDocQueryContext implements DocQueryContext {
   }
 
   private void writeBoolArray(Junction.Type type) throws IOException {
+    pushBool(type == MUST || type == FILTER);
     json.writeArrayFieldStart(type.literal());
   }
 
@@ -311,6 +439,7 @@ public class ElasticDocQueryContext implements DocQueryContext {
 
   @Override
   public void endBoolGroupList() throws IOException {
+    popBool();
     json.writeEndArray();
   }
 
@@ -384,6 +513,7 @@ public class ElasticDocQueryContext implements DocQueryContext {
    */
   @Override
   public void writeEqualTo(String propertyName, Object value) throws IOException {
+    addRouting(propertyName, value);
     writeRawExpression(TERM, rawProperty(propertyName), value);
   }
 
@@ -426,6 +556,10 @@ public class ElasticDocQueryContext implements DocQueryContext {
   public void writeIn(String propertyName, Object[] values, boolean not) throws IOException {
     if (not) {
       startBoolMustNot();
+    } else {
+      for (Object value : values) {
+        addRouting(propertyName, value);
+      }
     }
     json.writeStartObject();
     json.writeObjectFieldStart(TERMS);
@@ -641,19 +775,48 @@ public class ElasticDocQueryContext implements DocQueryContext {
    */
   public <T> void writeOrderBy(OrderBy<T> orderBy) throws IOException {
 
-    if (orderBy != null && !orderBy.isEmpty()) {
+    if (tiebreaker != null) {
+      writeSortWithTiebreaker(orderBy);
+
+    } else if (orderBy != null && !orderBy.isEmpty()) {
       json.writeArrayFieldStart("sort");
       for (OrderBy.Property property : orderBy.getProperties()) {
-        json.writeStartObject();
-        json.writeObjectFieldStart(rawProperty(property.getProperty()));
-        json.writeStringField("order", property.isAscending() ? "asc" : "desc");
-        json.writeEndObject();
-        json.writeEndObject();
+        writeSort(rawProperty(property.getProperty()), property.isAscending());
       }
       json.writeEndArray();
     }
   }
 
+  /**
+   * Write the sort with the tiebreaker added unless the order by already includes it.
+   */
+  private <T> void writeSortWithTiebreaker(OrderBy<T> orderBy) throws IOException {
+
+    String rawTiebreaker = tiebreaker.startsWith("_") ? tiebreaker : rawProperty(tiebreaker);
+    boolean hasTiebreaker = false;
+
+    json.writeArrayFieldStart("sort");
+    if (orderBy != null) {
+      for (OrderBy.Property property : orderBy.getProperties()) {
+        String rawName = rawProperty(property.getProperty());
+        hasTiebreaker = hasTiebreaker || rawName.equals(rawTiebreaker);
+        writeSort(rawName, property.isAscending());
+      }
+    }
+    if (!hasTiebreaker) {
+      writeSort(rawTiebreaker, true);
+    }
+    json.writeEndArray();
+  }
+
+  private void writeSort(String rawName, boolean ascending) throws IOException {
+    json.writeStartObject();
+    json.writeObjectFieldStart(rawName);
+    json.writeStringField("order", ascending ? "asc" : "desc");
+    json.writeEndObject();
+    json.writeEndObject();
+  }
+
   /**
    * Start a nested path filter.
    */
@@ -673,12 +836,14 @@ public class ElasticDocQueryContext implements DocQueryContext {
 
   @Override
   public void startNot() throws IOException {
+    pushBool(false);
     json.writeStartObject();
     json.writeFieldName("not");
   }
 
   @Override
   public void endNot() throws IOException {
+    popBool();
     json.writeEndObject();
   }
 }
@@ -0,0 +1,45 @@
+package com.avaje.ebeanservice.elastic.querywriter;
+
+/**
+ * A query in ElasticSearch JSON form with the routing it can be restricted to.
+ */
+public class ElasticQueryJson {
+
+  private final String json;
+
+  private final String routing;
+
+  /**
+   * Construct with the JSON query and routing (null to search all shards).
+   */
+  public ElasticQueryJson(String json, String routing) {
+    this.json = json;
+    this.routing = routing;
+  }
+
+  /**
+   * Return the query in ElasticSearch JSON form.
+   */
+  public String getJson() {
+    return json;
+  }
+
+  /**
+   * Return the comma delimited routing values (null to search all shards).
+   */
+  public String getRouting() {
+    return routing;
+  }
+
+  /**
+   * Return a copy with different JSON (for example with search_after or slice added) and the same routing.
+   */
+  public ElasticQueryJson withJson(String json) {
+    return new ElasticQueryJson(json, routing);
+  }
+
+  @Override
+  public String toString() {
+    return json;
+  }
+}
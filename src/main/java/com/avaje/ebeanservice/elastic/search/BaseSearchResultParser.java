@@ -60,6 +60,13 @@ public abstract class BaseSearchResultParser {
     return scrollId;
   }
 
+  /**
+   * Return the sort values of the last hit read (used as the next search_after).
+   */
+  public Object getSort() {
+    return sort;
+  }
+
   /**
    * Return true if all the hits have been read.
    */
@@ -84,25 +91,33 @@ public abstract class BaseSearchResultParser {
 
   /**
    * Read all the response JSON.
+   * <p>
+   * The hits are parsed incrementally as the response is read and the parser (and hence
+   * the underlying response stream) is closed after reading.
+   * </p>
    */
   public void readAll() throws IOException {
 
-    parser.nextToken();
-    while (nextFieldName()) {
-      field = parser.getCurrentName();
-      switch (documentLevel) {
-        case 0:
-          readLevel0();
-          break;
-        case 1:
-          readLevel1();
-          break;
-        case 2:
-          readLevel2();
-          break;
-        default:
-          throw new IllegalStateException("Unexpected documentLevel "+ documentLevel);
+    try {
+      parser.nextToken();
+      while (nextFieldName()) {
+        field = parser.getCurrentName();
+        switch (documentLevel) {
+          case 0:
+            readLevel0();
+            break;
+          case 1:
+            readLevel1();
+            break;
+          case 2:
+            readLevel2();
+            break;
+          default:
+            throw new IllegalStateException("Unexpected documentLevel "+ documentLevel);
+        }
       }
+    } finally {
+      parser.close();
     }
   }
 
@@ -3,6 +3,7 @@ package com.avaje.ebeanservice.elastic.search.rawsource;
 import com.avaje.ebean.PersistenceIOException;
 import com.avaje.ebean.QueryEachConsumer;
 import com.avaje.ebean.text.json.EJson;
+import com.avaje.ebeanservice.elastic.ElasticDocStoreBeanAdapter;
 import com.avaje.ebeanservice.elastic.bulk.BulkUpdate;
 import com.fasterxml.jackson.core.JsonGenerator;
 
@@ -19,13 +20,26 @@ public class RawSourceCopier implements QueryEachConsumer<RawSource> {
 
   private final String targetIndexName;
 
+  /**
+   * The source property holding the routing value (null when not routed).
+   */
+  private final String routingProperty;
+
   /**
    * Construct with target index type and name.
    */
   public RawSourceCopier(BulkUpdate txn, String targetIndexType, String targetIndexName) {
+    this(txn, targetIndexType, targetIndexName, null);
+  }
+
+  /**
+   * Construct with target index type and name and the property holding the routing value.
+   */
+  public RawSourceCopier(BulkUpdate txn, String targetIndexType, String targetIndexName, String routingProperty) {
     this.txn = txn;
     this.targetIndexType = targetIndexType;
     this.targetIndexName = targetIndexName;
+    this.routingProperty = routingProperty;
   }
 
   @Override
@@ -33,7 +47,7 @@ public class RawSourceCopier implements QueryEachConsumer<RawSource> {
 
     try {
       JsonGenerator gen = txn.obtain().gen();
-      writeBulkHeader(gen, bean.getId());
+      writeBulkHeader(gen, bean.getId(), routing(bean));
       EJson.write(bean.getSource(), gen);
       gen.writeRaw("\n");
 
@@ -42,7 +56,14 @@ public class RawSourceCopier implements QueryEachConsumer<RawSource> {
     }
   }
 
-  private void writeBulkHeader(JsonGenerator gen, Object idValue) throws IOException {
+  private String routing(RawSource bean) {
+    if (routingProperty == null || bean.getSource() == null) {
+      return null;
+    }
+    return ElasticDocStoreBeanAdapter.routingValue(bean.getSource().get(routingProperty));
+  }
+
+  private void writeBulkHeader(JsonGenerator gen, Object idValue, String routing) throws IOException {
 
     gen.writeStartObject();
     gen.writeFieldName("index");
@@ -50,6 +71,9 @@ public class RawSourceCopier implements QueryEachConsumer<RawSource> {
     gen.writeStringField("_id", idValue.toString());
     gen.writeStringField("_type", targetIndexType);
     gen.writeStringField("_index", targetIndexName);
+    if (routing != null) {
+      gen.writeStringField("_routing", routing);
+    }
     gen.writeEndObject();
     gen.writeEndObject();
     gen.writeRaw("\n");
@@ -3,22 +3,43 @@ package com.avaje.ebeanservice.elastic.search.rawsource;
 import com.avaje.ebean.QueryEachConsumer;
 import com.avaje.ebean.plugin.BeanDocType;
 import com.avaje.ebeaninternal.api.SpiQuery;
+import com.avaje.ebeanservice.elastic.ScrollOptions;
 import com.avaje.ebeanservice.elastic.query.EQuerySend;
 import com.fasterxml.jackson.core.JsonParser;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Process scroll query with RawSource.
+ * <p>
+ * With prefetch the subsequent scroll requests are sent and read by a background worker as
+ * soon as the scroll id of the prior page is known, reading up to <code>prefetch</code>
+ * pages ahead of the consumer.
+ * </p>
  */
 public class RawSourceEach {
 
   private final EQuerySend send;
 
-  private final Set<String> scrollIds = new LinkedHashSet<String>();
+  private final ExecutorService executor;
+
+  private final ScrollOptions options;
+
+  private final int prefetch;
+
+  private final Set<String> scrollIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
   private long totalCount;
 
@@ -26,8 +47,20 @@ public class RawSourceEach {
 
   private String currentScrollId;
 
+  private Prefetch prefetcher;
+
   public RawSourceEach(EQuerySend send) {
+    this(send, null, new ScrollOptions());
+  }
+
+  /**
+   * Construct with the executor used to prefetch pages and the scroll options.
+   */
+  public RawSourceEach(EQuerySend send, ExecutorService executor, ScrollOptions options) {
     this.send = send;
+    this.executor = executor;
+    this.options = options;
+    this.prefetch = (executor == null) ? 0 : options.getPrefetch();
   }
 
   /**
@@ -35,9 +68,15 @@ public class RawSourceEach {
    */
   public boolean consumeInitial(QueryEachConsumer<RawSource> consumer, BeanDocType beanDocType, SpiQuery<?> query) throws IOException {
 
-    JsonParser json = send.findScroll(beanDocType, query);
-    consume(consumer, read(json));
-    return !currentReader.allHitsRead();
+    JsonParser json = send.findScroll(beanDocType, query, options);
+    List<RawSource> list = read(json);
+    boolean more = !currentReader.allHitsRead();
+    if (more && prefetch > 0) {
+      prefetcher = new Prefetch(currentScrollId);
+      prefetcher.start();
+    }
+    consume(consumer, list);
+    return more;
   }
 
   /**
@@ -45,7 +84,12 @@ public class RawSourceEach {
    */
   public boolean consumeNext(QueryEachConsumer<RawSource> consumer) throws IOException {
 
-    JsonParser moreJson = send.findNextScroll(currentScrollId);
+    if (prefetcher != null) {
+      List<RawSource> list = prefetcher.take();
+      consume(consumer, list);
+      return !list.isEmpty();
+    }
+    JsonParser moreJson = send.findNextScroll(currentScrollId, options);
     consume(consumer, read(moreJson));
     return !currentReader.zeroHits();
   }
@@ -58,10 +102,13 @@ public class RawSourceEach {
   }
 
   /**
-   * Clear the scrollIds on the server.
+   * Clear the scrollIds on the server (stopping any prefetch first).
    */
   public void clearScrollIds() {
-    send.clearScrollIds(scrollIds);
+    if (prefetcher != null) {
+      prefetcher.stop();
+    }
+    send.clearScrollIds(new LinkedHashSet<String>(scrollIds));
   }
 
   /**
@@ -87,9 +134,118 @@ public class RawSourceEach {
 
     List<RawSource> hits = currentReader.read();
     currentScrollId = currentReader.getScrollId();
-    scrollIds.add(currentScrollId);
+    addScrollId(currentScrollId);
 
     return hits;
   }
 
+  private void addScrollId(String scrollId) {
+    if (scrollId != null) {
+      scrollIds.add(scrollId);
+    }
+  }
+
+  /**
+   * A page of prefetched hits or the error that stopped the prefetch.
+   */
+  private static class Page {
+
+    final List<RawSource> hits;
+
+    final Throwable error;
+
+    Page(List<RawSource> hits, Throwable error) {
+      this.hits = hits;
+      this.error = error;
+    }
+  }
+
+  /**
+   * Background worker that sends and reads the subsequent scroll requests.
+   */
+  private class Prefetch implements Runnable {
+
+    private final BlockingQueue<Page> pages = new ArrayBlockingQueue<Page>(prefetch);
+
+    private String scrollId;
+
+    private Future<?> future;
+
+    private volatile boolean stopped;
+
+    Prefetch(String scrollId) {
+      this.scrollId = scrollId;
+    }
+
+    void start() {
+      future = executor.submit(this);
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (!stopped) {
+          RawSourceReader reader = new RawSourceReader(send.findNextScroll(scrollId, options));
+          List<RawSource> hits = reader.read();
+          scrollId = reader.getScrollId();
+          addScrollId(scrollId);
+          if (!add(new Page(hits, null)) || hits.isEmpty()) {
+            return;
+          }
+        }
+      } catch (Throwable e) {
+        try {
+          add(new Page(Collections.<RawSource>emptyList(), e));
+        } catch (InterruptedException ie) {
+          // stopped
+        }
+      }
+    }
+
+    /**
+     * Add the page waiting for the consumer returning false if stopped.
+     */
+    private boolean add(Page page) throws InterruptedException {
+      while (!pages.offer(page, 100, TimeUnit.MILLISECONDS)) {
+        if (stopped) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Return the next page (empty at the end of the scroll).
+     */
+    List<RawSource> take() throws IOException {
+      Page page;
+      try {
+        page = pages.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for scroll prefetch");
+      }
+      if (page.error != null) {
+        if (page.error instanceof IOException) {
+          throw (IOException) page.error;
+        }
+        throw new IOException("Error prefetching scroll", page.error);
+      }
+      return page.hits;
+    }
+
+    /**
+     * Stop and wait for the worker such that all the scroll ids are known.
+     */
+    void stop() {
+      stopped = true;
+      try {
+        future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+        // errors are passed to the consumer as a page
+      }
+    }
+  }
 }
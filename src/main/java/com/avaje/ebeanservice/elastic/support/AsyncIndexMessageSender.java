@@ -0,0 +1,60 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous variant of {@link IndexMessageSender}.
+ * <p>
+ * The requests are queued and executed by the HTTP client dispatcher such that many requests
+ * can be in-flight without holding a thread each. The returned futures complete on a dispatcher
+ * thread so dependent stages that block should use one of the <code>*Async</code> methods with
+ * their own executor.
+ * </p>
+ * <p>
+ * The response body is typically held as the response stream which must be read or closed
+ * (see {@link IndexMessageResponse#createParser}, {@link IndexMessageResponse#getBody()} and
+ * {@link IndexMessageResponse#close()}).
+ * </p>
+ * <p>
+ * This is a low level API implemented by {@link BaseHttpMessageSender} only. Unlike the
+ * {@link IndexMessageSender} used by the doc store it is not protected by the retry policy or the
+ * circuit breaker, such that callers handle rejected (429) and failed requests themselves.
+ * </p>
+ */
+public interface AsyncIndexMessageSender {
+
+  /**
+   * Send the JSON to the ElasticSearch Bulk API.
+   */
+  CompletableFuture<IndexMessageResponse> postBulkAsync(String json);
+
+  /**
+   * Send the UTF-8 encoded JSON to the ElasticSearch Bulk API.
+   */
+  CompletableFuture<IndexMessageResponse> postBulkAsync(byte[] content, int offset, int len);
+
+  /**
+   * Get the document source for a specific document.
+   */
+  CompletableFuture<IndexMessageResponse> getDocSourceAsync(String indexType, String indexName, String docId);
+
+  /**
+   * Send a query request.
+   */
+  CompletableFuture<IndexMessageResponse> postQueryAsync(String indexType, String indexName, String jsonQuery);
+
+  /**
+   * Send a scroll query request with the given scroll keep alive (e.g. <code>1m</code>).
+   */
+  CompletableFuture<IndexMessageResponse> postScrollQueryAsync(String keepAlive, String indexType, String indexName, String jsonQuery);
+
+  /**
+   * Send a get scroll request with the given scroll keep alive.
+   */
+  CompletableFuture<IndexMessageResponse> getScrollAsync(String scrollId, String keepAlive);
+
+  /**
+   * Send an update query request.
+   */
+  CompletableFuture<IndexMessageResponse> postUpdateQueryAsync(String indexType, String indexName, String jsonQuery);
+}
@@ -1,6 +1,8 @@
 package com.avaje.ebeanservice.elastic.support;
 
 
+import com.avaje.ebeanservice.elastic.ElasticConfig;
+import com.squareup.okhttp.Callback;
 import com.squareup.okhttp.MediaType;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Request;
@@ -10,12 +12,30 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
 
 /**
  * Basic implementation for sending the JSON payload to the ElasticSearch Bulk API.
+ * <p>
+ * Requests are spread across the {@link HttpNodes}. When a node fails (connection error or a
+ * 502, 503 or 504 response) it is marked dead and idempotent requests are retried on another
+ * node. Update by query requests and scroll continuations are not retried (a continuation that
+ * reached ElasticSearch has advanced the scroll such that sending it again skips a page).
+ * </p>
+ * <p>
+ * The asynchronous methods queue the requests on the HTTP client dispatcher (limited by the
+ * dispatcher max requests) with the same node failover. They are a low level API that is not
+ * wrapped by {@link RetryingIndexMessageSender} or {@link ProtectedIndexMessageSender} so they
+ * are not retried on 429 responses and are not short-circuited by the circuit breaker.
+ * </p>
  */
-public class BaseHttpMessageSender implements IndexMessageSender {
+public class BaseHttpMessageSender implements IndexMessageSender, AsyncIndexMessageSender {
 
   public static final Logger logger = LoggerFactory.getLogger("org.avaje.ebean.ELQ");
 
@@ -23,37 +43,73 @@ public class BaseHttpMessageSender implements IndexMessageSender {
 
   public static final MediaType TEXT = MediaType.parse("text/plain; charset=utf-8");
 
-  private final OkHttpClient client = new OkHttpClient();
+  /**
+   * The scroll keep alive used when not specified.
+   */
+  public static final String DEFAULT_KEEP_ALIVE = "1m";
+
+  private static final String BULK_PATH = "_bulk";
+
+  private static final String NODES_HTTP_PATH = "_nodes/http";
+
+  private static final String SCROLL_PATH = "_search/scroll";
+
+  private final Map<HttpOperation, OkHttpClient> clients = new EnumMap<HttpOperation, OkHttpClient>(HttpOperation.class);
 
-  private final String baseUrl;
+  private final HttpNodes nodes;
 
-  private final String bulkUrl;
+  private final boolean gzipRequests;
 
+  private final int gzipLevel;
+
+  private final boolean gzipResponses;
+
+  /**
+   * Construct with the base URL (or comma delimited base URLs of multiple nodes).
+   */
   public BaseHttpMessageSender(String baseUrl) {
-    this.baseUrl = normaliseBaseUrl(baseUrl);
-    this.bulkUrl = deriveBulkUrl(this.baseUrl);
+    this(new HttpNodes(baseUrl));
+  }
+
+  /**
+   * Construct with the nodes requests are sent to.
+   */
+  public BaseHttpMessageSender(HttpNodes nodes) {
+    this(nodes, new DefaultHttpClientFactory());
   }
 
-  protected String normaliseBaseUrl(String baseUrl) {
-    if (baseUrl == null) return null;
-    return baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+  /**
+   * Construct with the nodes requests are sent to and the factory of the HTTP clients.
+   */
+  public BaseHttpMessageSender(HttpNodes nodes, HttpClientFactory clientFactory) {
+    this(nodes, clientFactory, new ElasticConfig());
   }
 
   /**
-   * Return the Bulk API URL given the base URL.
+   * Construct with the nodes, the factory of the HTTP clients and the compression settings of the config.
    */
-  protected String deriveBulkUrl(String baseUrl) {
+  public BaseHttpMessageSender(HttpNodes nodes, HttpClientFactory clientFactory, ElasticConfig config) {
+    this.nodes = nodes;
+    this.gzipRequests = config.isHttpGzipRequests();
+    this.gzipLevel = config.getHttpGzipLevel();
+    this.gzipResponses = config.isHttpGzipResponses();
+    for (HttpOperation operation : HttpOperation.values()) {
+      clients.put(operation, clientFactory.create(operation));
+    }
+  }
 
-    if (baseUrl == null) return null;
-    return baseUrl + "_bulk";
+  /**
+   * Return the nodes requests are sent to.
+   */
+  public HttpNodes getNodes() {
+    return nodes;
   }
 
   @Override
   public void indexAlias(String aliasJson) throws IOException {
 
-    String url = baseUrl + "_aliases";
-    Response response = postJson(url, aliasJson);
-    String responseBody = responseDebug("POST", url, response);
+    Response response = postJson(HttpOperation.ADMIN, "_aliases", aliasJson);
+    String responseBody = responseDebug("POST", response);
 
     int code = response.code();
     if (code != 200) {
@@ -64,9 +120,8 @@ public class BaseHttpMessageSender implements IndexMessageSender {
   @Override
   public void indexSettings(String indexName, String settingsJson) throws IOException {
 
-    String url = baseUrl + indexName + "/_settings";
-    Response response = putJson(true, url, settingsJson);
-    String responseBody = responseDebug("POST", url, response);
+    Response response = putJson(indexName + "/_settings", settingsJson);
+    String responseBody = responseDebug("POST", response);
 
     int code = response.code();
     if (code != 200) {
@@ -77,12 +132,8 @@ public class BaseHttpMessageSender implements IndexMessageSender {
   @Override
   public boolean indexExists(String indexName) throws IOException {
 
-    String url = baseUrl + indexName;
-    Request request = new Request.Builder()
-        .url(url)
-        .head().build();
-
-    Response response = client.newCall(request).execute();
+    Response response = execute(HttpOperation.ADMIN, "HEAD", indexName, null, true);
+    response.body().close();
 
     int code = response.code();
     switch (code) {
@@ -98,11 +149,8 @@ public class BaseHttpMessageSender implements IndexMessageSender {
   @Override
   public boolean indexDelete(String indexName) throws IOException {
 
-    String url = baseUrl + indexName;
-    Request request = new Request.Builder().url(url).delete().build();
-
-    Response response = client.newCall(request).execute();
-    responseDebug("DELETE", url, response);
+    Response response = execute(HttpOperation.ADMIN, "DELETE", indexName, null, true);
+    responseDebug("DELETE", response);
 
     int code = response.code();
     switch (code) {
@@ -119,9 +167,8 @@ public class BaseHttpMessageSender implements IndexMessageSender {
   @Override
   public void indexCreate(String indexName, String settingsJson) throws IOException {
 
-    String url = baseUrl + indexName;
-    Response response = putJson(true, url, settingsJson);
-    String responseBody = responseDebug("PUT", url, response);
+    Response response = putJson(indexName, settingsJson);
+    String responseBody = responseDebug("PUT", response);
 
     int code = response.code();
     if (code != 200) {
@@ -132,43 +179,76 @@ public class BaseHttpMessageSender implements IndexMessageSender {
   @Override
   public IndexMessageResponse postQuery(boolean scroll, String indexType, String indexName, String jsonQuery) throws IOException {
 
-    String scrollSuffix = (scroll) ? "?scroll=1m" : "";
-    String url = baseUrl + indexName+ "/" + indexType + "/_search" + scrollSuffix;
+    return postQuery(scroll, indexType, indexName, null, jsonQuery);
+  }
+
+  @Override
+  public IndexMessageResponse postQuery(boolean scroll, String indexType, String indexName, String routing, String jsonQuery) throws IOException {
 
-    Response response = postJson(url, jsonQuery);
-    String responseBody = responseDebug("POST", url, response);
+    if (scroll) {
+      return postScrollQuery(DEFAULT_KEEP_ALIVE, indexType, indexName, routing, jsonQuery);
+    }
+    return postSearch(routingPath(searchPath(indexType, indexName), routing), jsonQuery);
+  }
 
-    return new IndexMessageResponse(response.code(), responseBody);
+  @Override
+  public IndexMessageResponse postScrollQuery(String keepAlive, String indexType, String indexName, String jsonQuery) throws IOException {
+
+    return postScrollQuery(keepAlive, indexType, indexName, null, jsonQuery);
+  }
+
+  @Override
+  public IndexMessageResponse postScrollQuery(String keepAlive, String indexType, String indexName, String routing, String jsonQuery) throws IOException {
+
+    return postSearch(routingPath(scrollPath(keepAlive, indexType, indexName), routing), jsonQuery);
+  }
+
+  private IndexMessageResponse postSearch(String path, String jsonQuery) throws IOException {
+
+    Response response = postJson(HttpOperation.SEARCH, path, jsonQuery);
+    return streamResponse("POST", response);
   }
 
   @Override
   public IndexMessageResponse postUpdateQuery(String indexType, String indexName, String jsonQuery) throws IOException {
 
-    String url = baseUrl + indexName+ "/" + indexType + "/_update_by_query";
-    Response response = postJson(url, jsonQuery);
-    String responseBody = responseDebug("POST", url, response);
+    String path = updateQueryPath(indexType, indexName);
+    if (logger.isDebugEnabled()) {
+      logger.debug("POST path:{} json:{}", path, jsonQuery);
+    }
+    // not idempotent so not retried on another node
+    Response response = execute(HttpOperation.BULK, "POST", path, bulkBody(RequestBody.create(JSON, jsonQuery)), false);
+    String responseBody = responseDebug("POST", response);
 
-    return new IndexMessageResponse(response.code(), responseBody);
+    return new IndexMessageResponse(response.code(), responseBody).withRetryAfter(retryAfter(response));
   }
 
   @Override
-  public IndexMessageResponse getScroll(String scrollId) throws IOException {
+  public IndexMessageResponse postDeleteQuery(String indexType, String indexName, String jsonQuery) throws IOException {
 
-    String url = baseUrl + "_search/scroll";
+    // deleting the same documents again is idempotent
+    Response response = postJson(HttpOperation.BULK, deleteQueryPath(indexType, indexName), jsonQuery);
+    String responseBody = responseDebug("POST", response);
 
-    String jsonQuery = "{\"scroll\":\"1m\",\"scroll_id\":\"" + scrollId + "\"}";
+    return new IndexMessageResponse(response.code(), responseBody).withRetryAfter(retryAfter(response));
+  }
 
-    Response response = postJson(url, jsonQuery);
-    String responseBody = responseDebug("POST", url, response);
+  @Override
+  public IndexMessageResponse getScroll(String scrollId) throws IOException {
+    return getScroll(scrollId, DEFAULT_KEEP_ALIVE);
+  }
 
-    return new IndexMessageResponse(response.code(), responseBody);
+  @Override
+  public IndexMessageResponse getScroll(String scrollId, String keepAlive) throws IOException {
+
+    // advances the scroll so not retried on another node
+    Response response = postJson(HttpOperation.SEARCH, SCROLL_PATH, scrollJson(scrollId, keepAlive), false);
+    return streamResponse("POST", response);
   }
 
   @Override
   public IndexMessageResponse clearScrollIds(Set<String> scrollIds) throws IOException {
 
-    String url = baseUrl + "_search/scroll";
-
     StringBuilder sb = new StringBuilder(200);
     for (String scrollId : scrollIds) {
       if (sb.length() != 0) {
@@ -181,75 +261,394 @@ public class BaseHttpMessageSender implements IndexMessageSender {
       logger.debug("clearScrollIds: {}", sb.toString());
     }
 
-    Request request = new Request.Builder()
-        .url(url)
-        .delete(RequestBody.create(TEXT, sb.toString()))
-        .build();
-
-    Response response = client.newCall(request).execute();
-    String responseBody = responseDebug("DELETE", url, response);
+    Response response = execute(HttpOperation.SEARCH, "DELETE", SCROLL_PATH, RequestBody.create(TEXT, sb.toString()), true);
+    String responseBody = responseDebug("DELETE", response);
     return new IndexMessageResponse(response.code(), responseBody);
   }
 
   @Override
   public IndexMessageResponse getDocSource(String indexType, String indexName, String docId) throws IOException {
 
-    String url = baseUrl + indexName + "/" + indexType + "/" + docId + "/_source";
-
-    Request request = new Request.Builder().url(url).get().build();
+    String path = docSourcePath(indexType, indexName, docId);
 
     if (logger.isDebugEnabled()) {
-      logger.debug("getDocSource: {}", url);
+      logger.debug("getDocSource: {}", path);
     }
 
-    Response response = client.newCall(request).execute();
-    String responseBody = responseDebug("GET", url, response);
-    return new IndexMessageResponse(response.code(), responseBody);
+    Response response = execute(HttpOperation.SEARCH, "GET", path, null, true);
+    return streamResponse("GET", response);
+  }
+
+  /**
+   * Return the nodes info JSON with the HTTP address of each node in the cluster.
+   */
+  public String getNodesHttp() throws IOException {
+
+    Response response = execute(HttpOperation.ADMIN, "GET", NODES_HTTP_PATH, null, true);
+    String responseBody = responseDebug("GET", response);
+
+    int code = response.code();
+    if (code != 200) {
+      throw new IOException("Unexpected http code:" + code + " for " + NODES_HTTP_PATH + " response:" + responseBody);
+    }
+    return responseBody;
   }
 
   @Override
   public String postBulk(String json) throws IOException {
 
-    Response response = postJson(false, bulkUrl, json);
-    return response.body().string();
+    Response response = execute(HttpOperation.BULK, "POST", BULK_PATH, bulkBody(RequestBody.create(JSON, json)), true);
+    return bulkResponse(response);
+  }
+
+  @Override
+  public String postBulk(byte[] content, int offset, int len) throws IOException {
+
+    RequestBody body = bulkBody(RequestBody.create(JSON, content, offset, len));
+    Response response = execute(HttpOperation.BULK, "POST", BULK_PATH, body, true);
+    return bulkResponse(response);
   }
 
-  private Response putJson(boolean debug, String url, String json) throws IOException {
+  @Override
+  public IndexMessageResponse postBulkStream(String json) throws IOException {
+
+    Response response = execute(HttpOperation.BULK, "POST", BULK_PATH, bulkBody(RequestBody.create(JSON, json)), true);
+    return bulkStreamResponse(response);
+  }
 
-    if (debug && logger.isDebugEnabled()) {
-      logger.debug("PUT url:{} json:{}", url, json);
+  @Override
+  public IndexMessageResponse postBulkStream(byte[] content, int offset, int len) throws IOException {
+
+    RequestBody body = bulkBody(RequestBody.create(JSON, content, offset, len));
+    Response response = execute(HttpOperation.BULK, "POST", BULK_PATH, body, true);
+    return bulkStreamResponse(response);
+  }
+
+  /**
+   * Return the bulk response with the body as a stream throwing HttpStatusException when the whole request failed.
+   */
+  private IndexMessageResponse bulkStreamResponse(Response response) throws IOException {
+    int code = response.code();
+    if (code != 200) {
+      String responseBody = response.body().string();
+      throw new HttpStatusException("Unexpected http code:" + code + " for bulk response:" + responseBody, code, retryAfter(response));
     }
+    return streamResponse("POST", response);
+  }
 
-    RequestBody body = RequestBody.create(JSON, json);
-    Request request = new Request.Builder().url(url)
-        .put(body)
-        .build();
+  /**
+   * Return the bulk response body throwing HttpStatusException when the whole request failed.
+   * <p>
+   * Failures of individual items (with a 200 response) are in the body.
+   * </p>
+   */
+  private String bulkResponse(Response response) throws IOException {
+    String responseBody = response.body().string();
+    int code = response.code();
+    if (code != 200) {
+      throw new HttpStatusException("Unexpected http code:" + code + " for bulk response:" + responseBody, code, retryAfter(response));
+    }
+    return responseBody;
+  }
 
-    return client.newCall(request).execute();
+  @Override
+  public CompletableFuture<IndexMessageResponse> postBulkAsync(String json) {
+    return streamResponse("POST", executeAsync(HttpOperation.BULK, "POST", BULK_PATH, bulkBody(RequestBody.create(JSON, json)), true));
   }
 
-  private Response postJson(String url, String json) throws IOException {
-    return postJson(true, url, json);
+  @Override
+  public CompletableFuture<IndexMessageResponse> postBulkAsync(byte[] content, int offset, int len) {
+    RequestBody body = bulkBody(RequestBody.create(JSON, content, offset, len));
+    return streamResponse("POST", executeAsync(HttpOperation.BULK, "POST", BULK_PATH, body, true));
   }
 
-  private Response postJson(boolean debug, String url, String json) throws IOException {
+  @Override
+  public CompletableFuture<IndexMessageResponse> getDocSourceAsync(String indexType, String indexName, String docId) {
+    String path = docSourcePath(indexType, indexName, docId);
+    return streamResponse("GET", executeAsync(HttpOperation.SEARCH, "GET", path, null, true));
+  }
+
+  @Override
+  public CompletableFuture<IndexMessageResponse> postQueryAsync(String indexType, String indexName, String jsonQuery) {
+    return postJsonAsync(HttpOperation.SEARCH, searchPath(indexType, indexName), jsonQuery);
+  }
 
-    if (debug && logger.isDebugEnabled()) {
-      logger.debug("POST url:{} json:{}", url, json);
+  @Override
+  public CompletableFuture<IndexMessageResponse> postScrollQueryAsync(String keepAlive, String indexType, String indexName, String jsonQuery) {
+    return postJsonAsync(HttpOperation.SEARCH, scrollPath(keepAlive, indexType, indexName), jsonQuery);
+  }
+
+  @Override
+  public CompletableFuture<IndexMessageResponse> getScrollAsync(String scrollId, String keepAlive) {
+    // advances the scroll so not retried on another node
+    return postJsonAsync(HttpOperation.SEARCH, SCROLL_PATH, scrollJson(scrollId, keepAlive), false);
+  }
+
+  @Override
+  public CompletableFuture<IndexMessageResponse> postUpdateQueryAsync(String indexType, String indexName, String jsonQuery) {
+    RequestBody body = bulkBody(RequestBody.create(JSON, jsonQuery));
+    // not idempotent so not retried on another node
+    return streamResponse("POST", executeAsync(HttpOperation.BULK, "POST", updateQueryPath(indexType, indexName), body, false));
+  }
+
+  private CompletableFuture<IndexMessageResponse> postJsonAsync(HttpOperation operation, String path, String json) {
+    return postJsonAsync(operation, path, json, true);
+  }
+
+  private CompletableFuture<IndexMessageResponse> postJsonAsync(HttpOperation operation, String path, String json, boolean idempotent) {
+
+    if (logger.isDebugEnabled()) {
+      logger.debug("POST path:{} json:{}", path, json);
+    }
+
+    return streamResponse("POST", executeAsync(operation, "POST", path, RequestBody.create(JSON, json), idempotent));
+  }
+
+  private static String searchPath(String indexType, String indexName) {
+    return indexName + "/" + indexType + "/_search";
+  }
+
+  private static String scrollPath(String keepAlive, String indexType, String indexName) {
+    return indexName + "/" + indexType + "/_search?scroll=" + keepAlive;
+  }
+
+  /**
+   * Return the path with the routing parameter added (when routing is not null).
+   */
+  static String routingPath(String path, String routing) throws UnsupportedEncodingException {
+    if (routing == null) {
+      return path;
+    }
+    return path + ((path.indexOf('?') == -1) ? "?" : "&") + "routing=" + URLEncoder.encode(routing, "UTF-8");
+  }
+
+  private static String updateQueryPath(String indexType, String indexName) {
+    return indexName + "/" + indexType + "/_update_by_query";
+  }
+
+  static String deleteQueryPath(String indexType, String indexName) {
+    // documents concurrently updated are still deleted
+    return indexName + "/" + indexType + "/_delete_by_query?conflicts=proceed";
+  }
+
+  private static String docSourcePath(String indexType, String indexName, String docId) {
+    return indexName + "/" + indexType + "/" + docId + "/_source";
+  }
+
+  private static String scrollJson(String scrollId, String keepAlive) {
+    return "{\"scroll\":\"" + keepAlive + "\",\"scroll_id\":\"" + scrollId + "\"}";
+  }
+
+  /**
+   * Return the bulk body gzip compressed if configured.
+   */
+  private RequestBody bulkBody(RequestBody body) {
+    return gzipRequests ? new GzipRequestBody(body, gzipLevel) : body;
+  }
+
+  private Response putJson(String path, String json) throws IOException {
+
+    if (logger.isDebugEnabled()) {
+      logger.debug("PUT path:{} json:{}", path, json);
+    }
+
+    return execute(HttpOperation.ADMIN, "PUT", path, RequestBody.create(JSON, json), true);
+  }
+
+  private Response postJson(HttpOperation operation, String path, String json) throws IOException {
+    return postJson(operation, path, json, true);
+  }
+
+  private Response postJson(HttpOperation operation, String path, String json, boolean idempotent) throws IOException {
+
+    if (logger.isDebugEnabled()) {
+      logger.debug("POST path:{} json:{}", path, json);
+    }
+
+    return execute(operation, "POST", path, RequestBody.create(JSON, json), idempotent);
+  }
+
+  /**
+   * Execute the request on the next node using the client for the operation.
+   * <p>
+   * If the node fails it is marked dead and when the request is idempotent it is retried on
+   * another node (each node being tried at most once).
+   * </p>
+   */
+  protected Response execute(HttpOperation operation, String method, String path, RequestBody body, boolean idempotent) throws IOException {
+
+    OkHttpClient client = clients.get(operation);
+    int attempts = idempotent ? Math.max(nodes.size(), 1) : 1;
+    for (int attempt = 1; ; attempt++) {
+      HttpNodes.Node node = nodes.next();
+      Request request = request(operation, method, node.getUrl() + path, body);
+
+      Response response;
+      try {
+        response = client.newCall(request).execute();
+      } catch (IOException e) {
+        nodes.markDead(node);
+        if (attempt >= attempts) {
+          throw e;
+        }
+        logger.warn("Retrying {} {} on another node after failure on {}", method, path, node, e);
+        continue;
+      }
+
+      if (isNodeFailure(response.code())) {
+        nodes.markDead(node);
+        if (attempt < attempts) {
+          response.body().close();
+          logger.warn("Retrying {} {} on another node after http code {} from {}", method, path, response.code(), node);
+          continue;
+        }
+      } else {
+        nodes.markAlive(node);
+      }
+      return response;
+    }
+  }
+
+  /**
+   * Execute the request asynchronously on the next node using the client for the operation.
+   * <p>
+   * This has the same node failover as {@link #execute(HttpOperation, String, String, RequestBody, boolean)}
+   * with the retry on another node being queued from the callback.
+   * </p>
+   */
+  protected CompletableFuture<Response> executeAsync(HttpOperation operation, String method, String path, RequestBody body, boolean idempotent) {
+
+    CompletableFuture<Response> future = new CompletableFuture<Response>();
+    int attempts = idempotent ? Math.max(nodes.size(), 1) : 1;
+    enqueue(future, operation, method, path, body, 1, attempts);
+    return future;
+  }
+
+  private void enqueue(final CompletableFuture<Response> future, final HttpOperation operation, final String method,
+                       final String path, final RequestBody body, final int attempt, final int attempts) {
+
+    final HttpNodes.Node node;
+    try {
+      node = nodes.next();
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+      return;
     }
 
-    RequestBody body = RequestBody.create(JSON, json);
-    Request request = new Request.Builder().url(url)
-        .post(body)
-        .build();
+    Request request = request(operation, method, node.getUrl() + path, body);
+    clients.get(operation).newCall(request).enqueue(new Callback() {
+      @Override
+      public void onFailure(Request request, IOException e) {
+        nodes.markDead(node);
+        if (attempt >= attempts || future.isDone()) {
+          future.completeExceptionally(e);
+        } else {
+          logger.warn("Retrying {} {} on another node after failure on {}", method, path, node, e);
+          enqueue(future, operation, method, path, body, attempt + 1, attempts);
+        }
+      }
+
+      @Override
+      public void onResponse(Response response) throws IOException {
+        if (isNodeFailure(response.code())) {
+          nodes.markDead(node);
+          if (attempt < attempts && !future.isDone()) {
+            response.body().close();
+            logger.warn("Retrying {} {} on another node after http code {} from {}", method, path, response.code(), node);
+            enqueue(future, operation, method, path, body, attempt + 1, attempts);
+            return;
+          }
+        } else {
+          nodes.markAlive(node);
+        }
+        if (!future.complete(response)) {
+          // cancelled
+          response.body().close();
+        }
+      }
+    });
+  }
 
-    return client.newCall(request).execute();
+  /**
+   * Build the request adding the content and accept encoding headers.
+   * <p>
+   * OkHttp sends <code>Accept-Encoding: gzip</code> and transparently decompresses the response
+   * unless the Accept-Encoding header is explicitly set.
+   * </p>
+   */
+  private Request request(HttpOperation operation, String method, String url, RequestBody body) {
+
+    Request.Builder builder = new Request.Builder()
+        .url(url)
+        .method(method, body);
+
+    if (body instanceof GzipRequestBody) {
+      builder.header("Content-Encoding", "gzip");
+    }
+    if (!gzipResponses && operation == HttpOperation.SEARCH) {
+      builder.header("Accept-Encoding", "identity");
+    }
+    return builder.build();
+  }
+
+  /**
+   * Return true if the response code indicates the node (rather than the request) failed.
+   */
+  private boolean isNodeFailure(int code) {
+    return code == 502 || code == 503 || code == 504;
+  }
+
+  /**
+   * Return the response with the body as a stream to be parsed incrementally.
+   * <p>
+   * The body is only read into a String when debug logging is enabled.
+   * </p>
+   */
+  private IndexMessageResponse streamResponse(String method, Response response) throws IOException {
+    IndexMessageResponse messageResponse;
+    if (logger.isDebugEnabled()) {
+      messageResponse = new IndexMessageResponse(response.code(), responseDebug(method, response));
+    } else {
+      messageResponse = new IndexMessageResponse(response.code(), response.body().byteStream());
+    }
+    return messageResponse.withRetryAfter(retryAfter(response));
+  }
+
+  private static String retryAfter(Response response) {
+    return response.header("Retry-After");
+  }
+
+  /**
+   * Return the future response converted to a response with the body as a stream.
+   */
+  private CompletableFuture<IndexMessageResponse> streamResponse(final String method, CompletableFuture<Response> future) {
+
+    final CompletableFuture<IndexMessageResponse> result = new CompletableFuture<IndexMessageResponse>();
+    future.whenComplete(new BiConsumer<Response, Throwable>() {
+      @Override
+      public void accept(Response response, Throwable error) {
+        if (error != null) {
+          result.completeExceptionally(error);
+          return;
+        }
+        try {
+          IndexMessageResponse messageResponse = streamResponse(method, response);
+          if (!result.complete(messageResponse)) {
+            // cancelled
+            messageResponse.close();
+          }
+        } catch (IOException e) {
+          result.completeExceptionally(e);
+        }
+      }
+    });
+    return result;
   }
 
-  private String responseDebug(String method, String url, Response response) throws IOException {
+  private String responseDebug(String method, Response response) throws IOException {
     String responseBody = response.body().string();
     if (logger.isDebugEnabled()) {
-      logger.debug("{} url:{} response: {}", method, url, responseBody);
+      logger.debug("{} url:{} response: {}", method, response.request().urlString(), responseBody);
     }
     return responseBody;
   }
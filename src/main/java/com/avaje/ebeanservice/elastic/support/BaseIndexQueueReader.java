@@ -1,176 +1,287 @@
 package com.avaje.ebeanservice.elastic.support;
 
+import com.avaje.ebean.DocStoreQueueEntry;
+import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.SqlQuery;
 import com.avaje.ebean.SqlRow;
 import com.avaje.ebean.SqlUpdate;
 import com.avaje.ebean.Transaction;
-import com.avaje.ebeaninternal.api.SpiEbeanServer;
-import com.avaje.ebeanservice.docstore.api.DocStoreUpdates;
-import com.avaje.ebeaninternal.server.deploy.BeanDescriptor;
+import com.avaje.ebeanservice.elastic.ElasticUpdateProcessor;
+import com.avaje.ebeanservice.elastic.bulk.BulkItemError;
+import com.avaje.ebeanservice.elastic.bulk.BulkUpdate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Base implementation that will periodically read the queue and process the entries.
+ * <p>
+ * Each batch is claimed with <code>select ... for update skip locked</code> and processed in
+ * the same database transaction. The rows of a successful batch are deleted and the transaction
+ * committed. When processing fails the transaction is rolled back such that the entries remain
+ * queued (as they do if the application node dies mid batch). As locked rows are skipped the
+ * readers on each application node claim disjoint batches and drain the queue concurrently.
+ * </p>
+ * <p>
+ * Documents whose Bulk API items failed with a retryable error (429 rejected, 503) are queued
+ * again in the same transaction. Items that failed permanently (for example mapping errors)
+ * are logged and dropped.
+ * </p>
+ * <p>
+ * The default SQL uses <code>limit ? for update skip locked</code> which is supported by
+ * Postgres 9.5+ and MySQL 8. For other databases {@link #getObtainSql()} should be overridden with
+ * the platform specific equivalent (for example Oracle has no <code>limit</code> and SQL Server
+ * uses table hints). A database without <code>skip locked</code>, such as H2, can override
+ * {@link #getLockClause()} to return an empty clause but then concurrent readers claim the same
+ * entries (so only a single reader should be used).
+ * </p>
  */
-public class BaseIndexQueueReader {
+public class BaseIndexQueueReader implements IndexQueueReader {
+
+  /**
+   * The maximum number of ids in a single delete statement.
+   */
+  private static final int MAX_DELETE_IN = 1000;
 
   protected Logger logger = LoggerFactory.getLogger(BaseIndexQueueReader.class);
 
-  protected final SpiEbeanServer server;
+  protected final EbeanServer server;
 
   protected final String queueTableName;
 
+  protected final ElasticUpdateProcessor updateProcessor;
+
+  protected final int batchSize;
+
+  protected final long intervalMillis;
+
   protected final String sqlObtainEntries;
 
-  protected final String markProcessingSql;
+  /**
+   * Queues the entries to retry (in the transaction of the processed batch).
+   */
+  protected final BaseIndexQueueWriter retryWriter;
+
+  private ScheduledExecutorService scheduler;
 
-  public BaseIndexQueueReader(SpiEbeanServer server, String queueTableName){
+  /**
+   * Construct with the queue table and the update processor the entries are processed by.
+   *
+   * @param server          the server the queue table is in
+   * @param queueTableName  the queue table name
+   * @param updateProcessor the processor that sends the entries to ElasticSearch
+   * @param batchSize       the maximum number of entries claimed and processed per batch
+   * @param intervalMillis  the delay between draining the queue when it is empty
+   */
+  public BaseIndexQueueReader(EbeanServer server, String queueTableName, ElasticUpdateProcessor updateProcessor, int batchSize, long intervalMillis) {
     this.server = server;
     this.queueTableName = queueTableName;
+    this.updateProcessor = updateProcessor;
+    this.batchSize = Math.max(batchSize, 1);
+    this.intervalMillis = intervalMillis;
     this.sqlObtainEntries = getObtainSql();
-    this.markProcessingSql = getMarkProcessingSql();
+    this.retryWriter = new BaseIndexQueueWriter(server, queueTableName);
   }
 
-  public boolean process() {
-
-    // obtain a cluster wide lock
-    if (!obtainClusterWideLock()) {
-      logger.debug("did not obtain cluster wide lock");
-      return false;
-    }
-
-    List<SqlRow> entries = obtainEntriesReleaseLock();
-
-
-    DocStoreUpdates docStoreUpdates = new DocStoreUpdates();
-
-    // group by queueId/type
-    Map<String,List<SqlRow>> map = groupEntriesByQueueId(entries);
+  /**
+   * Start draining the queue in the background.
+   */
+  @Override
+  public void start() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("elastic-queue-"));
+    scheduler.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        drainQuietly();
+      }
+    }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+  }
 
-    for (Map.Entry<String, List<SqlRow>> queueEntries : map.entrySet()) {
-      addEntries(docStoreUpdates, queueEntries);
+  /**
+   * Stop draining the queue (a batch in progress is rolled back if interrupted).
+   */
+  @Override
+  public void shutdown() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
     }
-
-
-    // loop the entries and process them via bulk api
-    // successful entries delete
-    // unsuccessful entries re-activate
-
-    return true;
   }
 
-  private void addEntries(DocStoreUpdates docStoreUpdates, Map.Entry<String, List<SqlRow>> queueEntries) {
-
-    String queueId = queueEntries.getKey();
-    List<SqlRow> entries = queueEntries.getValue();
-
-    // convert into a query
-
+  private void drainQuietly() {
+    try {
+      drain();
+    } catch (Throwable e) {
+      logger.warn("Error processing the doc store queue", e);
+    }
   }
 
   /**
-   * Return the entries grouped by queueId.
+   * Process batches until the queue is empty or a batch fails returning the number of entries processed.
    */
-  private Map<String, List<SqlRow>> groupEntriesByQueueId(List<SqlRow> entries) {
-
-    Map<String, List<SqlRow>> map = new LinkedHashMap<String, List<SqlRow>>();
-
-    for (int i = 0; i < entries.size(); i++) {
-
-      SqlRow entry = entries.get(i);
-      String queueId = entry.getString("queue_id");
-
-      List<SqlRow> list = map.get(queueId);
-      if (list == null) {
-        // no map entry for this queueId so initialise it
-        list = new ArrayList<SqlRow>();
-        map.put(queueId, list);
+  @Override
+  public long drain() {
+
+    long total = 0;
+    while (!Thread.currentThread().isInterrupted()) {
+      int count = process();
+      if (count <= 0) {
+        break;
+      }
+      total += count;
+      if (count < batchSize) {
+        // claimed the remaining (unlocked) entries
+        break;
       }
-      list.add(entry);
     }
-
-    return map;
+    if (total > 0) {
+      logger.debug("processed {} doc store queue entries", total);
+    }
+    return total;
   }
 
-  private void addEntry(DocStoreUpdates docStoreUpdates, SqlRow entry) {
-
-    BeanDescriptor<?> desc = null;
-    //desc.
-    //indexUpdates.add();
-
-  }
+  /**
+   * Claim, process and delete a batch of entries (queuing the entries to retry).
+   *
+   * @return the number of entries processed, 0 when there are none and -1 when processing failed
+   * or some entries were queued to retry (such that draining waits for the next interval)
+   */
+  public int process() {
 
-  private List<SqlRow> obtainEntriesReleaseLock() {
+    Transaction transaction = server.createTransaction();
     try {
-
-      // read a batch of queue entries
-      Transaction transaction = server.createTransaction();
+      List<SqlRow> rows = obtainEntries(transaction);
+      if (rows.isEmpty()) {
+        return 0;
+      }
+      List<DocStoreQueueEntry> retryEntries;
       try {
-        SqlQuery sqlQuery = server.createSqlQuery(sqlObtainEntries);
-
-
-        List<SqlRow> rows = server.findList(sqlQuery, transaction);
-
-        SqlUpdate sqlUpdate = server.createSqlUpdate(markProcessingSql);
-
-        transaction.setBatchSize(100);
-        // update the entries marking them as processing
-        for (int i = 0; i < rows.size(); i++) {
-          SqlRow row = rows.get(i);
-          markEntryAsProcessing(row, sqlUpdate, transaction);
-        }
-
-        // return the entries
-        transaction.commit();
-
-        return rows;
-
-      } finally {
-        transaction.end();
+        retryEntries = processEntries(toQueueEntries(rows));
+      } catch (IOException e) {
+        logger.warn("Failed to process {} doc store queue entries, they remain queued: {}", rows.size(), e.getMessage());
+        return -1;
       }
+      deleteEntries(rows, transaction);
+      retryWriter.queue(retryEntries, transaction);
+      transaction.commit();
+      if (!retryEntries.isEmpty()) {
+        logger.info("{} doc store queue entries failed in ElasticSearch with a retryable error and are queued again", retryEntries.size());
+        return -1;
+      }
+      return rows.size();
 
     } finally {
-      releaseClusterWideLock();
+      transaction.end();
     }
-
   }
 
-  protected void markEntryAsProcessing(SqlRow row, SqlUpdate sqlUpdate, Transaction transaction) {
-
-    String docId = row.getString("doc_id");
-    sqlUpdate.setParameter(1, docId);
-    sqlUpdate.execute();
+  /**
+   * Claim a batch of entries locking the rows for the duration of the transaction.
+   */
+  protected List<SqlRow> obtainEntries(Transaction transaction) {
 
+    SqlQuery sqlQuery = server.createSqlQuery(sqlObtainEntries);
+    sqlQuery.setParameter(1, batchSize);
+    return server.findList(sqlQuery, transaction);
   }
 
+  /**
+   * Send the entries to ElasticSearch waiting for the Bulk API responses.
+   *
+   * @return the entries to queue again as they failed with a retryable error
+   */
+  protected List<DocStoreQueueEntry> processEntries(List<DocStoreQueueEntry> entries) throws IOException {
 
-  protected void releaseClusterWideLock() {
+    BulkUpdate txn = updateProcessor.createBulkUpdate(0);
+    updateProcessor.processQueue(txn, entries);
+    txn.flush();
 
+    List<BulkItemError> itemErrors = txn.getItemErrors();
+    List<DocStoreQueueEntry> retryEntries = updateProcessor.retryEntries(entries, itemErrors);
+    int dropped = itemErrors.size() - retryEntries.size();
+    if (dropped > 0) {
+      logger.warn("{} doc store queue entries failed in ElasticSearch and are removed from the queue", dropped);
+    }
+    return retryEntries;
+  }
 
+  /**
+   * Convert the rows into queue entries.
+   */
+  protected List<DocStoreQueueEntry> toQueueEntries(List<SqlRow> rows) {
+
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>(rows.size());
+    for (SqlRow row : rows) {
+      DocStoreQueueEntry.Action action = action(row.getInteger("action"));
+      if (action == null) {
+        logger.warn("Ignoring doc store queue entry {} with unknown action {}", row.get("id"), row.get("action"));
+      } else {
+        entries.add(new DocStoreQueueEntry(action, row.getString("queue_id"), row.getString("path"), row.getString("doc_id")));
+      }
+    }
+    return entries;
+  }
+
+  private DocStoreQueueEntry.Action action(Integer value) {
+    if (value != null) {
+      for (DocStoreQueueEntry.Action action : DocStoreQueueEntry.Action.values()) {
+        if (action.getValue() == value) {
+          return action;
+        }
+      }
+    }
+    return null;
   }
 
-  protected boolean obtainClusterWideLock() {
+  /**
+   * Delete the processed rows.
+   */
+  protected void deleteEntries(List<SqlRow> rows, Transaction transaction) {
 
-    return true;
+    for (int start = 0; start < rows.size(); start += MAX_DELETE_IN) {
+      List<SqlRow> chunk = rows.subList(start, Math.min(start + MAX_DELETE_IN, rows.size()));
+      SqlUpdate sqlUpdate = server.createSqlUpdate(getDeleteSql(chunk.size()));
+      for (int i = 0; i < chunk.size(); i++) {
+        sqlUpdate.setParameter(i + 1, chunk.get(i).getLong("id"));
+      }
+      server.execute(sqlUpdate, transaction);
+    }
   }
 
-  protected String getMarkProcessingSql() {
+  protected String getDeleteSql(int count) {
 
-    return "update "+queueTableName
-        +" set processing = "+ BaseIndexQueueWriter.PROCESSING_TRUE
-        +" where id = ?";
+    StringBuilder sb = new StringBuilder(30 + count * 2);
+    sb.append("delete from ").append(queueTableName).append(" where id in (");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        sb.append(",");
+      }
+      sb.append("?");
+    }
+    return sb.append(")").toString();
   }
 
+  /**
+   * Return the SQL that claims a batch of entries (with the batch size as the bind parameter).
+   */
   protected String getObtainSql() {
 
-    return "select id, queue_id, doc_id, action, processing, when_queued from "
+    return "select id, queue_id, doc_id, action, path from "
         + queueTableName
-        + " where processing = "+ BaseIndexQueueWriter.PROCESSING_FALSE
-        +" order by id";
-
+        + " where processing = " + BaseIndexQueueWriter.PROCESSING_FALSE
+        + " order by id limit ?"
+        + getLockClause();
+  }
 
+  /**
+   * Return the clause that locks the claimed rows skipping rows locked by other readers.
+   */
+  protected String getLockClause() {
+    return " for update skip locked";
   }
 }
@@ -10,6 +10,14 @@ import java.util.List;
 
 /**
  * Base implementation of IndexQueueWriter that inserts the events into a database table.
+ * <p>
+ * The entries are inserted in their own transaction using JDBC batching such that queuing
+ * is a single round trip to the database (for up to {@link #MAX_BATCH_SIZE} entries).
+ * </p>
+ * <p>
+ * The table has the columns <code>id</code> (identity), <code>queue_id</code>, <code>doc_id</code>,
+ * <code>action</code>, <code>path</code>, <code>processing</code> and <code>when_queued</code>.
+ * </p>
  */
 public class BaseIndexQueueWriter implements IndexQueueWriter {
 
@@ -17,6 +25,11 @@ public class BaseIndexQueueWriter implements IndexQueueWriter {
 
   public static final int PROCESSING_TRUE = 1;
 
+  /**
+   * The maximum number of inserts in a JDBC batch.
+   */
+  public static final int MAX_BATCH_SIZE = 1000;
+
   final EbeanServer server;
 
   final String sql;
@@ -27,7 +40,7 @@ public class BaseIndexQueueWriter implements IndexQueueWriter {
   }
 
   protected String createSql(String tableName) {
-    return "insert into "+tableName+" (queue_id, doc_id, action, path, processing, when_queued) values (?,?,?,?,?)";
+    return "insert into "+tableName+" (queue_id, doc_id, action, path, processing, when_queued) values (?,?,?,?,?,?)";
   }
 
   @Override
@@ -38,33 +51,43 @@ public class BaseIndexQueueWriter implements IndexQueueWriter {
   @Override
   public void queue(List<DocStoreQueueEntry> queueEntries) {
 
-    if (true) {
-      return;
-    }
     if (queueEntries.isEmpty()) {
       return;
     }
 
-    SqlUpdate sqlUpdate = server.createSqlUpdate(sql);
     Transaction transaction = server.createTransaction();
     try {
-      transaction.setBatchSize(100);
-
-      for (DocStoreQueueEntry entry : queueEntries) {
-        sqlUpdate.setParameter(1, entry.getQueueId());
-        sqlUpdate.setParameter(2, entry.getBeanId().toString());
-        sqlUpdate.setParameter(3, entry.getType().getValue());
-        sqlUpdate.setParameter(4, entry.getPath());
-        sqlUpdate.setParameter(5, PROCESSING_FALSE);
-        sqlUpdate.setParameter(6, new Timestamp(System.currentTimeMillis()));
-
-        sqlUpdate.execute();
-      }
-
+      queue(queueEntries, transaction);
       transaction.commit();
 
     } finally {
       transaction.end();
     }
   }
+
+  /**
+   * Insert the entries as part of the given transaction (which is put into batch mode).
+   */
+  public void queue(List<DocStoreQueueEntry> queueEntries, Transaction transaction) {
+
+    if (queueEntries.isEmpty()) {
+      return;
+    }
+
+    Timestamp whenQueued = new Timestamp(System.currentTimeMillis());
+    transaction.setBatchMode(true);
+    transaction.setBatchSize(Math.min(queueEntries.size(), MAX_BATCH_SIZE));
+
+    for (DocStoreQueueEntry entry : queueEntries) {
+      SqlUpdate sqlUpdate = server.createSqlUpdate(sql);
+      sqlUpdate.setParameter(1, entry.getQueueId());
+      sqlUpdate.setParameter(2, entry.getBeanId().toString());
+      sqlUpdate.setParameter(3, entry.getType().getValue());
+      sqlUpdate.setParameter(4, entry.getPath());
+      sqlUpdate.setParameter(5, PROCESSING_FALSE);
+      sqlUpdate.setParameter(6, whenQueued);
+
+      server.execute(sqlUpdate, transaction);
+    }
+  }
 }
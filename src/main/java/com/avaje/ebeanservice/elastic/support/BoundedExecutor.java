@@ -0,0 +1,102 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that runs at most <code>maxConcurrent</code> tasks at a time on a delegate executor.
+ * <p>
+ * Used to bound the concurrency of background work run on a caller supplied executor (for example
+ * a virtual thread per task executor). Tasks are queued (unbounded) and drained by up to
+ * <code>maxConcurrent</code> workers that are run on the delegate. This is lock free.
+ * </p>
+ */
+public class BoundedExecutor implements Executor {
+
+  private static final Logger logger = LoggerFactory.getLogger(BoundedExecutor.class);
+
+  private final Executor delegate;
+
+  private final int maxConcurrent;
+
+  private final Queue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+
+  private final AtomicInteger active = new AtomicInteger();
+
+  /**
+   * Construct with the delegate executor and the maximum number of tasks run concurrently.
+   */
+  public BoundedExecutor(Executor delegate, int maxConcurrent) {
+    if (maxConcurrent < 1) {
+      throw new IllegalArgumentException("maxConcurrent must be at least 1 but was " + maxConcurrent);
+    }
+    this.delegate = delegate;
+    this.maxConcurrent = maxConcurrent;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    queue.add(task);
+    try {
+      startWorker();
+    } catch (RejectedExecutionException e) {
+      queue.remove(task);
+      throw e;
+    }
+  }
+
+  /**
+   * Start a worker if there are queued tasks and less than the maximum workers are active.
+   */
+  private void startWorker() {
+    while (true) {
+      int current = active.get();
+      if (current >= maxConcurrent || queue.isEmpty()) {
+        return;
+      }
+      if (active.compareAndSet(current, current + 1)) {
+        try {
+          delegate.execute(new Worker());
+        } catch (RejectedExecutionException e) {
+          active.decrementAndGet();
+          throw e;
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   * Runs queued tasks until the queue is empty.
+   */
+  private class Worker implements Runnable {
+
+    @Override
+    public void run() {
+      try {
+        Runnable task;
+        while ((task = queue.poll()) != null) {
+          try {
+            task.run();
+          } catch (Throwable e) {
+            logger.error("Error running task", e);
+          }
+        }
+      } finally {
+        active.decrementAndGet();
+      }
+      try {
+        // a task may have been queued after the last poll
+        startWorker();
+      } catch (RejectedExecutionException e) {
+        logger.warn("Executor rejected worker for {} queued tasks", queue.size());
+      }
+    }
+  }
+}
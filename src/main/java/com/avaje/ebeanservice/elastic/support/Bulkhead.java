@@ -0,0 +1,56 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of concurrent requests of one class (for example search or bulk) such that
+ * one class of traffic can not use all the connections and starve the other.
+ */
+public class Bulkhead {
+
+  private final String name;
+
+  private final Semaphore permits;
+
+  private final long maxWaitMillis;
+
+  /**
+   * Construct with the name, maximum concurrent requests and the maximum time to wait for a permit.
+   */
+  public Bulkhead(String name, int maxConcurrent, long maxWaitMillis) {
+    this.name = name;
+    this.permits = new Semaphore(maxConcurrent);
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  /**
+   * Acquire a permit throwing RequestRejectedException if one is not available within the maximum wait.
+   */
+  public void acquire() throws IOException {
+    try {
+      if (!permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+        throw new RequestRejectedException("Bulkhead " + name + " is full");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for bulkhead " + name);
+    }
+  }
+
+  /**
+   * Release the permit.
+   */
+  public void release() {
+    permits.release();
+  }
+
+  /**
+   * Return the number of available permits.
+   */
+  public int available() {
+    return permits.availablePermits();
+  }
+}
@@ -0,0 +1,90 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * OutputStream writing to a growable byte array that can be reset and reused.
+ * <p>
+ * Unlike ByteArrayOutputStream the underlying array is exposed such that the content
+ * can be sent without copying.
+ * </p>
+ */
+public class BytesOutputStream extends OutputStream {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private byte[] buf;
+
+  private int count;
+
+  /**
+   * Create with the given initial capacity.
+   */
+  public BytesOutputStream(int initialSize) {
+    if (initialSize < 0) {
+      throw new IllegalArgumentException("Negative buffer size");
+    }
+    buf = new byte[initialSize];
+  }
+
+  private void ensureCapacity(int minCapacity) {
+    if (minCapacity > buf.length) {
+      int newCapacity = Math.max(buf.length << 1, minCapacity);
+      buf = Arrays.copyOf(buf, newCapacity);
+    }
+  }
+
+  @Override
+  public void write(int b) {
+    ensureCapacity(count + 1);
+    buf[count++] = (byte) b;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    if ((off < 0) || (off > b.length) || (len < 0) || ((off + len) - b.length > 0)) {
+      throw new IndexOutOfBoundsException();
+    }
+    ensureCapacity(count + len);
+    System.arraycopy(b, off, buf, count, len);
+    count += len;
+  }
+
+  /**
+   * Return the underlying array (valid content is from 0 to size()).
+   */
+  public byte[] array() {
+    return buf;
+  }
+
+  /**
+   * Return the number of bytes written.
+   */
+  public int size() {
+    return count;
+  }
+
+  /**
+   * Return the capacity of the underlying array.
+   */
+  public int capacity() {
+    return buf.length;
+  }
+
+  /**
+   * Reset such that the underlying array is reused.
+   */
+  public void reset() {
+    count = 0;
+  }
+
+  /**
+   * Return the content decoded as UTF-8.
+   */
+  @Override
+  public String toString() {
+    return new String(buf, 0, count, UTF8);
+  }
+}
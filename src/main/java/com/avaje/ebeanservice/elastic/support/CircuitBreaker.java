@@ -0,0 +1,205 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Circuit breaker that stops requests being sent to ElasticSearch when it is degraded.
+ * <p>
+ * The outcome of the last <code>windowSize</code> requests is recorded where a request that fails
+ * or takes longer than <code>slowCallMillis</code> is a bad call. When at least
+ * <code>minimumCalls</code> are recorded and the percentage of bad calls reaches
+ * <code>failureRatePercent</code> the breaker opens and requests fail fast. After
+ * <code>openMillis</code> a single trial request is let through (half open) which closes the
+ * breaker if it succeeds or opens it again if it fails.
+ * </p>
+ */
+public class CircuitBreaker {
+
+  private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+  /**
+   * The state of the circuit breaker.
+   */
+  public enum State {
+
+    /**
+     * Requests are sent.
+     */
+    CLOSED,
+
+    /**
+     * Requests fail fast.
+     */
+    OPEN,
+
+    /**
+     * A trial request is sent to determine if the breaker should close.
+     */
+    HALF_OPEN
+  }
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private final int failureRatePercent;
+
+  private final long slowCallMillis;
+
+  private final int minimumCalls;
+
+  private final long openMillis;
+
+  /**
+   * Ring of the recent call outcomes (true for a bad call).
+   */
+  private final boolean[] outcomes;
+
+  private int index;
+
+  private int count;
+
+  private int badCount;
+
+  private volatile State state = State.CLOSED;
+
+  private long openedAt;
+
+  private boolean trialInFlight;
+
+  /**
+   * Construct with the thresholds.
+   *
+   * @param failureRatePercent the percentage of bad calls that opens the breaker
+   * @param slowCallMillis     calls taking at least this long are bad calls (0 to ignore latency)
+   * @param windowSize         the number of recent calls the rate is calculated over
+   * @param minimumCalls       the minimum number of recorded calls before the breaker can open
+   * @param openMillis         the time the breaker stays open before a trial request
+   */
+  public CircuitBreaker(int failureRatePercent, long slowCallMillis, int windowSize, int minimumCalls, long openMillis) {
+    this.failureRatePercent = failureRatePercent;
+    this.slowCallMillis = slowCallMillis;
+    this.outcomes = new boolean[Math.max(windowSize, 1)];
+    this.minimumCalls = Math.min(Math.max(minimumCalls, 1), outcomes.length);
+    this.openMillis = openMillis;
+  }
+
+  /**
+   * Return the current state.
+   */
+  public State getState() {
+    return state;
+  }
+
+  /**
+   * Return true if the breaker is open and requests would fail fast (without taking the trial request).
+   */
+  public boolean isOpen() {
+    if (state == State.CLOSED) {
+      return false;
+    }
+    lock.lock();
+    try {
+      return state == State.OPEN ? !isOpenElapsed() : trialInFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Return true if the request is permitted (and the outcome must then be recorded).
+   */
+  public boolean tryAcquire() {
+    if (state == State.CLOSED) {
+      return true;
+    }
+    lock.lock();
+    try {
+      switch (state) {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (!isOpenElapsed()) {
+            return false;
+          }
+          state = State.HALF_OPEN;
+          trialInFlight = true;
+          logger.info("Circuit breaker half open, sending trial request to ElasticSearch");
+          return true;
+        default:
+          if (trialInFlight) {
+            return false;
+          }
+          trialInFlight = true;
+          return true;
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean isOpenElapsed() {
+    return System.currentTimeMillis() - openedAt >= openMillis;
+  }
+
+  /**
+   * Record the outcome of a permitted request.
+   */
+  public void onResult(boolean failed, long durationMillis) {
+
+    boolean bad = failed || (slowCallMillis > 0 && durationMillis >= slowCallMillis);
+    lock.lock();
+    try {
+      switch (state) {
+        case HALF_OPEN:
+          trialInFlight = false;
+          if (bad) {
+            open();
+          } else {
+            close();
+          }
+          break;
+        case CLOSED:
+          record(bad);
+          if (count >= minimumCalls && badCount * 100 >= failureRatePercent * count) {
+            open();
+          }
+          break;
+        default:
+          // open so the outcome of a request sent before opening is ignored
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void record(boolean bad) {
+    if (count == outcomes.length) {
+      if (outcomes[index]) {
+        badCount--;
+      }
+    } else {
+      count++;
+    }
+    outcomes[index] = bad;
+    if (bad) {
+      badCount++;
+    }
+    index = (index + 1) % outcomes.length;
+  }
+
+  private void open() {
+    logger.warn("Circuit breaker open, ElasticSearch requests fail fast for {} millis ({} of {} recent calls failed or slow)", openMillis, badCount, count);
+    state = State.OPEN;
+    openedAt = System.currentTimeMillis();
+  }
+
+  private void close() {
+    logger.info("Circuit breaker closed");
+    state = State.CLOSED;
+    index = 0;
+    count = 0;
+    badCount = 0;
+  }
+}
@@ -0,0 +1,28 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads for the background workers.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+  private final AtomicInteger count = new AtomicInteger();
+
+  private final String prefix;
+
+  /**
+   * Construct with the prefix used to name the threads.
+   */
+  public DaemonThreadFactory(String prefix) {
+    this.prefix = prefix;
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,74 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.avaje.ebeanservice.elastic.ElasticConfig;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.OkHttpClient;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default client factory configured by ElasticConfig.
+ * <p>
+ * The clients for each operation share one connection pool and dispatcher and differ only in
+ * their read and write timeouts. Asynchronous requests are run on the ElasticConfig executor
+ * when one is set.
+ * </p>
+ */
+public class DefaultHttpClientFactory implements HttpClientFactory {
+
+  private final ElasticConfig config;
+
+  private final OkHttpClient base;
+
+  /**
+   * Construct with the default configuration.
+   */
+  public DefaultHttpClientFactory() {
+    this(new ElasticConfig());
+  }
+
+  /**
+   * Construct with the configuration of the connection pool, dispatcher and timeouts.
+   */
+  public DefaultHttpClientFactory(ElasticConfig config) {
+    this.config = config;
+    this.base = createBase();
+  }
+
+  private OkHttpClient createBase() {
+
+    // asynchronous requests run on the configured executor when supplied
+    Dispatcher dispatcher = (config.getExecutor() == null) ? new Dispatcher() : new Dispatcher(config.getExecutor());
+    dispatcher.setMaxRequests(config.getHttpMaxRequests());
+    dispatcher.setMaxRequestsPerHost(config.getHttpMaxRequestsPerHost());
+
+    OkHttpClient client = new OkHttpClient();
+    client.setConnectionPool(new ConnectionPool(config.getHttpMaxIdleConnections(), config.getHttpKeepAliveMillis()));
+    client.setDispatcher(dispatcher);
+    client.setConnectTimeout(config.getHttpConnectTimeoutMillis(), TimeUnit.MILLISECONDS);
+    return client;
+  }
+
+  @Override
+  public OkHttpClient create(HttpOperation operation) {
+    switch (operation) {
+      case BULK:
+        return withTimeouts(config.getHttpBulkReadTimeoutMillis(), config.getHttpBulkWriteTimeoutMillis());
+      case SEARCH:
+        return withTimeouts(config.getHttpSearchReadTimeoutMillis(), config.getHttpSearchWriteTimeoutMillis());
+      default:
+        return withTimeouts(config.getHttpAdminReadTimeoutMillis(), config.getHttpAdminWriteTimeoutMillis());
+    }
+  }
+
+  /**
+   * Return a client sharing the connection pool and dispatcher with the given timeouts.
+   */
+  private OkHttpClient withTimeouts(long readTimeoutMillis, long writeTimeoutMillis) {
+    OkHttpClient client = base.clone();
+    client.setReadTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS);
+    client.setWriteTimeout(writeTimeoutMillis, TimeUnit.MILLISECONDS);
+    return client;
+  }
+}
@@ -0,0 +1,79 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Request body that gzip compresses the delegate body as it is written to the connection.
+ * <p>
+ * The content is compressed in a streaming fashion (without buffering the compressed payload)
+ * and so is sent chunked. The body can be written more than once (for retry on another node)
+ * as long as the delegate can.
+ * </p>
+ */
+public class GzipRequestBody extends RequestBody {
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final RequestBody delegate;
+
+  private final int level;
+
+  /**
+   * Construct with the body to compress and the compression level (1 to 9).
+   */
+  public GzipRequestBody(RequestBody delegate, int level) {
+    this.delegate = delegate;
+    this.level = level;
+  }
+
+  @Override
+  public MediaType contentType() {
+    return delegate.contentType();
+  }
+
+  @Override
+  public long contentLength() {
+    // not known until compressed
+    return -1;
+  }
+
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+
+    LevelGzipOutputStream gzip = new LevelGzipOutputStream(sink.outputStream(), level);
+    BufferedSink gzipSink = Okio.buffer(Okio.sink(gzip));
+    try {
+      delegate.writeTo(gzipSink);
+      gzipSink.flush();
+      // finish rather than close such that the underlying sink is left open
+      gzip.finish();
+    } finally {
+      gzip.end();
+    }
+  }
+
+  /**
+   * Gzip output stream with the given compression level.
+   */
+  private static class LevelGzipOutputStream extends GZIPOutputStream {
+
+    LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+      super(out, BUFFER_SIZE);
+      def.setLevel(level);
+    }
+
+    /**
+     * Release the deflater.
+     */
+    void end() {
+      def.end();
+    }
+  }
+}
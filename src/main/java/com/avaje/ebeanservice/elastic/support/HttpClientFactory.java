@@ -0,0 +1,22 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.squareup.okhttp.OkHttpClient;
+
+/**
+ * Creates the OkHttpClient used to send requests to ElasticSearch.
+ * <p>
+ * Implement to take control of the connection pool, dispatcher, timeouts, interceptors, TLS etc.
+ * Clients for the different operations would typically share a connection pool (for example via
+ * {@link OkHttpClient#clone()}).
+ * </p>
+ */
+public interface HttpClientFactory {
+
+  /**
+   * Return the client used for the given class of operation.
+   * <p>
+   * This is called once per operation when the message sender is created.
+   * </p>
+   */
+  OkHttpClient create(HttpOperation operation);
+}
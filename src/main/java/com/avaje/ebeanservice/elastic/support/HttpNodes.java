@@ -0,0 +1,228 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The set of ElasticSearch HTTP nodes that requests are sent to.
+ * <p>
+ * Requests are spread across the live nodes round robin. A node that fails is marked dead and
+ * is not used until its dead timeout has passed (after which it is tried again). The dead
+ * timeout doubles with each consecutive failure up to the maximum.
+ * </p>
+ */
+public class HttpNodes {
+
+  private static final Logger logger = LoggerFactory.getLogger(HttpNodes.class);
+
+  private final AtomicInteger index = new AtomicInteger();
+
+  private final long deadMillis;
+
+  private final long maxDeadMillis;
+
+  private volatile List<Node> nodes;
+
+  private volatile Runnable failureListener;
+
+  /**
+   * Construct given the base URL or comma delimited base URLs (without dead node timeouts).
+   */
+  public HttpNodes(String baseUrl) {
+    this(parseUrls(baseUrl), 0, 0);
+  }
+
+  /**
+   * Construct with the base URLs of the nodes and the initial and maximum dead timeouts.
+   */
+  public HttpNodes(List<String> baseUrls, long deadMillis, long maxDeadMillis) {
+    this.deadMillis = deadMillis;
+    this.maxDeadMillis = Math.max(deadMillis, maxDeadMillis);
+    this.nodes = createNodes(baseUrls, Collections.<Node>emptyList());
+  }
+
+  /**
+   * Parse the comma delimited base URLs.
+   */
+  public static List<String> parseUrls(String urls) {
+    List<String> list = new ArrayList<String>();
+    if (urls != null) {
+      for (String url : urls.split(",")) {
+        String trimmed = url.trim();
+        if (!trimmed.isEmpty()) {
+          list.add(normaliseUrl(trimmed));
+        }
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Return the base URL with a trailing slash.
+   */
+  public static String normaliseUrl(String baseUrl) {
+    return baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+  }
+
+  /**
+   * Replace the set of nodes (for example with nodes discovered by sniffing).
+   * <p>
+   * Nodes that are already known keep their dead/alive state.
+   * </p>
+   */
+  public void setNodes(List<String> baseUrls) {
+    if (baseUrls.isEmpty()) {
+      logger.warn("Ignoring empty set of ElasticSearch nodes");
+      return;
+    }
+    nodes = createNodes(baseUrls, nodes);
+  }
+
+  private List<Node> createNodes(List<String> baseUrls, List<Node> existing) {
+    List<Node> list = new ArrayList<Node>(baseUrls.size());
+    for (String baseUrl : baseUrls) {
+      String url = normaliseUrl(baseUrl);
+      Node node = find(existing, url);
+      list.add((node != null) ? node : new Node(url));
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+  private Node find(List<Node> list, String url) {
+    for (Node node : list) {
+      if (node.url.equals(url)) {
+        return node;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Set a listener notified when a node fails (for example to sniff the nodes).
+   */
+  public void setFailureListener(Runnable failureListener) {
+    this.failureListener = failureListener;
+  }
+
+  /**
+   * Return the base URLs of all the nodes.
+   */
+  public List<String> getUrls() {
+    List<Node> current = nodes;
+    List<String> urls = new ArrayList<String>(current.size());
+    for (Node node : current) {
+      urls.add(node.url);
+    }
+    return urls;
+  }
+
+  /**
+   * Return the number of nodes.
+   */
+  public int size() {
+    return nodes.size();
+  }
+
+  /**
+   * Return true if there are no nodes (no URL configured).
+   */
+  public boolean isEmpty() {
+    return nodes.isEmpty();
+  }
+
+  /**
+   * Return the next node to send a request to.
+   * <p>
+   * This is the next live node round robin. If all the nodes are dead then the node that is
+   * closest to being resurrected is returned.
+   * </p>
+   */
+  public Node next() {
+    List<Node> current = nodes;
+    if (current.isEmpty()) {
+      throw new IllegalStateException("No ElasticSearch URL configured");
+    }
+    int size = current.size();
+    int start = (index.getAndIncrement() & Integer.MAX_VALUE) % size;
+    long now = System.currentTimeMillis();
+    Node leastDead = null;
+    for (int i = 0; i < size; i++) {
+      Node node = current.get((start + i) % size);
+      if (node.isAlive(now)) {
+        return node;
+      }
+      if (leastDead == null || node.deadUntil < leastDead.deadUntil) {
+        leastDead = node;
+      }
+    }
+    return leastDead;
+  }
+
+  /**
+   * Mark the node as dead after a failed request.
+   */
+  public void markDead(Node node) {
+    Runnable listener = failureListener;
+    if (listener != null) {
+      listener.run();
+    }
+    if (deadMillis <= 0) {
+      return;
+    }
+    int failures = node.failures.incrementAndGet();
+    long timeout = deadMillis << Math.min(failures - 1, 20);
+    timeout = Math.min(timeout, maxDeadMillis);
+    node.deadUntil = System.currentTimeMillis() + timeout;
+    logger.warn("ElasticSearch node {} marked dead for {} millis after {} failures", node.url, timeout, failures);
+  }
+
+  /**
+   * Mark the node as alive after a successful request.
+   */
+  public void markAlive(Node node) {
+    if (node.deadUntil != 0) {
+      node.deadUntil = 0;
+      node.failures.set(0);
+      logger.info("ElasticSearch node {} resurrected", node.url);
+    }
+  }
+
+  /**
+   * An ElasticSearch HTTP node.
+   */
+  public static class Node {
+
+    private final String url;
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private volatile long deadUntil;
+
+    Node(String url) {
+      this.url = url;
+    }
+
+    /**
+     * Return the base URL of the node (with trailing slash).
+     */
+    public String getUrl() {
+      return url;
+    }
+
+    /**
+     * Return true if the node is alive or its dead timeout has passed.
+     */
+    boolean isAlive(long now) {
+      return deadUntil <= now;
+    }
+
+    public String toString() {
+      return url;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package com.avaje.ebeanservice.elastic.support;
+
+/**
+ * The class of HTTP operation which determines the client (and timeouts) used.
+ */
+public enum HttpOperation {
+
+  /**
+   * Bulk API and update by query requests.
+   */
+  BULK,
+
+  /**
+   * Search, scroll and get document requests.
+   */
+  SEARCH,
+
+  /**
+   * Index admin (create, delete, alias, settings) and nodes info requests.
+   */
+  ADMIN
+}
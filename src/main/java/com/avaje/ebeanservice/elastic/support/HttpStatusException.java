@@ -0,0 +1,38 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import java.io.IOException;
+
+/**
+ * Thrown when ElasticSearch responds with an unexpected HTTP status code.
+ */
+public class HttpStatusException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final int code;
+
+  private final String retryAfter;
+
+  /**
+   * Construct with the message, status code and Retry-After header value (which can be null).
+   */
+  public HttpStatusException(String message, int code, String retryAfter) {
+    super(message);
+    this.code = code;
+    this.retryAfter = retryAfter;
+  }
+
+  /**
+   * Return the HTTP status code.
+   */
+  public int getCode() {
+    return code;
+  }
+
+  /**
+   * Return the Retry-After header value (null if not sent).
+   */
+  public String getRetryAfter() {
+    return retryAfter;
+  }
+}
@@ -1,24 +1,116 @@
 package com.avaje.ebeanservice.elastic.support;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 /**
  * Wrapper for a response code and body.
+ * <p>
+ * The body is either held as a String or as the response stream. With the stream the
+ * JSON is parsed incrementally as it is read from the connection and the stream is closed
+ * when the parser is closed.
+ * </p>
  */
 public class IndexMessageResponse {
 
   private final int code;
 
-  private final String body;
+  private String body;
+
+  private InputStream stream;
+
+  private String retryAfter;
 
   public IndexMessageResponse(int code, String body) {
     this.code = code;
     this.body = body;
   }
 
+  /**
+   * Construct with the response stream (that is read and closed by the consumer).
+   */
+  public IndexMessageResponse(int code, InputStream stream) {
+    this.code = code;
+    this.stream = stream;
+  }
+
   public int getCode() {
     return code;
   }
 
-  public String getBody() {
+  /**
+   * Return the Retry-After header value (null if not sent).
+   */
+  public String getRetryAfter() {
+    return retryAfter;
+  }
+
+  /**
+   * Set the Retry-After header value.
+   */
+  IndexMessageResponse withRetryAfter(String retryAfter) {
+    this.retryAfter = retryAfter;
+    return this;
+  }
+
+  /**
+   * Return the body as a String reading the response stream if necessary.
+   */
+  public String getBody() throws IOException {
+    if (stream != null) {
+      body = readFully(stream);
+      stream = null;
+    }
     return body;
   }
+
+  /**
+   * Return true if the body is held as the response stream.
+   */
+  public boolean isStream() {
+    return stream != null;
+  }
+
+  /**
+   * Create a JSON parser for the body.
+   * <p>
+   * When the body is held as a stream closing the parser closes the stream.
+   * </p>
+   */
+  public JsonParser createParser(JsonFactory jsonFactory) throws IOException {
+    if (stream != null) {
+      InputStream source = stream;
+      stream = null;
+      return jsonFactory.createParser(source);
+    }
+    return jsonFactory.createParser(body);
+  }
+
+  /**
+   * Close the response stream if it has not been consumed.
+   */
+  public void close() throws IOException {
+    if (stream != null) {
+      stream.close();
+      stream = null;
+    }
+  }
+
+  private static String readFully(InputStream stream) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+      byte[] buffer = new byte[4096];
+      int len;
+      while ((len = stream.read(buffer)) != -1) {
+        out.write(buffer, 0, len);
+      }
+      return out.toString("UTF-8");
+    } finally {
+      stream.close();
+    }
+  }
 }
@@ -1,6 +1,7 @@
 package com.avaje.ebeanservice.elastic.support;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.Set;
 
 /**
@@ -13,6 +14,34 @@ public interface IndexMessageSender {
    */
   String postBulk(String json) throws IOException;
 
+  /**
+   * Send the UTF-8 encoded JSON to the ElasticSearch Bulk API.
+   * <p>
+   * Implementations should send the bytes as is (without creating an intermediate String).
+   * </p>
+   */
+  default String postBulk(byte[] content, int offset, int len) throws IOException {
+    return postBulk(new String(content, offset, len, Charset.forName("UTF-8")));
+  }
+
+  /**
+   * Send the JSON to the ElasticSearch Bulk API returning the response with the body as a stream.
+   * <p>
+   * This allows the response to be parsed incrementally without materializing the whole body.
+   * The default implementation returns the body held as a String.
+   * </p>
+   */
+  default IndexMessageResponse postBulkStream(String json) throws IOException {
+    return new IndexMessageResponse(200, postBulk(json));
+  }
+
+  /**
+   * Send the UTF-8 encoded JSON to the ElasticSearch Bulk API returning the response with the body as a stream.
+   */
+  default IndexMessageResponse postBulkStream(byte[] content, int offset, int len) throws IOException {
+    return new IndexMessageResponse(200, postBulk(content, offset, len));
+  }
+
   /**
    * Get the document source for a specific document.
    */
@@ -23,16 +52,55 @@ public interface IndexMessageSender {
    */
   IndexMessageResponse postQuery(boolean scroll, String indexType, String indexName, String jsonQuery) throws IOException;
 
+  /**
+   * Send a scroll query request with the given scroll keep alive (e.g. <code>1m</code>).
+   */
+  default IndexMessageResponse postScrollQuery(String keepAlive, String indexType, String indexName, String jsonQuery) throws IOException {
+    return postQuery(true, indexType, indexName, jsonQuery);
+  }
+
+  /**
+   * Send a query request restricted to the shards of the comma delimited routing values (null for all shards).
+   * <p>
+   * The default implementation ignores the routing and searches all shards.
+   * </p>
+   */
+  default IndexMessageResponse postQuery(boolean scroll, String indexType, String indexName, String routing, String jsonQuery) throws IOException {
+    return postQuery(scroll, indexType, indexName, jsonQuery);
+  }
+
+  /**
+   * Send a scroll query request restricted to the shards of the routing values (null for all shards).
+   * <p>
+   * The default implementation ignores the routing and searches all shards.
+   * </p>
+   */
+  default IndexMessageResponse postScrollQuery(String keepAlive, String indexType, String indexName, String routing, String jsonQuery) throws IOException {
+    return postScrollQuery(keepAlive, indexType, indexName, jsonQuery);
+  }
+
   /**
    * Send an update query request.
    */
   IndexMessageResponse postUpdateQuery(String indexType, String indexName, String jsonQuery) throws IOException;
 
+  /**
+   * Send a delete by query request.
+   */
+  IndexMessageResponse postDeleteQuery(String indexType, String indexName, String jsonQuery) throws IOException;
+
   /**
    * Send a get scroll request.
    */
   IndexMessageResponse getScroll(String scrollId) throws IOException;
 
+  /**
+   * Send a get scroll request with the given scroll keep alive (e.g. <code>1m</code>).
+   */
+  default IndexMessageResponse getScroll(String scrollId, String keepAlive) throws IOException {
+    return getScroll(scrollId);
+  }
+
   /**
    * Send a clearScrollIds request.
    */
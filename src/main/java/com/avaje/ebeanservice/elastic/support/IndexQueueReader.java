@@ -0,0 +1,23 @@
+package com.avaje.ebeanservice.elastic.support;
+
+/**
+ * Periodically reads the queue and processes the entries.
+ */
+public interface IndexQueueReader {
+
+  /**
+   * Start processing the queue in the background.
+   */
+  void start();
+
+  /**
+   * Stop processing the queue.
+   */
+  void shutdown();
+
+  /**
+   * Process the queued entries returning the number of entries processed.
+   */
+  long drain();
+
+}
@@ -0,0 +1,14 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import java.io.IOException;
+
+/**
+ * A request to the wrapped IndexMessageSender that can be executed more than once.
+ */
+interface MessageRequest<T> {
+
+  /**
+   * Execute the request.
+   */
+  T execute() throws IOException;
+}
@@ -0,0 +1,236 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Discovers the ElasticSearch nodes using the nodes info API (<code>_nodes/http</code>).
+ * <p>
+ * The nodes are sniffed on start, periodically and after a node fails (at most once per
+ * <code>afterFailureMillis</code>). The discovered HTTP publish addresses replace the
+ * {@link HttpNodes} used by the {@link BaseHttpMessageSender}.
+ * </p>
+ */
+public class NodeSniffer {
+
+  private static final Logger logger = LoggerFactory.getLogger(NodeSniffer.class);
+
+  private final BaseHttpMessageSender messageSender;
+
+  private final HttpNodes nodes;
+
+  private final JsonFactory jsonFactory;
+
+  private final long intervalMillis;
+
+  private final long afterFailureMillis;
+
+  private final String scheme;
+
+  private final AtomicBoolean pending = new AtomicBoolean();
+
+  private volatile long lastSniffMillis;
+
+  private ScheduledExecutorService scheduler;
+
+  /**
+   * Construct with the message sender whose nodes are sniffed.
+   */
+  public NodeSniffer(BaseHttpMessageSender messageSender, JsonFactory jsonFactory, long intervalMillis, long afterFailureMillis) {
+    this.messageSender = messageSender;
+    this.nodes = messageSender.getNodes();
+    this.jsonFactory = jsonFactory;
+    this.intervalMillis = intervalMillis;
+    this.afterFailureMillis = afterFailureMillis;
+    this.scheme = scheme(nodes.getUrls());
+  }
+
+  /**
+   * Return the scheme of the seed nodes (https if the seed nodes use it).
+   */
+  private static String scheme(List<String> urls) {
+    return (!urls.isEmpty() && urls.get(0).startsWith("https:")) ? "https" : "http";
+  }
+
+  /**
+   * Start sniffing the nodes in the background.
+   */
+  public void start() {
+    scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("elastic-sniffer-"));
+    nodes.setFailureListener(new Runnable() {
+      @Override
+      public void run() {
+        onFailure();
+      }
+    });
+    if (intervalMillis > 0) {
+      scheduler.scheduleWithFixedDelay(new Runnable() {
+        @Override
+        public void run() {
+          sniffQuietly();
+        }
+      }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    } else {
+      submitSniff();
+    }
+  }
+
+  /**
+   * Stop sniffing the nodes.
+   */
+  public void shutdown() {
+    nodes.setFailureListener(null);
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /**
+   * A node failed so sniff again unless the nodes were sniffed recently.
+   */
+  private void onFailure() {
+    if (System.currentTimeMillis() - lastSniffMillis >= afterFailureMillis) {
+      submitSniff();
+    }
+  }
+
+  private void submitSniff() {
+    if (pending.compareAndSet(false, true)) {
+      try {
+        scheduler.execute(new Runnable() {
+          @Override
+          public void run() {
+            pending.set(false);
+            sniffQuietly();
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // shutdown
+        pending.set(false);
+      }
+    }
+  }
+
+  private void sniffQuietly() {
+    try {
+      sniff();
+    } catch (Throwable e) {
+      logger.warn("Error sniffing ElasticSearch nodes", e);
+    }
+  }
+
+  /**
+   * Sniff the nodes updating and returning the base URLs of the nodes.
+   */
+  public List<String> sniff() throws IOException {
+
+    lastSniffMillis = System.currentTimeMillis();
+
+    String json = messageSender.getNodesHttp();
+    List<String> urls;
+    JsonParser parser = jsonFactory.createParser(json);
+    try {
+      urls = parseNodes(parser, scheme);
+    } finally {
+      parser.close();
+    }
+
+    if (urls.isEmpty()) {
+      logger.warn("No ElasticSearch nodes with HTTP enabled found sniffing the nodes");
+    } else {
+      if (logger.isDebugEnabled()) {
+        logger.debug("sniffed ElasticSearch nodes {}", urls);
+      }
+      nodes.setNodes(urls);
+    }
+    return urls;
+  }
+
+  /**
+   * Read the base URLs from the HTTP publish address of each node in the nodes info response.
+   */
+  static List<String> parseNodes(JsonParser parser, String scheme) throws IOException {
+
+    List<String> urls = new ArrayList<String>();
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new IOException("Expected start object for nodes info but got " + parser.getCurrentToken());
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("nodes".equals(field) && token == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          // the node id
+          if (parser.nextToken() == JsonToken.START_OBJECT) {
+            String address = readPublishAddress(parser);
+            if (address != null) {
+              urls.add(toUrl(scheme, address));
+            }
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return urls;
+  }
+
+  /**
+   * Read the node returning the HTTP publish address (null when HTTP is not enabled on the node).
+   */
+  private static String readPublishAddress(JsonParser parser) throws IOException {
+
+    String address = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if ("http".equals(field) && token == JsonToken.START_OBJECT) {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          String name = parser.getCurrentName();
+          parser.nextToken();
+          if ("publish_address".equals(name)) {
+            address = parser.getText();
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return address;
+  }
+
+  /**
+   * Return the base URL for the publish address.
+   * <p>
+   * The publish address is <code>ip:port</code> or <code>hostname/ip:port</code> in which
+   * case the hostname is used.
+   * </p>
+   */
+  static String toUrl(String scheme, String publishAddress) {
+    String address = publishAddress;
+    int slash = address.indexOf('/');
+    if (slash > 0) {
+      int colon = address.lastIndexOf(':');
+      address = address.substring(0, slash) + address.substring(colon);
+    } else if (slash == 0) {
+      address = address.substring(1);
+    }
+    return scheme + "://" + address + "/";
+  }
+}
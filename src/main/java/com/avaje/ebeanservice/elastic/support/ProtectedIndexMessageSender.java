@@ -0,0 +1,243 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * IndexMessageSender with a circuit breaker and separate bulkheads for search and bulk requests.
+ * <p>
+ * When the circuit breaker is open requests fail fast with RequestRejectedException rather than
+ * waiting on a degraded ElasticSearch. The bulkheads limit the concurrent search and bulk
+ * (including update by query) requests such that for example a reindex can not starve
+ * interactive queries. Index admin requests are passed through.
+ * </p>
+ */
+public class ProtectedIndexMessageSender implements IndexMessageSender {
+
+  private final IndexMessageSender delegate;
+
+  private final CircuitBreaker circuitBreaker;
+
+  private final Bulkhead searchBulkhead;
+
+  private final Bulkhead bulkBulkhead;
+
+  /**
+   * Construct with the delegate, circuit breaker and bulkheads (each of which can be null).
+   */
+  public ProtectedIndexMessageSender(IndexMessageSender delegate, CircuitBreaker circuitBreaker, Bulkhead searchBulkhead, Bulkhead bulkBulkhead) {
+    this.delegate = delegate;
+    this.circuitBreaker = circuitBreaker;
+    this.searchBulkhead = searchBulkhead;
+    this.bulkBulkhead = bulkBulkhead;
+  }
+
+  /**
+   * Return the circuit breaker (null when not used).
+   */
+  public CircuitBreaker getCircuitBreaker() {
+    return circuitBreaker;
+  }
+
+  /**
+   * Execute the request within the bulkhead and circuit breaker.
+   */
+  private <T> T call(Bulkhead bulkhead, MessageRequest<T> request) throws IOException {
+
+    if (bulkhead != null) {
+      bulkhead.acquire();
+    }
+    try {
+      if (circuitBreaker == null) {
+        return request.execute();
+      }
+      if (!circuitBreaker.tryAcquire()) {
+        throw new RequestRejectedException("Circuit breaker open, ElasticSearch request not sent");
+      }
+      long start = System.currentTimeMillis();
+      boolean failed = true;
+      try {
+        T result = request.execute();
+        failed = (result instanceof IndexMessageResponse) && isServerFailure(((IndexMessageResponse) result).getCode());
+        return result;
+      } catch (HttpStatusException e) {
+        failed = isServerFailure(e.getCode());
+        throw e;
+      } finally {
+        circuitBreaker.onResult(failed, System.currentTimeMillis() - start);
+      }
+    } finally {
+      if (bulkhead != null) {
+        bulkhead.release();
+      }
+    }
+  }
+
+  /**
+   * Return true if the status code indicates ElasticSearch (rather than the request) failed.
+   */
+  private boolean isServerFailure(int code) {
+    return code >= 500 || code == 429;
+  }
+
+  @Override
+  public String postBulk(final String json) throws IOException {
+    return call(bulkBulkhead, new MessageRequest<String>() {
+      @Override
+      public String execute() throws IOException {
+        return delegate.postBulk(json);
+      }
+    });
+  }
+
+  @Override
+  public String postBulk(final byte[] content, final int offset, final int len) throws IOException {
+    return call(bulkBulkhead, new MessageRequest<String>() {
+      @Override
+      public String execute() throws IOException {
+        return delegate.postBulk(content, offset, len);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postBulkStream(final String json) throws IOException {
+    return call(bulkBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postBulkStream(json);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postBulkStream(final byte[] content, final int offset, final int len) throws IOException {
+    return call(bulkBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postBulkStream(content, offset, len);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postUpdateQuery(final String indexType, final String indexName, final String jsonQuery) throws IOException {
+    return call(bulkBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postUpdateQuery(indexType, indexName, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postDeleteQuery(final String indexType, final String indexName, final String jsonQuery) throws IOException {
+    return call(bulkBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postDeleteQuery(indexType, indexName, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse getDocSource(final String indexType, final String indexName, final String docId) throws IOException {
+    return call(searchBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.getDocSource(indexType, indexName, docId);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postQuery(final boolean scroll, final String indexType, final String indexName, final String jsonQuery) throws IOException {
+    return call(searchBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postQuery(scroll, indexType, indexName, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postScrollQuery(final String keepAlive, final String indexType, final String indexName, final String jsonQuery) throws IOException {
+    return call(searchBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postScrollQuery(keepAlive, indexType, indexName, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postQuery(final boolean scroll, final String indexType, final String indexName, final String routing, final String jsonQuery) throws IOException {
+    return call(searchBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postQuery(scroll, indexType, indexName, routing, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postScrollQuery(final String keepAlive, final String indexType, final String indexName, final String routing, final String jsonQuery) throws IOException {
+    return call(searchBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postScrollQuery(keepAlive, indexType, indexName, routing, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse getScroll(final String scrollId) throws IOException {
+    return call(searchBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.getScroll(scrollId);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse getScroll(final String scrollId, final String keepAlive) throws IOException {
+    return call(searchBulkhead, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.getScroll(scrollId, keepAlive);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse clearScrollIds(Set<String> scrollIds) throws IOException {
+    // always attempt to release scroll contexts
+    return delegate.clearScrollIds(scrollIds);
+  }
+
+  @Override
+  public boolean indexExists(String indexName) throws IOException {
+    return delegate.indexExists(indexName);
+  }
+
+  @Override
+  public boolean indexDelete(String indexName) throws IOException {
+    return delegate.indexDelete(indexName);
+  }
+
+  @Override
+  public void indexCreate(String indexName, String settingsJson) throws IOException {
+    delegate.indexCreate(indexName, settingsJson);
+  }
+
+  @Override
+  public void indexAlias(String aliasJson) throws IOException {
+    delegate.indexAlias(aliasJson);
+  }
+
+  @Override
+  public void indexSettings(String indexName, String settingsJson) throws IOException {
+    delegate.indexSettings(indexName, settingsJson);
+  }
+}
@@ -0,0 +1,16 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request is rejected without being sent because the circuit breaker is open or
+ * the bulkhead for the request is full.
+ */
+public class RequestRejectedException extends IOException {
+
+  private static final long serialVersionUID = 1L;
+
+  public RequestRejectedException(String message) {
+    super(message);
+  }
+}
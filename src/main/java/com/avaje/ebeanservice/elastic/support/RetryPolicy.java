@@ -0,0 +1,92 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Policy for retrying requests rejected by ElasticSearch (429) or when it is unavailable.
+ * <p>
+ * The delay is exponential backoff with full jitter (a random delay up to the backoff for the
+ * attempt) capped at the maximum backoff. A Retry-After header takes precedence. Retries stop
+ * after the maximum number of retries or when the next retry would exceed the maximum total time.
+ * </p>
+ */
+public class RetryPolicy {
+
+  private final int maxRetries;
+
+  private final long backoffMillis;
+
+  private final long maxBackoffMillis;
+
+  private final long maxTotalMillis;
+
+  /**
+   * Construct with the maximum retries, initial and maximum backoff and maximum total time in millis.
+   */
+  public RetryPolicy(int maxRetries, long backoffMillis, long maxBackoffMillis, long maxTotalMillis) {
+    this.maxRetries = maxRetries;
+    this.backoffMillis = Math.max(backoffMillis, 1);
+    this.maxBackoffMillis = Math.max(maxBackoffMillis, this.backoffMillis);
+    this.maxTotalMillis = maxTotalMillis;
+  }
+
+  /**
+   * Return the maximum number of retries.
+   */
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /**
+   * Return true if the response code means the request can be retried later.
+   */
+  public boolean isRetryable(int code) {
+    return code == 429 || code == 502 || code == 503 || code == 504;
+  }
+
+  /**
+   * Return the delay before the given retry (attempt starting at 0) or -1 to not retry.
+   *
+   * @param attempt       the retry attempt starting at 0
+   * @param elapsedMillis the time spent on the request including prior attempts
+   * @param retryAfter    the Retry-After header value (null if not sent)
+   */
+  public long delayMillis(int attempt, long elapsedMillis, String retryAfter) {
+    if (attempt >= maxRetries) {
+      return -1;
+    }
+    long delay = retryAfterMillis(retryAfter, System.currentTimeMillis());
+    if (delay < 0) {
+      long backoff = Math.min(backoffMillis << Math.min(attempt, 20), maxBackoffMillis);
+      delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+    }
+    if (maxTotalMillis > 0 && elapsedMillis + delay > maxTotalMillis) {
+      return -1;
+    }
+    return delay;
+  }
+
+  /**
+   * Return the delay in millis for the Retry-After header value (delay seconds or a HTTP date)
+   * returning -1 if the value is null or invalid.
+   */
+  public static long retryAfterMillis(String retryAfter, long nowMillis) {
+    if (retryAfter == null) {
+      return -1;
+    }
+    String value = retryAfter.trim();
+    try {
+      return Math.max(Long.parseLong(value) * 1000, 0);
+    } catch (NumberFormatException e) {
+      try {
+        long at = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        return Math.max(at - nowMillis, 0);
+      } catch (DateTimeParseException ex) {
+        return -1;
+      }
+    }
+  }
+}
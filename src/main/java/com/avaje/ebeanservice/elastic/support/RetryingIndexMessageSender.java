@@ -0,0 +1,280 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+
+/**
+ * IndexMessageSender that retries idempotent requests using a RetryPolicy.
+ * <p>
+ * Bulk, search, scroll, get and clear scroll requests are retried when they fail with an
+ * IOException (for example connection failure) or a retryable status code (429 rejected,
+ * 502, 503, 504). Update by query and index admin requests are not retried.
+ * </p>
+ * <p>
+ * Bulk requests can be excluded (when a bulk throttle retries them itself, see
+ * {@link #RetryingIndexMessageSender(IndexMessageSender, RetryPolicy, boolean)}).
+ * </p>
+ * <p>
+ * Scroll continuations are not retried either. A continuation that reached ElasticSearch has
+ * advanced the scroll such that a retry would silently skip a page, so the failure instead ends
+ * the iteration. Iterating with {@link com.avaje.ebeanservice.elastic.ScrollMode#SEARCH_AFTER}
+ * holds no such state and each of its page requests is a retried search.
+ * </p>
+ */
+public class RetryingIndexMessageSender implements IndexMessageSender {
+
+  private static final Logger logger = LoggerFactory.getLogger(RetryingIndexMessageSender.class);
+
+  private final IndexMessageSender delegate;
+
+  private final RetryPolicy policy;
+
+  private final boolean retryBulk;
+
+  /**
+   * Construct with the sender to delegate to and the retry policy.
+   */
+  public RetryingIndexMessageSender(IndexMessageSender delegate, RetryPolicy policy) {
+    this(delegate, policy, true);
+  }
+
+  /**
+   * Construct with the option to not retry bulk requests.
+   * <p>
+   * Bulk requests sent with a throttle are retried by the BulkSender such that the throttle sees
+   * each rejection and does not hold its permit while backing off.
+   * </p>
+   */
+  public RetryingIndexMessageSender(IndexMessageSender delegate, RetryPolicy policy, boolean retryBulk) {
+    this.delegate = delegate;
+    this.policy = policy;
+    this.retryBulk = retryBulk;
+  }
+
+  /**
+   * Execute the request retrying per the policy.
+   */
+  private <T> T retry(String description, MessageRequest<T> request) throws IOException {
+
+    long start = System.currentTimeMillis();
+    for (int attempt = 0; ; attempt++) {
+      T result = null;
+      IOException failure;
+      String retryAfter;
+      try {
+        result = request.execute();
+        if (!(result instanceof IndexMessageResponse)) {
+          return result;
+        }
+        IndexMessageResponse response = (IndexMessageResponse) result;
+        if (!policy.isRetryable(response.getCode())) {
+          return result;
+        }
+        failure = null;
+        retryAfter = response.getRetryAfter();
+      } catch (InterruptedIOException | RequestRejectedException e) {
+        throw e;
+      } catch (HttpStatusException e) {
+        if (!policy.isRetryable(e.getCode())) {
+          throw e;
+        }
+        failure = e;
+        retryAfter = e.getRetryAfter();
+      } catch (IOException e) {
+        failure = e;
+        retryAfter = null;
+      }
+
+      long delay = policy.delayMillis(attempt, System.currentTimeMillis() - start, retryAfter);
+      if (delay < 0) {
+        if (failure != null) {
+          throw failure;
+        }
+        return result;
+      }
+      if (result != null) {
+        ((IndexMessageResponse) result).close();
+      }
+      logger.warn("Retrying {} in {} millis after {}", description, delay, (failure != null) ? failure.getMessage() : "http code " + ((IndexMessageResponse) result).getCode());
+      sleep(delay);
+    }
+  }
+
+  private void sleep(long millis) throws InterruptedIOException {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting to retry request");
+    }
+  }
+
+  @Override
+  public String postBulk(final String json) throws IOException {
+    if (!retryBulk) {
+      return delegate.postBulk(json);
+    }
+    return retry("bulk", new MessageRequest<String>() {
+      @Override
+      public String execute() throws IOException {
+        return delegate.postBulk(json);
+      }
+    });
+  }
+
+  @Override
+  public String postBulk(final byte[] content, final int offset, final int len) throws IOException {
+    if (!retryBulk) {
+      return delegate.postBulk(content, offset, len);
+    }
+    return retry("bulk", new MessageRequest<String>() {
+      @Override
+      public String execute() throws IOException {
+        return delegate.postBulk(content, offset, len);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postBulkStream(final String json) throws IOException {
+    if (!retryBulk) {
+      return delegate.postBulkStream(json);
+    }
+    return retry("bulk", new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postBulkStream(json);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postBulkStream(final byte[] content, final int offset, final int len) throws IOException {
+    if (!retryBulk) {
+      return delegate.postBulkStream(content, offset, len);
+    }
+    return retry("bulk", new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postBulkStream(content, offset, len);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse getDocSource(final String indexType, final String indexName, final String docId) throws IOException {
+    return retry("get " + indexName + "/" + docId, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.getDocSource(indexType, indexName, docId);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postQuery(final boolean scroll, final String indexType, final String indexName, final String jsonQuery) throws IOException {
+    return retry("search " + indexName, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postQuery(scroll, indexType, indexName, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postScrollQuery(final String keepAlive, final String indexType, final String indexName, final String jsonQuery) throws IOException {
+    return retry("scroll search " + indexName, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postScrollQuery(keepAlive, indexType, indexName, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postQuery(final boolean scroll, final String indexType, final String indexName, final String routing, final String jsonQuery) throws IOException {
+    return retry("search " + indexName, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postQuery(scroll, indexType, indexName, routing, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postScrollQuery(final String keepAlive, final String indexType, final String indexName, final String routing, final String jsonQuery) throws IOException {
+    return retry("scroll search " + indexName, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postScrollQuery(keepAlive, indexType, indexName, routing, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse postUpdateQuery(String indexType, String indexName, String jsonQuery) throws IOException {
+    // not idempotent so not retried
+    return delegate.postUpdateQuery(indexType, indexName, jsonQuery);
+  }
+
+  @Override
+  public IndexMessageResponse postDeleteQuery(final String indexType, final String indexName, final String jsonQuery) throws IOException {
+    return retry("delete by query " + indexName, new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.postDeleteQuery(indexType, indexName, jsonQuery);
+      }
+    });
+  }
+
+  @Override
+  public IndexMessageResponse getScroll(String scrollId) throws IOException {
+    // advances the scroll so not retried
+    return delegate.getScroll(scrollId);
+  }
+
+  @Override
+  public IndexMessageResponse getScroll(String scrollId, String keepAlive) throws IOException {
+    // advances the scroll so not retried
+    return delegate.getScroll(scrollId, keepAlive);
+  }
+
+  @Override
+  public IndexMessageResponse clearScrollIds(final Set<String> scrollIds) throws IOException {
+    return retry("clear scroll", new MessageRequest<IndexMessageResponse>() {
+      @Override
+      public IndexMessageResponse execute() throws IOException {
+        return delegate.clearScrollIds(scrollIds);
+      }
+    });
+  }
+
+  @Override
+  public boolean indexExists(String indexName) throws IOException {
+    return delegate.indexExists(indexName);
+  }
+
+  @Override
+  public boolean indexDelete(String indexName) throws IOException {
+    return delegate.indexDelete(indexName);
+  }
+
+  @Override
+  public void indexCreate(String indexName, String settingsJson) throws IOException {
+    delegate.indexCreate(indexName, settingsJson);
+  }
+
+  @Override
+  public void indexAlias(String aliasJson) throws IOException {
+    delegate.indexAlias(aliasJson);
+  }
+
+  @Override
+  public void indexSettings(String indexName, String settingsJson) throws IOException {
+    delegate.indexSettings(indexName, settingsJson);
+  }
+}
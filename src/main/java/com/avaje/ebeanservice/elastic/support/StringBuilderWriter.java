@@ -169,6 +169,27 @@ public class StringBuilderWriter extends Writer {
     return buf;
   }
 
+  /**
+   * Return the number of characters currently in the buffer.
+   */
+  public int length() {
+    return buf.length();
+  }
+
+  /**
+   * Return the capacity of the underlying buffer.
+   */
+  public int capacity() {
+    return buf.capacity();
+  }
+
+  /**
+   * Reset such that the underlying buffer is reused.
+   */
+  public void reset() {
+    buf.setLength(0);
+  }
+
   /**
    * Flush the stream.
    */
@@ -0,0 +1,70 @@
+package com.avaje.ebeanservice.elastic.update;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import com.avaje.ebeanservice.elastic.bulk.BulkItemError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Convert the retryable Bulk API item errors into queue entries that process the documents again.
+ * <p>
+ * A failed delete is queued as a delete and any other failed action (index, or an update from
+ * a nested entry) is queued as an index of the document. The queueId is the one whose index
+ * name matches the item index. A concrete index behind an alias is matched by its
+ * <code>{indexName}_</code> prefix.
+ * </p>
+ */
+public class ConvertToRetries {
+
+  private static final Logger logger = LoggerFactory.getLogger(ConvertToRetries.class);
+
+  private ConvertToRetries() {
+  }
+
+  /**
+   * Return the queue entries for the retryable item errors.
+   *
+   * @param itemErrors the item errors of the processed entries
+   * @param queueIds   the queueIds of the processed entries keyed by their index name
+   */
+  public static List<DocStoreQueueEntry> retryEntries(List<BulkItemError> itemErrors, Map<String, String> queueIds) {
+
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+    for (BulkItemError error : itemErrors) {
+      if (!error.isRetryable()) {
+        // failures such as mapping errors are not going to succeed when retried
+        continue;
+      }
+      String queueId = queueId(error.getIndex(), queueIds);
+      if (queueId == null || error.getId() == null) {
+        logger.warn("Unable to queue the retry of failed item {}", error);
+      } else {
+        DocStoreQueueEntry.Action action = "delete".equals(error.getAction()) ? DocStoreQueueEntry.Action.DELETE : DocStoreQueueEntry.Action.INDEX;
+        entries.add(new DocStoreQueueEntry(action, queueId, null, error.getId()));
+      }
+    }
+    return entries;
+  }
+
+  private static String queueId(String index, Map<String, String> queueIds) {
+
+    if (index == null) {
+      return null;
+    }
+    String queueId = queueIds.get(index);
+    if (queueId != null) {
+      return queueId;
+    }
+    String longest = null;
+    for (String indexName : queueIds.keySet()) {
+      if (index.startsWith(indexName + "_") && (longest == null || indexName.length() > longest.length())) {
+        longest = indexName;
+      }
+    }
+    return (longest == null) ? null : queueIds.get(longest);
+  }
+}
@@ -3,17 +3,39 @@ package com.avaje.ebeanservice.elastic.update;
 import com.avaje.ebean.PersistenceIOException;
 import com.avaje.ebean.Query;
 import com.avaje.ebean.QueryEachConsumer;
+import com.avaje.ebean.plugin.BeanDocType;
 import com.avaje.ebean.plugin.BeanType;
 import com.avaje.ebean.plugin.SpiServer;
 import com.avaje.ebeanservice.docstore.api.support.DocStoreDeleteEvent;
 import com.avaje.ebeanservice.docstore.api.support.DocStoreIndexEvent;
+import com.avaje.ebeanservice.elastic.ElasticDocStoreBeanAdapter;
 import com.avaje.ebeanservice.elastic.bulk.BulkUpdate;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
+ * Process the updates of a group sending them to the bulk update.
+ * <p>
+ * The beans to index are fetched with idIn queries of at most <code>fetchBatchSize</code> ids.
+ * With an executor the chunks are fetched in parallel (at most <code>fetchConcurrency</code> at
+ * a time) and the beans of each chunk are sent by the calling thread as the chunk completes.
+ * </p>
+ * <p>
+ * The routing value of a deleted document is not known (the queue entry only holds the id) so
+ * the documents of a routed type are deleted with a delete by query on their ids which searches
+ * all the shards.
+ * </p>
  */
 public class ProcessGroup<T> {
 
@@ -25,60 +47,190 @@ public class ProcessGroup<T> {
 
   private final BulkUpdate txn;
 
+  private final int fetchBatchSize;
+
+  private final ExecutorService fetchExecutor;
+
+  private final int fetchConcurrency;
+
   private long count;
 
   public static <T> long process(SpiServer server, BeanType<T> desc, UpdateGroup group, BulkUpdate txn) throws IOException {
-    return new ProcessGroup<T>(server, desc, group, txn).processGroup();
+    return process(server, desc, group, txn, 0, null, 1);
+  }
+
+  /**
+   * Process the group fetching the beans to index in chunks.
+   *
+   * @param fetchBatchSize   the maximum number of ids per idIn query (0 for a single query)
+   * @param fetchExecutor    the executor the chunks are fetched by (null to fetch by the calling thread)
+   * @param fetchConcurrency the maximum number of chunks fetched in parallel
+   */
+  public static <T> long process(SpiServer server, BeanType<T> desc, UpdateGroup group, BulkUpdate txn,
+                                 int fetchBatchSize, ExecutorService fetchExecutor, int fetchConcurrency) throws IOException {
+    return new ProcessGroup<T>(server, desc, group, txn, fetchBatchSize, fetchExecutor, fetchConcurrency).processGroup();
   }
 
-  private ProcessGroup(SpiServer server, BeanType<T> desc, UpdateGroup group, BulkUpdate txn) {
+  private ProcessGroup(SpiServer server, BeanType<T> desc, UpdateGroup group, BulkUpdate txn,
+                       int fetchBatchSize, ExecutorService fetchExecutor, int fetchConcurrency) {
     this.server = server;
     this.desc = desc;
     this.group = group;
     this.txn = txn;
+    this.fetchBatchSize = fetchBatchSize;
+    this.fetchExecutor = fetchExecutor;
+    this.fetchConcurrency = fetchConcurrency;
   }
 
   private long processGroup() throws IOException {
 
     List<Object> deleteIds = group.getDeleteIds();
-    for (Object id : deleteIds) {
-      txn.send(new DocStoreDeleteEvent(desc, id));
+    if (ElasticDocStoreBeanAdapter.routingProperty(desc) != null) {
+      for (List<Object> chunk : chunks(deleteIds)) {
+        deleteUsingQuery(chunk);
+      }
+    } else {
+      for (Object id : deleteIds) {
+        txn.send(new DocStoreDeleteEvent(desc, id));
+      }
     }
 
     count += deleteIds.size();
 
     List<Object> indexIds = group.getIndexIds();
     if (!indexIds.isEmpty()) {
-      Query<T> query = server.find(desc.getBeanType());
-      query.where().idIn(indexIds);
-      indexUsingQuery(query, txn);
+      List<List<Object>> chunks = chunks(indexIds);
+      if (chunks.size() == 1 || fetchExecutor == null || fetchConcurrency <= 1) {
+        for (List<Object> chunk : chunks) {
+          indexUsingQuery(idInQuery(chunk));
+        }
+      } else {
+        indexUsingParallelFetch(chunks);
+      }
     }
 
     Collection<UpdateNested> values = group.getNestedPathIds().values();
     for (UpdateNested nested : values) {
-      ProcessNested<T> nestedDocUpdate = new ProcessNested<T>(server, desc, txn, nested);
+      ProcessNested<T> nestedDocUpdate = new ProcessNested<T>(server, desc, txn, nested, group);
       count += nestedDocUpdate.process();
     }
 
     return count;
   }
 
+  /**
+   * Split the ids into chunks of at most fetchBatchSize.
+   */
+  private List<List<Object>> chunks(List<Object> ids) {
+    int size = (fetchBatchSize > 0) ? fetchBatchSize : ids.size();
+    List<List<Object>> chunks = new ArrayList<List<Object>>();
+    for (int i = 0; i < ids.size(); i += size) {
+      chunks.add(ids.subList(i, Math.min(i + size, ids.size())));
+    }
+    return chunks;
+  }
+
+  /**
+   * Delete the documents with the given ids from all the shards.
+   */
+  private void deleteUsingQuery(List<Object> ids) throws IOException {
+    if (!ids.isEmpty()) {
+      BeanDocType<T> docType = desc.docStore();
+      txn.sendDeleteQuery(docType.getIndexName(), docType.getIndexType(), idsQuery(ids));
+    }
+  }
 
-  private void indexUsingQuery(Query<T> query, final BulkUpdate txn) throws IOException {
+  /**
+   * Return the ids query JSON.
+   */
+  static String idsQuery(List<Object> ids) {
+    JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+    StringBuilder sb = new StringBuilder(40 + ids.size() * 10);
+    sb.append("{\"query\":{\"ids\":{\"values\":[");
+    for (int i = 0; i < ids.size(); i++) {
+      if (i > 0) {
+        sb.append(",");
+      }
+      sb.append("\"").append(encoder.quoteAsString(ids.get(i).toString())).append("\"");
+    }
+    return sb.append("]}}}").toString();
+  }
 
+  private Query<T> idInQuery(List<Object> ids) {
+    Query<T> query = server.find(desc.getBeanType());
+    query.where().idIn(ids);
     desc.docStore().applyPath(query);
     query.setLazyLoadBatchSize(100);
+    return query;
+  }
+
+  private void indexUsingQuery(Query<T> query) {
+
     query.findEach(new QueryEachConsumer<T>() {
       @Override
       public void accept(T bean) {
-        Object idValue = desc.getBeanId(bean);
         try {
-          count++;
-          txn.send(new DocStoreIndexEvent<T>(desc, idValue, bean));
+          sendIndex(bean);
         } catch (Exception e) {
           throw new PersistenceIOException("Error performing query update to doc store", e);
         }
       }
     });
   }
+
+  /**
+   * Fetch the chunks in parallel sending the beans of each chunk as it completes.
+   * <p>
+   * The bulk update is only used by the calling thread.
+   * </p>
+   */
+  private void indexUsingParallelFetch(List<List<Object>> chunks) throws IOException {
+
+    CompletionService<List<T>> completion = new ExecutorCompletionService<List<T>>(fetchExecutor);
+    List<Future<List<T>>> futures = new ArrayList<Future<List<T>>>(chunks.size());
+    int next = 0;
+    int inFlight = 0;
+    try {
+      while (next < chunks.size() || inFlight > 0) {
+        while (inFlight < fetchConcurrency && next < chunks.size()) {
+          futures.add(completion.submit(fetchChunk(chunks.get(next++))));
+          inFlight++;
+        }
+        List<T> beans = completion.take().get();
+        inFlight--;
+        for (T bean : beans) {
+          sendIndex(bean);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted fetching beans to index");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Error fetching beans to index", cause);
+    } finally {
+      // cancel the outstanding fetches when failed
+      for (Future<List<T>> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private Callable<List<T>> fetchChunk(final List<Object> ids) {
+    return new Callable<List<T>>() {
+      @Override
+      public List<T> call() throws Exception {
+        return idInQuery(ids).findList();
+      }
+    };
+  }
+
+  private void sendIndex(T bean) throws IOException {
+    Object idValue = desc.getBeanId(bean);
+    count++;
+    txn.send(new DocStoreIndexEvent<T>(desc, idValue, bean));
+  }
 }
@@ -4,16 +4,20 @@ import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.FetchPath;
 import com.avaje.ebean.Query;
 import com.avaje.ebean.QueryEachConsumer;
+import com.avaje.ebean.bean.EntityBean;
 import com.avaje.ebean.plugin.BeanDocType;
 import com.avaje.ebean.plugin.BeanType;
 import com.avaje.ebean.plugin.Property;
 import com.avaje.ebeaninternal.server.query.SplitName;
+import com.avaje.ebeanservice.elastic.ElasticDocStoreBeanAdapter;
 import com.avaje.ebeanservice.elastic.bulk.BulkUpdate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -24,10 +28,16 @@ public class ProcessNested<T> {
 
   private static final Logger log = LoggerFactory.getLogger(ProcessNested.class);
 
+  /**
+   * The number of documents whose unknown routing values are queried together.
+   */
+  private static final int ROUTING_BATCH_SIZE = 100;
+
   private final EbeanServer server;
   private final BeanType<T> desc;
   private final BulkUpdate txn;
   private final UpdateNested nested;
+  private final UpdateGroup group;
 
   private final Map<Object, String> jsonMap = new HashMap<Object,String>();
 
@@ -42,18 +52,33 @@ public class ProcessNested<T> {
   private final String nestedIdPropertyName;
   private final boolean nestedMany;
   private final BeanDocType<T> beanDocType;
+
+  /**
+   * The adapter of a routed type (null when the type is not routed).
+   */
+  private final ElasticDocStoreBeanAdapter<T> routedDocType;
+
+  /**
+   * The embedded JSON of the documents to update whose routing value is not yet known keyed by id.
+   */
+  private final Map<Object, String> unrouted = new LinkedHashMap<Object, String>();
   private FetchPath manyRootDoc;
 
   private long count;
 
-  public ProcessNested(EbeanServer server, BeanType<T> desc, BulkUpdate txn, UpdateNested nested) {
+  /**
+   * Construct with the group used to skip documents that are already re-indexed or deleted.
+   */
+  public ProcessNested(EbeanServer server, BeanType<T> desc, BulkUpdate txn, UpdateNested nested, UpdateGroup group) {
     this.server = server;
     this.desc = desc;
     this.txn = txn;
     this.nested = nested;
+    this.group = group;
     this.fullNestedPath = nested.getPath();
 
     beanDocType = desc.docStore();
+    routedDocType = routedDocType(beanDocType);
 
     String[] nestedPathSplit = getTopNestedPath(fullNestedPath);
     this.nestedPath = nestedPathSplit[0];
@@ -72,11 +97,23 @@ public class ProcessNested<T> {
     this.nestedIdPropertyName = nestedDesc.getIdProperty().getName();
   }
 
+  @SuppressWarnings("unchecked")
+  private static <T> ElasticDocStoreBeanAdapter<T> routedDocType(BeanDocType<T> docType) {
+    if (docType instanceof ElasticDocStoreBeanAdapter && ((ElasticDocStoreBeanAdapter<T>) docType).getRoutingProperty() != null) {
+      return (ElasticDocStoreBeanAdapter<T>) docType;
+    }
+    return null;
+  }
+
   private String createSelectId(BeanType<T> desc) {
     String id =desc.getIdProperty().getName();
     if (desc.hasInheritance()) {
       id += ","+desc.getDiscColumn();
     }
+    if (routedDocType != null) {
+      // the routing value of the documents that are updated
+      id += "," + routedDocType.getRoutingProperty();
+    }
     return id;
   }
 
@@ -145,10 +182,11 @@ public class ProcessNested<T> {
     // hit the database and build the embedded JSON documents
     List<T> list = query.findList();
     for (T bean : list) {
-      Object manyList = nestedProperty.getVal(bean);
-      String embedJson = server.json().toJson(manyList, nestedDoc);
       Object beanId = desc.beanId(bean);
-      jsonMap.put(beanId, embedJson);
+      if (!group.isIndexOrDelete(beanId)) {
+        Object manyList = nestedProperty.getVal(bean);
+        jsonMap.put(beanId, server.json().toJson(manyList, nestedDoc));
+      }
     }
   }
 
@@ -166,15 +204,41 @@ public class ProcessNested<T> {
     topQuery.findEach(new QueryEachConsumer<T>() {
       @Override
       public void accept(T bean)  {
-        updateEmbedded(bean);
-        count++;
+        if (updateEmbedded(bean)) {
+          count++;
+        }
       }
     });
+    updateUnrouted();
+  }
+
+  /**
+   * Update the documents whose routing value was not known querying the routing values together.
+   */
+  private void updateUnrouted() {
+    if (unrouted.isEmpty()) {
+      return;
+    }
+    try {
+      Map<Object, String> routings = routedDocType.routingByIds(new ArrayList<Object>(unrouted.keySet()));
+      for (Map.Entry<Object, String> entry : unrouted.entrySet()) {
+        Object beanId = entry.getKey();
+        routedDocType.updateEmbedded(beanId, nestedPath, entry.getValue(), routings.get(beanId), txn.obtain());
+      }
+      unrouted.clear();
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
   }
 
-  private void updateEmbedded(T bean) {
+  private boolean updateEmbedded(T bean) {
     try {
       Object beanId = desc.getBeanId(bean);
+      if (group.isIndexOrDelete(beanId)) {
+        // the whole document is re-indexed or deleted
+        return false;
+      }
       Object targetId;
       if (nestedMany) {
         targetId = beanId;
@@ -184,7 +248,21 @@ public class ProcessNested<T> {
       }
 
       String json = jsonMap.get(targetId);
-      beanDocType.updateEmbedded(beanId, nestedPath, json, txn.obtain());
+      if (routedDocType == null) {
+        beanDocType.updateEmbedded(beanId, nestedPath, json, txn.obtain());
+        return true;
+      }
+      String routing = routedDocType.routing((EntityBean) bean);
+      if (routing != null) {
+        routedDocType.updateEmbedded(beanId, nestedPath, json, routing, txn.obtain());
+      } else {
+        // routing not in the document, query it with the routing of other documents
+        unrouted.put(beanId, json);
+        if (unrouted.size() >= ROUTING_BATCH_SIZE) {
+          updateUnrouted();
+        }
+      }
+      return true;
 
     } catch (IOException e) {
       throw new RuntimeException(e);
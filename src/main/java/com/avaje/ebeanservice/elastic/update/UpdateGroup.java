@@ -12,14 +12,21 @@ import java.util.Map;
  *
  * Some nested path updates can overlap with index events so it is good to process these together as
  * a group and check for these overlaps (and skip unnecessary work).
+ * <p>
+ * Entries are coalesced per document id (compared by their string form as queued ids can be
+ * strings). A document indexed many times is indexed once. A delete removes any earlier index of
+ * the document and is always sent (an index after a delete is kept as the row may have been
+ * re-inserted but the deletes are sent first). Nested updates of documents that are re-indexed or
+ * deleted are skipped (see {@link #isIndexOrDelete(Object)}).
+ * </p>
  */
 public class UpdateGroup {
 
   private final String queueId;
 
-  private final List<Object> deleteIds = new ArrayList<Object>();
+  private final Map<String, Object> deleteIds = new LinkedHashMap<String, Object>();
 
-  private final List<Object> indexIds = new ArrayList<Object>();
+  private final Map<String, Object> indexIds = new LinkedHashMap<String, Object>();
 
   private final Map<String, UpdateNested> pathIds = new LinkedHashMap<String, UpdateNested>();
 
@@ -32,23 +39,43 @@ public class UpdateGroup {
   }
 
   public List<Object> getDeleteIds() {
-    return deleteIds;
+    return new ArrayList<Object>(deleteIds.values());
   }
 
   public List<Object> getIndexIds() {
-    return indexIds;
+    return new ArrayList<Object>(indexIds.values());
   }
 
   public Map<String, UpdateNested> getNestedPathIds() {
     return pathIds;
   }
 
+  /**
+   * Return true if the document is fully re-indexed or deleted such that a nested update of it is redundant.
+   */
+  public boolean isIndexOrDelete(Object id) {
+    String key = key(id);
+    return indexIds.containsKey(key) || deleteIds.containsKey(key);
+  }
+
+  /**
+   * Return the key the ids are coalesced by.
+   */
+  static String key(Object id) {
+    return id.toString();
+  }
+
   private void addIndex(Object id) {
-    indexIds.add(id);
+    String key = key(id);
+    if (!indexIds.containsKey(key)) {
+      indexIds.put(key, id);
+    }
   }
 
   private void addDelete(Object id) {
-    deleteIds.add(id);
+    String key = key(id);
+    indexIds.remove(key);
+    deleteIds.put(key, id);
   }
 
   private void addNested(String path, Object beanId) {
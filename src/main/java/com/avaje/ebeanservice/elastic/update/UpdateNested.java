@@ -1,19 +1,21 @@
 package com.avaje.ebeanservice.elastic.update;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A group of nested updates for a given path.
  * <p>
- * We group these together to process in batch/bulk.
+ * We group these together to process in batch/bulk. Duplicate ids are added once.
  * </p>
  */
 public class UpdateNested {
 
   private final String path;
 
-  private final List<Object> ids = new ArrayList<Object>();
+  private final Map<String, Object> ids = new LinkedHashMap<String, Object>();
 
   /**
    * Construct given the path.
@@ -33,13 +35,16 @@ public class UpdateNested {
    * Return the Ids.
    */
   public List<Object> getIds() {
-    return ids;
+    return new ArrayList<Object>(ids.values());
   }
 
   /**
    * Add an Id to the list.
    */
   public void addId(Object id) {
-    ids.add(id);
+    String key = UpdateGroup.key(id);
+    if (!ids.containsKey(key)) {
+      ids.put(key, id);
+    }
   }
 }
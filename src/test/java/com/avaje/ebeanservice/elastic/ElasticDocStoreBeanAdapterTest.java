@@ -0,0 +1,22 @@
+package com.avaje.ebeanservice.elastic;
+
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ElasticDocStoreBeanAdapterTest {
+
+  @Test
+  public void routingChangeQuery_expect_otherRoutingExcluded() {
+
+    assertThat(ElasticDocStoreBeanAdapter.routingChangeQuery(42L, "7"))
+        .isEqualTo("{\"query\":{\"bool\":{\"filter\":{\"ids\":{\"values\":[\"42\"]}},\"must_not\":{\"term\":{\"_routing\":\"7\"}}}}}");
+  }
+
+  @Test
+  public void routingChangeQuery_when_newRoutingNull_expect_allCopiesMatched() {
+
+    assertThat(ElasticDocStoreBeanAdapter.routingChangeQuery("a\"b", null))
+        .isEqualTo("{\"query\":{\"bool\":{\"filter\":{\"ids\":{\"values\":[\"a\\\"b\"]}}}}}");
+  }
+}
@@ -0,0 +1,122 @@
+package com.avaje.ebeanservice.elastic;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.plugin.SpiServer;
+import com.avaje.ebeanservice.docstore.api.DocStoreUpdateContext;
+import com.avaje.ebeanservice.docstore.api.DocStoreUpdates;
+import com.avaje.ebeanservice.elastic.bulk.BulkBuffer;
+import com.avaje.ebeanservice.elastic.support.CircuitBreaker;
+import com.avaje.ebeanservice.elastic.support.IndexQueueWriter;
+import com.avaje.ebeanservice.elastic.support.RequestRejectedException;
+import com.avaje.ebeanservice.elastic.testdoubles.TDDocStoreUpdate;
+import com.avaje.ebeanservice.elastic.testdoubles.TDIndexMessageSender;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ElasticUpdateProcessorDivertTest {
+
+  private final SpiServer server = Ebean.getDefaultServer().getPluginApi();
+
+  /**
+   * Rejects the bulk requests as the ProtectedIndexMessageSender does when the circuit is open.
+   */
+  static class RejectingSender extends TDIndexMessageSender {
+
+    @Override
+    public String postBulk(String json) throws IOException {
+      throw new RequestRejectedException("Circuit breaker open, ElasticSearch request not sent");
+    }
+  }
+
+  static class QueueWriter implements IndexQueueWriter {
+
+    final List<DocStoreQueueEntry> queued = new CopyOnWriteArrayList<DocStoreQueueEntry>();
+
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    @Override
+    public void onStartup() {
+    }
+
+    @Override
+    public void queue(List<DocStoreQueueEntry> queueEntries) {
+      if (!queueEntries.isEmpty()) {
+        queued.addAll(queueEntries);
+        latch.countDown();
+      }
+    }
+  }
+
+  /**
+   * Writes an action to the bulk buffer and queues as an index of customer 1.
+   */
+  static class IndexUpdate extends TDDocStoreUpdate {
+
+    @Override
+    public void docStoreUpdate(DocStoreUpdateContext txn) throws IOException {
+      super.docStoreUpdate(txn);
+      BulkBuffer buffer = (BulkBuffer) txn;
+      buffer.gen().writeStartObject();
+      buffer.gen().writeEndObject();
+    }
+
+    @Override
+    public void addToQueue(DocStoreUpdates docStoreUpdates) {
+      super.addToQueue(docStoreUpdates);
+      docStoreUpdates.queueIndex("customer", 1L);
+    }
+  }
+
+  private void process(boolean bulkAsync, QueueWriter queueWriter) {
+
+    ElasticConfig config = new ElasticConfig();
+    config.setBulkAsync(bulkAsync);
+    config.setCircuitBreakerDivertToQueue(true);
+    // closed such that the updates are sent (and rejected)
+    CircuitBreaker circuitBreaker = new CircuitBreaker(50, 0, 10, 10, 60_000);
+
+    ElasticUpdateProcessor processor = new ElasticUpdateProcessor(server, queueWriter, new JsonFactory(), null,
+        new RejectingSender(), 100, config, circuitBreaker);
+    try {
+      DocStoreUpdates updates = new DocStoreUpdates();
+      updates.addPersist(new IndexUpdate());
+      processor.process(updates, 0);
+    } finally {
+      processor.shutdown();
+    }
+  }
+
+  private void assertDiverted(QueueWriter queueWriter) throws InterruptedException {
+    assertThat(queueWriter.latch.await(5, TimeUnit.SECONDS)).isTrue();
+    assertThat(queueWriter.queued).hasSize(1);
+    DocStoreQueueEntry entry = queueWriter.queued.get(0);
+    assertThat(entry.getType()).isEqualTo(DocStoreQueueEntry.Action.INDEX);
+    assertThat(entry.getQueueId()).isEqualTo("customer");
+    assertThat(entry.getBeanId()).isEqualTo(1L);
+  }
+
+  @Test
+  public void process_when_rejected_expect_divertedToQueue() throws Exception {
+
+    QueueWriter queueWriter = new QueueWriter();
+    process(false, queueWriter);
+    assertDiverted(queueWriter);
+  }
+
+  @Test
+  public void process_when_rejectedInBackground_expect_divertedToQueue() throws Exception {
+
+    QueueWriter queueWriter = new QueueWriter();
+    process(true, queueWriter);
+    assertDiverted(queueWriter);
+  }
+}
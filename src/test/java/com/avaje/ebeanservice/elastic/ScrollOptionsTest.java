@@ -0,0 +1,42 @@
+package com.avaje.ebeanservice.elastic;
+
+import org.testng.annotations.Test;
+
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScrollOptionsTest {
+
+  @Test
+  public void withDefaults() {
+
+    ScrollOptions defaults = new ScrollOptions().keepAlive("1m").pageSize(100).slices(4).prefetch(1);
+    ScrollOptions merged = new ScrollOptions().keepAlive("5m").slices(0).withDefaults(defaults);
+
+    assertThat(merged.getKeepAlive()).isEqualTo("5m");
+    assertThat(merged.getPageSize()).isEqualTo(100);
+    assertThat(merged.getSlices()).isEqualTo(0);
+    assertThat(merged.getPrefetch()).isEqualTo(1);
+    assertThat(merged.getMode()).isNull();
+    assertThat(merged.isPipelined()).isTrue();
+  }
+
+  @Test
+  public void elasticConfig_getScrollOptions() {
+
+    Properties properties = new Properties();
+    properties.setProperty("ebean.docstore.elastic.scrollKeepAlive", "3m");
+    properties.setProperty("ebean.docstore.elastic.scrollPageSize", "5000");
+    properties.setProperty("ebean.docstore.elastic.scrollMode", "search_after");
+
+    ElasticConfig config = new ElasticConfig();
+    config.loadSettings(properties);
+    ScrollOptions options = config.getScrollOptions();
+
+    assertThat(options.getKeepAlive()).isEqualTo("3m");
+    assertThat(options.getPageSize()).isEqualTo(5000);
+    assertThat(options.getMode()).isEqualTo(ScrollMode.SEARCH_AFTER);
+    assertThat(options.isPipelined()).isFalse();
+  }
+}
@@ -0,0 +1,54 @@
+package com.avaje.ebeanservice.elastic.bulk;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import org.testng.annotations.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+public class BulkResponseParserTest {
+
+  JsonFactory jsonFactory = new JsonFactory();
+
+  @Test
+  public void parse_when_noErrors() throws Exception {
+
+    String json = "{\"took\":30,\"errors\":false,\"items\":[{\"index\":{\"_index\":\"a\",\"_type\":\"b\",\"_id\":\"1\",\"status\":201}}]}";
+    BulkResponse response = BulkResponseParser.parse(jsonFactory.createParser(json));
+
+    assertThat(response.getTook()).isEqualTo(30);
+    assertThat(response.isErrors()).isFalse();
+    assertThat(response.getItemErrors()).isEmpty();
+    // items not read
+    assertThat(response.getItemCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void parse_when_errors() throws Exception {
+
+    String json = "{\"took\":12,\"errors\":true,\"items\":[" +
+        "{\"index\":{\"_index\":\"order\",\"_type\":\"order\",\"_id\":\"1\",\"status\":201,\"_shards\":{\"total\":2}}}," +
+        "{\"index\":{\"_index\":\"order\",\"_type\":\"order\",\"_id\":\"2\",\"status\":429,\"error\":{\"type\":\"es_rejected_execution_exception\",\"reason\":\"rejected\"}}}," +
+        "{\"update\":{\"_index\":\"order\",\"_type\":\"order\",\"_id\":\"3\",\"status\":409,\"error\":{\"type\":\"version_conflict_engine_exception\",\"reason\":\"conflict\",\"caused_by\":{\"type\":\"x\"}}}}" +
+        "]}";
+
+    BulkResponse response = BulkResponseParser.parse(jsonFactory.createParser(json));
+
+    assertThat(response.isErrors()).isTrue();
+    assertThat(response.getItemCount()).isEqualTo(3);
+    assertThat(response.getItemErrors()).hasSize(2);
+
+    List<BulkItemError> retryable = response.takeRetryable();
+    assertThat(retryable).hasSize(1);
+    assertThat(retryable.get(0).getPosition()).isEqualTo(1);
+    assertThat(retryable.get(0).getId()).isEqualTo("2");
+    assertThat(retryable.get(0).getType()).isEqualTo("es_rejected_execution_exception");
+
+    BulkItemError conflict = response.getItemErrors().get(0);
+    assertThat(conflict.getAction()).isEqualTo("update");
+    assertThat(conflict.getStatus()).isEqualTo(409);
+    assertThat(conflict.isRetryable()).isFalse();
+  }
+}
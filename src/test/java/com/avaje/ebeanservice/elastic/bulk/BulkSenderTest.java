@@ -1,14 +1,23 @@
 package com.avaje.ebeanservice.elastic.bulk;
 
 import com.avaje.ebean.config.JsonConfig;
+import com.avaje.ebeanservice.elastic.ElasticConfig;
+import com.avaje.ebeanservice.elastic.support.HttpStatusException;
+import com.avaje.ebeanservice.elastic.support.IndexMessageResponse;
 import com.avaje.ebeanservice.elastic.testdoubles.TDIndexMessageSender;
 import com.fasterxml.jackson.core.JsonFactory;
 import org.jetbrains.annotations.NotNull;
 import org.testng.annotations.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
 
 
 public class BulkSenderTest {
@@ -45,7 +54,200 @@ public class BulkSenderTest {
     assertEquals(messageSender.request, "{\"name\":\"rob\"}");
   }
 
+  @Test
+  public void release_expect_underlyingBufferReused() throws Exception {
+
+    BulkSender bulkSender = createBulkSender();
+
+    BulkBuffer buffer = bulkSender.newBuffer();
+    buffer.gen().writeStartObject();
+    buffer.gen().writeStringField("name","rob");
+    buffer.gen().writeEndObject();
+    bulkSender.sendBulk(buffer);
+
+    bulkSender.release(buffer);
+    long retained = bulkSender.getBufferPool().getRetainedBytes();
+    assertTrue(retained > 0);
+
+    // releasing twice is ignored
+    bulkSender.release(buffer);
+    assertEquals(bulkSender.getBufferPool().getRetainedBytes(), retained);
+
+    BulkBuffer reused = bulkSender.newBuffer();
+    assertEquals(bulkSender.getBufferPool().getRetainedBytes(), 0L);
+    assertEquals(reused.size(), 0);
+  }
+
+  @Test
+  public void sendBulk_when_bytesBuffer() throws Exception {
+
+    ElasticConfig config = new ElasticConfig();
+    config.setBulkBytesBuffer(true);
+    BulkSender bulkSender = new BulkSender(new JsonFactory(), JsonConfig.Include.NON_EMPTY, null, messageSender, config);
+
+    BulkBuffer buffer = bulkSender.newBuffer();
+    assertTrue(buffer.isBytes());
+    buffer.gen().writeStartObject();
+    buffer.gen().writeStringField("name","r\u00f6b");
+    buffer.gen().writeEndObject();
+
+    bulkSender.sendBulk(buffer);
+
+    assertEquals(messageSender.request, "{\"name\":\"r\u00f6b\"}");
+  }
+
+  @Test
+  public void retryBuffer_expect_onlyFailedActions() throws Exception {
+
+    BulkSender bulkSender = createBulkSender();
+
+    BulkBuffer buffer = bulkSender.newBuffer();
+    for (int i = 0; i < 3; i++) {
+      buffer.markAction();
+      buffer.gen().writeStartObject();
+      buffer.gen().writeNumberField("id", i);
+      buffer.gen().writeEndObject();
+      buffer.gen().writeRaw("\n");
+    }
+    bulkSender.sendBulk(buffer);
+
+    List<BulkItemError> failed = new ArrayList<BulkItemError>();
+    failed.add(new BulkItemError(1, "index", "a", "1", 429, null, null));
+
+    BulkBuffer retryBuffer = bulkSender.retryBuffer(buffer, failed);
+    bulkSender.sendBulk(retryBuffer);
+
+    assertEquals(messageSender.request.trim(), "{\"id\":1}");
+  }
+
+  @Test
+  public void retryBuffer_when_positionNotMatched_expect_nullAndNoPooledBufferTaken() throws Exception {
+
+    BulkSender bulkSender = createBulkSender();
+
+    BulkBuffer buffer = bulkSender.newBuffer();
+    buffer.markAction();
+    buffer.gen().writeStartObject();
+    buffer.gen().writeNumberField("id", 0);
+    buffer.gen().writeEndObject();
+    buffer.gen().writeRaw("\n");
+    bulkSender.sendBulk(buffer);
+
+    BulkBuffer pooled = bulkSender.newBuffer();
+    pooled.gen().writeStartObject();
+    pooled.gen().writeStringField("name","rob");
+    pooled.gen().writeEndObject();
+    pooled.flush();
+    bulkSender.release(pooled);
+    long retained = bulkSender.getBufferPool().getRetainedBytes();
+    assertTrue(retained > 0);
+
+    List<BulkItemError> failed = new ArrayList<BulkItemError>();
+    failed.add(new BulkItemError(0, "index", "a", "0", 429, null, null));
+    failed.add(new BulkItemError(3, "index", "a", "3", 429, null, null));
+
+    assertNull(bulkSender.retryBuffer(buffer, failed));
+    assertEquals(bulkSender.getBufferPool().getRetainedBytes(), retained);
+  }
+
+  @Test
+  public void sendBulk_when_throttledAndRejected_expect_retriedAndThrottleDecreased() throws Exception {
+
+    final int[] calls = new int[1];
+    TDIndexMessageSender rejecting = new TDIndexMessageSender() {
+      @Override
+      public String postBulk(String json) throws IOException {
+        if (calls[0]++ < 2) {
+          throw new HttpStatusException("rejected", 429, null);
+        }
+        return super.postBulk(json);
+      }
+    };
+
+    ElasticConfig config = new ElasticConfig();
+    config.setBulkRetryBackoffMillis(1);
+    BulkThrottle throttle = new BulkThrottle(100, 10, 1000, 10, 1, 4, 0);
+    BulkSender bulkSender = new BulkSender(new JsonFactory(), JsonConfig.Include.NON_EMPTY, null, rejecting, config, throttle);
+
+    BulkBuffer buffer = bulkSender.newBuffer();
+    buffer.gen().writeStartObject();
+    buffer.gen().writeEndObject();
+    bulkSender.sendBulk(buffer);
+
+    assertEquals(calls[0], 3);
+    assertEquals(rejecting.request, "{}");
+    // each rejection is reported to the throttle
+    assertTrue(throttle.getConcurrency() < 4);
+  }
+
   @NotNull
+  /**
+   * Response stream recording the bytes read and whether it was closed.
+   */
+  static class TrackingStream extends ByteArrayInputStream {
+
+    int bytesRead;
+
+    boolean closed;
+
+    TrackingStream(byte[] content) {
+      super(content);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        bytesRead += read;
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+
+  @Test
+  public void sendBulk_when_noErrors_expect_responseStreamClosedWithoutReadingItems() throws Exception {
+
+    StringBuilder sb = new StringBuilder("{\"took\":5,\"errors\":false,\"items\":[");
+    for (int i = 0; i < 5000; i++) {
+      if (i > 0) {
+        sb.append(",");
+      }
+      sb.append("{\"index\":{\"_index\":\"customer\",\"_id\":\"").append(i).append("\",\"status\":201}}");
+    }
+    sb.append("]}");
+    byte[] content = sb.toString().getBytes("UTF-8");
+    final TrackingStream stream = new TrackingStream(content);
+
+    BulkSender bulkSender = new BulkSender(new JsonFactory(), JsonConfig.Include.NON_EMPTY, null, new TDIndexMessageSender() {
+      @Override
+      public IndexMessageResponse postBulkStream(String json) throws IOException {
+        return new IndexMessageResponse(200, stream);
+      }
+
+      @Override
+      public IndexMessageResponse postBulkStream(byte[] content, int offset, int len) throws IOException {
+        return new IndexMessageResponse(200, stream);
+      }
+    });
+
+    BulkBuffer buffer = bulkSender.newBuffer();
+    buffer.gen().writeStartObject();
+    buffer.gen().writeStringField("name","rob");
+    buffer.gen().writeEndObject();
+    BulkResponse response = bulkSender.sendBulk(buffer);
+
+    assertEquals(response.getTook(), 5L);
+    assertTrue(response.getItemErrors().isEmpty());
+    assertTrue(stream.closed);
+    assertTrue(stream.bytesRead < content.length);
+  }
+
   private BulkSender createBulkSender() {
 
     messageSender.request = null;
@@ -0,0 +1,93 @@
+package com.avaje.ebeanservice.elastic.bulk;
+
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BulkThrottleTest {
+
+  @Test
+  public void onResponse_when_healthy_expect_additiveIncrease() throws Exception {
+
+    BulkThrottle throttle = new BulkThrottle(1000, 100, 1200, 100, 1, 4, 0);
+
+    long start = throttle.acquire();
+    throttle.onResponse(start, 1000, 10, false);
+    throttle.release();
+    assertThat(throttle.getBatchSize()).isEqualTo(1100);
+
+    start = throttle.acquire();
+    throttle.onResponse(start, 1100, 10, false);
+    throttle.onResponse(start, 1100, 10, false);
+    throttle.release();
+    // bounded by the maximum
+    assertThat(throttle.getBatchSize()).isEqualTo(1200);
+  }
+
+  @Test
+  public void onResponse_when_smallBatch_expect_noIncrease() throws Exception {
+
+    BulkThrottle throttle = new BulkThrottle(1000, 100, 5000, 100, 1, 4, 0);
+
+    long start = throttle.acquire();
+    throttle.onResponse(start, 10, 10, false);
+    throttle.release();
+    assertThat(throttle.getBatchSize()).isEqualTo(1000);
+  }
+
+  @Test
+  public void onResponse_when_rejected_expect_multiplicativeDecrease() throws Exception {
+
+    BulkThrottle throttle = new BulkThrottle(1000, 100, 5000, 100, 1, 4, 0);
+    assertThat(throttle.getConcurrency()).isEqualTo(4);
+
+    long start = throttle.acquire();
+    throttle.onResponse(start, 1000, 10, true);
+    throttle.release();
+    assertThat(throttle.getBatchSize()).isEqualTo(500);
+    assertThat(throttle.getConcurrency()).isEqualTo(2);
+
+    // in-flight before the decrease so ignored
+    throttle.onRejected(start);
+    assertThat(throttle.getBatchSize()).isEqualTo(500);
+
+    for (int i = 0; i < 5; i++) {
+      start = throttle.acquire();
+      throttle.onRejected(start);
+      throttle.release();
+    }
+    // bounded by the minimums
+    assertThat(throttle.getBatchSize()).isEqualTo(100);
+    assertThat(throttle.getConcurrency()).isEqualTo(1);
+  }
+
+  @Test
+  public void onResponse_when_slow_expect_batchSizeDecrease() throws Exception {
+
+    BulkThrottle throttle = new BulkThrottle(1000, 100, 5000, 100, 1, 4, 50);
+
+    long start = throttle.acquire();
+    throttle.onResponse(start, 1000, 80, false);
+    throttle.release();
+    assertThat(throttle.getBatchSize()).isEqualTo(500);
+    assertThat(throttle.getConcurrency()).isEqualTo(4);
+    assertThat(throttle.getAverageTookMillis()).isEqualTo(80);
+  }
+
+  @Test
+  public void onResponse_when_healthyRun_expect_concurrencyIncrease() throws Exception {
+
+    BulkThrottle throttle = new BulkThrottle(1000, 100, 5000, 100, 1, 4, 0);
+    long start = throttle.acquire();
+    throttle.onRejected(start);
+    throttle.release();
+    assertThat(throttle.getConcurrency()).isEqualTo(2);
+
+    for (int i = 0; i < 10; i++) {
+      start = throttle.acquire();
+      throttle.onResponse(start, throttle.getBatchSize(), 10, false);
+      throttle.release();
+    }
+    assertThat(throttle.getConcurrency()).isEqualTo(3);
+  }
+}
@@ -1,11 +1,17 @@
 package com.avaje.ebeanservice.elastic.bulk;
 
+import com.avaje.ebeanservice.elastic.support.RequestRejectedException;
 import com.avaje.ebeanservice.elastic.testdoubles.TDBulkSender;
 import com.avaje.ebeanservice.elastic.testdoubles.TDDocStoreUpdate;
 import org.jetbrains.annotations.NotNull;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
 import static org.testng.Assert.*;
 
@@ -54,6 +60,28 @@ public class BulkUpdateTest {
     assertSame(obtain5, obtain6);
   }
 
+  @Test
+  public void obtain_when_maxBytesExceeded() throws Exception {
+
+    BulkUpdate bulkUpdate = new BulkUpdate(100, 20, 0, tdBulkSender, null);
+
+    BulkBuffer obtain1 = bulkUpdate.obtain();
+    obtain1.gen().writeStartObject();
+    obtain1.gen().writeStringField("name", "short");
+    obtain1.gen().writeEndObject();
+
+    BulkBuffer obtain2 = bulkUpdate.obtain();
+    assertSame(obtain1, obtain2);
+    obtain2.gen().writeStartObject();
+    obtain2.gen().writeStringField("name", "exceeds max bytes");
+    obtain2.gen().writeEndObject();
+
+    // exceeded max bytes of 20
+    BulkBuffer obtain3 = bulkUpdate.obtain();
+    assertNotSame(obtain2, obtain3);
+    assertSame(obtain2, tdBulkSender.request);
+  }
+
   @Test
   public void flush_when_empty() throws Exception {
 
@@ -78,6 +106,69 @@ public class BulkUpdateTest {
     assertSame(buffer, tdBulkSender.request);
   }
 
+  @Test
+  public void flush_when_async() throws Exception {
+
+    tdBulkSender.resetForTesting();
+
+    BulkProcessor processor = new BulkProcessor(tdBulkSender, 1, 1, 1000);
+    try {
+      BulkUpdate bulkUpdate = new BulkUpdate(2, tdBulkSender, processor);
+      BulkBuffer buffer = bulkUpdate.obtain();
+      buffer.gen().writeStartObject();
+      buffer.gen().writeEndObject();
+
+      bulkUpdate.flush();
+
+      assertSame(buffer, tdBulkSender.request);
+      assertEquals(processor.getInFlightBytes(), 0L);
+
+    } finally {
+      processor.shutdown();
+    }
+  }
+
+  @Test
+  public void onFailure_when_asyncRejected_expect_notified() throws Exception {
+
+    final CountDownLatch registered = new CountDownLatch(1);
+    TDBulkSender rejecting = new TDBulkSender() {
+      @Override
+      public BulkResponse sendBulk(BulkBuffer buffer) throws IOException {
+        try {
+          registered.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+        throw new RequestRejectedException("Circuit breaker open");
+      }
+    };
+
+    BulkProcessor processor = new BulkProcessor(rejecting, 1, 1, 1000);
+    try {
+      BulkUpdate bulkUpdate = new BulkUpdate(2, rejecting, processor);
+      bulkUpdate.obtain();
+      bulkUpdate.flush(false);
+
+      final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+      final CountDownLatch notified = new CountDownLatch(1);
+      bulkUpdate.onFailure(new Consumer<Throwable>() {
+        @Override
+        public void accept(Throwable e) {
+          failure.set(e);
+          notified.countDown();
+        }
+      });
+      registered.countDown();
+
+      assertTrue(notified.await(5, TimeUnit.SECONDS));
+      assertTrue(failure.get() instanceof RequestRejectedException);
+
+    } finally {
+      processor.shutdown();
+    }
+  }
+
   @NotNull
   private BulkUpdate createBulkUpdate(int batchSize) throws IOException {
     return new BulkUpdate(batchSize, tdBulkSender);
@@ -0,0 +1,76 @@
+package com.avaje.ebeanservice.elastic.journal;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class JournalIndexQueueReaderTest {
+
+  private Journal journal(int count) throws IOException {
+    File dir = Files.createTempDirectory("journal").toFile();
+    dir.deleteOnExit();
+    Journal journal = new Journal(dir, Journal.MIN_SEGMENT_BYTES);
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+    for (int i = 1; i <= count; i++) {
+      entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.INDEX, "customer", null, (long) i));
+    }
+    journal.append(entries);
+    return journal;
+  }
+
+  @Test
+  public void process_when_retryableItemErrors_expect_appendedAgain() throws Exception {
+
+    Journal journal = journal(3);
+
+    TestReader reader = new TestReader(journal, false);
+    reader.retry.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.INDEX, "customer", null, "2"));
+    assertThat(reader.process()).isEqualTo(-1);
+
+    reader.retry.clear();
+    assertThat(reader.drain()).isEqualTo(1);
+    assertThat(reader.batches).hasSize(2);
+    assertThat(reader.batches.get(1).get(0).getBeanId()).isEqualTo("2");
+
+    assertThat(journal.read(10)).isEmpty();
+  }
+
+  @Test
+  public void process_when_failed_expect_rewound() throws Exception {
+
+    Journal journal = journal(2);
+
+    assertThat(new TestReader(journal, true).process()).isEqualTo(-1);
+    assertThat(journal.read(10)).hasSize(2);
+  }
+
+  static class TestReader extends JournalIndexQueueReader {
+
+    final List<List<DocStoreQueueEntry>> batches = new ArrayList<List<DocStoreQueueEntry>>();
+
+    final List<DocStoreQueueEntry> retry = new ArrayList<DocStoreQueueEntry>();
+
+    final boolean fail;
+
+    TestReader(Journal journal, boolean fail) {
+      super(journal, null, 10, 1000);
+      this.fail = fail;
+    }
+
+    @Override
+    protected List<DocStoreQueueEntry> processEntries(List<DocStoreQueueEntry> entries) throws IOException {
+      if (fail) {
+        throw new IOException("ElasticSearch unavailable");
+      }
+      batches.add(entries);
+      return new ArrayList<DocStoreQueueEntry>(retry);
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package com.avaje.ebeanservice.elastic.journal;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+public class JournalTest {
+
+  private File newDir() throws IOException {
+    File dir = Files.createTempDirectory("journal").toFile();
+    dir.deleteOnExit();
+    return dir;
+  }
+
+  private List<DocStoreQueueEntry> entries(int count) {
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+    for (int i = 0; i < count; i++) {
+      entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.INDEX, "customer", null, (long) i));
+    }
+    return entries;
+  }
+
+  @Test
+  public void read_expect_entriesDecoded() throws Exception {
+
+    Journal journal = new Journal(newDir(), Journal.MIN_SEGMENT_BYTES);
+
+    UUID uuid = UUID.randomUUID();
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.INDEX, "customer", null, -42L));
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.DELETE, "product", null, 7));
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.NESTED, "order", "customer.id", "ab\u00e9"));
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.INDEX, "contact", "", uuid));
+
+    journal.sync(journal.append(entries));
+
+    List<DocStoreQueueEntry> read = journal.read(10);
+    assertThat(read).hasSize(4);
+    assertThat(read.get(0).getBeanId()).isEqualTo(-42L);
+    assertThat(read.get(0).getPath()).isNull();
+    assertThat(read.get(1).getType()).isEqualTo(DocStoreQueueEntry.Action.DELETE);
+    assertThat(read.get(1).getBeanId()).isEqualTo(7);
+    assertThat(read.get(2).getQueueId()).isEqualTo("order");
+    assertThat(read.get(2).getPath()).isEqualTo("customer.id");
+    assertThat(read.get(2).getBeanId()).isEqualTo("ab\u00e9");
+    assertThat(read.get(3).getPath()).isEqualTo("");
+    assertThat(read.get(3).getBeanId()).isEqualTo(uuid);
+
+    assertThat(journal.read(10)).isEmpty();
+  }
+
+  @Test
+  public void rewind_and_checkpoint_expect_resumeFromCheckpoint() throws Exception {
+
+    File dir = newDir();
+    Journal journal = new Journal(dir, Journal.MIN_SEGMENT_BYTES);
+    journal.append(entries(5));
+
+    assertThat(journal.read(2)).hasSize(2);
+    journal.rewind();
+    assertThat(journal.read(2).get(0).getBeanId()).isEqualTo(0L);
+    journal.checkpoint();
+    journal.close();
+
+    // reopen continuing from the checkpoint
+    Journal reopened = new Journal(dir, Journal.MIN_SEGMENT_BYTES);
+    List<DocStoreQueueEntry> read = reopened.read(10);
+    assertThat(read).hasSize(3);
+    assertThat(read.get(0).getBeanId()).isEqualTo(2L);
+  }
+
+  @Test
+  public void append_when_segmentFull_expect_rollAndDeleteOnCheckpoint() throws Exception {
+
+    Journal journal = new Journal(newDir(), Journal.MIN_SEGMENT_BYTES);
+    // each record is about 20 bytes
+    journal.append(entries(10000));
+    assertThat(journal.getSegmentCount()).isGreaterThan(1);
+
+    int total = 0;
+    List<DocStoreQueueEntry> read;
+    while (!(read = journal.read(1000)).isEmpty()) {
+      total += read.size();
+    }
+    assertThat(total).isEqualTo(10000);
+
+    journal.checkpoint();
+    assertThat(journal.getSegmentCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void open_when_tornWrite_expect_truncated() throws Exception {
+
+    File dir = newDir();
+    Journal journal = new Journal(dir, Journal.MIN_SEGMENT_BYTES);
+    journal.append(entries(3));
+    journal.close();
+
+    // simulate a torn record after the valid ones
+    File segment = dir.listFiles()[0];
+    RandomAccessFile file = new RandomAccessFile(segment, "rw");
+    try {
+      long end = 0;
+      for (int i = 0; i < 3; i++) {
+        file.seek(end);
+        end += 8 + file.readInt();
+      }
+      file.seek(end);
+      file.writeInt(50);
+      file.writeInt(12345);
+      file.writeInt(99);
+    } finally {
+      file.close();
+    }
+
+    Journal reopened = new Journal(dir, Journal.MIN_SEGMENT_BYTES);
+    reopened.append(entries(1));
+    assertThat(reopened.read(10)).hasSize(4);
+  }
+
+  @Test
+  public void close_expect_segmentsUnmappedAndNoMoreAppendsOrReads() throws Exception {
+
+    File dir = newDir();
+    Journal journal = new Journal(dir, Journal.MIN_SEGMENT_BYTES);
+    journal.append(entries(10000));
+    journal.close();
+    // closing again is a no-op
+    journal.close();
+
+    assertThat(journal.read(10)).isEmpty();
+    try {
+      journal.append(entries(1));
+      fail("expected IOException appending to a closed journal");
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("closed");
+    }
+
+    // the unmapped segments remain on disk
+    Journal reopened = new Journal(dir, Journal.MIN_SEGMENT_BYTES);
+    int total = 0;
+    List<DocStoreQueueEntry> read;
+    while (!(read = reopened.read(1000)).isEmpty()) {
+      total += read.size();
+    }
+    assertThat(total).isEqualTo(10000);
+    reopened.close();
+  }
+}
@@ -0,0 +1,177 @@
+package com.avaje.ebeanservice.elastic.query;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.QueryEachWhileConsumer;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import com.avaje.ebeanservice.elastic.ScrollOptions;
+import com.avaje.ebeanservice.elastic.testdoubles.TDDocQueryRequest;
+import com.avaje.ebeanservice.elastic.testdoubles.TDScrollMessageSender;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.example.domain.Customer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.avaje.ebeanservice.elastic.testdoubles.TDScrollMessageSender.id;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EQueryEachSlicedTest {
+
+  private final EbeanServer server = Ebean.getDefaultServer();
+
+  private ExecutorService executor;
+
+  @BeforeMethod
+  public void createExecutor() {
+    executor = Executors.newFixedThreadPool(1);
+  }
+
+  @AfterMethod
+  public void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  private void cachedExecutor() {
+    executor.shutdownNow();
+    executor = Executors.newCachedThreadPool();
+  }
+
+  private EQueryEachSliced<Customer> sliced(TDScrollMessageSender sender, ScrollOptions options) {
+    EQuerySend send = new EQuerySend(server.json(), new JsonFactory(), sender);
+    SpiQuery<Customer> query = (SpiQuery<Customer>) server.find(Customer.class);
+    return new EQueryEachSliced<Customer>(new TDDocQueryRequest<Customer>(query), send, server.json(), executor, options);
+  }
+
+  private ScrollOptions options(int slices, int prefetch) {
+    return new ScrollOptions().keepAlive("1m").pageSize(2).slices(slices).prefetch(prefetch);
+  }
+
+  private QueryEachWhileConsumer<Customer> collect(final List<Long> ids) {
+    return new QueryEachWhileConsumer<Customer>() {
+      @Override
+      public boolean accept(Customer bean) {
+        ids.add(bean.getId());
+        return true;
+      }
+    };
+  }
+
+  private QueryEachWhileConsumer<Customer> collectUpTo(final List<Long> ids, final int max) {
+    return new QueryEachWhileConsumer<Customer>() {
+      @Override
+      public boolean accept(Customer bean) {
+        ids.add(bean.getId());
+        return ids.size() < max;
+      }
+    };
+  }
+
+  @Test(timeOut = 10000)
+  public void consumeWhile_when_singleSliceAndPrefetch_expect_pagesInOrder() throws Exception {
+
+    cachedExecutor();
+    TDScrollMessageSender sender = new TDScrollMessageSender(4, 2);
+    EQueryEachSliced<Customer> each = sliced(sender, options(1, 3));
+
+    List<Long> ids = new ArrayList<Long>();
+    each.consumeWhile(collect(ids));
+    each.clearScrollIds();
+
+    assertThat(ids).containsExactly(id(0, 0), id(0, 1), id(0, 2), id(0, 3),
+        id(0, 4), id(0, 5), id(0, 6), id(0, 7));
+    assertThat(sender.cleared).contains("s0-0", "s0-3");
+  }
+
+  @Test(timeOut = 10000)
+  public void consumeWhile_when_consumerStops_expect_workersStopAndScrollIdsCleared() throws Exception {
+
+    cachedExecutor();
+    TDScrollMessageSender sender = new TDScrollMessageSender(50, 2);
+    EQueryEachSliced<Customer> each = sliced(sender, options(2, 1));
+
+    List<Long> ids = new ArrayList<Long>();
+    each.consumeWhile(collectUpTo(ids, 3));
+    each.clearScrollIds();
+
+    assertThat(ids).containsExactly(id(0, 0), id(0, 1), id(1, 0));
+    // the workers stopped reading ahead of the consumer
+    assertThat(sender.requested).doesNotContain("s0-40", "s1-40");
+    // all the scroll ids returned (initial and continued) are cleared
+    assertThat(sender.cleared).contains("s0-0", "s1-0");
+    for (String scrollId : sender.requested) {
+      assertThat(sender.cleared).contains(scrollId);
+    }
+  }
+
+  @Test(timeOut = 10000)
+  public void consumeWhile_when_scrollFails_expect_errorPropagatedAndScrollIdsCleared() throws Exception {
+
+    cachedExecutor();
+    TDScrollMessageSender sender = new TDScrollMessageSender(5, 2);
+    sender.failScrollId = "s1-1";
+    EQueryEachSliced<Customer> each = sliced(sender, options(2, 1));
+
+    List<Long> ids = new ArrayList<Long>();
+    IOException error = null;
+    try {
+      each.consumeWhile(collect(ids));
+    } catch (IOException e) {
+      error = e;
+    } finally {
+      each.clearScrollIds();
+    }
+
+    assertThat(error).isNotNull();
+    assertThat(error.getMessage()).contains("s1-1");
+    assertThat(ids).doesNotContain(id(1, 4));
+    assertThat(sender.cleared).contains("s0-0", "s1-0", "s1-1");
+  }
+
+  @Test(timeOut = 10000)
+  public void consumeWhile_when_singleThreadExecutor_expect_slicesNotStartedRunOnOwnThread() throws Exception {
+
+    TDScrollMessageSender sender = new TDScrollMessageSender(3, 2);
+    EQueryEachSliced<Customer> each = sliced(sender, options(2, 1));
+
+    List<Long> ids = new ArrayList<Long>();
+    each.consumeWhile(collect(ids));
+
+    // a page from each slice in turn
+    assertThat(ids).containsExactly(id(0, 0), id(0, 1), id(1, 0), id(1, 1), id(0, 2), id(0, 3),
+        id(1, 2), id(1, 3), id(0, 4), id(0, 5), id(1, 4), id(1, 5));
+  }
+
+  @Test(timeOut = 10000)
+  public void consumeWhile_when_singleThreadExecutorAndConcurrent_expect_allSlicesConsumed() throws Exception {
+
+    TDScrollMessageSender sender = new TDScrollMessageSender(3, 2);
+    EQueryEachSliced<Customer> each = sliced(sender, options(2, 1).sliceConcurrent(true));
+
+    List<Long> ids = Collections.synchronizedList(new ArrayList<Long>());
+    each.consumeWhile(collect(ids));
+
+    assertThat(ids).hasSize(12);
+    assertThat(ids).contains(id(0, 5), id(1, 5));
+  }
+
+  @Test(timeOut = 10000)
+  public void consumeWhile_when_executorRejects_expect_slicesRunOnOwnThread() throws Exception {
+
+    executor.shutdown();
+    TDScrollMessageSender sender = new TDScrollMessageSender(2, 2);
+    EQueryEachSliced<Customer> each = sliced(sender, options(2, 1));
+
+    List<Long> ids = new ArrayList<Long>();
+    each.consumeWhile(collect(ids));
+
+    assertThat(ids).hasSize(8);
+  }
+}
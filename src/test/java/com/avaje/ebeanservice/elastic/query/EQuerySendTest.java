@@ -0,0 +1,40 @@
+package com.avaje.ebeanservice.elastic.query;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EQuerySendTest {
+
+  @Test
+  public void sliceJson() {
+
+    String json = "{\"size\":100,\"query\":{\"match_all\":{}}}";
+    assertThat(EQuerySend.sliceJson(json, 1, 4))
+        .isEqualTo("{\"slice\":{\"id\":1,\"max\":4},\"size\":100,\"query\":{\"match_all\":{}}}");
+  }
+
+  @Test
+  public void sliceJson_when_emptyObject() {
+
+    assertThat(EQuerySend.sliceJson("{}", 0, 2)).isEqualTo("{\"slice\":{\"id\":0,\"max\":2}}");
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void sliceJson_when_notObject() {
+
+    EQuerySend.sliceJson("[]", 0, 2);
+  }
+
+  @Test
+  public void searchAfterJson() throws Exception {
+
+    String json = "{\"size\":1000,\"sort\":[{\"_uid\":{\"order\":\"asc\"}}],\"query\":{\"match_all\":{}}}";
+    Object sortValues = Arrays.<Object>asList(42L, "order#42");
+
+    assertThat(EQuerySend.searchAfterJson(json, sortValues))
+        .isEqualTo("{\"search_after\":[42,\"order#42\"],\"size\":1000,\"sort\":[{\"_uid\":{\"order\":\"asc\"}}],\"query\":{\"match_all\":{}}}");
+  }
+}
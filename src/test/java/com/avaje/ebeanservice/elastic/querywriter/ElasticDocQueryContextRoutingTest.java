@@ -0,0 +1,116 @@
+package com.avaje.ebeanservice.elastic.querywriter;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Query;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import org.example.domain.Customer;
+import org.example.domain.TenantNote;
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ElasticDocQueryContextRoutingTest {
+
+  private String routing(Query<?> query) {
+    ElasticJsonContext context = new ElasticJsonContext(Ebean.json());
+    return ElasticDocQueryContext.queryJson(context, (SpiQuery<?>) query).getRouting();
+  }
+
+  @Test
+  public void routing_when_eq_expect_extracted() {
+
+    Query<TenantNote> query = Ebean.find(TenantNote.class)
+        .where().eq("tenantId", 42L)
+        .query();
+
+    assertThat(routing(query)).isEqualTo("42");
+  }
+
+  @Test
+  public void routing_when_in_expect_extracted() {
+
+    Query<TenantNote> query = Ebean.find(TenantNote.class)
+        .where().in("tenantId", 1L, 2L)
+        .query();
+
+    assertThat(routing(query)).isEqualTo("1,2");
+  }
+
+  @Test
+  public void routing_when_eqUnderMust_expect_extracted() {
+
+    Query<TenantNote> query = Ebean.find(TenantNote.class)
+        .where()
+        .must()
+          .eq("tenantId", 7L)
+          .eq("title", "a")
+        .endJunction()
+        .query();
+
+    assertThat(routing(query)).isEqualTo("7");
+  }
+
+  @Test
+  public void routing_when_eqUnderShould_expect_ignored() {
+
+    Query<TenantNote> query = Ebean.find(TenantNote.class)
+        .where()
+        .should()
+          .eq("tenantId", 7L)
+          .eq("title", "a")
+        .endJunction()
+        .query();
+
+    assertThat(routing(query)).isNull();
+  }
+
+  @Test
+  public void routing_when_eqUnderOr_expect_ignored() {
+
+    Query<TenantNote> query = Ebean.find(TenantNote.class)
+        .where()
+        .or()
+          .eq("tenantId", 7L)
+          .eq("title", "a")
+        .endJunction()
+        .query();
+
+    assertThat(routing(query)).isNull();
+  }
+
+  @Test
+  public void routing_when_inUnderMustNot_expect_ignored() {
+
+    Query<TenantNote> query = Ebean.find(TenantNote.class)
+        .where()
+        .mustNot()
+          .in("tenantId", 1L, 2L)
+        .endJunction()
+        .query();
+
+    assertThat(routing(query)).isNull();
+  }
+
+  @Test
+  public void routing_when_eqUnderNot_expect_ignored() {
+
+    Query<TenantNote> query = Ebean.find(TenantNote.class)
+        .where()
+        .not()
+          .eq("tenantId", 7L)
+        .endJunction()
+        .query();
+
+    assertThat(routing(query)).isNull();
+  }
+
+  @Test
+  public void routing_when_typeNotRouted_expect_null() {
+
+    Query<Customer> query = Ebean.find(Customer.class)
+        .where().eq("id", 42L)
+        .query();
+
+    assertThat(routing(query)).isNull();
+  }
+}
@@ -0,0 +1,135 @@
+package com.avaje.ebeanservice.elastic.search.rawsource;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.QueryEachConsumer;
+import com.avaje.ebean.plugin.BeanDocType;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import com.avaje.ebeanservice.elastic.ScrollOptions;
+import com.avaje.ebeanservice.elastic.query.EQuerySend;
+import com.avaje.ebeanservice.elastic.testdoubles.TDScrollMessageSender;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.example.domain.Customer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.avaje.ebeanservice.elastic.testdoubles.TDScrollMessageSender.id;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RawSourceEachTest {
+
+  private final EbeanServer server = Ebean.getDefaultServer();
+
+  private final BeanDocType docType = server.getPluginApi().getBeanType(Customer.class).docStore();
+
+  private ExecutorService executor;
+
+  @BeforeMethod
+  public void createExecutor() {
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @AfterMethod
+  public void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  private RawSourceEach each(TDScrollMessageSender sender, int prefetch) {
+    EQuerySend send = new EQuerySend(server.json(), new JsonFactory(), sender);
+    ScrollOptions options = new ScrollOptions().keepAlive("1m").pageSize(2).prefetch(prefetch);
+    return new RawSourceEach(send, executor, options);
+  }
+
+  private SpiQuery<Customer> query() {
+    return (SpiQuery<Customer>) server.find(Customer.class);
+  }
+
+  private QueryEachConsumer<RawSource> collect(final List<String> ids) {
+    return new QueryEachConsumer<RawSource>() {
+      @Override
+      public void accept(RawSource bean) {
+        ids.add(bean.getId());
+      }
+    };
+  }
+
+  @Test(timeOut = 10000)
+  public void consumeNext_when_prefetch_expect_pagesInOrder() throws Exception {
+
+    TDScrollMessageSender sender = new TDScrollMessageSender(4, 2);
+    RawSourceEach each = each(sender, 2);
+
+    List<String> ids = new ArrayList<String>();
+    try {
+      if (each.consumeInitial(collect(ids), docType, query())) {
+        while (each.consumeNext(collect(ids))) {
+          // continue
+        }
+      }
+    } finally {
+      each.clearScrollIds();
+    }
+
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < 8; i++) {
+      expected.add(String.valueOf(id(0, i)));
+    }
+    assertThat(ids).isEqualTo(expected);
+    assertThat(each.getTotalCount()).isEqualTo(8);
+    assertThat(sender.cleared).contains("s0-0", "s0-3");
+  }
+
+  @Test(timeOut = 10000)
+  public void clearScrollIds_when_stoppedEarly_expect_prefetchStoppedAndScrollIdsCleared() throws Exception {
+
+    TDScrollMessageSender sender = new TDScrollMessageSender(50, 2);
+    RawSourceEach each = each(sender, 1);
+
+    List<String> ids = new ArrayList<String>();
+    assertThat(each.consumeInitial(collect(ids), docType, query())).isTrue();
+    each.clearScrollIds();
+
+    assertThat(ids).hasSize(2);
+    // the prefetch stopped reading ahead of the consumer
+    assertThat(sender.requested).doesNotContain("s0-40");
+    // all the scroll ids returned (initial and prefetched) are cleared
+    assertThat(sender.cleared).contains("s0-0");
+    for (String scrollId : sender.requested) {
+      assertThat(sender.cleared).contains(scrollId);
+    }
+  }
+
+  @Test(timeOut = 10000)
+  public void consumeNext_when_prefetchFails_expect_errorPropagated() throws Exception {
+
+    TDScrollMessageSender sender = new TDScrollMessageSender(5, 2);
+    sender.failScrollId = "s0-1";
+    RawSourceEach each = each(sender, 2);
+
+    List<String> ids = new ArrayList<String>();
+    IOException error = null;
+    try {
+      each.consumeInitial(collect(ids), docType, query());
+      while (each.consumeNext(collect(ids))) {
+        // continue
+      }
+    } catch (IOException e) {
+      error = e;
+    } finally {
+      each.clearScrollIds();
+    }
+
+    assertThat(error).isNotNull();
+    assertThat(error.getMessage()).contains("s0-1");
+    // the pages read before the failure are consumed
+    assertThat(ids).hasSize(4);
+    assertThat(sender.cleared).contains("s0-0", "s0-1");
+  }
+}
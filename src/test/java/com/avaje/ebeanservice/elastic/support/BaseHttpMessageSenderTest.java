@@ -0,0 +1,122 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BaseHttpMessageSenderTest {
+
+  private static final String SEARCH_RESPONSE = "{\"took\":1,\"hits\":{\"total\":0,\"hits\":[]}}";
+
+  private HttpServer server;
+
+  private String url;
+
+  private volatile String lastQuery;
+
+  @BeforeMethod
+  public void startServer() throws IOException {
+
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+    server.createContext("/order/order/_search", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        lastQuery = exchange.getRequestURI().getRawQuery();
+        byte[] body = SEARCH_RESPONSE.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+      }
+    });
+    server.start();
+  }
+
+  @AfterMethod
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void postQueryAsync() throws Exception {
+
+    BaseHttpMessageSender sender = new BaseHttpMessageSender(url);
+
+    IndexMessageResponse response = sender.postQueryAsync("order", "order", "{}").get(10, TimeUnit.SECONDS);
+    assertThat(response.getCode()).isEqualTo(200);
+    assertThat(response.getBody()).isEqualTo(SEARCH_RESPONSE);
+  }
+
+  @Test
+  public void postQueryAsync_when_nodeDown_expect_failoverToLiveNode() throws Exception {
+
+    HttpNodes nodes = new HttpNodes(Arrays.asList(deadUrl(), url), 60_000, 120_000);
+    BaseHttpMessageSender sender = new BaseHttpMessageSender(nodes);
+
+    for (int i = 0; i < 2; i++) {
+      IndexMessageResponse response = sender.postQueryAsync("order", "order", "{}").get(10, TimeUnit.SECONDS);
+      assertThat(response.getCode()).isEqualTo(200);
+      response.close();
+    }
+  }
+
+  @Test(expectedExceptions = IOException.class)
+  public void postQueryAsync_when_allNodesDown_expect_failed() throws Throwable {
+
+    BaseHttpMessageSender sender = new BaseHttpMessageSender(deadUrl());
+    try {
+      sender.postQueryAsync("order", "order", "{}").get(10, TimeUnit.SECONDS);
+    } catch (ExecutionException e) {
+      throw e.getCause();
+    }
+  }
+
+  @Test
+  public void postQuery_when_routing_expect_routingParameter() throws Exception {
+
+    BaseHttpMessageSender sender = new BaseHttpMessageSender(url);
+
+    IndexMessageResponse response = sender.postQuery(false, "order", "order", "42,43", "{}");
+    assertThat(response.getCode()).isEqualTo(200);
+    response.close();
+    assertThat(lastQuery).isEqualTo("routing=42%2C43");
+
+    response = sender.postQuery(false, "order", "order", "{}");
+    response.close();
+    assertThat(lastQuery).isNull();
+  }
+
+  @Test
+  public void routingPath() throws Exception {
+
+    assertThat(BaseHttpMessageSender.routingPath("order/order/_search", null)).isEqualTo("order/order/_search");
+    assertThat(BaseHttpMessageSender.routingPath("order/order/_search", "a b")).isEqualTo("order/order/_search?routing=a+b");
+    assertThat(BaseHttpMessageSender.routingPath("order/order/_search?scroll=1m", "7")).isEqualTo("order/order/_search?scroll=1m&routing=7");
+  }
+
+  /**
+   * Return a URL for a port that nothing is listening on.
+   */
+  private String deadUrl() throws IOException {
+    ServerSocket socket = new ServerSocket(0);
+    int port = socket.getLocalPort();
+    socket.close();
+    return "http://127.0.0.1:" + port + "/";
+  }
+}
@@ -0,0 +1,146 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.EbeanServer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BaseIndexQueueReaderTest {
+
+  private static final String TABLE = "eb_elastic_queue_rtest";
+
+  private final EbeanServer server = Ebean.getDefaultServer();
+
+  @BeforeMethod
+  public void createTable() {
+    server.createSqlUpdate("create table if not exists " + TABLE + " (id bigint auto_increment primary key, "
+        + "queue_id varchar(100), doc_id varchar(100), action integer, path varchar(255), processing integer, when_queued timestamp)")
+        .execute();
+    server.createSqlUpdate("delete from " + TABLE).execute();
+  }
+
+  private void queue(int count) {
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+    for (int i = 1; i <= count; i++) {
+      entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.INDEX, "customer", null, i));
+    }
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.NESTED, "order", "customer.id", 2));
+    new BaseIndexQueueWriter(server, TABLE).queue(entries);
+  }
+
+  private int queueSize() {
+    return server.createSqlQuery("select count(*) as total from " + TABLE).findUnique().getInteger("total");
+  }
+
+  @Test
+  public void drain_expect_batchesProcessedAndDeleted() {
+
+    queue(4);
+
+    TestReader reader = new TestReader(2, false);
+    assertThat(reader.drain()).isEqualTo(5);
+
+    assertThat(reader.batches).hasSize(3);
+    assertThat(reader.batches.get(0)).hasSize(2);
+    DocStoreQueueEntry first = reader.batches.get(0).get(0);
+    assertThat(first.getType()).isEqualTo(DocStoreQueueEntry.Action.INDEX);
+    assertThat(first.getQueueId()).isEqualTo("customer");
+    assertThat(first.getBeanId()).isEqualTo("1");
+
+    DocStoreQueueEntry nested = reader.batches.get(2).get(0);
+    assertThat(nested.getType()).isEqualTo(DocStoreQueueEntry.Action.NESTED);
+    assertThat(nested.getPath()).isEqualTo("customer.id");
+
+    assertThat(queueSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void process_when_failed_expect_entriesRemainQueued() {
+
+    queue(2);
+
+    TestReader reader = new TestReader(10, true);
+    assertThat(reader.process()).isEqualTo(-1);
+    assertThat(reader.drain()).isEqualTo(0);
+    assertThat(queueSize()).isEqualTo(3);
+  }
+
+  @Test
+  public void process_when_retryableItemErrors_expect_requeued() {
+
+    queue(2);
+
+    TestReader reader = new TestReader(10, false);
+    reader.retry.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.INDEX, "customer", null, "2"));
+    assertThat(reader.process()).isEqualTo(-1);
+    assertThat(queueSize()).isEqualTo(1);
+
+    reader.retry.clear();
+    assertThat(reader.drain()).isEqualTo(1);
+    DocStoreQueueEntry retried = reader.batches.get(1).get(0);
+    assertThat(retried.getType()).isEqualTo(DocStoreQueueEntry.Action.INDEX);
+    assertThat(retried.getBeanId()).isEqualTo("2");
+    assertThat(queueSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void getObtainSql_expect_skipLockedClaim() {
+
+    // H2 can not skip locked rows so the claim of disjoint batches is asserted on the SQL
+    BaseIndexQueueReader reader = new BaseIndexQueueReader(server, TABLE, null, 10, 1000);
+    assertThat(reader.sqlObtainEntries).isEqualTo("select id, queue_id, doc_id, action, path from " + TABLE
+        + " where processing = 0 order by id limit ? for update skip locked");
+    assertThat(reader.getObtainSql()).isEqualTo(reader.sqlObtainEntries);
+  }
+
+  @Test
+  public void getObtainSql_when_lockClauseOverridden_expect_noLocking() {
+
+    TestReader reader = new TestReader(10, false);
+    assertThat(reader.sqlObtainEntries).isEqualTo("select id, queue_id, doc_id, action, path from " + TABLE
+        + " where processing = 0 order by id limit ?");
+  }
+
+  @Test
+  public void getDeleteSql_expect_idsBound() {
+
+    TestReader reader = new TestReader(10, false);
+    assertThat(reader.getDeleteSql(3)).isEqualTo("delete from " + TABLE + " where id in (?,?,?)");
+  }
+
+  static class TestReader extends BaseIndexQueueReader {
+
+    final List<List<DocStoreQueueEntry>> batches = new ArrayList<List<DocStoreQueueEntry>>();
+
+    final boolean fail;
+
+    final List<DocStoreQueueEntry> retry = new ArrayList<DocStoreQueueEntry>();
+
+    TestReader(int batchSize, boolean fail) {
+      super(Ebean.getDefaultServer(), TABLE, null, batchSize, 1000);
+      this.fail = fail;
+    }
+
+    @Override
+    protected String getLockClause() {
+      // H2 does not support skip locked
+      return "";
+    }
+
+    @Override
+    protected List<DocStoreQueueEntry> processEntries(List<DocStoreQueueEntry> entries) throws IOException {
+      if (fail) {
+        throw new IOException("ElasticSearch unavailable");
+      }
+      batches.add(entries);
+      return new ArrayList<DocStoreQueueEntry>(retry);
+    }
+  }
+}
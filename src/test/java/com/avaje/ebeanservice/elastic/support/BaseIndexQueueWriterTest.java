@@ -0,0 +1,49 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.SqlRow;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BaseIndexQueueWriterTest {
+
+  private static final String TABLE = "eb_elastic_queue_wtest";
+
+  private final EbeanServer server = Ebean.getDefaultServer();
+
+  @BeforeClass
+  public void createTable() {
+    server.createSqlUpdate("create table if not exists " + TABLE + " (id bigint auto_increment primary key, "
+        + "queue_id varchar(100), doc_id varchar(100), action integer, path varchar(255), processing integer, when_queued timestamp)")
+        .execute();
+  }
+
+  @Test
+  public void queue() {
+
+    BaseIndexQueueWriter writer = new BaseIndexQueueWriter(server, TABLE);
+
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.NESTED, "order", "customer.id", 2));
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.NESTED, "order", "details.id", 3));
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.NESTED, "order", "details.product.id", 4));
+
+    writer.queue(entries);
+    writer.queue(Collections.<DocStoreQueueEntry>emptyList());
+
+    List<SqlRow> rows = server.createSqlQuery("select queue_id, doc_id, path, processing from " + TABLE + " order by id").findList();
+    assertThat(rows).hasSize(3);
+    assertThat(rows.get(0).getString("queue_id")).isEqualTo("order");
+    assertThat(rows.get(0).getString("doc_id")).isEqualTo("2");
+    assertThat(rows.get(2).getString("path")).isEqualTo("details.product.id");
+    assertThat(rows.get(2).getInteger("processing")).isEqualTo(BaseIndexQueueWriter.PROCESSING_FALSE);
+  }
+}
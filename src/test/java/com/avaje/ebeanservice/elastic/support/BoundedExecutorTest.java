@@ -0,0 +1,50 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BoundedExecutorTest {
+
+  @Test
+  public void execute_expect_allRun_concurrencyBounded() throws InterruptedException {
+
+    ExecutorService delegate = Executors.newCachedThreadPool();
+    try {
+      BoundedExecutor executor = new BoundedExecutor(delegate, 3);
+
+      final AtomicInteger active = new AtomicInteger();
+      final AtomicInteger maxActive = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(50);
+
+      for (int i = 0; i < 50; i++) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            int current = active.incrementAndGet();
+            maxActive.accumulateAndGet(current, Math::max);
+            try {
+              Thread.sleep(2);
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            active.decrementAndGet();
+            done.countDown();
+          }
+        });
+      }
+
+      assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(maxActive.get()).isLessThanOrEqualTo(3);
+
+    } finally {
+      delegate.shutdownNow();
+    }
+  }
+}
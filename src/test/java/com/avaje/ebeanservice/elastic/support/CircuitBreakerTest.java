@@ -0,0 +1,69 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import org.testng.annotations.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CircuitBreakerTest {
+
+  @Test
+  public void onResult_when_failureRateReached_expect_open() {
+
+    CircuitBreaker breaker = new CircuitBreaker(50, 0, 10, 4, 60_000);
+
+    breaker.onResult(false, 1);
+    breaker.onResult(true, 1);
+    breaker.onResult(false, 1);
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+    breaker.onResult(true, 1);
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+    assertThat(breaker.isOpen()).isTrue();
+    assertThat(breaker.tryAcquire()).isFalse();
+  }
+
+  @Test
+  public void onResult_when_slow_expect_countedAsBad() {
+
+    CircuitBreaker breaker = new CircuitBreaker(100, 500, 2, 2, 60_000);
+
+    breaker.onResult(false, 600);
+    breaker.onResult(false, 500);
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+  }
+
+  @Test
+  public void onResult_when_window_expect_oldOutcomesDropped() {
+
+    CircuitBreaker breaker = new CircuitBreaker(50, 0, 4, 4, 60_000);
+
+    breaker.onResult(true, 1);
+    for (int i = 0; i < 10; i++) {
+      breaker.onResult(false, 1);
+    }
+    breaker.onResult(true, 1);
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+  }
+
+  @Test
+  public void tryAcquire_when_openElapsed_expect_singleTrial() {
+
+    CircuitBreaker breaker = new CircuitBreaker(50, 0, 2, 1, 0);
+    breaker.onResult(true, 1);
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+    // open time elapsed so one trial request
+    assertThat(breaker.tryAcquire()).isTrue();
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+    assertThat(breaker.tryAcquire()).isFalse();
+
+    // trial failed
+    breaker.onResult(true, 1);
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+
+    assertThat(breaker.tryAcquire()).isTrue();
+    breaker.onResult(false, 1);
+    assertThat(breaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    assertThat(breaker.tryAcquire()).isTrue();
+  }
+}
@@ -0,0 +1,40 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.avaje.ebeanservice.elastic.ElasticConfig;
+import com.squareup.okhttp.OkHttpClient;
+import org.testng.annotations.Test;
+
+import java.util.Properties;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DefaultHttpClientFactoryTest {
+
+  @Test
+  public void create_expect_timeoutsPerOperation_sharedPool() {
+
+    Properties properties = new Properties();
+    properties.setProperty("ebean.docstore.elastic.httpConnectTimeoutMillis", "2000");
+    properties.setProperty("ebean.docstore.elastic.httpBulkReadTimeoutMillis", "90000");
+    properties.setProperty("ebean.docstore.elastic.httpSearchReadTimeoutMillis", "5000");
+    properties.setProperty("ebean.docstore.elastic.httpMaxRequestsPerHost", "32");
+
+    ElasticConfig config = new ElasticConfig();
+    config.loadSettings(properties);
+
+    DefaultHttpClientFactory factory = new DefaultHttpClientFactory(config);
+    OkHttpClient bulk = factory.create(HttpOperation.BULK);
+    OkHttpClient search = factory.create(HttpOperation.SEARCH);
+    OkHttpClient admin = factory.create(HttpOperation.ADMIN);
+
+    assertThat(bulk.getConnectTimeout()).isEqualTo(2000);
+    assertThat(bulk.getReadTimeout()).isEqualTo(90000);
+    assertThat(search.getReadTimeout()).isEqualTo(5000);
+    assertThat(admin.getReadTimeout()).isEqualTo(30000);
+    assertThat(admin.getWriteTimeout()).isEqualTo(10000);
+
+    assertThat(bulk.getConnectionPool()).isSameAs(search.getConnectionPool());
+    assertThat(bulk.getDispatcher()).isSameAs(admin.getDispatcher());
+    assertThat(bulk.getDispatcher().getMaxRequestsPerHost()).isEqualTo(32);
+  }
+}
@@ -0,0 +1,56 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.squareup.okhttp.RequestBody;
+import okio.Buffer;
+import okio.GzipSource;
+import okio.Okio;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class GzipRequestBodyTest {
+
+  private static final String BULK = "{\"index\":{\"_index\":\"order\",\"_type\":\"order\",\"_id\":\"1\"}}\n{\"status\":\"NEW\"}\n";
+
+  @Test
+  public void writeTo_expect_gzipCompressed() throws IOException {
+
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      sb.append(BULK);
+    }
+    byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+
+    GzipRequestBody body = new GzipRequestBody(RequestBody.create(BaseHttpMessageSender.JSON, content, 0, content.length), 3);
+    assertEquals(body.contentType(), BaseHttpMessageSender.JSON);
+    assertEquals(body.contentLength(), -1);
+
+    Buffer compressed = new Buffer();
+    body.writeTo(compressed);
+    assertTrue(compressed.size() < content.length / 5);
+
+    assertEquals(gunzip(compressed), sb.toString());
+  }
+
+  @Test
+  public void writeTo_when_writtenTwice_expect_sameContent() throws IOException {
+
+    GzipRequestBody body = new GzipRequestBody(RequestBody.create(BaseHttpMessageSender.JSON, BULK), 1);
+
+    Buffer first = new Buffer();
+    body.writeTo(first);
+    Buffer second = new Buffer();
+    body.writeTo(second);
+
+    assertEquals(gunzip(first), BULK);
+    assertEquals(gunzip(second), BULK);
+  }
+
+  private String gunzip(Buffer compressed) throws IOException {
+    return Okio.buffer(new GzipSource(compressed)).readUtf8();
+  }
+}
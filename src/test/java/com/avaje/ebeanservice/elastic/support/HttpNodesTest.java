@@ -0,0 +1,71 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpNodesTest {
+
+  @Test
+  public void parseUrls() {
+
+    assertThat(HttpNodes.parseUrls("http://a:9200, http://b:9200/,")).containsExactly("http://a:9200/", "http://b:9200/");
+    assertThat(HttpNodes.parseUrls(null)).isEmpty();
+  }
+
+  @Test
+  public void next_roundRobin() {
+
+    HttpNodes nodes = new HttpNodes("http://a:9200,http://b:9200");
+
+    String first = nodes.next().getUrl();
+    String second = nodes.next().getUrl();
+    assertThat(first).isNotEqualTo(second);
+    assertThat(nodes.next().getUrl()).isEqualTo(first);
+  }
+
+  @Test
+  public void markDead_expect_skippedUntilResurrected() {
+
+    HttpNodes nodes = new HttpNodes(Arrays.asList("http://a:9200", "http://b:9200"), 60_000, 120_000);
+
+    HttpNodes.Node dead = nodes.next();
+    nodes.markDead(dead);
+    for (int i = 0; i < 4; i++) {
+      assertThat(nodes.next()).isNotSameAs(dead);
+    }
+
+    nodes.markAlive(dead);
+    assertThat(Arrays.asList(nodes.next(), nodes.next())).contains(dead);
+  }
+
+  @Test
+  public void next_when_allDead_expect_leastDead() {
+
+    HttpNodes nodes = new HttpNodes(Arrays.asList("http://a:9200", "http://b:9200"), 60_000, 120_000);
+
+    HttpNodes.Node first = nodes.next();
+    HttpNodes.Node second = nodes.next();
+    nodes.markDead(first);
+    nodes.markDead(first);
+    nodes.markDead(second);
+
+    assertThat(nodes.next()).isSameAs(second);
+  }
+
+  @Test
+  public void setNodes_expect_stateRetained() {
+
+    HttpNodes nodes = new HttpNodes(Arrays.asList("http://a:9200"), 60_000, 120_000);
+    HttpNodes.Node a = nodes.next();
+    nodes.markDead(a);
+
+    nodes.setNodes(Arrays.asList("http://a:9200/", "http://c:9200"));
+
+    assertThat(nodes.getUrls()).containsExactly("http://a:9200/", "http://c:9200/");
+    assertThat(nodes.next().getUrl()).isEqualTo("http://c:9200/");
+    assertThat(nodes.next().getUrl()).isEqualTo("http://c:9200/");
+  }
+}
@@ -0,0 +1,65 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.avaje.ebeanservice.elastic.search.rawsource.RawSource;
+import com.avaje.ebeanservice.elastic.search.rawsource.RawSourceReader;
+import com.fasterxml.jackson.core.JsonFactory;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class IndexMessageResponseTest {
+
+  private static final String SEARCH_RESPONSE = "{\"took\":3,\"timed_out\":false,\"_scroll_id\":\"s1\"," +
+      "\"hits\":{\"total\":2,\"max_score\":1.0,\"hits\":[" +
+      "{\"_index\":\"order\",\"_type\":\"order\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"status\":\"NEW\"}}," +
+      "{\"_index\":\"order\",\"_type\":\"order\",\"_id\":\"2\",\"_score\":1.0,\"_source\":{\"status\":\"COMPLETE\"}}]}}";
+
+  @Test
+  public void createParser_when_stream_expect_parsedAndClosed() throws IOException {
+
+    TrackingStream stream = new TrackingStream(SEARCH_RESPONSE);
+    IndexMessageResponse response = new IndexMessageResponse(200, stream);
+    assertTrue(response.isStream());
+
+    RawSourceReader reader = new RawSourceReader(response.createParser(new JsonFactory()));
+    List<RawSource> hits = reader.read();
+
+    assertEquals(hits.size(), 2);
+    assertEquals(hits.get(1).getId(), "2");
+    assertEquals(reader.getScrollId(), "s1");
+    assertTrue(reader.allHitsRead());
+    assertTrue(stream.closed);
+  }
+
+  @Test
+  public void getBody_when_stream_expect_readAsString() throws IOException {
+
+    TrackingStream stream = new TrackingStream("{\"error\":\"bad\"}");
+    IndexMessageResponse response = new IndexMessageResponse(400, stream);
+
+    assertEquals(response.getBody(), "{\"error\":\"bad\"}");
+    assertFalse(response.isStream());
+    assertTrue(stream.closed);
+  }
+
+  private static class TrackingStream extends ByteArrayInputStream {
+
+    boolean closed;
+
+    TrackingStream(String content) {
+      super(content.getBytes());
+    }
+
+    @Override
+    public void close() throws IOException {
+      closed = true;
+      super.close();
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NodeSnifferTest {
+
+  private final JsonFactory jsonFactory = new JsonFactory();
+
+  private final AtomicInteger nodesRequests = new AtomicInteger();
+
+  private HttpServer server;
+
+  private String seedUrl;
+
+  @BeforeMethod
+  public void startServer() throws IOException {
+
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    final int port = server.getAddress().getPort();
+    seedUrl = "http://127.0.0.1:" + port + "/";
+
+    server.createContext("/_nodes/http", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        nodesRequests.incrementAndGet();
+        byte[] body = nodesJson(port).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(body);
+        os.close();
+      }
+    });
+    server.start();
+  }
+
+  @AfterMethod
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private static String nodesJson(int port) {
+    return "{\"_nodes\":{\"total\":3,\"successful\":3,\"failed\":0},\"cluster_name\":\"test\",\"nodes\":{" +
+        "\"n1\":{\"name\":\"n1\",\"roles\":[\"master\",\"data\"],\"http\":{\"bound_address\":[\"127.0.0.1:" + port + "\"]," +
+        "\"publish_address\":\"127.0.0.1:" + port + "\",\"max_content_length_in_bytes\":104857600}}," +
+        "\"n2\":{\"name\":\"n2\",\"roles\":[\"data\"],\"http\":{\"publish_address\":\"10.0.0.2:9200\"}}," +
+        "\"n3\":{\"name\":\"n3\",\"roles\":[\"ingest\"]}}}";
+  }
+
+  @Test
+  public void sniff_expect_nodesReplaced() throws IOException {
+
+    HttpNodes nodes = new HttpNodes(Arrays.asList(seedUrl), 60_000, 120_000);
+    NodeSniffer sniffer = new NodeSniffer(new BaseHttpMessageSender(nodes), jsonFactory, 0, 0);
+
+    List<String> urls = sniffer.sniff();
+
+    assertThat(urls).containsExactly(seedUrl, "http://10.0.0.2:9200/");
+    assertThat(nodes.getUrls()).containsExactly(seedUrl, "http://10.0.0.2:9200/");
+  }
+
+  @Test
+  public void start_expect_sniffedAfterNodeFailure() throws InterruptedException {
+
+    HttpNodes nodes = new HttpNodes(Arrays.asList(seedUrl), 60_000, 120_000);
+    NodeSniffer sniffer = new NodeSniffer(new BaseHttpMessageSender(nodes), jsonFactory, 0, 0);
+    sniffer.start();
+    try {
+      awaitRequests(1);
+      assertThat(nodes.size()).isEqualTo(2);
+
+      nodes.markDead(nodes.next());
+      awaitRequests(2);
+
+    } finally {
+      sniffer.shutdown();
+    }
+  }
+
+  private void awaitRequests(int count) throws InterruptedException {
+    long until = System.currentTimeMillis() + 5000;
+    while (nodesRequests.get() < count && System.currentTimeMillis() < until) {
+      Thread.sleep(10);
+    }
+    assertThat(nodesRequests.get()).isGreaterThanOrEqualTo(count);
+    // allow the sniffed nodes to be set
+    Thread.sleep(50);
+  }
+
+  @Test
+  public void toUrl() {
+
+    assertThat(NodeSniffer.toUrl("http", "10.0.0.1:9200")).isEqualTo("http://10.0.0.1:9200/");
+    assertThat(NodeSniffer.toUrl("https", "es1.local/10.0.0.1:9200")).isEqualTo("https://es1.local:9200/");
+    assertThat(NodeSniffer.toUrl("http", "/10.0.0.1:9200")).isEqualTo("http://10.0.0.1:9200/");
+    assertThat(NodeSniffer.toUrl("http", "[::1]:9200")).isEqualTo("http://[::1]:9200/");
+  }
+}
@@ -0,0 +1,88 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.avaje.ebeanservice.elastic.testdoubles.TDIndexMessageSender;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProtectedIndexMessageSenderTest {
+
+  /**
+   * Counts the requests responding with the given status code.
+   */
+  static class CountingSender extends TDIndexMessageSender {
+
+    int code = 200;
+    int calls;
+
+    @Override
+    public String postBulk(String json) throws IOException {
+      calls++;
+      if (code != 200) {
+        throw new HttpStatusException("failed", code, null);
+      }
+      return super.postBulk(json);
+    }
+
+    @Override
+    public IndexMessageResponse postQuery(boolean scroll, String indexType, String indexName, String jsonQuery) throws IOException {
+      calls++;
+      return new IndexMessageResponse(code, "{}");
+    }
+
+    @Override
+    public IndexMessageResponse clearScrollIds(Set<String> scrollIds) throws IOException {
+      calls++;
+      return new IndexMessageResponse(200, "{}");
+    }
+  }
+
+  @Test
+  public void call_when_serverFailures_expect_circuitOpensAndRejects() throws IOException {
+
+    CountingSender delegate = new CountingSender();
+    CircuitBreaker breaker = new CircuitBreaker(50, 0, 2, 2, 60_000);
+    ProtectedIndexMessageSender sender = new ProtectedIndexMessageSender(delegate, breaker, null, null);
+
+    delegate.code = 503;
+    assertThat(sender.postQuery(false, "order", "order", "{}").getCode()).isEqualTo(503);
+    try {
+      sender.postBulk("{}");
+      throw new AssertionError("expected HttpStatusException");
+    } catch (HttpStatusException e) {
+      assertThat(e.getCode()).isEqualTo(503);
+    }
+    assertThat(breaker.isOpen()).isTrue();
+
+    try {
+      sender.postBulk("{}");
+      throw new AssertionError("expected RequestRejectedException");
+    } catch (RequestRejectedException e) {
+      // not sent
+      assertThat(delegate.calls).isEqualTo(2);
+    }
+
+    // scroll contexts are always released
+    sender.clearScrollIds(Collections.singleton("s1"));
+    assertThat(delegate.calls).isEqualTo(3);
+  }
+
+  @Test
+  public void call_when_clientErrors_expect_circuitClosed() throws IOException {
+
+    CountingSender delegate = new CountingSender();
+    CircuitBreaker breaker = new CircuitBreaker(50, 0, 2, 2, 60_000);
+    ProtectedIndexMessageSender sender = new ProtectedIndexMessageSender(delegate, breaker, null, null);
+
+    delegate.code = 400;
+    sender.postQuery(false, "order", "order", "{}");
+    sender.postQuery(false, "order", "order", "{}");
+
+    assertThat(breaker.isOpen()).isFalse();
+    assertThat(delegate.calls).isEqualTo(2);
+  }
+}
@@ -0,0 +1,153 @@
+package com.avaje.ebeanservice.elastic.support;
+
+import com.avaje.ebeanservice.elastic.testdoubles.TDIndexMessageSender;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RetryingIndexMessageSenderTest {
+
+  private final RetryPolicy policy = new RetryPolicy(3, 1, 5, 10_000);
+
+  /**
+   * Fails the first <code>failures</code> requests.
+   */
+  static class FailingSender extends TDIndexMessageSender {
+
+    int failures;
+    int code = 429;
+    int calls;
+
+    FailingSender(int failures) {
+      this.failures = failures;
+    }
+
+    @Override
+    public String postBulk(String json) throws IOException {
+      if (calls++ < failures) {
+        throw new HttpStatusException("rejected", code, null);
+      }
+      return super.postBulk(json);
+    }
+
+    @Override
+    public IndexMessageResponse postQuery(boolean scroll, String indexType, String indexName, String jsonQuery) throws IOException {
+      return new IndexMessageResponse((calls++ < failures) ? 503 : 200, "{}");
+    }
+
+    @Override
+    public IndexMessageResponse getScroll(String scrollId) throws IOException {
+      return new IndexMessageResponse((calls++ < failures) ? 503 : 200, "{}");
+    }
+
+    @Override
+    public IndexMessageResponse postUpdateQuery(String indexType, String indexName, String jsonQuery) throws IOException {
+      calls++;
+      throw new IOException("connection reset");
+    }
+  }
+
+  @Test
+  public void postBulk_when_rejectedThenOk_expect_retried() throws IOException {
+
+    FailingSender delegate = new FailingSender(2);
+    RetryingIndexMessageSender sender = new RetryingIndexMessageSender(delegate, policy);
+
+    assertThat(sender.postBulk("{}")).isEqualTo(delegate.response);
+    assertThat(delegate.calls).isEqualTo(3);
+  }
+
+  @Test
+  public void postBulk_when_rejectedBeyondMaxRetries_expect_thrown() {
+
+    FailingSender delegate = new FailingSender(10);
+    RetryingIndexMessageSender sender = new RetryingIndexMessageSender(delegate, policy);
+
+    try {
+      sender.postBulk("{}");
+      throw new AssertionError("expected HttpStatusException");
+    } catch (HttpStatusException e) {
+      assertThat(e.getCode()).isEqualTo(429);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    assertThat(delegate.calls).isEqualTo(4);
+  }
+
+  @Test
+  public void postBulk_when_notRetryableCode_expect_notRetried() {
+
+    FailingSender delegate = new FailingSender(1);
+    delegate.code = 400;
+    RetryingIndexMessageSender sender = new RetryingIndexMessageSender(delegate, policy);
+
+    try {
+      sender.postBulk("{}");
+      throw new AssertionError("expected HttpStatusException");
+    } catch (IOException e) {
+      assertThat(delegate.calls).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void postQuery_when_unavailableThenOk_expect_retried() throws IOException {
+
+    FailingSender delegate = new FailingSender(1);
+    RetryingIndexMessageSender sender = new RetryingIndexMessageSender(delegate, policy);
+
+    assertThat(sender.postQuery(false, "order", "order", "{}").getCode()).isEqualTo(200);
+    assertThat(delegate.calls).isEqualTo(2);
+  }
+
+  @Test
+  public void postUpdateQuery_expect_notRetried() {
+
+    FailingSender delegate = new FailingSender(0);
+    RetryingIndexMessageSender sender = new RetryingIndexMessageSender(delegate, policy);
+
+    try {
+      sender.postUpdateQuery("order", "order", "{}");
+      throw new AssertionError("expected IOException");
+    } catch (IOException e) {
+      assertThat(delegate.calls).isEqualTo(1);
+    }
+  }
+
+  @Test
+  public void getScroll_when_unavailable_expect_notRetried() throws IOException {
+
+    FailingSender delegate = new FailingSender(1);
+    RetryingIndexMessageSender sender = new RetryingIndexMessageSender(delegate, policy);
+
+    assertThat(sender.getScroll("s1", "1m").getCode()).isEqualTo(503);
+    assertThat(delegate.calls).isEqualTo(1);
+  }
+
+  @Test
+  public void delayMillis() {
+
+    RetryPolicy policy = new RetryPolicy(5, 100, 1000, 2000);
+
+    for (int attempt = 0; attempt < 5; attempt++) {
+      long max = Math.min(100L << attempt, 1000);
+      assertThat(policy.delayMillis(attempt, 0, null)).isBetween(0L, max);
+    }
+    assertThat(policy.delayMillis(5, 0, null)).isEqualTo(-1);
+    assertThat(policy.delayMillis(0, 0, "1")).isEqualTo(1000);
+    // exceeds max total time
+    assertThat(policy.delayMillis(0, 1500, "1")).isEqualTo(-1);
+  }
+
+  @Test
+  public void retryAfterMillis() {
+
+    long now = 1_000_000_000_000L;
+    assertThat(RetryPolicy.retryAfterMillis(null, now)).isEqualTo(-1);
+    assertThat(RetryPolicy.retryAfterMillis(" 2 ", now)).isEqualTo(2000);
+    assertThat(RetryPolicy.retryAfterMillis("junk", now)).isEqualTo(-1);
+    // Sun, 09 Sep 2001 01:46:40 GMT is 1_000_000_000_000 millis
+    assertThat(RetryPolicy.retryAfterMillis("Sun, 09 Sep 2001 01:46:45 GMT", now)).isEqualTo(5000);
+  }
+}
@@ -2,18 +2,19 @@ package com.avaje.ebeanservice.elastic.testdoubles;
 
 import com.avaje.ebean.config.JsonConfig;
 import com.avaje.ebeanservice.elastic.bulk.BulkBuffer;
+import com.avaje.ebeanservice.elastic.bulk.BulkResponse;
 import com.avaje.ebeanservice.elastic.bulk.BulkSender;
 import com.fasterxml.jackson.core.JsonFactory;
 
 import java.io.IOException;
-import java.util.Collections;
-import java.util.Map;
 
 public class TDBulkSender extends BulkSender {
 
   public BulkBuffer request;
 
-  public Map<String, Object> response = Collections.emptyMap();
+  public BulkResponse response = BulkResponse.empty();
+
+  public String deleteQuery;
 
   public void resetForTesting() {
     request = null;
@@ -25,9 +26,14 @@ public class TDBulkSender extends BulkSender {
   }
 
   @Override
-  public Map<String, Object> sendBulk(BulkBuffer buffer) throws IOException {
+  public BulkResponse sendBulk(BulkBuffer buffer) throws IOException {
     request = buffer;
     return response;
   }
 
+  @Override
+  public void deleteQuery(String indexName, String indexType, String jsonQuery) throws IOException {
+    deleteQuery = jsonQuery;
+  }
+
 }
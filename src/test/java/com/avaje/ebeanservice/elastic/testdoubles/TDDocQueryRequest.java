@@ -0,0 +1,31 @@
+package com.avaje.ebeanservice.elastic.testdoubles;
+
+import com.avaje.ebean.text.json.JsonReadOptions;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import com.avaje.ebeanservice.docstore.api.DocQueryRequest;
+
+/**
+ * Doc query request for a query that has no secondary queries.
+ */
+public class TDDocQueryRequest<T> implements DocQueryRequest<T> {
+
+  private final SpiQuery<T> query;
+
+  public TDDocQueryRequest(SpiQuery<T> query) {
+    this.query = query;
+  }
+
+  @Override
+  public SpiQuery<T> getQuery() {
+    return query;
+  }
+
+  @Override
+  public JsonReadOptions createJsonReadOptions() {
+    return new JsonReadOptions();
+  }
+
+  @Override
+  public void executeSecondaryQueries(boolean forEach) {
+  }
+}
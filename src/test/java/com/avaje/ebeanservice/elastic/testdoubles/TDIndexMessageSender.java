@@ -37,6 +37,12 @@ public class TDIndexMessageSender implements IndexMessageSender {
     return null;
   }
 
+  @Override
+  public IndexMessageResponse postDeleteQuery(String indexType, String indexName, String jsonQuery) throws IOException {
+    request = jsonQuery;
+    return new IndexMessageResponse(200, "{\"deleted\":0,\"failures\":[]}");
+  }
+
   @Override
   public IndexMessageResponse getScroll(String scrollId) throws IOException {
     return null;
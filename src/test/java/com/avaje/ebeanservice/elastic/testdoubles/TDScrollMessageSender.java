@@ -0,0 +1,96 @@
+package com.avaje.ebeanservice.elastic.testdoubles;
+
+import com.avaje.ebeanservice.elastic.support.IndexMessageResponse;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Scripted scroll responses of customer hits.
+ * <p>
+ * Each slice returns <code>pages</code> pages of <code>pageSize</code> hits followed by an empty
+ * page. The scroll id of a page is <code>s{slice}-{page}</code> and the hit ids are
+ * <code>slice * 1000 + position + 1</code> such that the order of the hits is known.
+ * </p>
+ */
+public class TDScrollMessageSender extends TDIndexMessageSender {
+
+  private static final Pattern SLICE_ID = Pattern.compile("\"slice\":\\{\"id\":(\\d+)");
+
+  private static final Pattern SCROLL_ID = Pattern.compile("s(\\d+)-(\\d+)");
+
+  public final Set<String> requested = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  public final Set<String> cleared = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private final int pages;
+
+  private final int pageSize;
+
+  /**
+   * The scroll id that when continued from fails with an IOException.
+   */
+  public volatile String failScrollId;
+
+  public TDScrollMessageSender(int pages, int pageSize) {
+    this.pages = pages;
+    this.pageSize = pageSize;
+  }
+
+  @Override
+  public IndexMessageResponse postQuery(boolean scroll, String indexType, String indexName, String jsonQuery) throws IOException {
+    Matcher matcher = SLICE_ID.matcher(jsonQuery);
+    int slice = matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+    return page(slice, 0);
+  }
+
+  @Override
+  public IndexMessageResponse getScroll(String scrollId) throws IOException {
+    requested.add(scrollId);
+    if (scrollId.equals(failScrollId)) {
+      throw new IOException("Scroll failed for " + scrollId);
+    }
+    Matcher matcher = SCROLL_ID.matcher(scrollId);
+    if (!matcher.matches()) {
+      return new IndexMessageResponse(404, "{}");
+    }
+    return page(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)) + 1);
+  }
+
+  @Override
+  public IndexMessageResponse clearScrollIds(Set<String> scrollIds) throws IOException {
+    cleared.addAll(new LinkedHashSet<String>(scrollIds));
+    return new IndexMessageResponse(200, "{}");
+  }
+
+  /**
+   * Return the ids of the hits of the slice in order.
+   */
+  public static long id(int slice, int position) {
+    return slice * 1000L + position + 1;
+  }
+
+  private IndexMessageResponse page(int slice, int page) {
+
+    StringBuilder sb = new StringBuilder(200);
+    sb.append("{\"took\":1,\"timed_out\":false,\"_scroll_id\":\"s").append(slice).append("-").append(page).append("\"");
+    sb.append(",\"hits\":{\"total\":").append(pages * pageSize).append(",\"max_score\":1.0,\"hits\":[");
+    if (page < pages) {
+      for (int i = 0; i < pageSize; i++) {
+        if (i > 0) {
+          sb.append(",");
+        }
+        long id = id(slice, page * pageSize + i);
+        sb.append("{\"_index\":\"customer\",\"_type\":\"customer\",\"_id\":\"").append(id)
+            .append("\",\"_score\":1.0,\"_source\":{\"name\":\"c").append(id).append("\"}}");
+      }
+    }
+    sb.append("]}}");
+    return new IndexMessageResponse(200, sb.toString());
+  }
+}
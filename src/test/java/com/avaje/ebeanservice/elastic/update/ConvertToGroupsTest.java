@@ -0,0 +1,79 @@
+package com.avaje.ebeanservice.elastic.update;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConvertToGroupsTest {
+
+  private final List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+
+  private void add(DocStoreQueueEntry.Action action, String queueId, String path, Object id) {
+    entries.add(new DocStoreQueueEntry(action, queueId, path, id));
+  }
+
+  private UpdateGroup single() {
+    Collection<UpdateGroup> groups = ConvertToGroups.groupByQueueId(entries);
+    assertThat(groups).hasSize(1);
+    return groups.iterator().next();
+  }
+
+  @Test
+  public void groupByQueueId_when_indexedRepeatedly_expect_indexedOnce() {
+
+    for (int i = 0; i < 500; i++) {
+      add(DocStoreQueueEntry.Action.INDEX, "customer", null, 1L);
+    }
+    // queued ids read back from the database are strings
+    add(DocStoreQueueEntry.Action.INDEX, "customer", null, "1");
+    add(DocStoreQueueEntry.Action.INDEX, "customer", null, 2L);
+
+    UpdateGroup group = single();
+    assertThat(group.getIndexIds()).containsExactly(1L, 2L);
+    assertThat(group.getDeleteIds()).isEmpty();
+  }
+
+  @Test
+  public void groupByQueueId_when_indexThenDelete_expect_deleteOnly() {
+
+    add(DocStoreQueueEntry.Action.INDEX, "customer", null, 1L);
+    add(DocStoreQueueEntry.Action.DELETE, "customer", null, 1L);
+    add(DocStoreQueueEntry.Action.DELETE, "customer", null, 1L);
+
+    UpdateGroup group = single();
+    assertThat(group.getIndexIds()).isEmpty();
+    assertThat(group.getDeleteIds()).containsExactly(1L);
+  }
+
+  @Test
+  public void groupByQueueId_when_deleteThenIndex_expect_deleteKept() {
+
+    add(DocStoreQueueEntry.Action.DELETE, "customer", null, 1L);
+    add(DocStoreQueueEntry.Action.INDEX, "customer", null, 1L);
+
+    UpdateGroup group = single();
+    assertThat(group.getDeleteIds()).containsExactly(1L);
+    assertThat(group.getIndexIds()).containsExactly(1L);
+  }
+
+  @Test
+  public void groupByQueueId_when_nested_expect_distinctIdsAndReindexedSkipped() {
+
+    add(DocStoreQueueEntry.Action.NESTED, "order", "details.id", 7L);
+    add(DocStoreQueueEntry.Action.NESTED, "order", "details.id", 7L);
+    add(DocStoreQueueEntry.Action.NESTED, "order", "details.id", 8L);
+    add(DocStoreQueueEntry.Action.INDEX, "order", null, 10L);
+    add(DocStoreQueueEntry.Action.DELETE, "order", null, 11L);
+
+    UpdateGroup group = single();
+    assertThat(group.getNestedPathIds().get("details.id").getIds()).containsExactly(7L, 8L);
+    assertThat(group.isIndexOrDelete(10L)).isTrue();
+    assertThat(group.isIndexOrDelete("11")).isTrue();
+    assertThat(group.isIndexOrDelete(12L)).isFalse();
+  }
+}
@@ -0,0 +1,65 @@
+package com.avaje.ebeanservice.elastic.update;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import com.avaje.ebeanservice.elastic.bulk.BulkItemError;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConvertToRetriesTest {
+
+  private final Map<String, String> queueIds = new HashMap<String, String>();
+
+  private final List<BulkItemError> errors = new ArrayList<BulkItemError>();
+
+  private void error(String action, String index, String id, int status) {
+    errors.add(new BulkItemError(errors.size(), action, index, id, status, "type", "reason"));
+  }
+
+  @Test
+  public void retryEntries_expect_onlyRetryableErrorsQueued() {
+
+    queueIds.put("customer", "customer");
+    queueIds.put("order", "order");
+
+    error("index", "customer", "1", 429);
+    error("update", "order", "10", 503);
+    error("delete", "customer", "2", 429);
+    error("index", "customer", "3", 400);
+
+    List<DocStoreQueueEntry> entries = ConvertToRetries.retryEntries(errors, queueIds);
+    assertThat(entries).hasSize(3);
+
+    assertThat(entries.get(0).getType()).isEqualTo(DocStoreQueueEntry.Action.INDEX);
+    assertThat(entries.get(0).getQueueId()).isEqualTo("customer");
+    assertThat(entries.get(0).getBeanId()).isEqualTo("1");
+
+    // an update (from a nested entry) is retried as an index of the document
+    assertThat(entries.get(1).getType()).isEqualTo(DocStoreQueueEntry.Action.INDEX);
+    assertThat(entries.get(1).getQueueId()).isEqualTo("order");
+
+    assertThat(entries.get(2).getType()).isEqualTo(DocStoreQueueEntry.Action.DELETE);
+    assertThat(entries.get(2).getBeanId()).isEqualTo("2");
+  }
+
+  @Test
+  public void retryEntries_when_concreteIndexBehindAlias_expect_matchedByPrefix() {
+
+    queueIds.put("order", "order");
+    queueIds.put("order_detail", "orderDetail");
+
+    error("index", "order_v2", "1", 429);
+    error("index", "order_detail_v2", "2", 429);
+    error("index", "product", "3", 429);
+
+    List<DocStoreQueueEntry> entries = ConvertToRetries.retryEntries(errors, queueIds);
+    assertThat(entries).hasSize(2);
+    assertThat(entries.get(0).getQueueId()).isEqualTo("order");
+    assertThat(entries.get(1).getQueueId()).isEqualTo("orderDetail");
+  }
+}
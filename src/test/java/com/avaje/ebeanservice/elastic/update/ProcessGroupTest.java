@@ -0,0 +1,86 @@
+package com.avaje.ebeanservice.elastic.update;
+
+import com.avaje.ebean.DocStoreQueueEntry;
+import com.avaje.ebean.plugin.BeanType;
+import com.avaje.ebean.plugin.SpiServer;
+import com.avaje.ebeanservice.elastic.bulk.BulkUpdate;
+import com.avaje.ebeanservice.elastic.testdoubles.TDBulkSender;
+import integration.BaseTest;
+import org.example.domain.Customer;
+import org.example.domain.TenantNote;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ProcessGroupTest extends BaseTest {
+
+  private final SpiServer spiServer = server.getPluginApi();
+
+  private final BeanType<Customer> beanType = spiServer.getBeanType(Customer.class);
+
+  private UpdateGroup indexAllCustomers(List<Object> ids) {
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+    for (Object id : ids) {
+      entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.INDEX, "customer", null, id));
+    }
+    return ConvertToGroups.groupByQueueId(entries).iterator().next();
+  }
+
+  @Test
+  public void process_when_chunked_expect_allIndexed() throws Exception {
+
+    List<Object> ids = server.find(Customer.class).findIds();
+    assertThat(ids.size()).isGreaterThan(1);
+
+    BulkUpdate txn = new BulkUpdate(1000, new TDBulkSender());
+    long count = ProcessGroup.process(spiServer, beanType, indexAllCustomers(ids), txn, 1, null, 1);
+    assertThat(count).isEqualTo(ids.size());
+  }
+
+  @Test
+  public void process_when_parallelFetch_expect_allIndexed() throws Exception {
+
+    List<Object> ids = server.find(Customer.class).findIds();
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      BulkUpdate txn = new BulkUpdate(1000, new TDBulkSender());
+      long count = ProcessGroup.process(spiServer, beanType, indexAllCustomers(ids), txn, 1, executor, 2);
+      assertThat(count).isEqualTo(ids.size());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void process_when_routedTypeDeleted_expect_deleteByQueryOnIds() throws Exception {
+
+    List<DocStoreQueueEntry> entries = new ArrayList<DocStoreQueueEntry>();
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.DELETE, "tenantNote", null, 1L));
+    entries.add(new DocStoreQueueEntry(DocStoreQueueEntry.Action.DELETE, "tenantNote", null, 2L));
+    UpdateGroup group = ConvertToGroups.groupByQueueId(entries).iterator().next();
+
+    TDBulkSender sender = new TDBulkSender();
+    BulkUpdate txn = new BulkUpdate(1000, sender);
+    long count = ProcessGroup.process(spiServer, spiServer.getBeanType(TenantNote.class), group, txn);
+    txn.flush();
+
+    assertThat(count).isEqualTo(2);
+    // the routing is not known so not deleted via the Bulk API
+    assertThat(sender.request).isNull();
+    assertThat(sender.deleteQuery).isEqualTo("{\"query\":{\"ids\":{\"values\":[\"1\",\"2\"]}}}");
+  }
+
+  @Test
+  public void idsQuery_expect_idsEscaped() {
+
+    assertThat(ProcessGroup.idsQuery(Arrays.<Object>asList("a\"b", 42L)))
+        .isEqualTo("{\"query\":{\"ids\":{\"values\":[\"a\\\"b\",\"42\"]}}}");
+  }
+}
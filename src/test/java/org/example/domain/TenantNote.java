@@ -0,0 +1,37 @@
+package org.example.domain;
+
+import com.avaje.ebean.annotation.DocStore;
+import com.avaje.ebeanservice.elastic.DocRouting;
+
+import javax.persistence.Entity;
+import javax.validation.constraints.Size;
+
+/**
+ * Document routed by the tenant.
+ */
+@DocStore
+@Entity
+public class TenantNote extends BasicDomain {
+
+  @DocRouting
+  Long tenantId;
+
+  @Size(max = 100)
+  String title;
+
+  public Long getTenantId() {
+    return tenantId;
+  }
+
+  public void setTenantId(Long tenantId) {
+    this.tenantId = tenantId;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public void setTitle(String title) {
+    this.title = title;
+  }
+}